@@ -30,6 +30,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsLinkedHashSet;
+import com.helger.commons.collection.impl.ICommonsOrderedSet;
 import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.commons.debug.GlobalDebug;
 import com.helger.commons.id.factory.GlobalIDFactory;
@@ -39,6 +42,9 @@ import com.helger.config.ConfigFactory;
 import com.helger.config.fallback.ConfigWithFallback;
 import com.helger.config.fallback.IConfigWithFallback;
 import com.helger.config.source.MultiConfigurationValueProvider;
+import com.helger.dcng.api.me.incoming.EMEIncomingQueueFullMode;
+import com.helger.dcng.api.me.outgoing.EMEOutgoingExecutorMode;
+import com.helger.dcng.api.rest.EDcngRestValidationMode;
 import com.helger.peppol.sml.ESML;
 import com.helger.peppol.sml.ISMLInfo;
 import com.helger.peppol.sml.SMLInfo;
@@ -267,6 +273,14 @@ public final class DcngConfig
    */
   public static final class IAL
   {
+    public static final boolean DEFAULT_CACHE_ENABLED = false;
+    public static final int DEFAULT_CACHE_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_CACHE_TTL_SECONDS = 3600;
+    public static final long DEFAULT_CACHE_STALE_SECONDS = 3600;
+    public static final boolean DEFAULT_PREFETCH_ENABLED = false;
+    public static final long DEFAULT_PREFETCH_INTERVAL_SECONDS = 3600;
+    public static final long DEFAULT_PREFETCH_MAX_AGE_SECONDS = 86400;
+
     private IAL ()
     {}
 
@@ -280,6 +294,104 @@ public final class DcngConfig
     {
       return getConfig ().getAsString ("de4a.ial.url");
     }
+
+    /**
+     * @return <code>true</code> if IAL query results should be cached,
+     *         <code>false</code> if not. Defaults to
+     *         {@link #DEFAULT_CACHE_ENABLED}.
+     * @since 0.2.16
+     */
+    public static boolean isCacheEnabled ()
+    {
+      return getConfig ().getAsBoolean ("de4a.ial.cache.enabled", DEFAULT_CACHE_ENABLED);
+    }
+
+    /**
+     * @return The maximum number of cached IAL query results. Defaults to
+     *         {@link #DEFAULT_CACHE_MAX_ENTRIES}.
+     * @since 0.2.16
+     */
+    public static int getCacheMaxEntries ()
+    {
+      return getConfig ().getAsInt ("de4a.ial.cache.max-entries", DEFAULT_CACHE_MAX_ENTRIES);
+    }
+
+    /**
+     * @return The number of seconds an IAL query result is considered fresh.
+     *         Defaults to {@link #DEFAULT_CACHE_TTL_SECONDS}.
+     * @since 0.2.16
+     */
+    public static long getCacheTTLSeconds ()
+    {
+      return getConfig ().getAsLong ("de4a.ial.cache.ttl-seconds", DEFAULT_CACHE_TTL_SECONDS);
+    }
+
+    /**
+     * @return The number of seconds after the time to live, during which a
+     *         stale IAL query result is still returned while it is refreshed
+     *         in the background. Defaults to
+     *         {@link #DEFAULT_CACHE_STALE_SECONDS}.
+     * @since 0.2.16
+     */
+    public static long getCacheStaleSeconds ()
+    {
+      return getConfig ().getAsLong ("de4a.ial.cache.stale-seconds", DEFAULT_CACHE_STALE_SECONDS);
+    }
+
+    /**
+     * @return <code>true</code> if the IAL data of the configured canonical
+     *         object types should be fetched periodically and queries should
+     *         be answered locally, <code>false</code> if not. Defaults to
+     *         {@link #DEFAULT_PREFETCH_ENABLED}.
+     * @since 0.2.16
+     */
+    public static boolean isPrefetchEnabled ()
+    {
+      return getConfig ().getAsBoolean ("de4a.ial.prefetch.enabled", DEFAULT_PREFETCH_ENABLED);
+    }
+
+    /**
+     * @return The canonical object type IDs, for which the IAL data should be
+     *         fetched periodically. Never <code>null</code> but maybe empty.
+     * @since 0.2.16
+     */
+    @Nonnull
+    @ReturnsMutableCopy
+    public static ICommonsOrderedSet <String> getAllPrefetchCOTs ()
+    {
+      final ICommonsOrderedSet <String> ret = new CommonsLinkedHashSet <> ();
+      final String sCOTs = getConfig ().getAsString ("de4a.ial.prefetch.cots");
+      if (StringHelper.hasText (sCOTs))
+        for (final String sCOT : StringHelper.getExploded (',', sCOTs))
+        {
+          final String sTrimmed = sCOT.trim ();
+          if (sTrimmed.length () > 0)
+            ret.add (sTrimmed);
+        }
+      return ret;
+    }
+
+    /**
+     * @return The number of seconds between two fetches of the IAL data.
+     *         Defaults to {@link #DEFAULT_PREFETCH_INTERVAL_SECONDS}.
+     * @since 0.2.16
+     */
+    public static long getPrefetchIntervalSeconds ()
+    {
+      return getConfig ().getAsLong ("de4a.ial.prefetch.interval-seconds", DEFAULT_PREFETCH_INTERVAL_SECONDS);
+    }
+
+    /**
+     * @return The maximum age in seconds of the fetched IAL data. Older data,
+     *         e.g. because fetching failed repeatedly, is not used and all
+     *         queries are forwarded to the IAL. A value &le; 0 means no maximum
+     *         age. Defaults to {@link #DEFAULT_PREFETCH_MAX_AGE_SECONDS}.
+     * @since 0.2.16
+     */
+    public static long getPrefetchMaxAgeSeconds ()
+    {
+      return getConfig ().getAsLong ("de4a.ial.prefetch.max-age-seconds", DEFAULT_PREFETCH_MAX_AGE_SECONDS);
+    }
   }
 
   /**
@@ -290,6 +402,15 @@ public final class DcngConfig
   public static final class SMP
   {
     public static final boolean DEFAULT_USE_SML = true;
+    public static final boolean DEFAULT_CACHE_ENABLED = false;
+    public static final int DEFAULT_CACHE_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_CACHE_TTL_SECONDS = 3600;
+    public static final long DEFAULT_CACHE_NEGATIVE_TTL_SECONDS = 300;
+    public static final int DEFAULT_CACHE_REFRESH_AHEAD_PERCENT = 80;
+    public static final int DEFAULT_HTTP_MAX_PER_ROUTE = 10;
+    public static final int DEFAULT_HTTP_MAX_TOTAL = 50;
+    public static final long DEFAULT_DNS_CACHE_TTL_SECONDS = 300;
+    public static final int DEFAULT_DNS_CACHE_MAX_ENTRIES = 10_000;
     private static ISMLInfo s_aCachedSMLInfo;
 
     private SMP ()
@@ -417,6 +538,103 @@ public final class DcngConfig
       }
       return ret;
     }
+
+    /**
+     * @return <code>true</code> if SMP service metadata lookups should be
+     *         cached, <code>false</code> if not. Defaults to
+     *         {@link #DEFAULT_CACHE_ENABLED}.
+     * @since 0.2.16
+     */
+    public static boolean isCacheEnabled ()
+    {
+      return getConfig ().getAsBoolean ("de4a.smp.cache.enabled", DEFAULT_CACHE_ENABLED);
+    }
+
+    /**
+     * @return The maximum number of cached service metadata lookups. Defaults
+     *         to {@link #DEFAULT_CACHE_MAX_ENTRIES}.
+     * @since 0.2.16
+     */
+    public static int getCacheMaxEntries ()
+    {
+      return getConfig ().getAsInt ("de4a.smp.cache.max-entries", DEFAULT_CACHE_MAX_ENTRIES);
+    }
+
+    /**
+     * @return The maximum number of seconds a found service metadata is
+     *         cached. An earlier endpoint or certificate expiration takes
+     *         precedence. Defaults to {@link #DEFAULT_CACHE_TTL_SECONDS}.
+     * @since 0.2.16
+     */
+    public static long getCacheTTLSeconds ()
+    {
+      return getConfig ().getAsLong ("de4a.smp.cache.ttl-seconds", DEFAULT_CACHE_TTL_SECONDS);
+    }
+
+    /**
+     * @return The number of seconds a "not found" result is cached. Use 0 to
+     *         disable negative caching. Defaults to
+     *         {@link #DEFAULT_CACHE_NEGATIVE_TTL_SECONDS}.
+     * @since 0.2.16
+     */
+    public static long getCacheNegativeTTLSeconds ()
+    {
+      return getConfig ().getAsLong ("de4a.smp.cache.negative-ttl-seconds", DEFAULT_CACHE_NEGATIVE_TTL_SECONDS);
+    }
+
+    /**
+     * @return The percentage of the time to live, after which a cached entry
+     *         is refreshed in the background on access. Use 100 to disable
+     *         refresh-ahead. Defaults to
+     *         {@link #DEFAULT_CACHE_REFRESH_AHEAD_PERCENT}.
+     * @since 0.2.16
+     */
+    public static int getCacheRefreshAheadPercent ()
+    {
+      return getConfig ().getAsInt ("de4a.smp.cache.refresh-ahead-percent", DEFAULT_CACHE_REFRESH_AHEAD_PERCENT);
+    }
+
+    /**
+     * @return The maximum number of pooled connections per SMP. Defaults to
+     *         {@link #DEFAULT_HTTP_MAX_PER_ROUTE}.
+     * @since 0.2.16
+     */
+    public static int getHttpMaxPerRoute ()
+    {
+      return getConfig ().getAsInt ("de4a.smp.http.max-per-route", DEFAULT_HTTP_MAX_PER_ROUTE);
+    }
+
+    /**
+     * @return The maximum number of pooled connections to all SMPs. Defaults
+     *         to {@link #DEFAULT_HTTP_MAX_TOTAL}.
+     * @since 0.2.16
+     */
+    public static int getHttpMaxTotal ()
+    {
+      return getConfig ().getAsInt ("de4a.smp.http.max-total", DEFAULT_HTTP_MAX_TOTAL);
+    }
+
+    /**
+     * @return The number of seconds the BDXL DNS resolution of a participant
+     *         is cached. Use 0 to disable caching. Defaults to
+     *         {@link #DEFAULT_DNS_CACHE_TTL_SECONDS}.
+     * @since 0.2.16
+     */
+    public static long getDNSCacheTTLSeconds ()
+    {
+      return getConfig ().getAsLong ("de4a.smp.dns.cache-ttl-seconds", DEFAULT_DNS_CACHE_TTL_SECONDS);
+    }
+
+    /**
+     * @return The maximum number of participants for which the BDXL DNS
+     *         resolution is cached. The least recently used entries are
+     *         evicted first. Defaults to {@link #DEFAULT_DNS_CACHE_MAX_ENTRIES}.
+     * @since 0.2.16
+     */
+    public static int getDNSCacheMaxEntries ()
+    {
+      return getConfig ().getAsInt ("de4a.smp.dns.cache-max-entries", DEFAULT_DNS_CACHE_MAX_ENTRIES);
+    }
   }
 
   /**
@@ -426,6 +644,26 @@ public final class DcngConfig
    */
   public static final class ME
   {
+    public static final int DEFAULT_INCOMING_HTTP_MAX_PER_ROUTE = 20;
+    public static final int DEFAULT_INCOMING_HTTP_MAX_TOTAL = 100;
+    public static final long DEFAULT_INCOMING_HTTP_KEEP_ALIVE_SECONDS = 60;
+    public static final long DEFAULT_INCOMING_HTTP_IDLE_EVICTION_SECONDS = 30;
+    public static final boolean DEFAULT_INCOMING_ASYNC_ENABLED = false;
+    public static final int DEFAULT_INCOMING_ASYNC_THREADS = 4;
+    public static final int DEFAULT_INCOMING_ASYNC_QUEUE_CAPACITY = 1000;
+    public static final boolean DEFAULT_INCOMING_OUTBOX_ENABLED = false;
+    public static final long DEFAULT_INCOMING_OUTBOX_SEGMENT_SIZE = 64L * 1024 * 1024;
+    public static final long DEFAULT_INCOMING_OUTBOX_RETRY_INITIAL_SECONDS = 10;
+    public static final long DEFAULT_INCOMING_OUTBOX_RETRY_MAX_SECONDS = 3600;
+    public static final long DEFAULT_PAYLOAD_SPILL_THRESHOLD = 10L * 1024 * 1024;
+    public static final boolean DEFAULT_REGREP_FORMATTED_OUTPUT = false;
+    public static final int DEFAULT_OUTGOING_PARALLEL_THREADS = 8;
+    public static final int DEFAULT_OUTGOING_PARALLEL_QUEUE_CAPACITY = 100;
+    public static final int DEFAULT_OUTGOING_VIRTUAL_MAX_CONCURRENCY = 256;
+    public static final long DEFAULT_OUTGOING_ASYNC_RETENTION_SECONDS = 3600;
+    public static final int DEFAULT_OUTGOING_ASYNC_CALLBACK_HTTP_MAX_PER_ROUTE = 5;
+    public static final int DEFAULT_OUTGOING_ASYNC_CALLBACK_HTTP_MAX_TOTAL = 20;
+
     private ME ()
     {}
 
@@ -448,6 +686,263 @@ public final class DcngConfig
     {
       return getConfig ().getAsString ("de4a.me.incoming.url");
     }
+
+    /**
+     * @return The maximum number of pooled HTTP connections per route used for
+     *         forwarding incoming messages to the DC/DP. Defaults to
+     *         {@link #DEFAULT_INCOMING_HTTP_MAX_PER_ROUTE}.
+     * @since 0.2.16
+     */
+    public static int getMEMIncomingHttpMaxPerRoute ()
+    {
+      return getConfig ().getAsInt ("de4a.me.incoming.http.max-per-route", DEFAULT_INCOMING_HTTP_MAX_PER_ROUTE);
+    }
+
+    /**
+     * @return The maximum number of pooled HTTP connections in total used for
+     *         forwarding incoming messages to the DC/DP. Defaults to
+     *         {@link #DEFAULT_INCOMING_HTTP_MAX_TOTAL}.
+     * @since 0.2.16
+     */
+    public static int getMEMIncomingHttpMaxTotal ()
+    {
+      return getConfig ().getAsInt ("de4a.me.incoming.http.max-total", DEFAULT_INCOMING_HTTP_MAX_TOTAL);
+    }
+
+    /**
+     * @return The maximum number of seconds a pooled connection to the DC/DP is
+     *         kept alive, if the server does not send a shorter keep-alive
+     *         value. Defaults to {@link #DEFAULT_INCOMING_HTTP_KEEP_ALIVE_SECONDS}.
+     * @since 0.2.16
+     */
+    public static long getMEMIncomingHttpKeepAliveSeconds ()
+    {
+      return getConfig ().getAsLong ("de4a.me.incoming.http.keep-alive-seconds", DEFAULT_INCOMING_HTTP_KEEP_ALIVE_SECONDS);
+    }
+
+    /**
+     * @return The number of seconds after which idle pooled connections to the
+     *         DC/DP are evicted from the pool. Defaults to
+     *         {@link #DEFAULT_INCOMING_HTTP_IDLE_EVICTION_SECONDS}.
+     * @since 0.2.16
+     */
+    public static long getMEMIncomingHttpIdleEvictionSeconds ()
+    {
+      return getConfig ().getAsLong ("de4a.me.incoming.http.idle-eviction-seconds",
+                                     DEFAULT_INCOMING_HTTP_IDLE_EVICTION_SECONDS);
+    }
+
+    /**
+     * @return <code>true</code> if incoming messages should be queued and
+     *         handed over to the incoming handler asynchronously,
+     *         <code>false</code> if the incoming handler is invoked
+     *         synchronously. Defaults to
+     *         {@link #DEFAULT_INCOMING_ASYNC_ENABLED}.
+     * @since 0.2.16
+     */
+    public static boolean isMEMIncomingAsyncEnabled ()
+    {
+      return getConfig ().getAsBoolean ("de4a.me.incoming.async.enabled", DEFAULT_INCOMING_ASYNC_ENABLED);
+    }
+
+    /**
+     * @return The number of worker threads that hand over queued incoming
+     *         messages. Defaults to {@link #DEFAULT_INCOMING_ASYNC_THREADS}.
+     * @since 0.2.16
+     */
+    public static int getMEMIncomingAsyncThreads ()
+    {
+      return getConfig ().getAsInt ("de4a.me.incoming.async.threads", DEFAULT_INCOMING_ASYNC_THREADS);
+    }
+
+    /**
+     * @return The maximum number of incoming messages that may be queued.
+     *         Defaults to {@link #DEFAULT_INCOMING_ASYNC_QUEUE_CAPACITY}.
+     * @since 0.2.16
+     */
+    public static int getMEMIncomingAsyncQueueCapacity ()
+    {
+      return getConfig ().getAsInt ("de4a.me.incoming.async.queue-capacity", DEFAULT_INCOMING_ASYNC_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @return What to do if the incoming queue is full. Defaults to
+     *         {@link EMEIncomingQueueFullMode#DEFAULT}.
+     * @since 0.2.16
+     */
+    @Nonnull
+    public static EMEIncomingQueueFullMode getMEMIncomingAsyncQueueFullMode ()
+    {
+      final String sMode = getConfig ().getAsString ("de4a.me.incoming.async.queue-full-mode");
+      return EMEIncomingQueueFullMode.getFromIDOrDefault (sMode, EMEIncomingQueueFullMode.DEFAULT);
+    }
+
+    /**
+     * @return <code>true</code> if messages forwarded to the DC/DP should be
+     *         stored in a persistent outbox before sending, so that failed
+     *         deliveries are retried. Defaults to
+     *         {@link #DEFAULT_INCOMING_OUTBOX_ENABLED}.
+     * @since 0.2.16
+     */
+    public static boolean isMEMIncomingOutboxEnabled ()
+    {
+      return getConfig ().getAsBoolean ("de4a.me.incoming.outbox.enabled", DEFAULT_INCOMING_OUTBOX_ENABLED);
+    }
+
+    /**
+     * @return The size in bytes after which a new outbox journal segment is
+     *         started. Defaults to {@link #DEFAULT_INCOMING_OUTBOX_SEGMENT_SIZE}.
+     * @since 0.2.16
+     */
+    public static long getMEMIncomingOutboxSegmentSize ()
+    {
+      return getConfig ().getAsLong ("de4a.me.incoming.outbox.segment-size", DEFAULT_INCOMING_OUTBOX_SEGMENT_SIZE);
+    }
+
+    /**
+     * @return The number of seconds to wait after the first failed delivery
+     *         attempt. The delay is doubled with each further failed attempt.
+     *         Defaults to {@link #DEFAULT_INCOMING_OUTBOX_RETRY_INITIAL_SECONDS}.
+     * @since 0.2.16
+     */
+    public static long getMEMIncomingOutboxRetryInitialSeconds ()
+    {
+      return getConfig ().getAsLong ("de4a.me.incoming.outbox.retry.initial-seconds",
+                                     DEFAULT_INCOMING_OUTBOX_RETRY_INITIAL_SECONDS);
+    }
+
+    /**
+     * @return The maximum number of seconds between two delivery attempts.
+     *         Defaults to {@link #DEFAULT_INCOMING_OUTBOX_RETRY_MAX_SECONDS}.
+     * @since 0.2.16
+     */
+    public static long getMEMIncomingOutboxRetryMaxSeconds ()
+    {
+      return getConfig ().getAsLong ("de4a.me.incoming.outbox.retry.max-seconds",
+                                     DEFAULT_INCOMING_OUTBOX_RETRY_MAX_SECONDS);
+    }
+
+    /**
+     * @return The number of bytes up to which payloads read from a stream are
+     *         kept in memory. Larger payloads are spilled to a temporary file.
+     *         Defaults to {@link #DEFAULT_PAYLOAD_SPILL_THRESHOLD}.
+     * @since 0.2.16
+     */
+    public static long getMEMPayloadSpillThreshold ()
+    {
+      return getConfig ().getAsLong ("de4a.me.payload.spill.threshold", DEFAULT_PAYLOAD_SPILL_THRESHOLD);
+    }
+
+    /**
+     * @return The directory in which spilled payloads are stored. May be
+     *         <code>null</code> in which case the system temporary directory is
+     *         used.
+     * @since 0.2.16
+     */
+    @Nullable
+    public static String getMEMPayloadSpillDirectory ()
+    {
+      return getConfig ().getAsString ("de4a.me.payload.spill.directory");
+    }
+
+    /**
+     * @return <code>true</code> if the created RegRep messages should be
+     *         formatted. This requires the payload to be parsed into a DOM.
+     *         Defaults to {@link #DEFAULT_REGREP_FORMATTED_OUTPUT}.
+     * @since 0.2.16
+     */
+    public static boolean isRegRepFormattedOutput ()
+    {
+      return getConfig ().getAsBoolean ("de4a.me.regrep.formatted-output", DEFAULT_REGREP_FORMATTED_OUTPUT);
+    }
+
+    /**
+     * @return The number of threads used to perform SMP lookups and AS4
+     *         sending for multiple receivers in parallel. Defaults to
+     *         {@link #DEFAULT_OUTGOING_PARALLEL_THREADS}.
+     * @since 0.2.16
+     */
+    public static int getMEMOutgoingParallelThreads ()
+    {
+      return getConfig ().getAsInt ("de4a.me.outgoing.parallel.threads", DEFAULT_OUTGOING_PARALLEL_THREADS);
+    }
+
+    /**
+     * @return The maximum number of waiting background tasks, both for
+     *         platform and for virtual threads. If the queue is full, further
+     *         tasks are rejected and the REST API responds with HTTP 503.
+     *         Defaults to
+     *         {@link #DEFAULT_OUTGOING_PARALLEL_QUEUE_CAPACITY}.
+     * @since 0.2.16
+     */
+    public static int getMEMOutgoingParallelQueueCapacity ()
+    {
+      return getConfig ().getAsInt ("de4a.me.outgoing.parallel.queue-capacity",
+                                    DEFAULT_OUTGOING_PARALLEL_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @return The kind of threads used for the background SMP lookups, AS4
+     *         sending and forwarding. Defaults to
+     *         {@link EMEOutgoingExecutorMode#DEFAULT}.
+     * @since 0.2.16
+     */
+    @Nonnull
+    public static EMEOutgoingExecutorMode getMEMOutgoingExecutorMode ()
+    {
+      final String sMode = getConfig ().getAsString ("de4a.me.outgoing.executor.mode");
+      return EMEOutgoingExecutorMode.getFromIDOrDefault (sMode, EMEOutgoingExecutorMode.DEFAULT);
+    }
+
+    /**
+     * @return The maximum number of background tasks that run concurrently
+     *         on virtual threads. Additional tasks wait until a slot is free,
+     *         see {@link #getMEMOutgoingParallelQueueCapacity()}. Only used if
+     *         virtual threads are available. Defaults to
+     *         {@link #DEFAULT_OUTGOING_VIRTUAL_MAX_CONCURRENCY}.
+     * @since 0.2.16
+     */
+    public static int getMEMOutgoingVirtualMaxConcurrency ()
+    {
+      return getConfig ().getAsInt ("de4a.me.outgoing.virtual.max-concurrency",
+                                    DEFAULT_OUTGOING_VIRTUAL_MAX_CONCURRENCY);
+    }
+
+    /**
+     * @return The number of seconds the status of a finished asynchronous
+     *         sending can be queried. Defaults to
+     *         {@link #DEFAULT_OUTGOING_ASYNC_RETENTION_SECONDS}.
+     * @since 0.2.16
+     */
+    public static long getMEMOutgoingAsyncRetentionSeconds ()
+    {
+      return getConfig ().getAsLong ("de4a.me.outgoing.async.retention-seconds",
+                                     DEFAULT_OUTGOING_ASYNC_RETENTION_SECONDS);
+    }
+
+    /**
+     * @return The maximum number of pooled HTTP connections per route used for
+     *         posting the status of asynchronous sendings to the callback URLs.
+     *         Defaults to {@link #DEFAULT_OUTGOING_ASYNC_CALLBACK_HTTP_MAX_PER_ROUTE}.
+     * @since 0.2.16
+     */
+    public static int getMEMOutgoingAsyncCallbackHttpMaxPerRoute ()
+    {
+      return getConfig ().getAsInt ("de4a.me.outgoing.async.callback.http.max-per-route",
+                                    DEFAULT_OUTGOING_ASYNC_CALLBACK_HTTP_MAX_PER_ROUTE);
+    }
+
+    /**
+     * @return The maximum number of pooled HTTP connections in total used for
+     *         posting the status of asynchronous sendings to the callback URLs.
+     *         Defaults to {@link #DEFAULT_OUTGOING_ASYNC_CALLBACK_HTTP_MAX_TOTAL}.
+     * @since 0.2.16
+     */
+    public static int getMEMOutgoingAsyncCallbackHttpMaxTotal ()
+    {
+      return getConfig ().getAsInt ("de4a.me.outgoing.async.callback.http.max-total",
+                                    DEFAULT_OUTGOING_ASYNC_CALLBACK_HTTP_MAX_TOTAL);
+    }
   }
 
   /**
@@ -478,5 +973,17 @@ public final class DcngConfig
     {
       return getConfig ().getAsString ("de4a.webapp.data.path");
     }
+
+    /**
+     * @return How messages received via the REST API are validated. Defaults
+     *         to {@link EDcngRestValidationMode#DEFAULT}.
+     * @since 0.2.16
+     */
+    @Nonnull
+    public static EDcngRestValidationMode getRestValidationMode ()
+    {
+      final String sMode = getConfig ().getAsString ("de4a.webapp.rest.validation");
+      return EDcngRestValidationMode.getFromIDOrDefault (sMode, EDcngRestValidationMode.DEFAULT);
+    }
   }
 }
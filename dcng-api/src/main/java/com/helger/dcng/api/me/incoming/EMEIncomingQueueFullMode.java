@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helger.dcng.api.me.incoming;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+/**
+ * Defines what happens with an incoming message, if the queue of an
+ * asynchronous incoming handler is full.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+public enum EMEIncomingQueueFullMode implements IHasID <String>
+{
+  /**
+   * Reject the incoming message with an exception.
+   */
+  REJECT ("reject"),
+  /**
+   * Block the receiving thread until there is space in the queue.
+   */
+  BLOCK ("block");
+
+  public static final EMEIncomingQueueFullMode DEFAULT = BLOCK;
+
+  private final String m_sID;
+
+  EMEIncomingQueueFullMode (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  @Nullable
+  public static EMEIncomingQueueFullMode getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EMEIncomingQueueFullMode.class, sID);
+  }
+
+  @Nullable
+  public static EMEIncomingQueueFullMode getFromIDOrDefault (@Nullable final String sID,
+                                                              @Nullable final EMEIncomingQueueFullMode eDefault)
+  {
+    return EnumHelper.getFromIDOrDefault (EMEIncomingQueueFullMode.class, sID, eDefault);
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helger.dcng.api.me.incoming;
+
+import javax.annotation.Nullable;
+
+/**
+ * Exception when an incoming message could not be accepted, because the queue
+ * of an asynchronous incoming handler is full.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+public class MEIncomingQueueFullException extends MEIncomingException
+{
+  public MEIncomingQueueFullException (@Nullable final String sMsg)
+  {
+    super (sMsg);
+  }
+
+  public MEIncomingQueueFullException (@Nullable final String sMsg, @Nullable final Throwable aCause)
+  {
+    super (sMsg, aCause);
+  }
+}
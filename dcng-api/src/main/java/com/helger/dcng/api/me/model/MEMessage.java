@@ -17,7 +17,10 @@
  */
 package com.helger.dcng.api.me.model;
 
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -28,6 +31,7 @@ import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.annotation.ReturnsMutableObject;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.mime.IMimeType;
 import com.helger.peppolid.IDocumentTypeIdentifier;
 import com.helger.peppolid.IParticipantIdentifier;
 import com.helger.peppolid.IProcessIdentifier;
@@ -134,6 +138,69 @@ public class MEMessage
     return m_aPayloads.getClone ();
   }
 
+  /**
+   * @return <code>true</code> if the data of all payloads is kept in memory,
+   *         <code>false</code> if at least one payload is read from a stream
+   *         source on demand.
+   * @since 0.2.16
+   */
+  public boolean areAllPayloadsInMemory ()
+  {
+    return m_aPayloads.containsOnly (MEPayload::isDataInMemory);
+  }
+
+  /**
+   * Get a version of this message where the data of all payloads is kept in
+   * memory. This is needed, if the message is processed after the underlying
+   * stream sources are no longer available.
+   *
+   * @return this, if all payloads are already in memory or a new message
+   *         otherwise. Never <code>null</code>.
+   * @since 0.2.16
+   */
+  @Nonnull
+  public MEMessage getWithAllPayloadsInMemory ()
+  {
+    if (areAllPayloadsInMemory ())
+      return this;
+    return new MEMessage (m_aSenderID,
+                          m_aReceiverID,
+                          m_aDocTypeID,
+                          m_aProcessID,
+                          m_aPayloads.getAllMapped (MEPayload::getWithDataInMemory));
+  }
+
+  /**
+   * Get a version of this message that does not depend on the original stream
+   * sources of the payloads any longer, without reading everything into
+   * memory.
+   *
+   * @return this, if no payload needs to be detached or a new message
+   *         otherwise. Never <code>null</code>.
+   * @see MEPayload#getWithDataDetached()
+   * @since 0.2.16
+   */
+  @Nonnull
+  public MEMessage getWithAllPayloadsDetached ()
+  {
+    final ICommonsList <MEPayload> aDetached = m_aPayloads.getAllMapped (MEPayload::getWithDataDetached);
+    if (aDetached.equals (m_aPayloads))
+      return this;
+    return new MEMessage (m_aSenderID, m_aReceiverID, m_aDocTypeID, m_aProcessID, aDetached);
+  }
+
+  /**
+   * Delete all temporary files of spilled payloads. Call this after the
+   * message was processed completely.
+   *
+   * @see MEPayload#deleteTemporaryData()
+   * @since 0.2.16
+   */
+  public void deleteTemporaryPayloadData ()
+  {
+    m_aPayloads.forEach (MEPayload::deleteTemporaryData);
+  }
+
   /**
    * Builder builder.
    *
@@ -267,6 +334,48 @@ public class MEMessage
       return this;
     }
 
+    /**
+     * Add a file based payload. The file is read on demand and is not copied.
+     *
+     * @param aMimeType
+     *        MIME type of the payload. May not be <code>null</code>.
+     * @param sContentID
+     *        Content ID of the payload. May not be <code>null</code>.
+     * @param aPath
+     *        The path of the file. May not be <code>null</code>.
+     * @return the builder
+     * @since 0.2.16
+     */
+    @Nonnull
+    public Builder addPayload (@Nonnull final IMimeType aMimeType,
+                               @Nonnull @Nonempty final String sContentID,
+                               @Nonnull final Path aPath)
+    {
+      return addPayload (MEPayload.builder ().mimeType (aMimeType).contentID (sContentID).data (aPath));
+    }
+
+    /**
+     * Add a stream based payload. Small payloads are kept in memory, larger
+     * ones are spilled to a temporary file.
+     *
+     * @param aMimeType
+     *        MIME type of the payload. May not be <code>null</code>.
+     * @param sContentID
+     *        Content ID of the payload. May not be <code>null</code>.
+     * @param aISSupplier
+     *        The supplier of the input stream. Called exactly once. May not be
+     *        <code>null</code>.
+     * @return the builder
+     * @since 0.2.16
+     */
+    @Nonnull
+    public Builder addPayload (@Nonnull final IMimeType aMimeType,
+                               @Nonnull @Nonempty final String sContentID,
+                               @Nonnull final Supplier <? extends InputStream> aISSupplier)
+    {
+      return addPayload (MEPayload.builder ().mimeType (aMimeType).contentID (sContentID).data (aISSupplier));
+    }
+
     /**
      * Payload builder.
      *
@@ -17,8 +17,14 @@
  */
 package com.helger.dcng.api.me.model;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -28,11 +34,16 @@ import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.MustImplementEqualsAndHashcode;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.functional.IThrowingConsumer;
 import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.hashcode.IHashCodeGenerator;
 import com.helger.commons.io.ByteArrayWrapper;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.ToStringGenerator;
+import com.helger.dcng.api.DcngConfig;
 
 /**
  * A single payload of an AS4 message. Used inside {@link MEMessage}
@@ -54,21 +65,45 @@ public final class MEPayload
   private final String m_sContentID;
 
   /**
-   * The actual payload content
+   * The actual payload content. Either the in-memory data or a re-readable
+   * stream source (e.g. a file).
    */
-  private final ByteArrayWrapper m_aData;
+  private final IHasInputStream m_aDataSource;
+
+  // Status vars
+  private transient int m_nHashCode = IHashCodeGenerator.ILLEGAL_HASHCODE;
 
   protected MEPayload (@Nonnull final IMimeType aMimeType,
                        @Nonnull @Nonempty final String sContentID,
                        @Nonnull final ByteArrayWrapper aData)
+  {
+    this (aMimeType, sContentID, (IHasInputStream) aData);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aMimeType
+   *        MIME type to use. May not be <code>null</code>.
+   * @param sContentID
+   *        Content ID to use. May neither be <code>null</code> nor empty.
+   * @param aDataSource
+   *        The data source. Must be readable multiple times. May not be
+   *        <code>null</code>.
+   * @since 0.2.16
+   */
+  protected MEPayload (@Nonnull final IMimeType aMimeType,
+                       @Nonnull @Nonempty final String sContentID,
+                       @Nonnull final IHasInputStream aDataSource)
   {
     ValueEnforcer.notNull (aMimeType, "MimeType");
     ValueEnforcer.notEmpty (sContentID, "ContentID");
-    ValueEnforcer.notNull (aData, "Data");
+    ValueEnforcer.notNull (aDataSource, "DataSource");
+    ValueEnforcer.isTrue (aDataSource.isReadMultiple (), "DataSource must be readable multiple times");
 
     m_aMimeType = aMimeType;
     m_sContentID = sContentID;
-    m_aData = aData;
+    m_aDataSource = aDataSource;
   }
 
   @Nonnull
@@ -89,11 +124,124 @@ public final class MEPayload
     return m_sContentID;
   }
 
+  /**
+   * @return <code>true</code> if the payload data is kept in memory,
+   *         <code>false</code> if it is read from a stream source on demand.
+   * @since 0.2.16
+   */
+  public boolean isDataInMemory ()
+  {
+    return m_aDataSource instanceof ByteArrayWrapper;
+  }
+
+  /**
+   * Get the payload data as a byte array.<br>
+   * Note: this is an expensive operation if the data is not kept in memory
+   * (see {@link #isDataInMemory()}). In that case the complete stream source
+   * is read into a new byte array on every call and nothing is cached, because
+   * that would keep large payloads in memory for the lifetime of the message.
+   * Callers that need the data more than once must keep the result. Callers
+   * that only process the data sequentially (hashing, copying, size checks)
+   * should use {@link #openDataStream()} instead.
+   *
+   * @return The payload data. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If reading the stream source fails
+   */
   @Nonnull
   @ReturnsMutableObject
   public ByteArrayWrapper getData ()
   {
-    return m_aData;
+    if (m_aDataSource instanceof ByteArrayWrapper)
+      return (ByteArrayWrapper) m_aDataSource;
+
+    final byte [] aBytes = StreamHelper.getAllBytes (openDataStream ());
+    if (aBytes == null)
+      throw new IllegalStateException ("Failed to read the data of payload '" + m_sContentID + "'");
+    return new ByteArrayWrapper (aBytes, false);
+  }
+
+  /**
+   * @return The source of the payload data. Never <code>null</code>.
+   * @since 0.2.16
+   */
+  @Nonnull
+  public IHasInputStream getDataSource ()
+  {
+    return m_aDataSource;
+  }
+
+  /**
+   * @return The file the payload data is read from or <code>null</code> if
+   *         the payload is not file based.
+   * @since 0.2.16
+   */
+  @Nullable
+  public File getDataFile ()
+  {
+    return m_aDataSource instanceof MEPayloadFileSource ? ((MEPayloadFileSource) m_aDataSource).getFile () : null;
+  }
+
+  /**
+   * Open a new stream to read the payload data. This works for in-memory and
+   * for stream based payloads. The caller is responsible for closing the
+   * stream.
+   *
+   * @return A new input stream. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the stream source cannot be opened
+   * @since 0.2.16
+   */
+  @Nonnull
+  public InputStream openDataStream ()
+  {
+    final InputStream ret = m_aDataSource.getInputStream ();
+    if (ret == null)
+      throw new IllegalStateException ("Failed to open the data of payload '" + m_sContentID + "'");
+    return ret;
+  }
+
+  /**
+   * @return this, if the data is already in memory, or a new payload with the
+   *         data read into memory. Never <code>null</code>.
+   * @since 0.2.16
+   */
+  @Nonnull
+  public MEPayload getWithDataInMemory ()
+  {
+    if (isDataInMemory ())
+      return this;
+    return new MEPayload (m_aMimeType, m_sContentID, getData ());
+  }
+
+  /**
+   * Get a version of this payload that does not depend on the original stream
+   * source any longer. In-memory and file based payloads are returned as they
+   * are. All other payloads are read and kept in memory or spilled to a
+   * temporary file, depending on the configured threshold.
+   *
+   * @return this or a new payload. Never <code>null</code>.
+   * @see DcngConfig.ME#getMEMPayloadSpillThreshold()
+   * @since 0.2.16
+   */
+  @Nonnull
+  public MEPayload getWithDataDetached ()
+  {
+    if (isDataInMemory () || m_aDataSource instanceof MEPayloadFileSource)
+      return this;
+    return new MEPayload (m_aMimeType, m_sContentID, createSpooledDataSource (openDataStream ()));
+  }
+
+  /**
+   * Delete the temporary file of a spilled payload. Afterwards this payload
+   * can no longer be read. For all other payloads this method has no effect.
+   *
+   * @since 0.2.16
+   */
+  public void deleteTemporaryData ()
+  {
+    if (m_aDataSource instanceof MEPayloadFileSource)
+      ((MEPayloadFileSource) m_aDataSource).deleteTemporaryFile ();
   }
 
   @Override
@@ -105,13 +253,21 @@ public final class MEPayload
       return false;
 
     final MEPayload rhs = (MEPayload) o;
-    return m_aMimeType.equals (rhs.m_aMimeType) && m_sContentID.equals (rhs.m_sContentID) && m_aData.equals (rhs.m_aData);
+    return m_aMimeType.equals (rhs.m_aMimeType) && m_sContentID.equals (rhs.m_sContentID) &&
+           m_aDataSource.equals (rhs.m_aDataSource);
   }
 
   @Override
   public int hashCode ()
   {
-    return new HashCodeGenerator (this).append (m_aMimeType).append (m_sContentID).append (m_aData).getHashCode ();
+    // Calculate only once, as in-memory data sources hash all bytes
+    int ret = m_nHashCode;
+    if (ret == IHashCodeGenerator.ILLEGAL_HASHCODE)
+      ret = m_nHashCode = new HashCodeGenerator (this).append (m_aMimeType)
+                                                       .append (m_sContentID)
+                                                       .append (m_aDataSource)
+                                                       .getHashCode ();
+    return ret;
   }
 
   @Override
@@ -119,7 +275,7 @@ public final class MEPayload
   {
     return new ToStringGenerator (this).append ("MimeType", m_aMimeType)
                                        .append ("ContentID", m_sContentID)
-                                       .append ("Data", m_aData)
+                                       .append ("DataSource", m_aDataSource)
                                        .getToString ();
   }
 
@@ -137,6 +293,48 @@ public final class MEPayload
     return UUID.randomUUID ().toString () + "@de4a.dcng";
   }
 
+  /**
+   * Read the provided stream and either keep it in memory or spill it to a
+   * temporary file, based on the configuration.
+   *
+   * @param aIS
+   *        The input stream to read. May not be <code>null</code>. Is closed
+   *        by this method.
+   * @return The new data source. Never <code>null</code>.
+   * @see DcngConfig.ME#getMEMPayloadSpillThreshold()
+   * @see DcngConfig.ME#getMEMPayloadSpillDirectory()
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static IHasInputStream createSpooledDataSource (@Nonnull final InputStream aIS)
+  {
+    final String sDirectory = DcngConfig.ME.getMEMPayloadSpillDirectory ();
+    return MEPayloadFileSource.createSpooled (aIS,
+                                              DcngConfig.ME.getMEMPayloadSpillThreshold (),
+                                              StringHelper.hasText (sDirectory) ? new File (sDirectory) : null);
+  }
+
+  /**
+   * Let the provided writer create the data and either keep it in memory or
+   * spill it to a temporary file, based on the configuration.
+   *
+   * @param aWriter
+   *        The writer that creates the data. May not be <code>null</code>. It
+   *        must not close the provided output stream.
+   * @return The new data source. Never <code>null</code>.
+   * @see DcngConfig.ME#getMEMPayloadSpillThreshold()
+   * @see DcngConfig.ME#getMEMPayloadSpillDirectory()
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static IHasInputStream createSpooledDataSource (@Nonnull final IThrowingConsumer <? super OutputStream, IOException> aWriter)
+  {
+    final String sDirectory = DcngConfig.ME.getMEMPayloadSpillDirectory ();
+    return MEPayloadFileSource.createSpooled (aWriter,
+                                              DcngConfig.ME.getMEMPayloadSpillThreshold (),
+                                              StringHelper.hasText (sDirectory) ? new File (sDirectory) : null);
+  }
+
   /**
    * Builder class for {@link MEPayload}
    *
@@ -146,7 +344,7 @@ public final class MEPayload
   {
     private IMimeType m_aMimeType;
     private String m_sContentID;
-    private ByteArrayWrapper m_aData;
+    private IHasInputStream m_aData;
 
     protected Builder ()
     {}
@@ -197,6 +395,54 @@ public final class MEPayload
       return this;
     }
 
+    /**
+     * Use a stream source for the data, that is only read on demand.
+     *
+     * @param a
+     *        The data source. Must be readable multiple times. May be
+     *        <code>null</code>.
+     * @return this for chaining
+     * @since 0.2.16
+     */
+    @Nonnull
+    public Builder data (@Nullable final IHasInputStream a)
+    {
+      m_aData = a;
+      return this;
+    }
+
+    /**
+     * Use an existing file as the data source. The file is read on demand and
+     * is never deleted by the Connector.
+     *
+     * @param a
+     *        The path of the file. May be <code>null</code>.
+     * @return this for chaining
+     * @since 0.2.16
+     */
+    @Nonnull
+    public Builder data (@Nullable final Path a)
+    {
+      return data (a == null ? null : new MEPayloadFileSource (a.toFile (), false));
+    }
+
+    /**
+     * Read the data from the stream of the provided supplier. Small payloads
+     * are kept in memory, larger ones are spilled to a temporary file.
+     *
+     * @param a
+     *        The supplier of the input stream. Called exactly once. May be
+     *        <code>null</code>.
+     * @return this for chaining
+     * @see MEPayload#createSpooledDataSource(InputStream)
+     * @since 0.2.16
+     */
+    @Nonnull
+    public Builder data (@Nullable final Supplier <? extends InputStream> a)
+    {
+      return data (a == null ? null : createSpooledDataSource (a.get ()));
+    }
+
     public void checkConsistency ()
     {
       if (m_aMimeType == null)
@@ -205,6 +451,8 @@ public final class MEPayload
         throw new IllegalStateException ("Content ID MUST be present");
       if (m_aData == null)
         throw new IllegalStateException ("Data MUST be present");
+      if (!m_aData.isReadMultiple ())
+        throw new IllegalStateException ("Data MUST be readable multiple times");
     }
 
     @Nonnull
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.api.me.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.functional.IThrowingConsumer;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.io.ByteArrayWrapper;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.file.FileOperations;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A file based data source for {@link MEPayload} objects. This is used for
+ * large payloads that should not be kept in memory. Equality is based on the
+ * file only, so the file content is never read for that purpose.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@Immutable
+public final class MEPayloadFileSource implements IHasInputStream
+{
+  private static final String SPILL_FILE_PREFIX = "dcng-payload-";
+  private static final String SPILL_FILE_SUFFIX = ".bin";
+
+  private final File m_aFile;
+  private final boolean m_bTemporary;
+
+  /**
+   * Constructor
+   *
+   * @param aFile
+   *        The file to read from. May not be <code>null</code>.
+   * @param bTemporary
+   *        <code>true</code> if the file was created by the Connector and may
+   *        be deleted with {@link #deleteTemporaryFile()}, <code>false</code> if
+   *        the file is owned by somebody else.
+   */
+  public MEPayloadFileSource (@Nonnull final File aFile, final boolean bTemporary)
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    m_aFile = aFile;
+    m_bTemporary = bTemporary;
+  }
+
+  /**
+   * @return The file to read from. Never <code>null</code>.
+   */
+  @Nonnull
+  public File getFile ()
+  {
+    return m_aFile;
+  }
+
+  /**
+   * @return <code>true</code> if the file is a temporary file created by the
+   *         Connector, <code>false</code> if not.
+   */
+  public boolean isTemporary ()
+  {
+    return m_bTemporary;
+  }
+
+  /**
+   * @return The size of the file in bytes or 0 if it does not exist.
+   */
+  @Nonnegative
+  public long getFileSize ()
+  {
+    return m_aFile.length ();
+  }
+
+  @Nullable
+  public InputStream getInputStream ()
+  {
+    return FileHelper.getBufferedInputStream (m_aFile);
+  }
+
+  public boolean isReadMultiple ()
+  {
+    return true;
+  }
+
+  /**
+   * Delete the underlying file, if it is a temporary file. Afterwards this
+   * object can no longer be read.
+   */
+  public void deleteTemporaryFile ()
+  {
+    if (m_bTemporary)
+      FileOperations.deleteFileIfExisting (m_aFile);
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final MEPayloadFileSource rhs = (MEPayloadFileSource) o;
+    return m_aFile.equals (rhs.m_aFile);
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return new HashCodeGenerator (this).append (m_aFile).getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("File", m_aFile).append ("Temporary", m_bTemporary).getToString ();
+  }
+
+  /**
+   * An output stream that keeps the written bytes in memory until a threshold
+   * is exceeded and afterwards writes everything into a new temporary file.
+   *
+   * @author Philip Helger
+   */
+  private static final class SpoolingOutputStream extends OutputStream
+  {
+    private final long m_nThreshold;
+    private final File m_aDirectory;
+    private NonBlockingByteArrayOutputStream m_aBAOS = new NonBlockingByteArrayOutputStream ();
+    private File m_aFile;
+    private OutputStream m_aFileOS;
+
+    SpoolingOutputStream (final long nThreshold, @Nullable final File aDirectory)
+    {
+      m_nThreshold = nThreshold;
+      m_aDirectory = aDirectory;
+    }
+
+    @Nonnull
+    private OutputStream _getTarget (final int nLen) throws IOException
+    {
+      if (m_aFileOS == null && m_aBAOS.size () + (long) nLen > m_nThreshold)
+      {
+        // Too large - spill everything to a temporary file
+        if (m_aDirectory != null)
+          FileOperations.createDirRecursiveIfNotExisting (m_aDirectory);
+        m_aFile = File.createTempFile (SPILL_FILE_PREFIX, SPILL_FILE_SUFFIX, m_aDirectory);
+        m_aFileOS = FileHelper.getBufferedOutputStream (m_aFile);
+        if (m_aFileOS == null)
+          throw new IOException ("Failed to open '" + m_aFile.getAbsolutePath () + "' for writing");
+        m_aBAOS.writeTo (m_aFileOS);
+        m_aBAOS = null;
+      }
+      return m_aFileOS != null ? m_aFileOS : m_aBAOS;
+    }
+
+    @Override
+    public void write (final int b) throws IOException
+    {
+      _getTarget (1).write (b);
+    }
+
+    @Override
+    public void write (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      _getTarget (nLen).write (aBuf, nOfs, nLen);
+    }
+
+    @Override
+    public void flush () throws IOException
+    {
+      if (m_aFileOS != null)
+        m_aFileOS.flush ();
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      if (m_aFileOS != null)
+        m_aFileOS.close ();
+    }
+
+    void deleteFile ()
+    {
+      StreamHelper.close (m_aFileOS);
+      if (m_aFile != null)
+        FileOperations.deleteFileIfExisting (m_aFile);
+    }
+
+    @Nonnull
+    IHasInputStream getResult ()
+    {
+      return m_aFile != null ? new MEPayloadFileSource (m_aFile, true)
+                             : new ByteArrayWrapper (m_aBAOS.getBufferOrCopy (), false);
+    }
+  }
+
+  /**
+   * Read the provided input stream and keep it in memory, if it is not larger
+   * than the provided threshold. Otherwise the content is spilled into a new
+   * temporary file.
+   *
+   * @param aIS
+   *        The input stream to read. May not be <code>null</code>. Is closed
+   *        by this method.
+   * @param nThreshold
+   *        The maximum number of bytes to keep in memory. Must be &ge; 0.
+   * @param aDirectory
+   *        The directory in which the temporary file should be created. May be
+   *        <code>null</code> to use the system temporary directory.
+   * @return Either a {@link ByteArrayWrapper} or a temporary
+   *         {@link MEPayloadFileSource}. Never <code>null</code>.
+   * @throws UncheckedIOException
+   *         If reading the stream or writing the file fails
+   */
+  @Nonnull
+  public static IHasInputStream createSpooled (@Nonnull final InputStream aIS,
+                                               @Nonnegative final long nThreshold,
+                                               @Nullable final File aDirectory)
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+
+    try
+    {
+      return createSpooled (aOS -> {
+        final byte [] aBuffer = new byte [16 * 1024];
+        int nRead;
+        while ((nRead = aIS.read (aBuffer)) > 0)
+          aOS.write (aBuffer, 0, nRead);
+      }, nThreshold, aDirectory);
+    }
+    finally
+    {
+      StreamHelper.close (aIS);
+    }
+  }
+
+  /**
+   * Let the provided writer create the content and keep it in memory, if it is
+   * not larger than the provided threshold. Otherwise the content is spilled
+   * into a new temporary file. That way content can be created without
+   * knowing its size in advance.
+   *
+   * @param aWriter
+   *        The writer that creates the content. May not be <code>null</code>.
+   *        It must not close the provided output stream.
+   * @param nThreshold
+   *        The maximum number of bytes to keep in memory. Must be &ge; 0.
+   * @param aDirectory
+   *        The directory in which the temporary file should be created. May be
+   *        <code>null</code> to use the system temporary directory.
+   * @return Either a {@link ByteArrayWrapper} or a temporary
+   *         {@link MEPayloadFileSource}. Never <code>null</code>.
+   * @throws UncheckedIOException
+   *         If writing the file fails
+   */
+  @Nonnull
+  public static IHasInputStream createSpooled (@Nonnull final IThrowingConsumer <? super OutputStream, IOException> aWriter,
+                                               @Nonnegative final long nThreshold,
+                                               @Nullable final File aDirectory)
+  {
+    ValueEnforcer.notNull (aWriter, "Writer");
+    ValueEnforcer.isGE0 (nThreshold, "Threshold");
+
+    final SpoolingOutputStream aSOS = new SpoolingOutputStream (nThreshold, aDirectory);
+    try
+    {
+      aWriter.accept (aSOS);
+      aSOS.close ();
+      return aSOS.getResult ();
+    }
+    catch (final IOException ex)
+    {
+      aSOS.deleteFile ();
+      throw new UncheckedIOException (ex);
+    }
+    catch (final RuntimeException ex)
+    {
+      aSOS.deleteFile ();
+      throw ex;
+    }
+  }
+}
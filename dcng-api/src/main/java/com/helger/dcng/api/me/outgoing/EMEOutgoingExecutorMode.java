@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.api.me.outgoing;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+/**
+ * Defines the kind of threads that perform the blocking SMP lookups, AS4
+ * sending and forwarding in the background.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+public enum EMEOutgoingExecutorMode implements IHasID <String>
+{
+  /**
+   * Use a bounded pool of platform threads.
+   */
+  PLATFORM ("platform"),
+  /**
+   * Use one virtual thread per task, if the JVM supports it (Java 21+).
+   * Otherwise a bounded pool of platform threads is used.
+   */
+  VIRTUAL ("virtual");
+
+  public static final EMEOutgoingExecutorMode DEFAULT = VIRTUAL;
+
+  private final String m_sID;
+
+  EMEOutgoingExecutorMode (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  @Nullable
+  public static EMEOutgoingExecutorMode getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EMEOutgoingExecutorMode.class, sID);
+  }
+
+  @Nullable
+  public static EMEOutgoingExecutorMode getFromIDOrDefault (@Nullable final String sID,
+                                                             @Nullable final EMEOutgoingExecutorMode eDefault)
+  {
+    return EnumHelper.getFromIDOrDefault (EMEOutgoingExecutorMode.class, sID, eDefault);
+  }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.api.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.base64.Base64;
+import com.helger.commons.base64.Base64InputStream;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.mime.IMimeType;
+import com.helger.commons.mime.MimeTypeParser;
+import com.helger.commons.string.StringHelper;
+import com.helger.dcng.api.me.model.MEPayload;
+
+/**
+ * A StAX based reader for the {@link DCNGOutgoingMessage} XML format. Only the
+ * metadata is read into memory via JAXB. The Base64 encoded payloads are
+ * decoded while reading and either kept in memory or stored in temporary files
+ * - see {@link MEPayload#createSpooledDataSource(InputStream)}. That way the
+ * memory consumption is independent of the payload size.<br>
+ * No XML Schema validation is performed. Use
+ * {@link DcngRestStructureValidator} to check the metadata. The payload content
+ * is checked for invalid Base64 characters while decoding.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@Immutable
+public final class DcngOutgoingMessageStaxReader
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (DcngOutgoingMessageStaxReader.class);
+
+  private static final String ELEMENT_ROOT = "OutgoingMessage";
+  private static final String ELEMENT_METADATA = "Metadata";
+  private static final String ELEMENT_PAYLOAD = "Payload";
+  private static final String ATTR_CONTENT_ID = "ContentID";
+  private static final String ATTR_MIME_TYPE = "MimeType";
+
+  private static final XMLInputFactory XIF;
+  static
+  {
+    XIF = XMLInputFactory.newFactory ();
+    // Avoid XML attacks
+    XIF.setProperty (XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XIF.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    // Receive large text in chunks
+    XIF.setProperty (XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+  }
+
+  private static final DcngPooledJAXBMarshaller <DCNGOutgoingMetadata> METADATA = new DcngPooledJAXBMarshaller <> (DCNGOutgoingMetadata.class,
+                                                                                                                  new CommonsArrayList <> (),
+                                                                                                                  x -> new JAXBElement <> (new QName (DcngRestJAXB.NS_URI,
+                                                                                                                                                      ELEMENT_METADATA),
+                                                                                                                                           DCNGOutgoingMetadata.class,
+                                                                                                                                           x),
+                                                                                                                  DcngRestNamespaceContext.getInstance (),
+                                                                                                                  false);
+
+  /**
+   * An input stream that returns the Base64 text content of the current
+   * element as bytes. It ends at the end of the element. Characters that are
+   * not allowed in Base64 cause an {@link IOException}.
+   *
+   * @author Philip Helger
+   */
+  private static final class Base64TextInputStream extends InputStream
+  {
+    private final XMLStreamReader m_aXSR;
+    private final char [] m_aBuffer = new char [16 * 1024];
+    private int m_nBufferPos;
+    private int m_nBufferLen;
+    private int m_nTextOffset;
+    private boolean m_bStarted;
+    private boolean m_bEOF;
+
+    Base64TextInputStream (@Nonnull final XMLStreamReader aXSR)
+    {
+      m_aXSR = aXSR;
+    }
+
+    private static boolean _isAllowed (final char c)
+    {
+      return (c >= 'A' && c <= 'Z') ||
+             (c >= 'a' && c <= 'z') ||
+             (c >= '0' && c <= '9') ||
+             c == '+' ||
+             c == '/' ||
+             c == '=' ||
+             c == ' ' ||
+             c == '\t' ||
+             c == '\r' ||
+             c == '\n';
+    }
+
+    private boolean _fill () throws IOException
+    {
+      try
+      {
+        while (!m_bEOF)
+        {
+          switch (m_aXSR.getEventType ())
+          {
+            case XMLStreamConstants.START_ELEMENT:
+              if (m_bStarted)
+                throw new IOException ("Element '" + m_aXSR.getLocalName () + "' is not allowed in the payload");
+              // The payload element itself
+              m_bStarted = true;
+              m_aXSR.next ();
+              m_nTextOffset = 0;
+              break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+            {
+              // Large text events are copied in chunks
+              final int nRead = m_aXSR.getTextCharacters (m_nTextOffset, m_aBuffer, 0, m_aBuffer.length);
+              if (nRead > 0)
+              {
+                for (int i = 0; i < nRead; ++i)
+                  if (!_isAllowed (m_aBuffer[i]))
+                    throw new IOException ("The payload contains the invalid Base64 character 0x" +
+                                           Integer.toHexString (m_aBuffer[i]));
+                m_nTextOffset += nRead;
+                m_nBufferPos = 0;
+                m_nBufferLen = nRead;
+                return true;
+              }
+              m_aXSR.next ();
+              m_nTextOffset = 0;
+              break;
+            }
+            case XMLStreamConstants.END_ELEMENT:
+              // End of the payload element - stay here
+              m_bEOF = true;
+              break;
+            default:
+              // Comments and processing instructions
+              m_aXSR.next ();
+              m_nTextOffset = 0;
+              break;
+          }
+        }
+        return false;
+      }
+      catch (final XMLStreamException ex)
+      {
+        throw new IOException ("Failed to read payload", ex);
+      }
+    }
+
+    @Override
+    public int read () throws IOException
+    {
+      if (m_nBufferPos >= m_nBufferLen && !_fill ())
+        return -1;
+      return m_aBuffer[m_nBufferPos++];
+    }
+
+    @Override
+    public int read (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      if (nLen == 0)
+        return 0;
+      if (m_nBufferPos >= m_nBufferLen && !_fill ())
+        return -1;
+      final int nCount = Math.min (nLen, m_nBufferLen - m_nBufferPos);
+      for (int i = 0; i < nCount; ++i)
+        aBuf[nOfs + i] = (byte) m_aBuffer[m_nBufferPos + i];
+      m_nBufferPos += nCount;
+      return nCount;
+    }
+
+    @Override
+    public void close ()
+    {
+      // The XML stream reader is closed by the caller
+    }
+  }
+
+  private DcngOutgoingMessageStaxReader ()
+  {}
+
+  private static boolean _isElement (@Nonnull final XMLStreamReader aXSR, @Nonnull final String sLocalName)
+  {
+    return DcngRestJAXB.NS_URI.equals (aXSR.getNamespaceURI ()) && sLocalName.equals (aXSR.getLocalName ());
+  }
+
+  /**
+   * Move from the current position to the next start or end element, skipping
+   * whitespace, comments and processing instructions.
+   */
+  private static int _skipToTag (@Nonnull final XMLStreamReader aXSR) throws XMLStreamException
+  {
+    while (true)
+    {
+      final int nEvent = aXSR.getEventType ();
+      switch (nEvent)
+      {
+        case XMLStreamConstants.START_ELEMENT:
+        case XMLStreamConstants.END_ELEMENT:
+          return nEvent;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+          if (!aXSR.isWhiteSpace ())
+            throw new XMLStreamException ("Unexpected text content", aXSR.getLocation ());
+          break;
+        case XMLStreamConstants.END_DOCUMENT:
+          throw new XMLStreamException ("Unexpected end of document", aXSR.getLocation ());
+        default:
+          break;
+      }
+      aXSR.next ();
+    }
+  }
+
+  @Nonnull
+  private static MEPayload _readPayload (@Nonnull final XMLStreamReader aXSR) throws XMLStreamException
+  {
+    final String sMimeType = aXSR.getAttributeValue (null, ATTR_MIME_TYPE);
+    final IMimeType aMimeType = MimeTypeParser.safeParseMimeType (sMimeType);
+    if (aMimeType == null)
+      throw new XMLStreamException ("The payload has the missing or invalid MIME type '" + sMimeType + "'",
+                                    aXSR.getLocation ());
+    final String sContentID = aXSR.getAttributeValue (null, ATTR_CONTENT_ID);
+
+    final IHasInputStream aData = MEPayload.createSpooledDataSource (new Base64InputStream (new Base64TextInputStream (aXSR),
+                                                                                           Base64.DECODE));
+    return MEPayload.builder ()
+                    .mimeType (aMimeType)
+                    .contentID (StringHelper.hasText (sContentID) ? sContentID : MEPayload.createRandomContentID ())
+                    .data (aData)
+                    .build ();
+  }
+
+  /**
+   * Read an outgoing message from the provided input stream.
+   *
+   * @param aIS
+   *        The input stream to read from. May not be <code>null</code>. It is
+   *        not closed by this method.
+   * @return <code>null</code> if reading failed. Details are logged.
+   */
+  @Nullable
+  public static DcngStreamedOutgoingMessage read (@Nonnull final InputStream aIS)
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+
+    DCNGOutgoingMetadata aMetadata = null;
+    final ICommonsList <MEPayload> aPayloads = new CommonsArrayList <> ();
+    XMLStreamReader aXSR = null;
+    try
+    {
+      aXSR = XIF.createXMLStreamReader (aIS);
+      aXSR.nextTag ();
+      if (!_isElement (aXSR, ELEMENT_ROOT))
+        throw new XMLStreamException ("Expected the root element '" + ELEMENT_ROOT + "'", aXSR.getLocation ());
+      aXSR.next ();
+
+      while (_skipToTag (aXSR) == XMLStreamConstants.START_ELEMENT)
+      {
+        if (_isElement (aXSR, ELEMENT_METADATA))
+        {
+          if (aMetadata != null || aPayloads.isNotEmpty ())
+            throw new XMLStreamException ("Unexpected element '" + ELEMENT_METADATA + "'", aXSR.getLocation ());
+          // Afterwards positioned after the end element
+          final XMLStreamReader aMetadataXSR = aXSR;
+          aMetadata = METADATA.read ( (u, c) -> u.unmarshal (aMetadataXSR, c));
+          if (aMetadata == null)
+            throw new XMLStreamException ("Failed to read the '" + ELEMENT_METADATA + "' element");
+        }
+        else
+          if (_isElement (aXSR, ELEMENT_PAYLOAD))
+          {
+            aPayloads.add (_readPayload (aXSR));
+            // Afterwards positioned on the end element
+            aXSR.next ();
+          }
+          else
+            throw new XMLStreamException ("Unexpected element '" + aXSR.getName () + "'", aXSR.getLocation ());
+      }
+      return new DcngStreamedOutgoingMessage (aMetadata, aPayloads);
+    }
+    catch (final XMLStreamException | UncheckedIOException ex)
+    {
+      LOGGER.warn ("Failed to read OutgoingMessage: " + ex.getMessage ());
+      // Don't leave any temporary files behind
+      aPayloads.forEach (MEPayload::deleteTemporaryData);
+      return null;
+    }
+    finally
+    {
+      if (aXSR != null)
+        try
+        {
+          aXSR.close ();
+        }
+        catch (final XMLStreamException ex)
+        {
+          // Ignore
+        }
+    }
+  }
+}
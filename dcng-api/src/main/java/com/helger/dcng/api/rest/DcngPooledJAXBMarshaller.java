@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.api.rest;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.validation.Schema;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.jaxb.GenericJAXBMarshaller;
+import com.helger.jaxb.IJAXBReader;
+import com.helger.jaxb.IJAXBWriter;
+import com.helger.jaxb.JAXBContextCache;
+import com.helger.jaxb.JAXBMarshallerHelper;
+import com.helger.jaxb.validation.LoggingValidationEventHandler;
+import com.helger.xml.schema.XMLSchemaCache;
+
+/**
+ * A thread-safe alternative to {@link GenericJAXBMarshaller} meant to be
+ * shared. The {@link JAXBContext} and the XML Schema are resolved only once in
+ * the constructor, and the created {@link Marshaller} and {@link Unmarshaller}
+ * objects are pooled and reused. The settings are fixed at construction time
+ * and validation errors are only logged. If per-call settings or error
+ * collection is needed, use a {@link GenericJAXBMarshaller} instead.
+ *
+ * @author Philip Helger
+ * @param <JAXBTYPE>
+ *        The JAXB type to be read and written
+ * @since 0.2.16
+ */
+@ThreadSafe
+public class DcngPooledJAXBMarshaller <JAXBTYPE> implements IJAXBReader <JAXBTYPE>, IJAXBWriter <JAXBTYPE>
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (DcngPooledJAXBMarshaller.class);
+
+  private final Class <JAXBTYPE> m_aType;
+  private final Function <? super JAXBTYPE, ? extends JAXBElement <JAXBTYPE>> m_aJAXBElementWrapper;
+  private final NamespaceContext m_aNSContext;
+  private final boolean m_bFormattedOutput;
+  private final JAXBContext m_aJAXBContext;
+  // null if not validating
+  private final Schema m_aSchema;
+  // At most one object per concurrently active thread
+  private final Queue <Marshaller> m_aMarshallers = new ConcurrentLinkedQueue <> ();
+  private final Queue <Unmarshaller> m_aUnmarshallers = new ConcurrentLinkedQueue <> ();
+
+  /**
+   * Constructor
+   *
+   * @param aType
+   *        The JAXB type to be read and written. May not be <code>null</code>.
+   * @param aXSDs
+   *        The XSDs used to validate the read and written objects. May not be
+   *        <code>null</code> but maybe empty to disable validation.
+   * @param aJAXBElementWrapper
+   *        The function to wrap an object into a {@link JAXBElement} for
+   *        writing. May not be <code>null</code>.
+   * @param aNSContext
+   *        The namespace context to use for writing. May be <code>null</code>.
+   * @param bFormattedOutput
+   *        <code>true</code> to write indented XML, <code>false</code> to not
+   *        do it.
+   * @throws IllegalStateException
+   *         If the JAXB context cannot be created
+   */
+  public DcngPooledJAXBMarshaller (@Nonnull final Class <JAXBTYPE> aType,
+                                   @Nonnull final List <? extends ClassPathResource> aXSDs,
+                                   @Nonnull final Function <? super JAXBTYPE, ? extends JAXBElement <JAXBTYPE>> aJAXBElementWrapper,
+                                   @Nullable final NamespaceContext aNSContext,
+                                   final boolean bFormattedOutput)
+  {
+    ValueEnforcer.notNull (aType, "Type");
+    ValueEnforcer.notNullNoNullValue (aXSDs, "XSDs");
+    ValueEnforcer.notNull (aJAXBElementWrapper, "JAXBElementWrapper");
+    m_aType = aType;
+    m_aJAXBElementWrapper = aJAXBElementWrapper;
+    m_aNSContext = aNSContext;
+    m_bFormattedOutput = bFormattedOutput;
+
+    final ClassLoader aClassLoader = aType.getClassLoader ();
+    m_aJAXBContext = JAXBContextCache.getInstance ().getFromCache (aType.getPackage (), aClassLoader);
+    if (m_aJAXBContext == null)
+      throw new IllegalStateException ("Failed to create JAXB context for " + aType.getName ());
+    m_aSchema = aXSDs.isEmpty () ? null : XMLSchemaCache.getInstanceOfClassLoader (aClassLoader).getSchema (aXSDs);
+  }
+
+  @Nonnull
+  public final Class <JAXBTYPE> getType ()
+  {
+    return m_aType;
+  }
+
+  /**
+   * @return <code>true</code> if read and written objects are validated
+   *         against an XML Schema, <code>false</code> if not.
+   */
+  public final boolean isValidating ()
+  {
+    return m_aSchema != null;
+  }
+
+  public boolean isReadSecure ()
+  {
+    return GenericJAXBMarshaller.DEFAULT_READ_SECURE;
+  }
+
+  @Nullable
+  public NamespaceContext getNamespaceContext ()
+  {
+    return m_aNSContext;
+  }
+
+  public boolean isFormattedOutput ()
+  {
+    return m_bFormattedOutput;
+  }
+
+  @Nullable
+  public Charset getCharset ()
+  {
+    return null;
+  }
+
+  @Nullable
+  public String getIndentString ()
+  {
+    return null;
+  }
+
+  @Nullable
+  public String getSchemaLocation ()
+  {
+    return null;
+  }
+
+  @Nullable
+  public String getNoNamespaceSchemaLocation ()
+  {
+    return null;
+  }
+
+  @Nonnull
+  private Unmarshaller _borrowUnmarshaller () throws JAXBException
+  {
+    final Unmarshaller ret = m_aUnmarshallers.poll ();
+    if (ret != null)
+      return ret;
+
+    final Unmarshaller aNew = m_aJAXBContext.createUnmarshaller ();
+    aNew.setEventHandler (new LoggingValidationEventHandler ());
+    aNew.setSchema (m_aSchema);
+    return aNew;
+  }
+
+  @Nonnull
+  private Marshaller _borrowMarshaller () throws JAXBException
+  {
+    final Marshaller ret = m_aMarshallers.poll ();
+    if (ret != null)
+      return ret;
+
+    final Marshaller aNew = m_aJAXBContext.createMarshaller ();
+    aNew.setEventHandler (new LoggingValidationEventHandler ());
+    if (m_aNSContext != null)
+      JAXBMarshallerHelper.setSunNamespacePrefixMapper (aNew, m_aNSContext);
+    JAXBMarshallerHelper.setFormattedOutput (aNew, m_bFormattedOutput);
+    aNew.setSchema (m_aSchema);
+    return aNew;
+  }
+
+  @Nullable
+  private static String _getMessage (@Nonnull final JAXBException ex)
+  {
+    // Validation errors are usually only contained in the linked exception
+    final Throwable aLinked = ex.getLinkedException ();
+    return ex.getMessage () == null && aLinked != null ? aLinked.getMessage () : ex.getMessage ();
+  }
+
+  @Nullable
+  public JAXBTYPE read (@Nonnull final IJAXBUnmarshaller <JAXBTYPE> aHandler)
+  {
+    ValueEnforcer.notNull (aHandler, "Handler");
+    try
+    {
+      final Unmarshaller aUnmarshaller = _borrowUnmarshaller ();
+      final JAXBTYPE ret = aHandler.doUnmarshal (aUnmarshaller, m_aType).getValue ();
+      // Only reuse it, if it was successful
+      m_aUnmarshallers.offer (aUnmarshaller);
+      return ret;
+    }
+    catch (final JAXBException ex)
+    {
+      LOGGER.warn ("Failed to read " + m_aType.getName () + ": " + _getMessage (ex));
+    }
+    return null;
+  }
+
+  @Nonnull
+  public ESuccess write (@Nonnull final JAXBTYPE aObject, @Nonnull final IJAXBMarshaller <JAXBTYPE> aHandler)
+  {
+    ValueEnforcer.notNull (aObject, "Object");
+    ValueEnforcer.notNull (aHandler, "Handler");
+    final JAXBElement <JAXBTYPE> aElement = m_aJAXBElementWrapper.apply (aObject);
+    try
+    {
+      final Marshaller aMarshaller = _borrowMarshaller ();
+      aHandler.doMarshal (aMarshaller, aElement);
+      // Only reuse it, if it was successful
+      m_aMarshallers.offer (aMarshaller);
+      return ESuccess.SUCCESS;
+    }
+    catch (final JAXBException ex)
+    {
+      LOGGER.warn ("Failed to write " + m_aType.getName () + ": " + _getMessage (ex));
+    }
+    return ESuccess.FAILURE;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Type", m_aType)
+                                       .append ("NSContext", m_aNSContext)
+                                       .append ("FormattedOutput", m_bFormattedOutput)
+                                       .getToString ();
+  }
+}
@@ -41,6 +41,30 @@ public final class DcngRestJAXB
   public static final String NS_URI = "urn:com.helger/de4a/connector/exchange/2021/05/";
   public static final String DEFAULT_NAMESPACE_PREFIX = "de4a";
 
+  /**
+   * Lazily created shared marshallers.
+   *
+   * @author Philip Helger
+   */
+  private static final class PooledHolder
+  {
+    static final DcngPooledJAXBMarshaller <DCNGOutgoingMessage> OUTGOING = new DcngPooledJAXBMarshaller <> (DCNGOutgoingMessage.class,
+                                                                                                             getAllXSDResources (),
+                                                                                                             new ObjectFactory ()::createOutgoingMessage,
+                                                                                                             DcngRestNamespaceContext.getInstance (),
+                                                                                                             true);
+    static final DcngPooledJAXBMarshaller <DCNGOutgoingMessage> OUTGOING_NO_SCHEMA = new DcngPooledJAXBMarshaller <> (DCNGOutgoingMessage.class,
+                                                                                                                       new CommonsArrayList <> (),
+                                                                                                                       new ObjectFactory ()::createOutgoingMessage,
+                                                                                                                       DcngRestNamespaceContext.getInstance (),
+                                                                                                                       true);
+    static final DcngPooledJAXBMarshaller <DCNGIncomingMessage> INCOMING = new DcngPooledJAXBMarshaller <> (DCNGIncomingMessage.class,
+                                                                                                             getAllXSDResources (),
+                                                                                                             new ObjectFactory ()::createIncomingMessage,
+                                                                                                             DcngRestNamespaceContext.getInstance (),
+                                                                                                             true);
+  }
+
   private DcngRestJAXB ()
   {}
 
@@ -83,6 +107,45 @@ public final class DcngRestJAXB
     return ret;
   }
 
+  /**
+   * @return The shared marshaller to read and write
+   *         {@link DCNGOutgoingMessage} objects. It has the same settings as
+   *         {@link #outgoingMessage()}, but it is thread-safe and should be
+   *         used on all per-message code paths. Never <code>null</code>.
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static DcngPooledJAXBMarshaller <DCNGOutgoingMessage> pooledOutgoingMessage ()
+  {
+    return PooledHolder.OUTGOING;
+  }
+
+  /**
+   * @return The shared marshaller to read and write
+   *         {@link DCNGOutgoingMessage} objects without XML Schema validation.
+   *         Use {@link DcngRestStructureValidator} to check the read objects.
+   *         Never <code>null</code>.
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static DcngPooledJAXBMarshaller <DCNGOutgoingMessage> pooledOutgoingMessageWithoutSchema ()
+  {
+    return PooledHolder.OUTGOING_NO_SCHEMA;
+  }
+
+  /**
+   * @return The shared marshaller to read and write
+   *         {@link DCNGIncomingMessage} objects. It has the same settings as
+   *         {@link #incomingMessage()}, but it is thread-safe and should be
+   *         used on all per-message code paths. Never <code>null</code>.
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static DcngPooledJAXBMarshaller <DCNGIncomingMessage> pooledIncomingMessage ()
+  {
+    return PooledHolder.INCOMING;
+  }
+
   /**
    * @param aID
    *        The source identifier. May not be <code>null</code>.
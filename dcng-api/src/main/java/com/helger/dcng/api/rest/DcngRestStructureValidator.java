@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.api.rest;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * Structural validation of the DCNG REST classes. It checks the same required
+ * elements and attributes as the XML Schema, but works on the already read
+ * objects and doesn't look at the payload content. It is meant to be used if
+ * the XML Schema validation is disabled.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@Immutable
+public final class DcngRestStructureValidator
+{
+  private DcngRestStructureValidator ()
+  {}
+
+  private static void _checkID (@Nullable final DCNGIdentifierType aID,
+                                @Nonnull final String sName,
+                                @Nonnull final ICommonsList <String> aErrors)
+  {
+    if (aID == null)
+      aErrors.add ("Element '" + sName + "' is missing");
+    else
+      if (aID.getValue () == null)
+        aErrors.add ("Attribute '" + sName + "/@value' is missing");
+  }
+
+  /**
+   * Check the structure of the metadata of an outgoing message.
+   *
+   * @param aMetadata
+   *        The metadata to check. May be <code>null</code> in which case an
+   *        error is returned.
+   * @return A list with all error messages. Never <code>null</code> but empty
+   *         if the metadata is structurally valid.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsList <String> getAllErrors (@Nullable final DCNGOutgoingMetadata aMetadata)
+  {
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+    if (aMetadata == null)
+      ret.add ("Element 'Metadata' is missing");
+    else
+    {
+      _checkID (aMetadata.getSenderID (), "SenderID", ret);
+      _checkID (aMetadata.getReceiverID (), "ReceiverID", ret);
+      _checkID (aMetadata.getDocTypeID (), "DocTypeID", ret);
+      _checkID (aMetadata.getProcessID (), "ProcessID", ret);
+      if (StringHelper.hasNoText (aMetadata.getTransportProtocol ()))
+        ret.add ("Element 'TransportProtocol' is missing");
+    }
+    return ret;
+  }
+
+  /**
+   * Check the structure of an outgoing message.
+   *
+   * @param aMsg
+   *        The message to check. May not be <code>null</code>.
+   * @return A list with all error messages. Never <code>null</code> but empty
+   *         if the message is structurally valid.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsList <String> getAllErrors (@Nonnull final DCNGOutgoingMessage aMsg)
+  {
+    ValueEnforcer.notNull (aMsg, "Msg");
+
+    final ICommonsList <String> ret = getAllErrors (aMsg.getMetadata ());
+
+    if (aMsg.hasNoPayloadEntries ())
+      ret.add ("Element 'Payload' is missing");
+    else
+    {
+      int nIndex = 0;
+      for (final DCNGPayload aPayload : aMsg.getPayload ())
+      {
+        if (aPayload.getMimeType () == null)
+          ret.add ("Attribute 'Payload[" + nIndex + "]/@MimeType' is missing");
+        if (aPayload.getValue () == null)
+          ret.add ("Content of 'Payload[" + nIndex + "]' is missing");
+        ++nIndex;
+      }
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.api.rest;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.dcng.api.me.model.MEPayload;
+
+/**
+ * An outgoing message as read by {@link DcngOutgoingMessageStaxReader}. In
+ * contrast to {@link DCNGOutgoingMessage} the payloads are not necessarily kept
+ * in memory - large payloads are stored in temporary files. Call
+ * {@link #deleteTemporaryData()} if the message is no longer needed.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@Immutable
+public final class DcngStreamedOutgoingMessage
+{
+  private final DCNGOutgoingMetadata m_aMetadata;
+  private final ICommonsList <MEPayload> m_aPayloads;
+
+  public DcngStreamedOutgoingMessage (@Nullable final DCNGOutgoingMetadata aMetadata,
+                                      @Nonnull final ICommonsList <MEPayload> aPayloads)
+  {
+    ValueEnforcer.notNullNoNullValue (aPayloads, "Payloads");
+    m_aMetadata = aMetadata;
+    m_aPayloads = aPayloads.getClone ();
+  }
+
+  /**
+   * @return The metadata. May be <code>null</code> if the message did not
+   *         contain any.
+   */
+  @Nullable
+  public DCNGOutgoingMetadata getMetadata ()
+  {
+    return m_aMetadata;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <MEPayload> getAllPayloads ()
+  {
+    return m_aPayloads.getClone ();
+  }
+
+  @Nonnegative
+  public int getPayloadCount ()
+  {
+    return m_aPayloads.size ();
+  }
+
+  @Nullable
+  public MEPayload getPayloadAtIndex (final int nIndex)
+  {
+    return m_aPayloads.getAtIndex (nIndex);
+  }
+
+  /**
+   * Delete the temporary files of all payloads that were too large to be kept
+   * in memory. Afterwards these payloads can no longer be read.
+   */
+  public void deleteTemporaryData ()
+  {
+    m_aPayloads.forEach (MEPayload::deleteTemporaryData);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Metadata", m_aMetadata).append ("Payloads", m_aPayloads).getToString ();
+  }
+}
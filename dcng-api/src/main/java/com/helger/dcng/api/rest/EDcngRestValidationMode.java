@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.api.rest;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+/**
+ * Defines how messages received via the REST API are validated.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+public enum EDcngRestValidationMode implements IHasID <String>
+{
+  /**
+   * Full validation against the XML Schema while reading.
+   */
+  FULL ("full"),
+  /**
+   * Only check that all required elements and attributes are present. The
+   * content of the Base64 encoded payloads is not checked.
+   */
+  STRUCTURAL ("structural"),
+  /**
+   * No validation. Messages that would fail the structural check are only
+   * counted.
+   */
+  OFF ("off");
+
+  public static final EDcngRestValidationMode DEFAULT = FULL;
+
+  private final String m_sID;
+
+  EDcngRestValidationMode (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  @Nullable
+  public static EDcngRestValidationMode getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EDcngRestValidationMode.class, sID);
+  }
+
+  @Nullable
+  public static EDcngRestValidationMode getFromIDOrDefault (@Nullable final String sID,
+                                                             @Nullable final EDcngRestValidationMode eDefault)
+  {
+    return EnumHelper.getFromIDOrDefault (EDcngRestValidationMode.class, sID, eDefault);
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.api.me.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.commons.io.ByteArrayWrapper;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.file.FileOperations;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.mime.CMimeType;
+
+/**
+ * Test class for class {@link MEPayloadFileSource}.
+ *
+ * @author Philip Helger
+ */
+public final class MEPayloadFileSourceTest
+{
+  private static final File DIR = new File ("target/test-spill");
+
+  @Before
+  @After
+  public void cleanup ()
+  {
+    FileOperations.deleteDirRecursiveIfExisting (DIR);
+  }
+
+  @Test
+  public void testSpooledInMemory ()
+  {
+    final byte [] aData = new byte [100];
+    Arrays.fill (aData, (byte) 'a');
+    final IHasInputStream aSource = MEPayloadFileSource.createSpooled (new NonBlockingByteArrayInputStream (aData), 100, DIR);
+    assertTrue (aSource instanceof ByteArrayWrapper);
+    assertArrayEquals (aData, ((ByteArrayWrapper) aSource).getAllBytes ());
+  }
+
+  @Test
+  public void testSpooledToFile ()
+  {
+    final byte [] aData = new byte [100_000];
+    for (int i = 0; i < aData.length; ++i)
+      aData[i] = (byte) i;
+    final IHasInputStream aSource = MEPayloadFileSource.createSpooled (new NonBlockingByteArrayInputStream (aData), 1000, DIR);
+    assertTrue (aSource instanceof MEPayloadFileSource);
+    final MEPayloadFileSource aFileSource = (MEPayloadFileSource) aSource;
+    assertTrue (aFileSource.isTemporary ());
+    assertEquals (aData.length, aFileSource.getFileSize ());
+
+    final MEPayload aPayload = MEPayload.builder ()
+                                        .mimeType (CMimeType.APPLICATION_OCTET_STREAM)
+                                        .randomContentID ()
+                                        .data (aSource)
+                                        .build ();
+    assertFalse (aPayload.isDataInMemory ());
+    assertEquals (aFileSource.getFile (), aPayload.getDataFile ());
+    assertArrayEquals (aData, StreamHelper.getAllBytes (aPayload.openDataStream ()));
+    assertEquals (aPayload.hashCode (), aPayload.hashCode ());
+    assertTrue (aPayload.getWithDataDetached () == aPayload);
+
+    aPayload.deleteTemporaryData ();
+    assertFalse (aFileSource.getFile ().exists ());
+  }
+
+  @Test
+  public void testSpooledWriter ()
+  {
+    final byte [] aData = new byte [100_000];
+    for (int i = 0; i < aData.length; ++i)
+      aData[i] = (byte) i;
+
+    // Small enough
+    IHasInputStream aSource = MEPayloadFileSource.createSpooled (aOS -> aOS.write (aData, 0, 100), 100, DIR);
+    assertTrue (aSource instanceof ByteArrayWrapper);
+    assertArrayEquals (Arrays.copyOf (aData, 100), ((ByteArrayWrapper) aSource).getAllBytes ());
+
+    // Threshold is exceeded in the middle
+    aSource = MEPayloadFileSource.createSpooled (aOS -> {
+      aOS.write (aData, 0, 500);
+      aOS.write (aData, 500, aData.length - 500);
+    }, 1000, DIR);
+    assertTrue (aSource instanceof MEPayloadFileSource);
+    assertArrayEquals (aData, StreamHelper.getAllBytes (aSource.getInputStream ()));
+    ((MEPayloadFileSource) aSource).deleteTemporaryFile ();
+
+    // The temporary file is deleted on error
+    try
+    {
+      MEPayloadFileSource.createSpooled (aOS -> {
+        aOS.write (aData);
+        throw new IllegalStateException ("failed");
+      }, 1000, DIR);
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+    assertEquals (0, DIR.list ().length);
+  }
+}
@@ -17,7 +17,9 @@
  */
 package com.helger.dcng.api.rest;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -128,4 +130,26 @@ public final class DcngRestJAXBTest
                                                .read (new FileSystemResource (new File ("src/test/resources/xml/dcng-incoming.xml")));
     assertNotNull (m3);
   }
+
+  @Test
+  public void testPooled ()
+  {
+    final DcngPooledJAXBMarshaller <DCNGOutgoingMessage> aPooled = DcngRestJAXB.pooledOutgoingMessage ();
+    for (int i = 0; i < 3; ++i)
+    {
+      // Reading and writing multiple times reuses the pooled objects
+      final DCNGOutgoingMessage m = aPooled.read (new File ("src/test/resources/xml/dcng-outgoing.xml"));
+      assertNotNull (m);
+      assertArrayEquals (DcngRestJAXB.outgoingMessage ().getAsBytes (m), aPooled.getAsBytes (m));
+      CommonsTestHelper.testDefaultImplementationWithEqualContentObject (m, aPooled.read (aPooled.getAsBytes (m)));
+    }
+
+    // Invalid according to the XSD
+    assertNull (aPooled.read ("<OutgoingMessage xmlns='" + DcngRestJAXB.NS_URI + "' />"));
+
+    final DCNGIncomingMessage m = DcngRestJAXB.pooledIncomingMessage ()
+                                              .read (new File ("src/test/resources/xml/dcng-incoming.xml"));
+    assertNotNull (m);
+    assertArrayEquals (DcngRestJAXB.incomingMessage ().getAsBytes (m), DcngRestJAXB.pooledIncomingMessage ().getAsBytes (m));
+  }
 }
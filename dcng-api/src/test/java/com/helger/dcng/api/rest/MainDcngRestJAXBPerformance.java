@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.api.rest;
+
+import java.io.File;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.timing.StopWatch;
+
+/**
+ * Compare the per-message cost of reading and writing an outgoing message with
+ * a new {@link com.helger.jaxb.GenericJAXBMarshaller} per call and with the
+ * shared {@link DcngPooledJAXBMarshaller}.
+ *
+ * @author Philip Helger
+ */
+public final class MainDcngRestJAXBPerformance
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainDcngRestJAXBPerformance.class);
+  private static final int WARMUP = 2_000;
+  private static final int RUNS = 20_000;
+
+  private static void _run (final String sName, final Runnable aRunnable)
+  {
+    for (int i = 0; i < WARMUP; ++i)
+      aRunnable.run ();
+
+    final StopWatch aSW = StopWatch.createdStarted ();
+    for (int i = 0; i < RUNS; ++i)
+      aRunnable.run ();
+    aSW.stop ();
+    LOGGER.info (sName + ": " + (aSW.getNanos () / RUNS / 1000) + " microseconds per message");
+  }
+
+  public static void main (final String [] args)
+  {
+    final DCNGOutgoingMessage aMsg = DcngRestJAXB.outgoingMessage ().read (new File ("src/test/resources/xml/dcng-outgoing.xml"));
+    final byte [] aBytes = DcngRestJAXB.outgoingMessage ().getAsBytes (aMsg);
+
+    _run ("New marshaller per call", () -> {
+      DcngRestJAXB.outgoingMessage ().read (aBytes);
+      DcngRestJAXB.outgoingMessage ().getAsBytes (aMsg);
+    });
+    _run ("Pooled marshaller", () -> {
+      DcngRestJAXB.pooledOutgoingMessage ().read (aBytes);
+      DcngRestJAXB.pooledOutgoingMessage ().getAsBytes (aMsg);
+    });
+  }
+}
@@ -44,7 +44,18 @@ import com.helger.commons.url.URLProtocolRegistry;
 import com.helger.dcng.api.DcngConfig;
 import com.helger.dcng.api.me.MessageExchangeManager;
 import com.helger.dcng.api.me.incoming.IMEIncomingHandler;
+import com.helger.dcng.core.api.DcngApiConfig;
+import com.helger.dcng.core.api.DcngAsyncSender;
+import com.helger.dcng.core.api.DcngSendExecutor;
+import com.helger.dcng.core.ial.DcngIALClientCaching;
+import com.helger.dcng.core.ial.DcngIALClientPrefetch;
+import com.helger.dcng.core.incoming.DcngDPHttpClient;
+import com.helger.dcng.core.incoming.DcngIncomingHandlerAsync;
+import com.helger.dcng.core.incoming.DcngDPTriggerViaHttp;
 import com.helger.dcng.core.incoming.DcngIncomingHandlerViaHttp;
+import com.helger.dcng.core.outbox.DcngOutbox;
+import com.helger.dcng.core.smp.DDServiceMetadataProviderCaching;
+import com.helger.dcng.core.smp.DcngSMPClientRegistry;
 import com.helger.xservlet.requesttrack.RequestTrackerSettings;
 
 import eu.de4a.kafkaclient.DE4AKafkaClient;
@@ -61,6 +72,10 @@ public final class DcngInit
   private static final Logger LOGGER = LoggerFactory.getLogger (DcngInit.class);
   private static final AtomicBoolean INITED = new AtomicBoolean (false);
   private static String s_sLogPrefix;
+  private static volatile DcngIncomingHandlerAsync s_aAsyncIncomingHandler;
+  private static volatile DDServiceMetadataProviderCaching s_aSMPCache;
+  private static volatile DcngIALClientPrefetch s_aIALPrefetch;
+  private static volatile DcngIALClientCaching s_aIALCache;
 
   private DcngInit ()
   {}
@@ -193,9 +208,61 @@ public final class DcngInit
         throw new InitializationException ("The IAL base URL must be configured.");
     }
 
+    // Init the shared SMP clients
+    DcngSMPClientRegistry.initGlobally ();
+
+    // Cache SMP lookups (if enabled)
+    if (DcngConfig.SMP.isCacheEnabled ())
+    {
+      s_aSMPCache = DDServiceMetadataProviderCaching.createFromConfig (DcngApiConfig.getDDServiceMetadataProvider ());
+      DcngApiConfig.setDDServiceMetadataProvider (s_aSMPCache);
+      if (LOGGER.isInfoEnabled ())
+        LOGGER.info ("Using SMP service metadata cache " + s_aSMPCache);
+    }
+
+    // Answer IAL queries for selected COTs locally (if enabled)
+    if (DcngConfig.IAL.isPrefetchEnabled ())
+    {
+      if (DcngConfig.IAL.getAllPrefetchCOTs ().isEmpty ())
+        throw new InitializationException ("The IAL prefetch requires at least one canonical object type ID to be configured.");
+      s_aIALPrefetch = DcngIALClientPrefetch.createFromConfig (DcngApiConfig.getIALClient ());
+      DcngApiConfig.setIALClient (s_aIALPrefetch);
+      if (LOGGER.isInfoEnabled ())
+        LOGGER.info ("Using IAL prefetch " + s_aIALPrefetch);
+    }
+
+    // Cache IAL queries (if enabled)
+    if (DcngConfig.IAL.isCacheEnabled ())
+    {
+      s_aIALCache = DcngIALClientCaching.createFromConfig (DcngApiConfig.getIALClient ());
+      DcngApiConfig.setIALClient (s_aIALCache);
+      if (LOGGER.isInfoEnabled ())
+        LOGGER.info ("Using IAL cache " + s_aIALCache);
+    }
+
+    // Init the executor for blocking lookups, sending and forwarding
+    DcngSendExecutor.initGlobally ();
+
+    // Init the shared HTTP client for forwarding to DC/DP
+    DcngDPHttpClient.initGlobally ();
+
+    // Init the HTTP client for the asynchronous sending callbacks
+    DcngAsyncSender.initGlobally ();
+
+    // Init the outbox for forwarding to DC/DP (if enabled)
+    DcngOutbox.initGlobally (DcngDPTriggerViaHttp::forwardSerializedMessage);
+
     // Init incoming message handler
-    final IMEIncomingHandler aRealIncomingHandler = aIncomingHandler != null ? aIncomingHandler
-                                                                             : DcngIncomingHandlerViaHttp.create (s_sLogPrefix);
+    IMEIncomingHandler aRealIncomingHandler = aIncomingHandler != null ? aIncomingHandler
+                                                                       : DcngIncomingHandlerViaHttp.create (s_sLogPrefix);
+    if (DcngConfig.ME.isMEMIncomingAsyncEnabled ())
+    {
+      // Queue incoming messages and hand them over in the background
+      s_aAsyncIncomingHandler = DcngIncomingHandlerAsync.createFromConfig (aRealIncomingHandler);
+      aRealIncomingHandler = s_aAsyncIncomingHandler;
+      if (LOGGER.isInfoEnabled ())
+        LOGGER.info ("Using asynchronous incoming handler " + s_aAsyncIncomingHandler);
+    }
     MessageExchangeManager.getConfiguredImplementation ().init (aServletContext, aRealIncomingHandler);
 
     DE4AKafkaClient.send (EErrorLevel.INFO,
@@ -212,6 +279,51 @@ public final class DcngInit
     return INITED.get ();
   }
 
+  /**
+   * @return The asynchronous incoming handler that is in use or
+   *         <code>null</code> if asynchronous incoming handling is disabled or
+   *         the DE4A Connector is not initialized.
+   * @since 0.2.16
+   */
+  @Nullable
+  public static DcngIncomingHandlerAsync getAsyncIncomingHandler ()
+  {
+    return s_aAsyncIncomingHandler;
+  }
+
+  /**
+   * @return The SMP service metadata cache that is in use or <code>null</code>
+   *         if caching is disabled or the DE4A Connector is not initialized.
+   * @since 0.2.16
+   */
+  @Nullable
+  public static DDServiceMetadataProviderCaching getSMPCache ()
+  {
+    return s_aSMPCache;
+  }
+
+  /**
+   * @return The IAL cache that is in use or <code>null</code> if caching is
+   *         disabled or the DE4A Connector is not initialized.
+   * @since 0.2.16
+   */
+  @Nullable
+  public static DcngIALClientCaching getIALCache ()
+  {
+    return s_aIALCache;
+  }
+
+  /**
+   * @return The IAL prefetch that is in use or <code>null</code> if it is
+   *         disabled or the DE4A Connector is not initialized.
+   * @since 0.2.16
+   */
+  @Nullable
+  public static DcngIALClientPrefetch getIALPrefetch ()
+  {
+    return s_aIALPrefetch;
+  }
+
   /**
    * Globally shutdown the DE4A Connector. Calling it, if it was not already
    * initialized will thrown an exception.
@@ -232,6 +344,50 @@ public final class DcngInit
     // Shutdown message exchange
     MessageExchangeManager.getConfiguredImplementation ().shutdown (aServletContext);
 
+    // Finish all parallel sending
+    DcngSendExecutor.shutdownGlobally ();
+
+    // Handle all queued incoming messages
+    if (s_aAsyncIncomingHandler != null)
+    {
+      s_aAsyncIncomingHandler.close ();
+      s_aAsyncIncomingHandler = null;
+    }
+
+    // Shutdown the outbox - pending messages are retried after the next start
+    DcngOutbox.shutdownGlobally ();
+
+    // Shutdown the shared HTTP client for forwarding to DC/DP
+    DcngDPHttpClient.shutdownGlobally ();
+
+    // Shutdown the HTTP client for the asynchronous sending callbacks
+    DcngAsyncSender.shutdownGlobally ();
+
+    // Remove the IAL cache and prefetch again
+    if (s_aIALCache != null)
+    {
+      DcngApiConfig.setIALClient (s_aIALCache.getDelegate ());
+      s_aIALCache.close ();
+      s_aIALCache = null;
+    }
+    if (s_aIALPrefetch != null)
+    {
+      DcngApiConfig.setIALClient (s_aIALPrefetch.getDelegate ());
+      s_aIALPrefetch.close ();
+      s_aIALPrefetch = null;
+    }
+
+    // Remove the SMP cache again
+    if (s_aSMPCache != null)
+    {
+      DcngApiConfig.setDDServiceMetadataProvider (s_aSMPCache.getDelegate ());
+      s_aSMPCache.close ();
+      s_aSMPCache = null;
+    }
+
+    // Shutdown the shared SMP clients
+    DcngSMPClientRegistry.shutdownGlobally ();
+
     // Shutdown tracker
     DE4AKafkaClient.close ();
 
@@ -31,6 +31,14 @@ import com.helger.commons.debug.GlobalDebug;
 import com.helger.commons.system.SystemProperties;
 import com.helger.config.source.res.IConfigurationSourceResource;
 import com.helger.dcng.api.DcngConfig;
+import com.helger.dcng.core.api.DcngOutgoingMessageReader;
+import com.helger.dcng.core.ial.DcngIALClientCaching;
+import com.helger.dcng.core.ial.DcngIALClientPrefetch;
+import com.helger.dcng.core.incoming.DcngDPHttpClient;
+import com.helger.dcng.core.incoming.DcngIncomingHandlerAsync;
+import com.helger.dcng.core.outbox.DcngOutbox;
+import com.helger.dcng.core.smp.DDServiceMetadataProviderCaching;
+import com.helger.dcng.core.smp.DcngSMPClientRegistry;
 import com.helger.json.IJsonObject;
 import com.helger.json.JsonObject;
 
@@ -56,6 +64,26 @@ public final class DcngStatusHelper
     aStatusData.add ("java.version", SystemProperties.getJavaVersion ());
     aStatusData.add ("global.debug", GlobalDebug.isDebugMode ());
     aStatusData.add ("global.production", GlobalDebug.isProductionMode ());
+    aStatusData.add ("http.forward.pool", DcngDPHttpClient.getPoolStatsAsJson ());
+    final DcngIncomingHandlerAsync aAsyncIncomingHandler = DcngInit.getAsyncIncomingHandler ();
+    if (aAsyncIncomingHandler != null)
+      aStatusData.add ("incoming.async", aAsyncIncomingHandler.getMetricsAsJson ());
+    final DcngOutbox aOutbox = DcngOutbox.getInstance ();
+    if (aOutbox != null)
+      aStatusData.add ("incoming.outbox", aOutbox.getMetricsAsJson ());
+    final DcngSMPClientRegistry aSMPClients = DcngSMPClientRegistry.getInstance ();
+    if (aSMPClients != null)
+      aStatusData.add ("smp.clients", aSMPClients.getMetricsAsJson ());
+    final DDServiceMetadataProviderCaching aSMPCache = DcngInit.getSMPCache ();
+    if (aSMPCache != null)
+      aStatusData.add ("smp.cache", aSMPCache.getMetricsAsJson ());
+    final DcngIALClientCaching aIALCache = DcngInit.getIALCache ();
+    if (aIALCache != null)
+      aStatusData.add ("ial.cache", aIALCache.getMetricsAsJson ());
+    final DcngIALClientPrefetch aIALPrefetch = DcngInit.getIALPrefetch ();
+    if (aIALPrefetch != null)
+      aStatusData.add ("ial.prefetch", aIALPrefetch.getMetricsAsJson ());
+    aStatusData.add ("rest.validation", DcngOutgoingMessageReader.getMetricsAsJson ());
 
     // add all configuration items to status (all except passwords)
     final ICommonsOrderedMap <String, String> aVals = new CommonsLinkedHashMap <> ();
@@ -18,6 +18,9 @@
 package com.helger.dcng.core.api;
 
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -200,4 +203,80 @@ public final class DcngApiHelper
     final IMessageExchangeSPI aMEM = MessageExchangeManager.getConfiguredImplementation ();
     aMEM.sendOutgoing (aRoutingInfo, aMessage);
   }
+
+  /**
+   * Send an AS4 message using the configured Message Exchange Module (MEM) in
+   * the background, using the {@link DcngSendExecutor}.
+   *
+   * @param aRoutingInfo
+   *        Routing information. May not be <code>null</code>.
+   * @param aMessage
+   *        The message to be exchanged. May not be <code>null</code>.
+   * @return The future that is completed when sending is done. In case of
+   *         error it is completed exceptionally with a
+   *         {@link CompletionException} wrapping the
+   *         {@link MEOutgoingException}. Never <code>null</code>.
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static CompletableFuture <Void> sendAS4MessageAsync (@Nonnull final IMERoutingInformation aRoutingInfo,
+                                                              @Nonnull final MEMessage aMessage)
+  {
+    return DcngSendExecutor.submit ( () -> {
+      try
+      {
+        sendAS4Message (aRoutingInfo, aMessage);
+        return null;
+      }
+      catch (final MEOutgoingException ex)
+      {
+        throw new CompletionException (ex);
+      }
+    });
+  }
+
+  /**
+   * Send an AS4 message using the configured Message Exchange Module (MEM) and
+   * wait for the result. The sending is performed by the
+   * {@link DcngSendExecutor}, so that the number of concurrent sendings is
+   * limited by configuration and not by the number of calling threads. If the
+   * current thread is already performing a task of the
+   * {@link DcngSendExecutor}, the message is sent directly, to avoid a
+   * deadlock.
+   *
+   * @param aRoutingInfo
+   *        Routing information. May not be <code>null</code>.
+   * @param aMessage
+   *        The message to be exchanged. May not be <code>null</code>.
+   * @throws MEOutgoingException
+   *         In case of error.
+   * @throws RejectedExecutionException
+   *         If the {@link DcngSendExecutor} is too busy
+   * @since 0.2.16
+   */
+  public static void sendAS4MessageWithExecutor (@Nonnull final IMERoutingInformation aRoutingInfo,
+                                                 @Nonnull final MEMessage aMessage) throws MEOutgoingException
+  {
+    if (DcngSendExecutor.isInTask ())
+    {
+      sendAS4Message (aRoutingInfo, aMessage);
+      return;
+    }
+
+    try
+    {
+      sendAS4MessageAsync (aRoutingInfo, aMessage).join ();
+    }
+    catch (final CompletionException ex)
+    {
+      final Throwable aCause = ex.getCause ();
+      if (aCause instanceof MEOutgoingException)
+        throw (MEOutgoingException) aCause;
+      if (aCause instanceof RuntimeException)
+        throw (RuntimeException) aCause;
+      if (aCause instanceof Error)
+        throw (Error) aCause;
+      throw ex;
+    }
+  }
 }
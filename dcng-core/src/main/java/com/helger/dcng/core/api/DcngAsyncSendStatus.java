@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.api;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+
+/**
+ * The status of a single asynchronous sending, as managed by
+ * {@link DcngAsyncSender}.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@ThreadSafe
+public final class DcngAsyncSendStatus
+{
+  public static final String JSON_TAG_TRACKING_ID = "trackingID";
+  public static final String JSON_TAG_STATE = "state";
+  public static final String JSON_TAG_CREATION_DATE_TIME = "creationDateTime";
+  public static final String JSON_TAG_FINISHED_DATE_TIME = "finishedDateTime";
+  public static final String JSON_TAG_RESULT = "result";
+
+  private final String m_sTrackingID;
+  private final ZonedDateTime m_aCreationDT;
+  private final String m_sCallbackURL;
+  private volatile EDcngAsyncSendState m_eState = EDcngAsyncSendState.QUEUED;
+  private volatile ZonedDateTime m_aFinishedDT;
+  private volatile IJsonObject m_aResult;
+
+  DcngAsyncSendStatus (@Nonnull @Nonempty final String sTrackingID, @Nullable final String sCallbackURL)
+  {
+    ValueEnforcer.notEmpty (sTrackingID, "TrackingID");
+    m_sTrackingID = sTrackingID;
+    m_aCreationDT = PDTFactory.getCurrentZonedDateTimeUTC ();
+    m_sCallbackURL = sCallbackURL;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getTrackingID ()
+  {
+    return m_sTrackingID;
+  }
+
+  @Nonnull
+  public ZonedDateTime getCreationDT ()
+  {
+    return m_aCreationDT;
+  }
+
+  /**
+   * @return The URL to which the status is posted when the sending is
+   *         finished. May be <code>null</code>.
+   */
+  @Nullable
+  public String getCallbackURL ()
+  {
+    return m_sCallbackURL;
+  }
+
+  @Nonnull
+  public EDcngAsyncSendState getState ()
+  {
+    return m_eState;
+  }
+
+  /**
+   * @return The date and time when the sending was finished. Only set if the
+   *         state is finished.
+   */
+  @Nullable
+  public ZonedDateTime getFinishedDT ()
+  {
+    return m_aFinishedDT;
+  }
+
+  /**
+   * @return The result of the sending as JSON. Only set if the state is
+   *         finished.
+   */
+  @Nullable
+  public IJsonObject getResult ()
+  {
+    return m_aResult;
+  }
+
+  void setRunning ()
+  {
+    m_eState = EDcngAsyncSendState.RUNNING;
+  }
+
+  void setFinished (@Nonnull final IJsonObject aResult, final boolean bSuccess)
+  {
+    m_aResult = aResult;
+    m_aFinishedDT = PDTFactory.getCurrentZonedDateTimeUTC ();
+    // Set the state last, so that readers see the result
+    m_eState = bSuccess ? EDcngAsyncSendState.SUCCESS : EDcngAsyncSendState.FAILURE;
+  }
+
+  @Nonnull
+  public IJsonObject getAsJson ()
+  {
+    // Read the state first - see setFinished
+    final EDcngAsyncSendState eState = m_eState;
+    final IJsonObject ret = new JsonObject ();
+    ret.add (JSON_TAG_TRACKING_ID, m_sTrackingID);
+    ret.add (JSON_TAG_STATE, eState.getID ());
+    ret.add (JSON_TAG_CREATION_DATE_TIME, DateTimeFormatter.ISO_ZONED_DATE_TIME.format (m_aCreationDT));
+    if (eState.isFinished ())
+    {
+      ret.add (JSON_TAG_FINISHED_DATE_TIME, DateTimeFormatter.ISO_ZONED_DATE_TIME.format (m_aFinishedDT));
+      ret.addJson (JSON_TAG_RESULT, m_aResult);
+    }
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("TrackingID", m_sTrackingID)
+                                       .append ("CreationDT", m_aCreationDT)
+                                       .append ("CallbackURL", m_sCallbackURL)
+                                       .append ("State", m_eState)
+                                       .append ("FinishedDT", m_aFinishedDT)
+                                       .getToString ();
+  }
+}
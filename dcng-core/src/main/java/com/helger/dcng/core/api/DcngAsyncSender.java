@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.api;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.util.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsConcurrentHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.dcng.api.DcngConfig;
+import com.helger.dcng.core.http.DcngHttpClientSettings;
+import com.helger.dcng.core.http.DcngPooledHttpClientFactory;
+import com.helger.httpclient.HttpClientManager;
+import com.helger.httpclient.response.ResponseHandlerByteArray;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+
+import eu.de4a.kafkaclient.DE4AKafkaClient;
+
+/**
+ * Performs sending tasks asynchronously with the {@link DcngSendExecutor} and
+ * remembers their status under a tracking ID. Finished entries are removed
+ * after {@link DcngConfig.ME#getMEMOutgoingAsyncRetentionSeconds()}. If a
+ * callback URL is provided, the final status is posted there as JSON, using an
+ * own pooled HTTP client so that slow callback receivers don't take the
+ * connections used for forwarding to the DC/DP.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@ThreadSafe
+public final class DcngAsyncSender
+{
+  /** The JSON property of the task result that indicates success */
+  public static final String JSON_TAG_SUCCESS = "success";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (DcngAsyncSender.class);
+  private static final long CLEANUP_INTERVAL_MS = 60_000;
+  private static final ICommonsMap <String, DcngAsyncSendStatus> STATUS = new CommonsConcurrentHashMap <> ();
+  private static final AtomicLong LAST_CLEANUP = new AtomicLong (System.currentTimeMillis ());
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+
+  @GuardedBy ("RW_LOCK")
+  private static HttpClientManager s_aCallbackHCM;
+
+  private DcngAsyncSender ()
+  {}
+
+  /**
+   * Create the pooled HTTP client for posting to the callback URLs based on
+   * the configuration. Calling this method if it is already initialized, has
+   * no effect.
+   */
+  public static void initGlobally ()
+  {
+    RW_LOCK.writeLocked ( () -> {
+      if (s_aCallbackHCM == null)
+      {
+        final DcngPooledHttpClientFactory aFactory = new DcngPooledHttpClientFactory (new DcngHttpClientSettings (),
+                                                                                      DcngConfig.ME.getMEMOutgoingAsyncCallbackHttpMaxPerRoute (),
+                                                                                      DcngConfig.ME.getMEMOutgoingAsyncCallbackHttpMaxTotal (),
+                                                                                      TimeValue.ofSeconds (DcngConfig.ME.getMEMIncomingHttpKeepAliveSeconds ()),
+                                                                                      TimeValue.ofSeconds (DcngConfig.ME.getMEMIncomingHttpIdleEvictionSeconds ()));
+        s_aCallbackHCM = new HttpClientManager (aFactory);
+        LOGGER.info ("Created pooled HTTP client for asynchronous sending callbacks: " + aFactory);
+      }
+    });
+  }
+
+  /**
+   * Close the pooled HTTP client for posting to the callback URLs, if it was
+   * created.
+   */
+  public static void shutdownGlobally ()
+  {
+    RW_LOCK.writeLocked ( () -> {
+      if (s_aCallbackHCM != null)
+      {
+        StreamHelper.close (s_aCallbackHCM);
+        s_aCallbackHCM = null;
+        LOGGER.info ("Closed pooled HTTP client for asynchronous sending callbacks");
+      }
+    });
+  }
+
+  private static void _removeExpired ()
+  {
+    final long nNow = System.currentTimeMillis ();
+    final long nLast = LAST_CLEANUP.get ();
+    if (nNow - nLast >= CLEANUP_INTERVAL_MS && LAST_CLEANUP.compareAndSet (nLast, nNow))
+    {
+      final ZonedDateTime aLimit = PDTFactory.getCurrentZonedDateTimeUTC ()
+                                             .minusSeconds (DcngConfig.ME.getMEMOutgoingAsyncRetentionSeconds ());
+      STATUS.values ().removeIf (x -> x.getState ().isFinished () && x.getFinishedDT ().isBefore (aLimit));
+    }
+  }
+
+  private static void _postCallback (@Nonnull final DcngAsyncSendStatus aStatus)
+  {
+    final String sCallbackURL = aStatus.getCallbackURL ();
+    final HttpPost aPost = new HttpPost (sCallbackURL);
+    aPost.setEntity (new ByteArrayEntity (aStatus.getAsJson ().getAsJsonString ().getBytes (StandardCharsets.UTF_8),
+                                          ContentType.APPLICATION_JSON));
+    try
+    {
+      final HttpClientManager aCallbackHCM = RW_LOCK.readLockedGet ( () -> s_aCallbackHCM);
+      if (aCallbackHCM != null)
+        aCallbackHCM.execute (aPost, new ResponseHandlerByteArray ());
+      else
+      {
+        // Not initialized (e.g. in tests)
+        try (final HttpClientManager aHCM = HttpClientManager.create (new DcngHttpClientSettings ()))
+        {
+          aHCM.execute (aPost, new ResponseHandlerByteArray ());
+        }
+      }
+    }
+    catch (final Exception ex)
+    {
+      DE4AKafkaClient.send (EErrorLevel.ERROR,
+                            () -> "Failed to post the status of '" +
+                                  aStatus.getTrackingID () +
+                                  "' to callback URL '" +
+                                  sCallbackURL +
+                                  "'",
+                            ex);
+    }
+  }
+
+  private static void _run (@Nonnull final DcngAsyncSendStatus aStatus, @Nonnull final Supplier <IJsonObject> aTask)
+  {
+    aStatus.setRunning ();
+    IJsonObject aResult;
+    try
+    {
+      aResult = aTask.get ();
+    }
+    catch (final RuntimeException ex)
+    {
+      DE4AKafkaClient.send (EErrorLevel.ERROR,
+                            () -> "Error in asynchronous sending '" + aStatus.getTrackingID () + "'",
+                            ex);
+      aResult = new JsonObject ().add (JSON_TAG_SUCCESS, false)
+                                 .add ("exception", ex.getClass ().getName () + ": " + ex.getMessage ());
+    }
+    aStatus.setFinished (aResult, aResult.getAsBoolean (JSON_TAG_SUCCESS, false));
+
+    if (StringHelper.hasText (aStatus.getCallbackURL ()))
+      _postCallback (aStatus);
+  }
+
+  /**
+   * Perform the provided sending task asynchronously.
+   *
+   * @param aTask
+   *        The task that performs the sending and returns the result as JSON.
+   *        The result must contain the boolean property
+   *        {@value #JSON_TAG_SUCCESS}. May not be <code>null</code>.
+   * @param sCallbackURL
+   *        An optional URL to which the final status is posted as JSON. May
+   *        be <code>null</code>.
+   * @return The status of the new task with the tracking ID. Never
+   *         <code>null</code>.
+   * @throws RejectedExecutionException
+   *         If the {@link DcngSendExecutor} is too busy to accept the task
+   */
+  @Nonnull
+  public static DcngAsyncSendStatus submit (@Nonnull final Supplier <IJsonObject> aTask,
+                                            @Nullable final String sCallbackURL)
+  {
+    ValueEnforcer.notNull (aTask, "Task");
+
+    _removeExpired ();
+
+    final DcngAsyncSendStatus aStatus = new DcngAsyncSendStatus (UUID.randomUUID ().toString (), sCallbackURL);
+    STATUS.put (aStatus.getTrackingID (), aStatus);
+    final CompletableFuture <Void> aFuture = DcngSendExecutor.submit ( () -> {
+      _run (aStatus, aTask);
+      return null;
+    });
+    if (DcngSendExecutor.isRejected (aFuture))
+    {
+      // Don't hand out a tracking ID for a task that never runs
+      STATUS.remove (aStatus.getTrackingID ());
+      throw new RejectedExecutionException ("Too many pending sending tasks - try again later");
+    }
+    return aStatus;
+  }
+
+  /**
+   * Get the status of an asynchronous sending.
+   *
+   * @param sTrackingID
+   *        The tracking ID as returned by
+   *        {@link #submit(Supplier, String)}. May be <code>null</code>.
+   * @return <code>null</code> if no such tracking ID is known, or if it
+   *         already expired.
+   */
+  @Nullable
+  public static DcngAsyncSendStatus getStatus (@Nullable final String sTrackingID)
+  {
+    if (StringHelper.hasNoText (sTrackingID))
+      return null;
+    return STATUS.get (sTrackingID);
+  }
+
+  /**
+   * @return The number of remembered status entries, including finished ones.
+   */
+  public static int getStatusCount ()
+  {
+    return STATUS.size ();
+  }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Validator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.dcng.api.DcngConfig;
+import com.helger.dcng.api.me.model.MEPayload;
+import com.helger.dcng.api.me.model.MEPayloadFileSource;
+import com.helger.dcng.api.rest.DCNGOutgoingMessage;
+import com.helger.dcng.api.rest.DcngOutgoingMessageStaxReader;
+import com.helger.dcng.api.rest.DcngRestJAXB;
+import com.helger.dcng.api.rest.DcngRestStructureValidator;
+import com.helger.dcng.api.rest.DcngStreamedOutgoingMessage;
+import com.helger.dcng.api.rest.EDcngRestValidationMode;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+import com.helger.xml.schema.XMLSchemaCache;
+
+/**
+ * Reads {@link DCNGOutgoingMessage} objects received via the REST API and
+ * validates them according to the configured
+ * {@link EDcngRestValidationMode}.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@ThreadSafe
+public final class DcngOutgoingMessageReader
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (DcngOutgoingMessageReader.class);
+
+  private static final AtomicLong READ = new AtomicLong (0);
+  private static final AtomicLong REJECTED = new AtomicLong (0);
+  private static final AtomicLong IGNORED = new AtomicLong (0);
+
+  private DcngOutgoingMessageReader ()
+  {}
+
+  /**
+   * Read an outgoing message using the configured validation mode.
+   *
+   * @param aIS
+   *        The input stream to read from. May not be <code>null</code>.
+   * @return <code>null</code> if the message could not be read or is invalid.
+   */
+  @Nullable
+  public static DCNGOutgoingMessage read (@Nonnull final InputStream aIS)
+  {
+    return read (aIS, DcngConfig.WebApp.getRestValidationMode ());
+  }
+
+  /**
+   * Read an outgoing message.
+   *
+   * @param aIS
+   *        The input stream to read from. May not be <code>null</code>.
+   * @param eMode
+   *        The validation mode to use. May not be <code>null</code>.
+   * @return <code>null</code> if the message could not be read or is invalid.
+   */
+  @Nullable
+  public static DCNGOutgoingMessage read (@Nonnull final InputStream aIS, @Nonnull final EDcngRestValidationMode eMode)
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+    ValueEnforcer.notNull (eMode, "Mode");
+
+    READ.incrementAndGet ();
+    if (eMode == EDcngRestValidationMode.FULL)
+    {
+      final DCNGOutgoingMessage ret = DcngRestJAXB.pooledOutgoingMessage ().read (aIS);
+      if (ret == null)
+        REJECTED.incrementAndGet ();
+      return ret;
+    }
+
+    // Avoid the second pass over the payloads
+    final DCNGOutgoingMessage ret = DcngRestJAXB.pooledOutgoingMessageWithoutSchema ().read (aIS);
+    if (ret == null)
+    {
+      // Not even well-formed
+      REJECTED.incrementAndGet ();
+      return null;
+    }
+
+    final ICommonsList <String> aErrors = DcngRestStructureValidator.getAllErrors (ret);
+    if (aErrors.isNotEmpty ())
+    {
+      if (eMode == EDcngRestValidationMode.STRUCTURAL)
+      {
+        LOGGER.warn ("The received OutgoingMessage is structurally invalid: " + aErrors);
+        REJECTED.incrementAndGet ();
+        return null;
+      }
+
+      // Validation is off - just remember it
+      LOGGER.warn ("The received OutgoingMessage is structurally invalid, but validation is disabled: " + aErrors);
+      IGNORED.incrementAndGet ();
+    }
+    return ret;
+  }
+
+  /**
+   * Read an outgoing message with a streaming parser using the configured
+   * validation mode. See {@link #readStreaming(InputStream, EDcngRestValidationMode)}
+   * for details.
+   *
+   * @param aIS
+   *        The input stream to read from. May not be <code>null</code>.
+   * @return <code>null</code> if the message could not be read or is invalid.
+   */
+  @Nullable
+  public static DcngStreamedOutgoingMessage readStreaming (@Nonnull final InputStream aIS)
+  {
+    return readStreaming (aIS, DcngConfig.WebApp.getRestValidationMode ());
+  }
+
+  /**
+   * Read an outgoing message with a streaming parser. The payloads are decoded
+   * while reading and large payloads are stored in temporary files, so the
+   * caller is responsible for calling
+   * {@link DcngStreamedOutgoingMessage#deleteTemporaryData()}.<br>
+   * The streaming parser cannot perform an XML Schema validation itself.
+   * Therefore in mode {@link EDcngRestValidationMode#FULL} the received
+   * message is first spooled (in memory or into a temporary file, like the
+   * payloads) and validated against the XML Schema, before it is read from the
+   * spooled copy. In all other modes the message is read directly from the
+   * provided stream and the metadata is checked structurally. Invalid Base64
+   * is rejected in all modes, because it cannot be decoded.
+   *
+   * @param aIS
+   *        The input stream to read from. May not be <code>null</code>.
+   * @param eMode
+   *        The validation mode to use. May not be <code>null</code>.
+   * @return <code>null</code> if the message could not be read or is invalid.
+   */
+  @Nullable
+  public static DcngStreamedOutgoingMessage readStreaming (@Nonnull final InputStream aIS,
+                                                           @Nonnull final EDcngRestValidationMode eMode)
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+    ValueEnforcer.notNull (eMode, "Mode");
+
+    READ.incrementAndGet ();
+    if (eMode != EDcngRestValidationMode.FULL)
+      return _readStreaming (aIS, eMode);
+
+    final IHasInputStream aSpooled;
+    try
+    {
+      aSpooled = MEPayload.createSpooledDataSource (aIS);
+    }
+    catch (final UncheckedIOException ex)
+    {
+      LOGGER.warn ("Failed to spool the received OutgoingMessage: " + ex.getMessage ());
+      REJECTED.incrementAndGet ();
+      return null;
+    }
+
+    try
+    {
+      if (!_isSchemaValid (aSpooled))
+      {
+        REJECTED.incrementAndGet ();
+        return null;
+      }
+      return _readStreaming (aSpooled.getInputStream (), eMode);
+    }
+    finally
+    {
+      // The read payloads are independent of the spooled message
+      if (aSpooled instanceof MEPayloadFileSource)
+        ((MEPayloadFileSource) aSpooled).deleteTemporaryFile ();
+    }
+  }
+
+  private static boolean _isSchemaValid (@Nonnull final IHasInputStream aSource)
+  {
+    final Validator aValidator = XMLSchemaCache.getInstance ().getSchema (DcngRestJAXB.XSD_RES).newValidator ();
+    try
+    {
+      // Avoid XML attacks
+      aValidator.setProperty (XMLConstants.ACCESS_EXTERNAL_DTD, "");
+      aValidator.setProperty (XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+    }
+    catch (final SAXNotRecognizedException | SAXNotSupportedException ex)
+    {
+      // Not supported by the underlying implementation
+    }
+
+    try (final InputStream aSourceIS = aSource.getInputStream ())
+    {
+      aValidator.validate (new StreamSource (aSourceIS));
+      return true;
+    }
+    catch (final SAXException | IOException ex)
+    {
+      LOGGER.warn ("The received OutgoingMessage is invalid according to the XML Schema: " + ex.getMessage ());
+      return false;
+    }
+  }
+
+  @Nullable
+  private static DcngStreamedOutgoingMessage _readStreaming (@Nonnull final InputStream aIS,
+                                                             @Nonnull final EDcngRestValidationMode eMode)
+  {
+    final DcngStreamedOutgoingMessage ret = DcngOutgoingMessageStaxReader.read (aIS);
+    if (ret == null)
+    {
+      // Not well-formed or invalid payload
+      REJECTED.incrementAndGet ();
+      return null;
+    }
+
+    final ICommonsList <String> aErrors = DcngRestStructureValidator.getAllErrors (ret.getMetadata ());
+    if (ret.getPayloadCount () == 0)
+      aErrors.add ("Element 'Payload' is missing");
+    if (aErrors.isNotEmpty ())
+    {
+      if (eMode != EDcngRestValidationMode.OFF)
+      {
+        LOGGER.warn ("The received OutgoingMessage is structurally invalid: " + aErrors);
+        REJECTED.incrementAndGet ();
+        ret.deleteTemporaryData ();
+        return null;
+      }
+
+      // Validation is off - just remember it
+      LOGGER.warn ("The received OutgoingMessage is structurally invalid, but validation is disabled: " + aErrors);
+      IGNORED.incrementAndGet ();
+    }
+    return ret;
+  }
+
+  /**
+   * @return The number of messages that were rejected because they could not
+   *         be read or were invalid.
+   */
+  public static long getRejectedCount ()
+  {
+    return REJECTED.get ();
+  }
+
+  /**
+   * @return The number of messages that were accepted, although they would
+   *         have failed the structural validation.
+   */
+  public static long getIgnoredCount ()
+  {
+    return IGNORED.get ();
+  }
+
+  /**
+   * @return The current metrics as a JSON object. Never <code>null</code>.
+   */
+  @Nonnull
+  public static IJsonObject getMetricsAsJson ()
+  {
+    final IJsonObject ret = new JsonObject ();
+    ret.add ("mode", DcngConfig.WebApp.getRestValidationMode ().getID ());
+    ret.add ("read", READ.get ());
+    ret.add ("rejected", getRejectedCount ());
+    ret.add ("ignored", getIgnoredCount ());
+    return ret;
+  }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.api;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.functional.IThrowingRunnable;
+import com.helger.dcng.api.DcngConfig;
+import com.helger.dcng.api.me.outgoing.EMEOutgoingExecutorMode;
+
+/**
+ * Holds the executor that is used to perform blocking SMP lookups, AS4 sending
+ * and forwarding in the background. It is initialized and shutdown together
+ * with the DE4A Connector. Depending on the {@link EMEOutgoingExecutorMode}
+ * and the JVM, either one virtual thread per task is used, with the number of
+ * concurrently running tasks limited by configuration, or a bounded pool of
+ * platform threads. In both cases only a limited number of tasks may wait. If
+ * too many tasks are waiting, the task is rejected
+ * and the returned future fails with a {@link RejectedExecutionException}, so
+ * that callers can report that the Connector is busy. If the executor is not
+ * initialized (e.g. in tests), the calling thread performs the task itself.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@ThreadSafe
+public final class DcngSendExecutor
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (DcngSendExecutor.class);
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  private static final AtomicLong REJECTED = new AtomicLong (0);
+  // Set while a task of this executor is performed
+  private static final ThreadLocal <Boolean> IN_TASK = new ThreadLocal <> ();
+
+  @GuardedBy ("RW_LOCK")
+  private static ExecutorService s_aExecutor;
+  @GuardedBy ("RW_LOCK")
+  private static Executor s_aTaskExecutor;
+  @GuardedBy ("RW_LOCK")
+  private static boolean s_bVirtualThreads = false;
+
+  private DcngSendExecutor ()
+  {}
+
+  /**
+   * Create an executor that starts a new virtual thread for each task. This
+   * is done via reflection, because the code must run on Java 8 as well.
+   *
+   * @param sNamePrefix
+   *        The prefix for the thread names. May not be <code>null</code>.
+   * @return <code>null</code> if the JVM does not support virtual threads.
+   */
+  @Nullable
+  static ExecutorService createVirtualThreadExecutor (@Nonnull final String sNamePrefix)
+  {
+    try
+    {
+      // Thread.ofVirtual ().name (sNamePrefix, 0).factory ()
+      final Class <?> aBuilderClass = Class.forName ("java.lang.Thread$Builder");
+      Object aBuilder = Thread.class.getMethod ("ofVirtual").invoke (null);
+      aBuilder = aBuilderClass.getMethod ("name", String.class, long.class)
+                              .invoke (aBuilder, sNamePrefix, Long.valueOf (0));
+      final ThreadFactory aThreadFactory = (ThreadFactory) aBuilderClass.getMethod ("factory").invoke (aBuilder);
+
+      // Executors.newThreadPerTaskExecutor (aThreadFactory)
+      return (ExecutorService) Executors.class.getMethod ("newThreadPerTaskExecutor", ThreadFactory.class)
+                                              .invoke (null, aThreadFactory);
+    }
+    catch (final ReflectiveOperationException | LinkageError ex)
+    {
+      // Not supported (Java < 21) or not enabled (preview in Java 19 and 20)
+      return null;
+    }
+  }
+
+  /**
+   * Create the executor based on the configuration. Calling this method if it
+   * is already initialized, has no effect.
+   */
+  public static void initGlobally ()
+  {
+    initGlobally (DcngConfig.ME.getMEMOutgoingExecutorMode (),
+                  DcngConfig.ME.getMEMOutgoingParallelThreads (),
+                  DcngConfig.ME.getMEMOutgoingParallelQueueCapacity (),
+                  DcngConfig.ME.getMEMOutgoingVirtualMaxConcurrency ());
+  }
+
+  /**
+   * Create the executor with the provided settings. Calling this method if it
+   * is already initialized, has no effect.
+   *
+   * @param eMode
+   *        The executor mode to use. May not be <code>null</code>.
+   * @param nThreads
+   *        The number of platform threads. Must be &gt; 0.
+   * @param nQueueCapacity
+   *        The maximum number of waiting tasks. Must be &gt; 0.
+   * @param nMaxConcurrency
+   *        The maximum number of concurrently running tasks on virtual
+   *        threads. Must be &gt; 0.
+   */
+  public static void initGlobally (@Nonnull final EMEOutgoingExecutorMode eMode,
+                                   @Nonnegative final int nThreads,
+                                   @Nonnegative final int nQueueCapacity,
+                                   @Nonnegative final int nMaxConcurrency)
+  {
+    ValueEnforcer.notNull (eMode, "Mode");
+    ValueEnforcer.isGT0 (nThreads, "Threads");
+    ValueEnforcer.isGT0 (nQueueCapacity, "QueueCapacity");
+    ValueEnforcer.isGT0 (nMaxConcurrency, "MaxConcurrency");
+
+    RW_LOCK.writeLocked ( () -> {
+      if (s_aExecutor == null)
+      {
+        final ExecutorService aVirtualExecutor = eMode == EMEOutgoingExecutorMode.VIRTUAL ? createVirtualThreadExecutor ("dcng-send-v-")
+                                                                                            : null;
+        if (aVirtualExecutor != null)
+        {
+          // The running and waiting tasks are limited on the submitting thread,
+          // like the queue of the platform pool. Blocking a virtual thread is
+          // cheap, so waiting for a running permit inside the task is fine.
+          final int nMaxTasks = nMaxConcurrency + nQueueCapacity;
+          final Semaphore aTaskPermits = new Semaphore (nMaxTasks);
+          final Semaphore aRunPermits = new Semaphore (nMaxConcurrency);
+          s_aExecutor = aVirtualExecutor;
+          s_aTaskExecutor = r -> {
+            if (!aTaskPermits.tryAcquire ())
+              throw new RejectedExecutionException ("Too many pending tasks (" + nMaxTasks + ")");
+            try
+            {
+              aVirtualExecutor.execute ( () -> {
+                try
+                {
+                  aRunPermits.acquireUninterruptibly ();
+                  try
+                  {
+                    r.run ();
+                  }
+                  finally
+                  {
+                    aRunPermits.release ();
+                  }
+                }
+                finally
+                {
+                  aTaskPermits.release ();
+                }
+              });
+            }
+            catch (final RejectedExecutionException ex)
+            {
+              // Shutdown in the meantime
+              aTaskPermits.release ();
+              throw ex;
+            }
+          };
+          s_bVirtualThreads = true;
+          LOGGER.info ("Created send executor with virtual threads, a maximum concurrency of " +
+                       nMaxConcurrency +
+                       " and a queue capacity of " +
+                       nQueueCapacity);
+        }
+        else
+        {
+          if (eMode == EMEOutgoingExecutorMode.VIRTUAL)
+            LOGGER.info ("Virtual threads are not supported by this JVM - using platform threads instead");
+
+          final ThreadPoolExecutor aPool = new ThreadPoolExecutor (nThreads,
+                                                                   nThreads,
+                                                                   0L,
+                                                                   TimeUnit.MILLISECONDS,
+                                                                   new ArrayBlockingQueue <> (nQueueCapacity),
+                                                                   new BasicThreadFactory.Builder ().namingPattern ("dcng-send-%d")
+                                                                                                    .daemon (true)
+                                                                                                    .build (),
+                                                                   // Fail fast if overloaded
+                                                                   new ThreadPoolExecutor.AbortPolicy ());
+          s_aExecutor = aPool;
+          s_aTaskExecutor = aPool;
+          s_bVirtualThreads = false;
+          LOGGER.info ("Created send executor with " +
+                       nThreads +
+                       " platform threads and a queue capacity of " +
+                       nQueueCapacity);
+        }
+      }
+    });
+  }
+
+  /**
+   * Shutdown the executor, if it was created. All queued tasks are performed
+   * before.
+   */
+  public static void shutdownGlobally ()
+  {
+    final ExecutorService aExecutor = RW_LOCK.writeLockedGet ( () -> {
+      final ExecutorService ret = s_aExecutor;
+      s_aExecutor = null;
+      s_aTaskExecutor = null;
+      s_bVirtualThreads = false;
+      return ret;
+    });
+    if (aExecutor != null)
+    {
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aExecutor);
+      LOGGER.info ("Shutdown send executor");
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the executor is initialized,
+   *         <code>false</code> if not.
+   */
+  public static boolean isInitialized ()
+  {
+    return RW_LOCK.readLockedBoolean ( () -> s_aExecutor != null);
+  }
+
+  /**
+   * @return <code>true</code> if the executor is initialized and uses virtual
+   *         threads, <code>false</code> otherwise.
+   */
+  public static boolean isVirtualThreads ()
+  {
+    return RW_LOCK.readLockedBoolean ( () -> s_bVirtualThreads);
+  }
+
+  @Nonnull
+  private static Executor _getExecutor ()
+  {
+    final Executor ret = RW_LOCK.readLockedGet ( () -> s_aTaskExecutor);
+    if (ret == null)
+    {
+      // Not initialized - run in the calling thread
+      return Runnable::run;
+    }
+    return ret;
+  }
+
+  /**
+   * Perform the provided task with the executor. If the executor is busy or
+   * shut down, the task is not performed and the returned future is already
+   * completed with a {@link RejectedExecutionException}. Use
+   * {@link #isRejected(CompletableFuture)} to check for that.
+   *
+   * @param <T>
+   *        The result type
+   * @param aTask
+   *        The task to perform. May not be <code>null</code>.
+   * @return The future of the task result. Never <code>null</code>.
+   */
+  @Nonnull
+  public static <T> CompletableFuture <T> submit (@Nonnull final Supplier <T> aTask)
+  {
+    ValueEnforcer.notNull (aTask, "Task");
+    try
+    {
+      return CompletableFuture.supplyAsync ( () -> {
+        final Boolean aOld = IN_TASK.get ();
+        IN_TASK.set (Boolean.TRUE);
+        try
+        {
+          return aTask.get ();
+        }
+        finally
+        {
+          // Restore for tasks performed in the calling thread
+          if (aOld == null)
+            IN_TASK.remove ();
+        }
+      }, _getExecutor ());
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      REJECTED.incrementAndGet ();
+      LOGGER.warn ("Rejected send task: " + ex.getMessage ());
+      final CompletableFuture <T> ret = new CompletableFuture <> ();
+      ret.completeExceptionally (ex);
+      return ret;
+    }
+  }
+
+  /**
+   * Check if the provided future was returned by
+   * {@link #submit(Supplier)} for a task that was rejected.
+   *
+   * @param aFuture
+   *        The future to check. May not be <code>null</code>.
+   * @return <code>true</code> if the task was rejected and will never be
+   *         performed, <code>false</code> otherwise.
+   */
+  public static boolean isRejected (@Nonnull final CompletableFuture <?> aFuture)
+  {
+    ValueEnforcer.notNull (aFuture, "Future");
+    if (!aFuture.isCompletedExceptionally ())
+      return false;
+    try
+    {
+      aFuture.join ();
+      return false;
+    }
+    catch (final CompletionException | CancellationException ex)
+    {
+      return ex.getCause () instanceof RejectedExecutionException;
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the current thread is performing a task of
+   *         this executor. Such tasks must not wait for other tasks of this
+   *         executor, as that may result in a deadlock if the executor is
+   *         busy.
+   */
+  public static boolean isInTask ()
+  {
+    return IN_TASK.get () != null;
+  }
+
+  /**
+   * Perform the provided runnable in the calling thread as if it was a task of
+   * this executor. This is meant for threads of other bounded pools (e.g. the
+   * asynchronous incoming handler), that should send or forward directly
+   * instead of handing over to this executor and waiting for it.
+   *
+   * @param <EX>
+   *        The exception type that may be thrown
+   * @param aRunnable
+   *        The runnable to perform. May not be <code>null</code>.
+   * @throws EX
+   *         If the runnable throws it
+   * @see #isInTask()
+   */
+  public static <EX extends Exception> void runAsTask (@Nonnull final IThrowingRunnable <EX> aRunnable) throws EX
+  {
+    ValueEnforcer.notNull (aRunnable, "Runnable");
+    final Boolean aOld = IN_TASK.get ();
+    IN_TASK.set (Boolean.TRUE);
+    try
+    {
+      aRunnable.run ();
+    }
+    finally
+    {
+      if (aOld == null)
+        IN_TASK.remove ();
+    }
+  }
+
+  /**
+   * @return The number of tasks that were rejected since the start.
+   */
+  @Nonnegative
+  public static long getRejectedCount ()
+  {
+    return REJECTED.get ();
+  }
+}
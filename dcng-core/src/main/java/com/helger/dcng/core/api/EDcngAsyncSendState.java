@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.api;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+/**
+ * The state of an asynchronous sending.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+public enum EDcngAsyncSendState implements IHasID <String>
+{
+  /** Waiting for a free thread */
+  QUEUED ("queued"),
+  /** Lookup and sending is in progress */
+  RUNNING ("running"),
+  /** Finished successfully */
+  SUCCESS ("success"),
+  /** Finished with an error */
+  FAILURE ("failure");
+
+  private final String m_sID;
+
+  EDcngAsyncSendState (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  /**
+   * @return <code>true</code> if the sending is finished, <code>false</code>
+   *         if it is still queued or running.
+   */
+  public boolean isFinished ()
+  {
+    return this == SUCCESS || this == FAILURE;
+  }
+
+  @Nullable
+  public static EDcngAsyncSendState getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EDcngAsyncSendState.class, sID);
+  }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.cache;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * Shared loading logic of the caching decorators. Concurrent loads of the
+ * same key result in a single load only - all other callers wait for the
+ * result of the running load. Additionally a single background thread can be
+ * used to refresh entries, with the number of pending refreshes limited.
+ * Storing the loaded values is up to the caller.
+ *
+ * @author Philip Helger
+ * @param <K>
+ *        The cache key type
+ * @param <V>
+ *        The loaded value type
+ * @since 0.2.16
+ */
+@ThreadSafe
+public final class DcngSingleFlightLoader <K, V> implements AutoCloseable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (DcngSingleFlightLoader.class);
+
+  private final String m_sName;
+  // Loads that are currently running - used to avoid duplicate loads
+  private final ConcurrentHashMap <K, CompletableFuture <V>> m_aInFlight = new ConcurrentHashMap <> ();
+  private final ExecutorService m_aRefreshExecutor;
+  private final AtomicLong m_aCoalesced = new AtomicLong (0);
+
+  /**
+   * Constructor
+   *
+   * @param sName
+   *        The name used for logging and the name of the refresh thread, e.g.
+   *        "smp". May neither be <code>null</code> nor empty.
+   * @param nMaxPendingRefreshes
+   *        The maximum number of refreshes waiting to be performed. Further
+   *        refreshes are skipped. Must be &gt; 0.
+   */
+  public DcngSingleFlightLoader (@Nonnull @Nonempty final String sName, @Nonnegative final int nMaxPendingRefreshes)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.isGT0 (nMaxPendingRefreshes, "MaxPendingRefreshes");
+    m_sName = sName;
+    // One background thread is enough for refreshing, as only entries that are
+    // accessed are refreshed
+    m_aRefreshExecutor = new ThreadPoolExecutor (1,
+                                                 1,
+                                                 0L,
+                                                 TimeUnit.MILLISECONDS,
+                                                 new LinkedBlockingQueue <> (nMaxPendingRefreshes),
+                                                 new BasicThreadFactory.Builder ().namingPattern ("dcng-" +
+                                                                                                  sName +
+                                                                                                  "-refresh-%d")
+                                                                                  .daemon (true)
+                                                                                  .build (),
+                                                 new ThreadPoolExecutor.AbortPolicy ());
+  }
+
+  /**
+   * @return The number of loads that waited for the result of another load of
+   *         the same key.
+   */
+  @Nonnegative
+  public long getCoalescedCount ()
+  {
+    return m_aCoalesced.get ();
+  }
+
+  @Nonnull
+  private static <V> V _await (@Nonnull final CompletableFuture <V> aFuture)
+  {
+    try
+    {
+      return aFuture.join ();
+    }
+    catch (final CompletionException ex)
+    {
+      // Let all waiters see the original exception
+      if (ex.getCause () instanceof RuntimeException)
+        throw (RuntimeException) ex.getCause ();
+      if (ex.getCause () instanceof Error)
+        throw (Error) ex.getCause ();
+      throw ex;
+    }
+  }
+
+  /**
+   * Load the value of the provided key in the calling thread. If a load of the
+   * same key is already running, its result is used instead.
+   *
+   * @param aKey
+   *        The key to load. May not be <code>null</code>.
+   * @param aLoader
+   *        The loader to use. Is only invoked if no other load of the same key
+   *        is running. May not be <code>null</code> and may not return
+   *        <code>null</code>.
+   * @return The loaded value. Never <code>null</code>.
+   * @throws RuntimeException
+   *         The exception thrown by the loader, also for the waiting callers
+   */
+  @Nonnull
+  public V load (@Nonnull final K aKey, @Nonnull final Supplier <? extends V> aLoader)
+  {
+    ValueEnforcer.notNull (aKey, "Key");
+    ValueEnforcer.notNull (aLoader, "Loader");
+
+    final CompletableFuture <V> aFuture = new CompletableFuture <> ();
+    final CompletableFuture <V> aRunning = m_aInFlight.putIfAbsent (aKey, aFuture);
+    if (aRunning != null)
+    {
+      m_aCoalesced.incrementAndGet ();
+      return _await (aRunning);
+    }
+
+    try
+    {
+      final V ret = aLoader.get ();
+      aFuture.complete (ret);
+      return ret;
+    }
+    catch (final RuntimeException | Error ex)
+    {
+      aFuture.completeExceptionally (ex);
+      throw ex;
+    }
+    finally
+    {
+      m_aInFlight.remove (aKey, aFuture);
+    }
+  }
+
+  /**
+   * A single background refresh. A separate class, so that refreshes that
+   * were dropped on {@link DcngSingleFlightLoader#close()} can be cancelled.
+   */
+  private final class RefreshTask implements Runnable
+  {
+    private final K m_aKey;
+    private final CompletableFuture <V> m_aFuture;
+    private final Supplier <? extends V> m_aLoader;
+
+    RefreshTask (@Nonnull final K aKey,
+                 @Nonnull final CompletableFuture <V> aFuture,
+                 @Nonnull final Supplier <? extends V> aLoader)
+    {
+      m_aKey = aKey;
+      m_aFuture = aFuture;
+      m_aLoader = aLoader;
+    }
+
+    public void run ()
+    {
+      try
+      {
+        m_aFuture.complete (m_aLoader.get ());
+      }
+      catch (final Throwable t)
+      {
+        // Complete in any case, so that waiting loads don't block forever
+        LOGGER.warn ("Failed to refresh " + m_sName + " cache entry '" + m_aKey + "': " + t.getMessage ());
+        m_aFuture.completeExceptionally (t);
+        if (t instanceof Error)
+          throw (Error) t;
+      }
+      finally
+      {
+        m_aInFlight.remove (m_aKey, m_aFuture);
+      }
+    }
+
+    void cancel ()
+    {
+      m_aInFlight.remove (m_aKey, m_aFuture);
+      m_aFuture.completeExceptionally (new CancellationException ("The refresh of " +
+                                                                  m_sName +
+                                                                  " cache entry '" +
+                                                                  m_aKey +
+                                                                  "' was dropped"));
+    }
+  }
+
+  /**
+   * Load the value of the provided key in the background. If a load of the
+   * same key is already running or too many refreshes are pending, nothing
+   * happens. Errors are logged and otherwise ignored, so that the old value
+   * can be used until it expires.
+   *
+   * @param aKey
+   *        The key to load. May not be <code>null</code>.
+   * @param aLoader
+   *        The loader to use. May not be <code>null</code>.
+   */
+  public void refreshInBackground (@Nonnull final K aKey, @Nonnull final Supplier <? extends V> aLoader)
+  {
+    ValueEnforcer.notNull (aKey, "Key");
+    ValueEnforcer.notNull (aLoader, "Loader");
+
+    final CompletableFuture <V> aFuture = new CompletableFuture <> ();
+    if (m_aInFlight.putIfAbsent (aKey, aFuture) != null)
+    {
+      // Already running
+      return;
+    }
+
+    try
+    {
+      m_aRefreshExecutor.execute (new RefreshTask (aKey, aFuture, aLoader));
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      // Too many pending refreshes or already closed - try again next time
+      m_aInFlight.remove (aKey, aFuture);
+      aFuture.completeExceptionally (new IllegalStateException ("Failed to schedule the refresh of '" + aKey + "'", ex));
+    }
+  }
+
+  /**
+   * Stop the background refresh. Pending refreshes are dropped, because they
+   * may require many remote calls. Loads waiting for a dropped refresh fail.
+   */
+  public void close ()
+  {
+    if (!m_aRefreshExecutor.isShutdown ())
+    {
+      final List <Runnable> aDropped = m_aRefreshExecutor.shutdownNow ();
+      // Don't let anybody wait for a refresh that will never happen
+      for (final Runnable aTask : aDropped)
+        if (aTask instanceof DcngSingleFlightLoader <?, ?>.RefreshTask)
+          ((DcngSingleFlightLoader <?, ?>.RefreshTask) aTask).cancel ();
+      if (!aDropped.isEmpty ())
+        LOGGER.info ("Dropped " + aDropped.size () + " pending " + m_sName + " cache refreshes");
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Name", m_sName).append ("InFlight", m_aInFlight.size ()).getToString ();
+  }
+}
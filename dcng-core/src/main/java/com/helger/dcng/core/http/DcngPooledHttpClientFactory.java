@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.http;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.hc.client5.http.impl.DefaultConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.client5.http.socket.LayeredConnectionSocketFactory;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.httpclient.HttpClientSettings;
+
+/**
+ * A special {@link HttpClientFactory} that creates a connection pool with
+ * explicit limits, a keep-alive strategy and background eviction of idle
+ * connections. It is meant for long-lived HTTP clients that are reused across
+ * many requests.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+public class DcngPooledHttpClientFactory extends HttpClientFactory
+{
+  private final int m_nMaxPerRoute;
+  private final int m_nMaxTotal;
+  private final TimeValue m_aKeepAlive;
+  private final TimeValue m_aIdleEviction;
+  private PoolingHttpClientConnectionManager m_aConnectionManager;
+
+  /**
+   * Constructor
+   *
+   * @param aSettings
+   *        The basic HTTP client settings to use. May not be <code>null</code>.
+   * @param nMaxPerRoute
+   *        Maximum number of connections per route. Must be &gt; 0.
+   * @param nMaxTotal
+   *        Maximum number of connections in total. Must be &gt; 0.
+   * @param aKeepAlive
+   *        Maximum keep-alive duration of a connection. May not be
+   *        <code>null</code>.
+   * @param aIdleEviction
+   *        Duration after which idle connections are evicted. May not be
+   *        <code>null</code>.
+   */
+  public DcngPooledHttpClientFactory (@Nonnull final HttpClientSettings aSettings,
+                                      @Nonnegative final int nMaxPerRoute,
+                                      @Nonnegative final int nMaxTotal,
+                                      @Nonnull final TimeValue aKeepAlive,
+                                      @Nonnull final TimeValue aIdleEviction)
+  {
+    super (aSettings);
+    ValueEnforcer.isGT0 (nMaxPerRoute, "MaxPerRoute");
+    ValueEnforcer.isGT0 (nMaxTotal, "MaxTotal");
+    ValueEnforcer.notNull (aKeepAlive, "KeepAlive");
+    ValueEnforcer.notNull (aIdleEviction, "IdleEviction");
+    m_nMaxPerRoute = nMaxPerRoute;
+    m_nMaxTotal = nMaxTotal;
+    m_aKeepAlive = aKeepAlive;
+    m_aIdleEviction = aIdleEviction;
+  }
+
+  public final int getMaxPerRoute ()
+  {
+    return m_nMaxPerRoute;
+  }
+
+  public final int getMaxTotal ()
+  {
+    return m_nMaxTotal;
+  }
+
+  @Nonnull
+  public final TimeValue getKeepAlive ()
+  {
+    return m_aKeepAlive;
+  }
+
+  @Nonnull
+  public final TimeValue getIdleEviction ()
+  {
+    return m_aIdleEviction;
+  }
+
+  @Override
+  public HttpClientConnectionManager createConnectionManager (@Nonnull final LayeredConnectionSocketFactory aSSLFactory)
+  {
+    final HttpClientConnectionManager ret = super.createConnectionManager (aSSLFactory);
+    if (ret instanceof PoolingHttpClientConnectionManager)
+    {
+      final PoolingHttpClientConnectionManager aPCM = (PoolingHttpClientConnectionManager) ret;
+      aPCM.setDefaultMaxPerRoute (m_nMaxPerRoute);
+      aPCM.setMaxTotal (m_nMaxTotal);
+      // Remember for statistics
+      m_aConnectionManager = aPCM;
+    }
+    return ret;
+  }
+
+  @Override
+  public HttpClientBuilder createHttpClientBuilder ()
+  {
+    return super.createHttpClientBuilder ().setKeepAliveStrategy ( (aResponse, aContext) -> {
+      // Use the value from the "Keep-Alive" header, but never longer than
+      // configured
+      final TimeValue aFromServer = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration (aResponse, aContext);
+      return TimeValue.isPositive (aFromServer) && aFromServer.compareTo (m_aKeepAlive) < 0 ? aFromServer : m_aKeepAlive;
+    }).evictExpiredConnections ().evictIdleConnections (m_aIdleEviction);
+  }
+
+  /**
+   * @return The total statistics of the underlying connection pool or
+   *         <code>null</code> if no HTTP client was created yet.
+   */
+  @Nullable
+  public PoolStats getTotalPoolStats ()
+  {
+    final PoolingHttpClientConnectionManager aPCM = m_aConnectionManager;
+    return aPCM == null ? null : aPCM.getTotalStats ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxPerRoute", m_nMaxPerRoute)
+                                       .append ("MaxTotal", m_nMaxTotal)
+                                       .append ("KeepAlive", m_aKeepAlive)
+                                       .append ("IdleEviction", m_aIdleEviction)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.ial;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsTreeSet;
+import com.helger.commons.collection.impl.ICommonsOrderedSet;
+import com.helger.commons.collection.map.LRUMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.error.list.ErrorList;
+import com.helger.commons.statistics.StatisticsHandlerTimer;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.dcng.api.DcngConfig;
+import com.helger.dcng.api.ial.IIALClient;
+import com.helger.dcng.core.cache.DcngSingleFlightLoader;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+
+import eu.de4a.ial.api.jaxb.ResponseLookupRoutingInformationType;
+
+/**
+ * A caching decorator for {@link IIALClient}. Results are cached per set of
+ * canonical object type IDs and ATU code. After the time to live, a stale
+ * result is still returned for a configurable duration while it is refreshed
+ * in the background. Concurrent identical queries that miss the cache result
+ * in a single query only. Failed queries are never cached.<br>
+ * Install it via
+ * {@link com.helger.dcng.core.api.DcngApiConfig#setIALClient(IIALClient)}.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@ThreadSafe
+public class DcngIALClientCaching implements IIALClient, AutoCloseable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (DcngIALClientCaching.class);
+
+  /**
+   * A single query result together with the errors of the query.
+   *
+   * @author Philip Helger
+   */
+  @Immutable
+  private static final class Result
+  {
+    private final ResponseLookupRoutingInformationType m_aResponse;
+    private final ErrorList m_aErrors;
+    private final long m_nStaleAt;
+    private final long m_nExpiresAt;
+
+    Result (@Nullable final ResponseLookupRoutingInformationType aResponse,
+            @Nonnull final ErrorList aErrors,
+            final long nStaleAt,
+            final long nExpiresAt)
+    {
+      m_aResponse = aResponse;
+      m_aErrors = aErrors;
+      m_nStaleAt = nStaleAt;
+      m_nExpiresAt = nExpiresAt;
+    }
+
+    boolean isCacheable ()
+    {
+      return m_aResponse != null;
+    }
+
+    @Nullable
+    ResponseLookupRoutingInformationType getResponseCopy (@Nonnull final ErrorList aErrorList)
+    {
+      aErrorList.addAll (m_aErrors);
+      // Callers may modify the returned object
+      return m_aResponse == null ? null : m_aResponse.clone ();
+    }
+  }
+
+  private final IIALClient m_aDelegate;
+  private final int m_nMaxEntries;
+  private final Duration m_aTTL;
+  private final Duration m_aStale;
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final LRUMap <String, Result> m_aCache;
+  private final DcngSingleFlightLoader <String, Result> m_aLoader;
+
+  private final AtomicLong m_aHits = new AtomicLong (0);
+  private final AtomicLong m_aStaleHits = new AtomicLong (0);
+  private final AtomicLong m_aMisses = new AtomicLong (0);
+  private final AtomicLong m_aErrors = new AtomicLong (0);
+  private final StatisticsHandlerTimer m_aQueryTimer = new StatisticsHandlerTimer ();
+
+  /**
+   * Constructor
+   *
+   * @param aDelegate
+   *        The IAL client that performs the real queries. May not be
+   *        <code>null</code>.
+   * @param nMaxEntries
+   *        The maximum number of cache entries. Must be &gt; 0.
+   * @param aTTL
+   *        The duration a result is considered fresh. May not be
+   *        <code>null</code>.
+   * @param aStale
+   *        The duration after the time to live, during which a stale result
+   *        is returned while it is refreshed in the background. Use
+   *        {@link Duration#ZERO} to disable. May not be <code>null</code>.
+   */
+  public DcngIALClientCaching (@Nonnull final IIALClient aDelegate,
+                               @Nonnegative final int nMaxEntries,
+                               @Nonnull final Duration aTTL,
+                               @Nonnull final Duration aStale)
+  {
+    ValueEnforcer.notNull (aDelegate, "Delegate");
+    ValueEnforcer.isGT0 (nMaxEntries, "MaxEntries");
+    ValueEnforcer.notNull (aTTL, "TTL");
+    ValueEnforcer.isFalse (aTTL.isNegative (), "TTL may not be negative");
+    ValueEnforcer.notNull (aStale, "Stale");
+    ValueEnforcer.isFalse (aStale.isNegative (), "Stale may not be negative");
+    m_aDelegate = aDelegate;
+    m_nMaxEntries = nMaxEntries;
+    m_aTTL = aTTL;
+    m_aStale = aStale;
+    m_aCache = new LRUMap <> (nMaxEntries);
+    m_aLoader = new DcngSingleFlightLoader <> ("ial", nMaxEntries);
+  }
+
+  @Nonnull
+  public final IIALClient getDelegate ()
+  {
+    return m_aDelegate;
+  }
+
+  @Nonnegative
+  public final int getMaxEntries ()
+  {
+    return m_nMaxEntries;
+  }
+
+  @Nonnull
+  public final Duration getTTL ()
+  {
+    return m_aTTL;
+  }
+
+  @Nonnull
+  public final Duration getStale ()
+  {
+    return m_aStale;
+  }
+
+  @Nonnegative
+  public int getCacheSize ()
+  {
+    return m_aLock.lockedInt (m_aCache::size);
+  }
+
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aHits.get ();
+  }
+
+  @Nonnegative
+  public long getStaleHitCount ()
+  {
+    return m_aStaleHits.get ();
+  }
+
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aMisses.get ();
+  }
+
+  @Nonnegative
+  public long getCoalescedCount ()
+  {
+    return m_aLoader.getCoalescedCount ();
+  }
+
+  @Nonnegative
+  public long getErrorCount ()
+  {
+    return m_aErrors.get ();
+  }
+
+  /**
+   * Remove all entries from the cache.
+   *
+   * @return The number of removed entries.
+   */
+  @Nonnegative
+  public int clearCache ()
+  {
+    final int ret = m_aLock.lockedInt ( () -> {
+      final int nSize = m_aCache.size ();
+      m_aCache.clear ();
+      return nSize;
+    });
+    LOGGER.info ("Cleared " + ret + " entries from the IAL cache");
+    return ret;
+  }
+
+  @Nonnull
+  private static String _getKey (@Nonnull final ICommonsOrderedSet <String> aCanonicalObjectTypeIDs,
+                                 @Nullable final String sATUCode)
+  {
+    // The order of the IDs is irrelevant
+    return StringHelper.imploder ().source (new CommonsTreeSet <> (aCanonicalObjectTypeIDs)).separator (',').build () +
+           "/" +
+           StringHelper.getNotNull (sATUCode);
+  }
+
+  @Nonnull
+  private Result _query (@Nonnull final String sKey,
+                         @Nonnull final ICommonsOrderedSet <String> aCanonicalObjectTypeIDs,
+                         @Nullable final String sATUCode)
+  {
+    final ErrorList aErrors = new ErrorList ();
+    final long nStart = System.nanoTime ();
+    ResponseLookupRoutingInformationType aResponse;
+    try
+    {
+      aResponse = m_aDelegate.queryIAL (aCanonicalObjectTypeIDs, sATUCode, aErrors);
+    }
+    finally
+    {
+      m_aQueryTimer.addTime (TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - nStart));
+    }
+
+    final long nNow = System.currentTimeMillis ();
+    final long nStaleAt = nNow + m_aTTL.toMillis ();
+    final Result ret = new Result (aResponse, aErrors, nStaleAt, nStaleAt + m_aStale.toMillis ());
+    if (ret.isCacheable ())
+      m_aLock.locked ( () -> m_aCache.put (sKey, ret));
+    else
+      m_aErrors.incrementAndGet ();
+    return ret;
+  }
+
+  @Nullable
+  public ResponseLookupRoutingInformationType queryIAL (@Nonnull @Nonempty final ICommonsOrderedSet <String> aCanonicalObjectTypeIDs,
+                                                        @Nullable final String sATUCode,
+                                                        @Nonnull final ErrorList aErrorList)
+  {
+    ValueEnforcer.notEmptyNoNullValue (aCanonicalObjectTypeIDs, "CanonicalObjectTypeIDs");
+    ValueEnforcer.notNull (aErrorList, "ErrorList");
+
+    final String sKey = _getKey (aCanonicalObjectTypeIDs, sATUCode);
+    final long nNow = System.currentTimeMillis ();
+    final Result aCached = m_aLock.lockedGet ( () -> m_aCache.get (sKey));
+    if (aCached != null && nNow < aCached.m_nExpiresAt)
+    {
+      if (nNow < aCached.m_nStaleAt)
+        m_aHits.incrementAndGet ();
+      else
+      {
+        // Stale-while-revalidate
+        m_aStaleHits.incrementAndGet ();
+        // Don't keep a reference to the mutable set of the caller
+        final ICommonsOrderedSet <String> aCOTs = aCanonicalObjectTypeIDs.getClone ();
+        m_aLoader.refreshInBackground (sKey, () -> _query (sKey, aCOTs, sATUCode));
+      }
+      return aCached.getResponseCopy (aErrorList);
+    }
+
+    // Not cached - make sure only one thread performs the query
+    return m_aLoader.load (sKey, () -> {
+      m_aMisses.incrementAndGet ();
+      return _query (sKey, aCanonicalObjectTypeIDs, sATUCode);
+    }).getResponseCopy (aErrorList);
+  }
+
+  /**
+   * Stop the background refresh.
+   */
+  public void close ()
+  {
+    m_aLoader.close ();
+  }
+
+  /**
+   * @return The current metrics as a JSON object. Never <code>null</code>.
+   */
+  @Nonnull
+  public IJsonObject getMetricsAsJson ()
+  {
+    final IJsonObject ret = new JsonObject ();
+    ret.add ("size", getCacheSize ());
+    ret.add ("maxentries", m_nMaxEntries);
+    ret.add ("hits", getHitCount ());
+    ret.add ("hits.stale", getStaleHitCount ());
+    ret.add ("misses", getMissCount ());
+    ret.add ("coalesced", getCoalescedCount ());
+    ret.add ("errors", getErrorCount ());
+    if (m_aQueryTimer.getInvocationCount () > 0)
+    {
+      ret.add ("query.avg.ms", m_aQueryTimer.getAverage ());
+      ret.add ("query.max.ms", m_aQueryTimer.getMax ());
+    }
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Delegate", m_aDelegate)
+                                       .append ("MaxEntries", m_nMaxEntries)
+                                       .append ("TTL", m_aTTL)
+                                       .append ("Stale", m_aStale)
+                                       .getToString ();
+  }
+
+  /**
+   * Factory method to create a new caching IAL client based on the
+   * configuration.
+   *
+   * @param aDelegate
+   *        The IAL client that performs the real queries. May not be
+   *        <code>null</code>.
+   * @return The caching IAL client. Never <code>null</code>.
+   */
+  @Nonnull
+  public static DcngIALClientCaching createFromConfig (@Nonnull final IIALClient aDelegate)
+  {
+    return new DcngIALClientCaching (aDelegate,
+                                     DcngConfig.IAL.getCacheMaxEntries (),
+                                     Duration.ofSeconds (DcngConfig.IAL.getCacheTTLSeconds ()),
+                                     Duration.ofSeconds (DcngConfig.IAL.getCacheStaleSeconds ()));
+  }
+}
@@ -0,0 +1,553 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.ial;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsOrderedSet;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.error.list.ErrorList;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.dcng.api.DcngConfig;
+import com.helger.dcng.api.ial.IIALClient;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+
+import eu.de4a.ial.api.IALMarshaller;
+import eu.de4a.ial.api.jaxb.ProvisionItemType;
+import eu.de4a.ial.api.jaxb.ResponseItemType;
+import eu.de4a.ial.api.jaxb.ResponseLookupRoutingInformationType;
+import eu.de4a.ial.api.jaxb.ResponsePerCountryType;
+
+/**
+ * An {@link IIALClient} that periodically fetches the complete IAL provision
+ * data of a fixed set of canonical object types and answers queries for these
+ * types from a local index. Queries for other canonical object types, or for
+ * ATU codes without a provision, are forwarded to the delegate IAL client. If
+ * the local data is older than the optional maximum age, because fetching
+ * failed for too long, all queries are forwarded to the delegate.<br>
+ * The last fetched data is stored as an XML file, so that it is available
+ * immediately after a restart.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@ThreadSafe
+public class DcngIALClientPrefetch implements IIALClient, AutoCloseable
+{
+  public static final String SNAPSHOT_FILENAME = "ial-snapshot.xml";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (DcngIALClientPrefetch.class);
+
+  /**
+   * The immutable index built from one IAL response.
+   *
+   * @author Philip Helger
+   */
+  @Immutable
+  private static final class Index
+  {
+    // Key: COT
+    private final ICommonsMap <String, ResponseItemType> m_aByCOT = new CommonsHashMap <> ();
+    // Key: COT and ATU code
+    private final ICommonsMap <String, ResponseItemType> m_aByCOTAndATU = new CommonsHashMap <> ();
+    private final LocalDateTime m_aCreationDT;
+
+    Index (@Nonnull final ResponseLookupRoutingInformationType aResponse, @Nonnull final LocalDateTime aCreationDT)
+    {
+      for (final ResponseItemType aItem : aResponse.getResponseItem ())
+      {
+        final String sCOT = aItem.getCanonicalObjectTypeId ();
+        m_aByCOT.put (sCOT, aItem);
+
+        for (final ResponsePerCountryType aPerCountry : aItem.getResponsePerCountry ())
+          for (final ProvisionItemType aProvision : aPerCountry.getProvision ())
+            if (StringHelper.hasText (aProvision.getAtuCode ()))
+            {
+              // Create an item containing only the provisions of this ATU code
+              final ResponseItemType aATUItem = m_aByCOTAndATU.computeIfAbsent (_getKey (sCOT, aProvision.getAtuCode ()),
+                                                                                k -> {
+                                                                                  final ResponseItemType x = new ResponseItemType ();
+                                                                                  x.setCanonicalObjectTypeId (sCOT);
+                                                                                  x.setCanonicalObjectTypeName (aItem.getCanonicalObjectTypeName ());
+                                                                                  return x;
+                                                                                });
+              ResponsePerCountryType aATUPerCountry = null;
+              for (final ResponsePerCountryType x : aATUItem.getResponsePerCountry ())
+                if (EqualsHelper.equals (x.getCountryCode (), aPerCountry.getCountryCode ()))
+                {
+                  aATUPerCountry = x;
+                  break;
+                }
+              if (aATUPerCountry == null)
+              {
+                aATUPerCountry = new ResponsePerCountryType ();
+                aATUPerCountry.setCountryCode (aPerCountry.getCountryCode ());
+                aATUItem.addResponsePerCountry (aATUPerCountry);
+              }
+              aATUPerCountry.addProvision (aProvision.clone ());
+            }
+      }
+      m_aCreationDT = aCreationDT;
+    }
+
+    @Nonnull
+    private static String _getKey (@Nonnull final String sCOT, @Nonnull final String sATUCode)
+    {
+      return sCOT + '\n' + sATUCode;
+    }
+
+    @Nullable
+    ResponseItemType getItem (@Nonnull final String sCOT, @Nullable final String sATUCode)
+    {
+      if (StringHelper.hasNoText (sATUCode))
+        return m_aByCOT.get (sCOT);
+      return m_aByCOTAndATU.get (_getKey (sCOT, sATUCode));
+    }
+  }
+
+  private final IIALClient m_aDelegate;
+  private final ICommonsOrderedSet <String> m_aCOTs;
+  private final Duration m_aRefreshInterval;
+  private final Duration m_aMaxAge;
+  private final File m_aSnapshotFile;
+  private final AtomicReference <Index> m_aIndex = new AtomicReference <> ();
+  private final ScheduledExecutorService m_aScheduler;
+
+  private final AtomicLong m_aLocalHits = new AtomicLong (0);
+  private final AtomicLong m_aFallbacks = new AtomicLong (0);
+  private final AtomicLong m_aExpiredFallbacks = new AtomicLong (0);
+  private final AtomicLong m_aRefreshes = new AtomicLong (0);
+  private final AtomicLong m_aRefreshErrors = new AtomicLong (0);
+
+  /**
+   * Constructor without a maximum age of the data. Call {@link #loadSnapshot()}
+   * and {@link #start()} afterwards.
+   *
+   * @param aDelegate
+   *        The IAL client used to fetch the data and to answer all queries
+   *        that cannot be answered locally. May not be <code>null</code>.
+   * @param aCOTs
+   *        The canonical object type IDs to fetch. May neither be
+   *        <code>null</code> nor empty.
+   * @param aRefreshInterval
+   *        The interval in which the data is fetched again. May not be
+   *        <code>null</code>.
+   * @param aSnapshotFile
+   *        The file to store the fetched data in. May be <code>null</code> to
+   *        not store the data.
+   */
+  public DcngIALClientPrefetch (@Nonnull final IIALClient aDelegate,
+                                @Nonnull @Nonempty final ICommonsOrderedSet <String> aCOTs,
+                                @Nonnull final Duration aRefreshInterval,
+                                @Nullable final File aSnapshotFile)
+  {
+    this (aDelegate, aCOTs, aRefreshInterval, null, aSnapshotFile);
+  }
+
+  /**
+   * Constructor. Call {@link #loadSnapshot()} and {@link #start()} afterwards.
+   *
+   * @param aDelegate
+   *        The IAL client used to fetch the data and to answer all queries
+   *        that cannot be answered locally. May not be <code>null</code>.
+   * @param aCOTs
+   *        The canonical object type IDs to fetch. May neither be
+   *        <code>null</code> nor empty.
+   * @param aRefreshInterval
+   *        The interval in which the data is fetched again. May not be
+   *        <code>null</code>.
+   * @param aMaxAge
+   *        The maximum age of the data to answer queries locally. May be
+   *        <code>null</code> for no maximum age.
+   * @param aSnapshotFile
+   *        The file to store the fetched data in. May be <code>null</code> to
+   *        not store the data.
+   */
+  public DcngIALClientPrefetch (@Nonnull final IIALClient aDelegate,
+                                @Nonnull @Nonempty final ICommonsOrderedSet <String> aCOTs,
+                                @Nonnull final Duration aRefreshInterval,
+                                @Nullable final Duration aMaxAge,
+                                @Nullable final File aSnapshotFile)
+  {
+    ValueEnforcer.notNull (aDelegate, "Delegate");
+    ValueEnforcer.notEmptyNoNullValue (aCOTs, "COTs");
+    ValueEnforcer.notNull (aRefreshInterval, "RefreshInterval");
+    ValueEnforcer.isTrue (aRefreshInterval.toMillis () > 0, "RefreshInterval must be positive");
+    if (aMaxAge != null)
+      ValueEnforcer.isTrue (aMaxAge.toMillis () > 0, "MaxAge must be positive");
+    m_aDelegate = aDelegate;
+    m_aCOTs = aCOTs.getClone ();
+    m_aRefreshInterval = aRefreshInterval;
+    m_aMaxAge = aMaxAge;
+    m_aSnapshotFile = aSnapshotFile;
+    final ScheduledThreadPoolExecutor aScheduler = new ScheduledThreadPoolExecutor (1,
+                                                                                     new BasicThreadFactory.Builder ().namingPattern ("dcng-ial-prefetch-%d")
+                                                                                                                      .daemon (true)
+                                                                                                                      .build ());
+    aScheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy (false);
+    m_aScheduler = aScheduler;
+  }
+
+  @Nonnull
+  public final IIALClient getDelegate ()
+  {
+    return m_aDelegate;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public final ICommonsOrderedSet <String> getAllCOTs ()
+  {
+    return m_aCOTs.getClone ();
+  }
+
+  @Nonnull
+  public final Duration getRefreshInterval ()
+  {
+    return m_aRefreshInterval;
+  }
+
+  /**
+   * @return The maximum age of the data to answer queries locally or
+   *         <code>null</code> if there is no maximum age.
+   */
+  @Nullable
+  public final Duration getMaxAge ()
+  {
+    return m_aMaxAge;
+  }
+
+  @Nullable
+  public final File getSnapshotFile ()
+  {
+    return m_aSnapshotFile;
+  }
+
+  /**
+   * @return <code>true</code> if data is available to answer queries locally.
+   */
+  public boolean hasData ()
+  {
+    return m_aIndex.get () != null;
+  }
+
+  /**
+   * @return The date and time when the current data was fetched or
+   *         <code>null</code> if no data is available.
+   */
+  @Nullable
+  public LocalDateTime getDataDateTime ()
+  {
+    final Index aIndex = m_aIndex.get ();
+    return aIndex == null ? null : aIndex.m_aCreationDT;
+  }
+
+  /**
+   * @return The age of the current data or <code>null</code> if no data is
+   *         available.
+   */
+  @Nullable
+  public Duration getDataAge ()
+  {
+    final LocalDateTime aDataDT = getDataDateTime ();
+    return aDataDT == null ? null : Duration.between (aDataDT, PDTFactory.getCurrentLocalDateTime ());
+  }
+
+  private boolean _isExpired (@Nonnull final Index aIndex)
+  {
+    return m_aMaxAge != null &&
+           Duration.between (aIndex.m_aCreationDT, PDTFactory.getCurrentLocalDateTime ()).compareTo (m_aMaxAge) > 0;
+  }
+
+  /**
+   * @return <code>true</code> if data is available but older than the maximum
+   *         age, so that it is not used.
+   */
+  public boolean isDataExpired ()
+  {
+    final Index aIndex = m_aIndex.get ();
+    return aIndex != null && _isExpired (aIndex);
+  }
+
+  public long getLocalHitCount ()
+  {
+    return m_aLocalHits.get ();
+  }
+
+  public long getFallbackCount ()
+  {
+    return m_aFallbacks.get ();
+  }
+
+  /**
+   * @return The number of queries forwarded to the delegate, because the local
+   *         data was older than the maximum age. Contained in
+   *         {@link #getFallbackCount()}.
+   */
+  public long getExpiredFallbackCount ()
+  {
+    return m_aExpiredFallbacks.get ();
+  }
+
+  /**
+   * Read the data from the snapshot file, if it exists.
+   *
+   * @return {@link ESuccess#SUCCESS} if the snapshot was read.
+   */
+  @Nonnull
+  public ESuccess loadSnapshot ()
+  {
+    if (m_aSnapshotFile == null || !m_aSnapshotFile.isFile ())
+      return ESuccess.FAILURE;
+
+    final ResponseLookupRoutingInformationType aResponse = IALMarshaller.responseLookupRoutingInformationMarshaller ()
+                                                                        .read (m_aSnapshotFile);
+    if (aResponse == null)
+    {
+      LOGGER.warn ("Failed to read IAL snapshot from " + m_aSnapshotFile.getAbsolutePath ());
+      return ESuccess.FAILURE;
+    }
+
+    // The file date is the best indicator of the age
+    final LocalDateTime aDT = PDTFactory.createLocalDateTime (m_aSnapshotFile.lastModified ());
+    final Index aIndex = new Index (aResponse, aDT);
+    m_aIndex.set (aIndex);
+    LOGGER.info ("Read IAL snapshot from " + m_aSnapshotFile.getAbsolutePath () + " created at " + aDT);
+    if (_isExpired (aIndex))
+      LOGGER.warn ("The IAL snapshot is older than " + m_aMaxAge + " and is only used after the next refresh");
+    return ESuccess.SUCCESS;
+  }
+
+  private void _writeSnapshot (@Nonnull final ResponseLookupRoutingInformationType aResponse)
+  {
+    // Write to a temporary file first, so that a crash never leaves a broken
+    // snapshot
+    final File aTempFile = new File (m_aSnapshotFile.getParentFile (), m_aSnapshotFile.getName () + ".tmp");
+    if (IALMarshaller.responseLookupRoutingInformationMarshaller ().write (aResponse, aTempFile).isFailure ())
+    {
+      LOGGER.warn ("Failed to write IAL snapshot to " + aTempFile.getAbsolutePath ());
+      return;
+    }
+    try
+    {
+      Files.move (aTempFile.toPath (), m_aSnapshotFile.toPath (), StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.warn ("Failed to replace IAL snapshot " + m_aSnapshotFile.getAbsolutePath (), ex);
+    }
+  }
+
+  /**
+   * Fetch the data of all canonical object types from the delegate and
+   * replace the local data. If fetching fails, the existing data is kept.
+   *
+   * @return {@link ESuccess#SUCCESS} if the data was replaced.
+   */
+  @Nonnull
+  public ESuccess refresh ()
+  {
+    m_aRefreshes.incrementAndGet ();
+    final ErrorList aErrorList = new ErrorList ();
+    final ResponseLookupRoutingInformationType aResponse = m_aDelegate.queryIAL (m_aCOTs, null, aErrorList);
+    if (aResponse == null || aErrorList.containsAtLeastOneError () || !aResponse.hasResponseItemEntries ())
+    {
+      m_aRefreshErrors.incrementAndGet ();
+      LOGGER.warn ("Failed to fetch IAL data for " + m_aCOTs + " - keeping the existing data. " + aErrorList);
+      return ESuccess.FAILURE;
+    }
+
+    m_aIndex.set (new Index (aResponse, PDTFactory.getCurrentLocalDateTime ()));
+    LOGGER.info ("Fetched IAL data for " + aResponse.getResponseItem ().size () + " canonical object types");
+
+    if (m_aSnapshotFile != null)
+      _writeSnapshot (aResponse);
+    return ESuccess.SUCCESS;
+  }
+
+  private void _refreshSafe ()
+  {
+    try
+    {
+      refresh ();
+    }
+    catch (final RuntimeException ex)
+    {
+      // Don't let the scheduler stop
+      m_aRefreshErrors.incrementAndGet ();
+      LOGGER.error ("Error fetching IAL data", ex);
+    }
+  }
+
+  /**
+   * Start the periodic refresh. The first refresh happens immediately in the
+   * background.
+   */
+  public void start ()
+  {
+    m_aScheduler.scheduleWithFixedDelay (this::_refreshSafe,
+                                         0,
+                                         m_aRefreshInterval.toMillis (),
+                                         TimeUnit.MILLISECONDS);
+  }
+
+  @Nullable
+  public ResponseLookupRoutingInformationType queryIAL (@Nonnull @Nonempty final ICommonsOrderedSet <String> aCanonicalObjectTypeIDs,
+                                                        @Nullable final String sATUCode,
+                                                        @Nonnull final ErrorList aErrorList)
+  {
+    ValueEnforcer.notEmptyNoNullValue (aCanonicalObjectTypeIDs, "CanonicalObjectTypeIDs");
+    ValueEnforcer.notNull (aErrorList, "ErrorList");
+
+    final Index aIndex = m_aIndex.get ();
+    if (aIndex != null && m_aCOTs.containsAll (aCanonicalObjectTypeIDs))
+    {
+      if (_isExpired (aIndex))
+      {
+        // Fetching failed for too long - don't answer with outdated data
+        m_aExpiredFallbacks.incrementAndGet ();
+        m_aFallbacks.incrementAndGet ();
+        return m_aDelegate.queryIAL (aCanonicalObjectTypeIDs, sATUCode, aErrorList);
+      }
+
+      final ResponseLookupRoutingInformationType ret = new ResponseLookupRoutingInformationType ();
+      for (final String sCOT : aCanonicalObjectTypeIDs)
+      {
+        final ResponseItemType aItem = aIndex.getItem (sCOT, sATUCode);
+        if (aItem == null)
+        {
+          // Let the IAL create the correct response
+          ret.getResponseItem ().clear ();
+          break;
+        }
+        ret.addResponseItem (aItem.clone ());
+      }
+      if (ret.hasResponseItemEntries ())
+      {
+        m_aLocalHits.incrementAndGet ();
+        return ret;
+      }
+    }
+
+    m_aFallbacks.incrementAndGet ();
+    return m_aDelegate.queryIAL (aCanonicalObjectTypeIDs, sATUCode, aErrorList);
+  }
+
+  /**
+   * Stop the periodic refresh.
+   */
+  public void close ()
+  {
+    if (!m_aScheduler.isShutdown ())
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aScheduler);
+  }
+
+  /**
+   * @return The current metrics as a JSON object. Never <code>null</code>.
+   */
+  @Nonnull
+  public IJsonObject getMetricsAsJson ()
+  {
+    final IJsonObject ret = new JsonObject ();
+    ret.add ("cots", m_aCOTs.size ());
+    final LocalDateTime aDataDT = getDataDateTime ();
+    if (aDataDT != null)
+    {
+      ret.add ("data.datetime", aDataDT.toString ());
+      ret.add ("data.age-seconds", Duration.between (aDataDT, PDTFactory.getCurrentLocalDateTime ()).getSeconds ());
+      ret.add ("data.expired", isDataExpired ());
+    }
+    if (m_aMaxAge != null)
+      ret.add ("max-age-seconds", m_aMaxAge.getSeconds ());
+    ret.add ("hits.local", getLocalHitCount ());
+    ret.add ("fallbacks", getFallbackCount ());
+    ret.add ("fallbacks.expired", getExpiredFallbackCount ());
+    ret.add ("refreshes", m_aRefreshes.get ());
+    ret.add ("refreshes.failed", m_aRefreshErrors.get ());
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Delegate", m_aDelegate)
+                                       .append ("COTs", m_aCOTs)
+                                       .append ("RefreshInterval", m_aRefreshInterval)
+                                       .append ("MaxAge", m_aMaxAge)
+                                       .append ("SnapshotFile", m_aSnapshotFile)
+                                       .getToString ();
+  }
+
+  /**
+   * Factory method to create a new prefetching IAL client based on the
+   * configuration. The snapshot is read and the periodic refresh is started.
+   *
+   * @param aDelegate
+   *        The IAL client to fetch the data from. May not be
+   *        <code>null</code>.
+   * @return The prefetching IAL client. Never <code>null</code>.
+   */
+  @Nonnull
+  public static DcngIALClientPrefetch createFromConfig (@Nonnull final IIALClient aDelegate)
+  {
+    final String sDataPath = DcngConfig.WebApp.getDataPath ();
+    final File aSnapshotFile = StringHelper.hasText (sDataPath) ? new File (sDataPath, SNAPSHOT_FILENAME) : null;
+    if (aSnapshotFile == null)
+      LOGGER.warn ("No data path is configured - the prefetched IAL data is not stored");
+
+    final long nMaxAgeSeconds = DcngConfig.IAL.getPrefetchMaxAgeSeconds ();
+    final DcngIALClientPrefetch ret = new DcngIALClientPrefetch (aDelegate,
+                                                                 DcngConfig.IAL.getAllPrefetchCOTs (),
+                                                                 Duration.ofSeconds (DcngConfig.IAL.getPrefetchIntervalSeconds ()),
+                                                                 nMaxAgeSeconds > 0 ? Duration.ofSeconds (nMaxAgeSeconds)
+                                                                                    : null,
+                                                                 aSnapshotFile);
+    ret.loadSnapshot ();
+    ret.start ();
+    return ret;
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.incoming;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.dcng.api.DcngConfig;
+import com.helger.dcng.core.http.DcngHttpClientSettings;
+import com.helger.dcng.core.http.DcngPooledHttpClientFactory;
+import com.helger.httpclient.HttpClientManager;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+
+/**
+ * Holds the long-lived, pooled HTTP client that is used to forward incoming
+ * messages to the DC/DP. It is initialized and shutdown together with the
+ * DE4A Connector.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@ThreadSafe
+public final class DcngDPHttpClient
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (DcngDPHttpClient.class);
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+
+  @GuardedBy ("RW_LOCK")
+  private static DcngPooledHttpClientFactory s_aFactory;
+  @GuardedBy ("RW_LOCK")
+  private static HttpClientManager s_aHCM;
+
+  private DcngDPHttpClient ()
+  {}
+
+  /**
+   * Create the pooled HTTP client based on the configuration. Calling this
+   * method if it is already initialized, has no effect.
+   */
+  public static void initGlobally ()
+  {
+    RW_LOCK.writeLocked ( () -> {
+      if (s_aHCM == null)
+      {
+        s_aFactory = new DcngPooledHttpClientFactory (new DcngHttpClientSettings (),
+                                                      DcngConfig.ME.getMEMIncomingHttpMaxPerRoute (),
+                                                      DcngConfig.ME.getMEMIncomingHttpMaxTotal (),
+                                                      TimeValue.ofSeconds (DcngConfig.ME.getMEMIncomingHttpKeepAliveSeconds ()),
+                                                      TimeValue.ofSeconds (DcngConfig.ME.getMEMIncomingHttpIdleEvictionSeconds ()));
+        s_aHCM = new HttpClientManager (s_aFactory);
+        LOGGER.info ("Created pooled HTTP client for forwarding to DC/DP: " + s_aFactory);
+      }
+    });
+  }
+
+  /**
+   * Close the pooled HTTP client, if it was created.
+   */
+  public static void shutdownGlobally ()
+  {
+    RW_LOCK.writeLocked ( () -> {
+      if (s_aHCM != null)
+      {
+        StreamHelper.close (s_aHCM);
+        s_aHCM = null;
+        s_aFactory = null;
+        LOGGER.info ("Closed pooled HTTP client for forwarding to DC/DP");
+      }
+    });
+  }
+
+  /**
+   * @return <code>true</code> if the pooled HTTP client is initialized,
+   *         <code>false</code> if not.
+   */
+  public static boolean isInitialized ()
+  {
+    return RW_LOCK.readLockedBoolean ( () -> s_aHCM != null);
+  }
+
+  /**
+   * @return The shared HTTP client manager or <code>null</code> if
+   *         {@link #initGlobally()} was not called. The returned object MUST
+   *         NOT be closed by the caller.
+   */
+  @Nullable
+  public static HttpClientManager getHttpClientManager ()
+  {
+    return RW_LOCK.readLockedGet ( () -> s_aHCM);
+  }
+
+  /**
+   * @return The current pool statistics as a JSON object. Never
+   *         <code>null</code> but maybe empty.
+   */
+  @Nonnull
+  public static IJsonObject getPoolStatsAsJson ()
+  {
+    final IJsonObject ret = new JsonObject ();
+    final DcngPooledHttpClientFactory aFactory = RW_LOCK.readLockedGet ( () -> s_aFactory);
+    if (aFactory != null)
+    {
+      ret.add ("maxperroute", aFactory.getMaxPerRoute ());
+      ret.add ("maxtotal", aFactory.getMaxTotal ());
+      final PoolStats aStats = aFactory.getTotalPoolStats ();
+      if (aStats != null)
+      {
+        ret.add ("leased", aStats.getLeased ());
+        ret.add ("pending", aStats.getPending ());
+        ret.add ("available", aStats.getAvailable ());
+      }
+    }
+    return ret;
+  }
+}
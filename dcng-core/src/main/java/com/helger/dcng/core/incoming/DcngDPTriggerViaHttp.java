@@ -17,18 +17,27 @@
  */
 package com.helger.dcng.core.incoming;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
 import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.core5.http.ContentType;
-import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.entity.EntityTemplate;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.collection.ArrayHelper;
 import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.state.ESuccess;
 import com.helger.commons.string.StringHelper;
@@ -41,7 +50,9 @@ import com.helger.dcng.api.rest.DCNGIncomingMessage;
 import com.helger.dcng.api.rest.DCNGIncomingMetadata;
 import com.helger.dcng.api.rest.DCNGPayload;
 import com.helger.dcng.api.rest.DcngRestJAXB;
+import com.helger.dcng.core.api.DcngSendExecutor;
 import com.helger.dcng.core.http.DcngHttpClientSettings;
+import com.helger.dcng.core.outbox.DcngOutbox;
 import com.helger.httpclient.HttpClientManager;
 import com.helger.httpclient.response.ResponseHandlerByteArray;
 import com.helger.xml.serialize.write.XMLWriterSettings;
@@ -59,11 +70,8 @@ public final class DcngDPTriggerViaHttp
   private DcngDPTriggerViaHttp ()
   {}
 
-  @Nonnull
-  private static ESuccess _forwardMessage (@Nonnull final DCNGIncomingMessage aMsg,
-                                           @Nonnull @Nonempty final String sDestURL)
+  private static void _checkDestURL (@Nonnull @Nonempty final String sDestURL)
   {
-    ValueEnforcer.notNull (aMsg, "Msg");
     ValueEnforcer.notEmpty (sDestURL, "Destination URL");
 
     if (StringHelper.hasNoText (sDestURL))
@@ -72,22 +80,31 @@ public final class DcngDPTriggerViaHttp
     final IURLProtocol aProtocol = URLProtocolRegistry.getInstance ().getProtocol (sDestURL);
     if (aProtocol == null)
       throw new IllegalStateException ("The URL for handling inbound messages '" + sDestURL + "' is invalid.");
+  }
 
-    // Convert XML to bytes
-    final byte [] aPayload = DcngRestJAXB.incomingMessage ().getAsBytes (aMsg);
-    if (aPayload == null)
-      throw new IllegalStateException ();
-
-    DE4AKafkaClient.send (EErrorLevel.INFO,
-                          () -> "Sending inbound message to '" + sDestURL + "' with " + aPayload.length + " bytes");
-
-    // Main sending, using DCNG http settings
-    try (final HttpClientManager aHCM = HttpClientManager.create (new DcngHttpClientSettings ()))
+  @Nonnull
+  private static ESuccess _forwardEntity (@Nonnull final HttpEntity aEntity, @Nonnull @Nonempty final String sDestURL)
+  {
+    final HttpPost aPost = new HttpPost (sDestURL);
+    aPost.setEntity (aEntity);
+    try
     {
-      final HttpPost aPost = new HttpPost (sDestURL);
-      aPost.setEntity (new ByteArrayEntity (aPayload,
-                                            ContentType.APPLICATION_XML.withCharset (XMLWriterSettings.DEFAULT_XML_CHARSET_OBJ)));
-      final byte [] aResult = aHCM.execute (aPost, new ResponseHandlerByteArray ());
+      final byte [] aResult;
+      final HttpClientManager aSharedHCM = DcngDPHttpClient.getHttpClientManager ();
+      if (aSharedHCM != null)
+      {
+        // Main sending, using the shared pooled client
+        aResult = aSharedHCM.execute (aPost, new ResponseHandlerByteArray ());
+      }
+      else
+      {
+        // Not initialized (e.g. in tests) - use a temporary client with the
+        // DCNG http settings
+        try (final HttpClientManager aHCM = HttpClientManager.create (new DcngHttpClientSettings ()))
+        {
+          aResult = aHCM.execute (aPost, new ResponseHandlerByteArray ());
+        }
+      }
 
       DE4AKafkaClient.send (EErrorLevel.INFO,
                             () -> "Sending inbound message was successful. Got " +
@@ -95,11 +112,59 @@ public final class DcngDPTriggerViaHttp
                                   " bytes back");
       return ESuccess.SUCCESS;
     }
-    catch (final Exception ex)
+    catch (final IOException ex)
     {
       DE4AKafkaClient.send (EErrorLevel.ERROR, () -> "Sending inbound message to '" + sDestURL + "' failed", ex);
       return ESuccess.FAILURE;
     }
+    catch (final RuntimeException ex)
+    {
+      // E.g. a payload that cannot be read or decompressed while streaming -
+      // let the caller handle it
+      DE4AKafkaClient.send (EErrorLevel.ERROR, () -> "Sending inbound message to '" + sDestURL + "' failed", ex);
+      throw ex;
+    }
+  }
+
+  private static void _copySource (@Nonnull final IHasInputStream aSource, @Nonnull final OutputStream aOS) throws IOException
+  {
+    try (final InputStream aIS = aSource.getInputStream ())
+    {
+      if (aIS == null)
+        throw new IOException ("Failed to open the serialized message");
+      final byte [] aBuffer = new byte [16 * 1024];
+      int nRead;
+      while ((nRead = aIS.read (aBuffer)) > 0)
+        aOS.write (aBuffer, 0, nRead);
+    }
+  }
+
+  /**
+   * Forward an already serialized {@link DCNGIncomingMessage} to the provided
+   * URL. This is e.g. used to retry messages from the {@link DcngOutbox}. The
+   * message is read from the source while sending.
+   *
+   * @param aSource
+   *        The source of the serialized message. May not be <code>null</code>.
+   * @param sDestURL
+   *        The destination URL. May neither be <code>null</code> nor empty.
+   * @return {@link ESuccess}. Never <code>null</code>.
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static ESuccess forwardSerializedMessage (@Nonnull final IHasInputStream aSource,
+                                                   @Nonnull @Nonempty final String sDestURL)
+  {
+    ValueEnforcer.notNull (aSource, "Source");
+    _checkDestURL (sDestURL);
+
+    DE4AKafkaClient.send (EErrorLevel.INFO, () -> "Sending serialized inbound message to '" + sDestURL + "'");
+
+    final HttpEntity aEntity = new EntityTemplate (-1,
+                                                   ContentType.APPLICATION_XML.withCharset (XMLWriterSettings.DEFAULT_XML_CHARSET_OBJ),
+                                                   null,
+                                                   aOS -> _copySource (aSource, aOS));
+    return _forwardEntity (aEntity, sDestURL);
   }
 
   @Nonnull
@@ -144,15 +209,157 @@ public final class DcngDPTriggerViaHttp
   @Nonnull
   public static ESuccess forwardMessage (@Nonnull final MEMessage aRequest, @Nonnull @Nonempty final String sDestURL)
   {
-    ValueEnforcer.notEmpty (sDestURL, "Destination URL");
+    _checkDestURL (sDestURL);
+
+    final HttpEntity aEntity;
+    if (aRequest.areAllPayloadsInMemory ())
+    {
+      // Convert from MEMessage to DCNGIncomingMessage - the payloads are not
+      // copied
+      final DCNGIncomingMessage aMsg = new DCNGIncomingMessage ();
+      aMsg.setMetadata (_createMetadata (aRequest));
+      for (final MEPayload aPayload : aRequest.payloads ())
+        aMsg.addPayload (_createPayload (aPayload.getData ().bytes (),
+                                         aPayload.getContentID (),
+                                         aPayload.getMimeType ()));
+      aEntity = new DcngIncomingMessageHttpEntity (aMsg);
+    }
+    else
+    {
+      // Read the payloads directly from their source while writing
+      aEntity = new DcngMEMessageHttpEntity (aRequest);
+    }
+
+    final DcngOutbox aOutbox = DcngOutbox.getInstance ();
+    if (aOutbox != null)
+    {
+      // Persist first, so that nothing gets lost if sending fails. The message
+      // is serialized directly into the journal and sent from there.
+      DE4AKafkaClient.send (EErrorLevel.INFO, () -> "Sending inbound message to '" + sDestURL + "' via the outbox");
+      try
+      {
+        return aOutbox.storeAndSend (aEntity::writeTo, sDestURL);
+      }
+      catch (final IOException ex)
+      {
+        DE4AKafkaClient.send (EErrorLevel.ERROR,
+                              () -> "Failed to store inbound message in the outbox - sending without outbox",
+                              ex);
+      }
+    }
+
+    // Serialize directly into the HTTP request
+    DE4AKafkaClient.send (EErrorLevel.INFO, () -> "Sending inbound message to '" + sDestURL + "' streaming");
+    return _forwardEntity (aEntity, sDestURL);
+  }
+
+  /**
+   * Forward the message to the configured URL using the
+   * {@link DcngSendExecutor} and wait for the result.
+   *
+   * @param aRequest
+   *        The message to forward. May not be <code>null</code>.
+   * @return {@link ESuccess}. Never <code>null</code>.
+   * @see #forwardMessageWithExecutor(MEMessage, String)
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static ESuccess forwardMessageWithExecutor (@Nonnull final MEMessage aRequest)
+  {
+    return forwardMessageWithExecutor (aRequest, _getConfiguredDestURL ());
+  }
+
+  /**
+   * Forward the message to the provided URL using the {@link DcngSendExecutor}
+   * and wait for the result, so that the number of concurrent forwards is
+   * limited by configuration. As the caller waits, the payloads are read from
+   * their original sources and are not detached. If the current thread is
+   * already performing a task of the {@link DcngSendExecutor}, the message is
+   * forwarded directly.
+   *
+   * @param aRequest
+   *        The message to forward. May not be <code>null</code>.
+   * @param sDestURL
+   *        The destination URL. May neither be <code>null</code> nor empty.
+   * @return {@link ESuccess}. Never <code>null</code>.
+   * @throws RejectedExecutionException
+   *         If the {@link DcngSendExecutor} is too busy
+   * @throws RuntimeException
+   *         If a payload cannot be read (e.g. decompression errors)
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static ESuccess forwardMessageWithExecutor (@Nonnull final MEMessage aRequest,
+                                                     @Nonnull @Nonempty final String sDestURL)
+  {
+    ValueEnforcer.notNull (aRequest, "Request");
+    _checkDestURL (sDestURL);
+
+    if (DcngSendExecutor.isInTask ())
+      return forwardMessage (aRequest, sDestURL);
+
+    try
+    {
+      return DcngSendExecutor.submit ( () -> forwardMessage (aRequest, sDestURL)).join ();
+    }
+    catch (final CompletionException ex)
+    {
+      final Throwable aCause = ex.getCause ();
+      if (aCause instanceof RuntimeException)
+        throw (RuntimeException) aCause;
+      if (aCause instanceof Error)
+        throw (Error) aCause;
+      throw ex;
+    }
+  }
+
+  /**
+   * Forward the message to the configured URL in the background, using the
+   * {@link DcngSendExecutor}.
+   *
+   * @param aRequest
+   *        The message to forward. May not be <code>null</code>.
+   * @return The future with the forwarding result. Never <code>null</code>.
+   * @see #forwardMessageAsync(MEMessage, String)
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static CompletableFuture <ESuccess> forwardMessageAsync (@Nonnull final MEMessage aRequest)
+  {
+    return forwardMessageAsync (aRequest, _getConfiguredDestURL ());
+  }
+
+  /**
+   * Forward the message to the provided URL in the background, using the
+   * {@link DcngSendExecutor}. The payloads are detached from their original
+   * sources before (see {@link MEMessage#getWithAllPayloadsDetached()}),
+   * because e.g. the temporary files of the AS4 layer may already be deleted
+   * when the message is forwarded. Payloads that had to be spilled to disk
+   * for that purpose are deleted before the returned future completes. Callers
+   * that wait for the result should use
+   * {@link #forwardMessageWithExecutor(MEMessage, String)} instead.
+   *
+   * @param aRequest
+   *        The message to forward. May not be <code>null</code>.
+   * @param sDestURL
+   *        The destination URL. May neither be <code>null</code> nor empty.
+   * @return The future with the forwarding result. If the executor is too
+   *         busy, it is completed exceptionally with a
+   *         {@link java.util.concurrent.RejectedExecutionException}. Never
+   *         <code>null</code>.
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static CompletableFuture <ESuccess> forwardMessageAsync (@Nonnull final MEMessage aRequest,
+                                                                  @Nonnull @Nonempty final String sDestURL)
+  {
+    ValueEnforcer.notNull (aRequest, "Request");
+    // Check the URL synchronously
+    _checkDestURL (sDestURL);
 
-    // Convert from MEMessage to DCNGIncomingMessage
-    final DCNGIncomingMessage aMsg = new DCNGIncomingMessage ();
-    aMsg.setMetadata (_createMetadata (aRequest));
-    for (final MEPayload aPayload : aRequest.payloads ())
-      aMsg.addPayload (_createPayload (aPayload.getData ().bytes (),
-                                       aPayload.getContentID (),
-                                       aPayload.getMimeType ()));
-    return _forwardMessage (aMsg, sDestURL);
+    final MEMessage aDetachedRequest = aRequest.getWithAllPayloadsDetached ();
+    return DcngSendExecutor.submit ( () -> forwardMessage (aDetachedRequest, sDestURL))
+                           .whenComplete ( (r, ex) -> DcngIncomingHandlerAsync.deleteSpilledPayloads (aDetachedRequest,
+                                                                                                      aRequest));
   }
 }
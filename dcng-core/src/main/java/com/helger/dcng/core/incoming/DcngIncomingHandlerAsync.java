@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helger.dcng.core.incoming;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.statistics.IStatisticsHandlerTimer;
+import com.helger.commons.statistics.StatisticsHandlerTimer;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.dcng.api.DcngConfig;
+import com.helger.dcng.api.me.incoming.EMEIncomingQueueFullMode;
+import com.helger.dcng.api.me.incoming.IMEIncomingHandler;
+import com.helger.dcng.api.me.incoming.MEIncomingException;
+import com.helger.dcng.api.me.incoming.MEIncomingQueueFullException;
+import com.helger.dcng.api.me.model.MEMessage;
+import com.helger.dcng.api.me.model.MEPayload;
+import com.helger.dcng.core.api.DcngSendExecutor;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+
+import eu.de4a.kafkaclient.DE4AKafkaClient;
+
+/**
+ * Implementation of {@link IMEIncomingHandler} that puts incoming messages into
+ * a bounded queue and hands them over to a delegate handler using a fixed
+ * number of worker threads. That way the AS4 receipt can be sent as soon as the
+ * message is queued. If the queue is full, the message is either rejected or
+ * the receiving thread is blocked, depending on the
+ * {@link EMEIncomingQueueFullMode}.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@ThreadSafe
+public class DcngIncomingHandlerAsync implements IMEIncomingHandler, AutoCloseable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (DcngIncomingHandlerAsync.class);
+
+  private final IMEIncomingHandler m_aDelegate;
+  private final int m_nThreads;
+  private final int m_nQueueCapacity;
+  private final EMEIncomingQueueFullMode m_eQueueFullMode;
+  private final ThreadPoolExecutor m_aExecutor;
+
+  private final AtomicLong m_aQueued = new AtomicLong (0);
+  private final AtomicLong m_aRejected = new AtomicLong (0);
+  private final AtomicLong m_aHandledSuccess = new AtomicLong (0);
+  private final AtomicLong m_aHandledError = new AtomicLong (0);
+  private final StatisticsHandlerTimer m_aQueueWaitTimer = new StatisticsHandlerTimer ();
+  private final StatisticsHandlerTimer m_aHandleTimer = new StatisticsHandlerTimer ();
+
+  /**
+   * Constructor
+   *
+   * @param aDelegate
+   *        The incoming handler that does the real work. May not be
+   *        <code>null</code>.
+   * @param nThreads
+   *        The number of worker threads to use. Must be &gt; 0.
+   * @param nQueueCapacity
+   *        The maximum number of queued messages. Must be &gt; 0.
+   * @param eQueueFullMode
+   *        What to do if the queue is full. May not be <code>null</code>.
+   */
+  public DcngIncomingHandlerAsync (@Nonnull final IMEIncomingHandler aDelegate,
+                                   @Nonnegative final int nThreads,
+                                   @Nonnegative final int nQueueCapacity,
+                                   @Nonnull final EMEIncomingQueueFullMode eQueueFullMode)
+  {
+    ValueEnforcer.notNull (aDelegate, "Delegate");
+    ValueEnforcer.isGT0 (nThreads, "Threads");
+    ValueEnforcer.isGT0 (nQueueCapacity, "QueueCapacity");
+    ValueEnforcer.notNull (eQueueFullMode, "QueueFullMode");
+    m_aDelegate = aDelegate;
+    m_nThreads = nThreads;
+    m_nQueueCapacity = nQueueCapacity;
+    m_eQueueFullMode = eQueueFullMode;
+    m_aExecutor = new ThreadPoolExecutor (nThreads,
+                                          nThreads,
+                                          0L,
+                                          TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue <> (nQueueCapacity),
+                                          new BasicThreadFactory.Builder ().namingPattern ("dcng-incoming-%d")
+                                                                           .daemon (true)
+                                                                           .build (),
+                                          new ThreadPoolExecutor.AbortPolicy ());
+    // All threads must be running, so that directly adding to the queue works
+    m_aExecutor.prestartAllCoreThreads ();
+  }
+
+  @Nonnull
+  public final IMEIncomingHandler getDelegate ()
+  {
+    return m_aDelegate;
+  }
+
+  @Nonnegative
+  public final int getThreads ()
+  {
+    return m_nThreads;
+  }
+
+  @Nonnegative
+  public final int getQueueCapacity ()
+  {
+    return m_nQueueCapacity;
+  }
+
+  @Nonnull
+  public final EMEIncomingQueueFullMode getQueueFullMode ()
+  {
+    return m_eQueueFullMode;
+  }
+
+  /**
+   * @return The number of messages currently waiting in the queue.
+   */
+  @Nonnegative
+  public int getQueueSize ()
+  {
+    return m_aExecutor.getQueue ().size ();
+  }
+
+  /**
+   * @return The number of messages currently handed over to the delegate.
+   */
+  @Nonnegative
+  public int getActiveCount ()
+  {
+    return m_aExecutor.getActiveCount ();
+  }
+
+  /**
+   * @return The total number of messages that were successfully queued.
+   */
+  @Nonnegative
+  public long getQueuedCount ()
+  {
+    return m_aQueued.get ();
+  }
+
+  /**
+   * @return The total number of messages that were rejected because the queue
+   *         was full.
+   */
+  @Nonnegative
+  public long getRejectedCount ()
+  {
+    return m_aRejected.get ();
+  }
+
+  /**
+   * @return The total number of messages that were handled by the delegate
+   *         without an exception.
+   */
+  @Nonnegative
+  public long getHandledSuccessCount ()
+  {
+    return m_aHandledSuccess.get ();
+  }
+
+  /**
+   * @return The total number of messages for which the delegate threw an
+   *         exception.
+   */
+  @Nonnegative
+  public long getHandledErrorCount ()
+  {
+    return m_aHandledError.get ();
+  }
+
+  /**
+   * @return The statistics of the time in milliseconds messages were waiting
+   *         in the queue. Never <code>null</code>.
+   */
+  @Nonnull
+  public IStatisticsHandlerTimer getQueueWaitTimer ()
+  {
+    return m_aQueueWaitTimer;
+  }
+
+  /**
+   * @return The statistics of the time in milliseconds the delegate needed to
+   *         handle a message. Never <code>null</code>.
+   */
+  @Nonnull
+  public IStatisticsHandlerTimer getHandleTimer ()
+  {
+    return m_aHandleTimer;
+  }
+
+  private void _handleQueued (@Nonnull final MEMessage aMessage,
+                              @Nonnull final MEMessage aOriginalMessage,
+                              final long nQueuedNanos)
+  {
+    m_aQueueWaitTimer.addTime (TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - nQueuedNanos));
+
+    final long nStartNanos = System.nanoTime ();
+    try
+    {
+      // The receipt was already sent, so the message must not be rejected by
+      // the send executor - this worker forwards directly instead
+      DcngSendExecutor.runAsTask ( () -> m_aDelegate.handleIncomingRequest (aMessage));
+      m_aHandledSuccess.incrementAndGet ();
+    }
+    catch (final Exception ex)
+    {
+      m_aHandledError.incrementAndGet ();
+      DE4AKafkaClient.send (EErrorLevel.ERROR, () -> "Error handling queued incoming message", ex);
+    }
+    finally
+    {
+      m_aHandleTimer.addTime (TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - nStartNanos));
+      // Payloads spilled to disk are no longer needed
+      deleteSpilledPayloads (aMessage, aOriginalMessage);
+    }
+  }
+
+  /**
+   * Delete the temporary files of all payloads of the detached message that
+   * are not part of the original message.
+   *
+   * @param aDetachedMessage
+   *        The result of {@link MEMessage#getWithAllPayloadsDetached()}. May
+   *        not be <code>null</code>.
+   * @param aOriginalMessage
+   *        The message that was detached. May not be <code>null</code>.
+   */
+  static void deleteSpilledPayloads (@Nonnull final MEMessage aDetachedMessage,
+                                     @Nonnull final MEMessage aOriginalMessage)
+  {
+    // Only the payloads that were spilled here - the others still belong to
+    // the caller
+    for (final MEPayload aPayload : aDetachedMessage.payloads ())
+      if (!aOriginalMessage.payloads ().containsAny (x -> x == aPayload))
+        aPayload.deleteTemporaryData ();
+  }
+
+  public void handleIncomingRequest (@Nonnull final MEMessage aMessage) throws MEIncomingException
+  {
+    ValueEnforcer.notNull (aMessage, "Message");
+
+    if (m_aExecutor.isShutdown ())
+      throw new MEIncomingException ("The asynchronous incoming handler was already shut down");
+
+    // The payload sources (e.g. temporary files of the AS4 layer) may no longer
+    // be available when the message is handled. Large payloads are spilled to
+    // disk instead of being kept in memory.
+    final MEMessage aDetachedMessage = aMessage.getWithAllPayloadsDetached ();
+    final long nQueuedNanos = System.nanoTime ();
+    final Runnable aTask = () -> _handleQueued (aDetachedMessage, aMessage, nQueuedNanos);
+    switch (m_eQueueFullMode)
+    {
+      case REJECT:
+        try
+        {
+          m_aExecutor.execute (aTask);
+        }
+        catch (final RejectedExecutionException ex)
+        {
+          m_aRejected.incrementAndGet ();
+          deleteSpilledPayloads (aDetachedMessage, aMessage);
+          throw new MEIncomingQueueFullException ("The incoming message queue is full (" +
+                                                  m_nQueueCapacity +
+                                                  " entries) - rejecting message",
+                                                  ex);
+        }
+        break;
+      case BLOCK:
+        try
+        {
+          // All core threads are running, so adding to the queue is enough
+          m_aExecutor.getQueue ().put (aTask);
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+          m_aRejected.incrementAndGet ();
+          deleteSpilledPayloads (aDetachedMessage, aMessage);
+          throw new MEIncomingQueueFullException ("Interrupted while waiting for space in the incoming message queue",
+                                                  ex);
+        }
+        break;
+      default:
+        throw new IllegalStateException ("Unsupported queue full mode " + m_eQueueFullMode);
+    }
+    m_aQueued.incrementAndGet ();
+  }
+
+  /**
+   * Stop accepting new messages and wait until all queued messages are
+   * handled.
+   */
+  public void close ()
+  {
+    if (!m_aExecutor.isShutdown ())
+    {
+      LOGGER.info ("Shutting down asynchronous incoming handler with " + getQueueSize () + " queued message(s)");
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aExecutor);
+    }
+  }
+
+  /**
+   * @return The current metrics as a JSON object. Never <code>null</code>.
+   */
+  @Nonnull
+  public IJsonObject getMetricsAsJson ()
+  {
+    final IJsonObject ret = new JsonObject ();
+    ret.add ("threads", m_nThreads);
+    ret.add ("queue.capacity", m_nQueueCapacity);
+    ret.add ("queue.fullmode", m_eQueueFullMode.getID ());
+    ret.add ("queue.size", getQueueSize ());
+    ret.add ("active", getActiveCount ());
+    ret.add ("queued", getQueuedCount ());
+    ret.add ("rejected", getRejectedCount ());
+    ret.add ("handled.success", getHandledSuccessCount ());
+    ret.add ("handled.error", getHandledErrorCount ());
+    if (m_aQueueWaitTimer.getInvocationCount () > 0)
+    {
+      ret.add ("queue.wait.avg.ms", m_aQueueWaitTimer.getAverage ());
+      ret.add ("queue.wait.max.ms", m_aQueueWaitTimer.getMax ());
+    }
+    if (m_aHandleTimer.getInvocationCount () > 0)
+    {
+      ret.add ("handle.avg.ms", m_aHandleTimer.getAverage ());
+      ret.add ("handle.max.ms", m_aHandleTimer.getMax ());
+    }
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Delegate", m_aDelegate)
+                                       .append ("Threads", m_nThreads)
+                                       .append ("QueueCapacity", m_nQueueCapacity)
+                                       .append ("QueueFullMode", m_eQueueFullMode)
+                                       .getToString ();
+  }
+
+  /**
+   * Factory method to create a new asynchronous incoming handler based on the
+   * configuration.
+   *
+   * @param aDelegate
+   *        The incoming handler that does the real work. May not be
+   *        <code>null</code>.
+   * @return The incoming handler instance. Never <code>null</code>.
+   */
+  @Nonnull
+  public static DcngIncomingHandlerAsync createFromConfig (@Nonnull final IMEIncomingHandler aDelegate)
+  {
+    return new DcngIncomingHandlerAsync (aDelegate,
+                                         DcngConfig.ME.getMEMIncomingAsyncThreads (),
+                                         DcngConfig.ME.getMEMIncomingAsyncQueueCapacity (),
+                                         DcngConfig.ME.getMEMIncomingAsyncQueueFullMode ());
+  }
+}
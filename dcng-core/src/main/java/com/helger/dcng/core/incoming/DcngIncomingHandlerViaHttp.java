@@ -17,6 +17,8 @@
  */
 package com.helger.dcng.core.incoming;
 
+import java.util.concurrent.RejectedExecutionException;
+
 import javax.annotation.Nonnull;
 
 import com.helger.commons.ValueEnforcer;
@@ -26,6 +28,7 @@ import com.helger.commons.string.ToStringGenerator;
 import com.helger.dcng.api.DcngConfig;
 import com.helger.dcng.api.me.incoming.IMEIncomingHandler;
 import com.helger.dcng.api.me.incoming.MEIncomingException;
+import com.helger.dcng.api.me.incoming.MEIncomingQueueFullException;
 import com.helger.dcng.api.me.model.MEMessage;
 
 import eu.de4a.kafkaclient.DE4AKafkaClient;
@@ -55,7 +58,18 @@ public class DcngIncomingHandlerViaHttp implements IMEIncomingHandler
   public void handleIncomingRequest (@Nonnull final MEMessage aRequest) throws MEIncomingException
   {
     DE4AKafkaClient.send (EErrorLevel.INFO, () -> m_sLogPrefix + "DCNG got incoming request");
-    DcngDPTriggerViaHttp.forwardMessage (aRequest);
+
+    // Forward with the send executor, so that the number of concurrent
+    // forwards is limited by configuration
+    try
+    {
+      DcngDPTriggerViaHttp.forwardMessageWithExecutor (aRequest);
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      // Let the sender retry later
+      throw new MEIncomingQueueFullException ("Too many pending forwarding tasks - rejecting message", ex);
+    }
   }
 
   @Override
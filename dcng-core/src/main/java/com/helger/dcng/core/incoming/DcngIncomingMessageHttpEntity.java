@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helger.dcng.core.incoming;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.NonClosingOutputStream;
+import com.helger.dcng.api.rest.DCNGIncomingMessage;
+import com.helger.dcng.api.rest.DcngRestJAXB;
+import com.helger.jaxb.IJAXBWriter;
+import com.helger.xml.serialize.write.XMLWriterSettings;
+
+/**
+ * A special HTTP entity that serializes a {@link DCNGIncomingMessage} directly
+ * into the request body, using chunked transfer encoding. The XML and the
+ * Base64 encoded payloads are never kept in memory as a whole, because the
+ * JAXB marshaller writes them directly into the HTTP output stream. The entity
+ * is repeatable, as the message is serialized again on each call.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+public class DcngIncomingMessageHttpEntity extends AbstractHttpEntity
+{
+  private final DCNGIncomingMessage m_aMsg;
+  private final Supplier <? extends IJAXBWriter <DCNGIncomingMessage>> m_aMarshallerSupplier;
+
+  /**
+   * Constructor using the shared marshaller of {@link DcngRestJAXB}.
+   *
+   * @param aMsg
+   *        The message to be serialized. May not be <code>null</code>.
+   */
+  public DcngIncomingMessageHttpEntity (@Nonnull final DCNGIncomingMessage aMsg)
+  {
+    this (aMsg, DcngRestJAXB::pooledIncomingMessage);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aMsg
+   *        The message to be serialized. May not be <code>null</code>.
+   * @param aMarshallerSupplier
+   *        The supplier for the marshaller to be used. May not be
+   *        <code>null</code>.
+   */
+  public DcngIncomingMessageHttpEntity (@Nonnull final DCNGIncomingMessage aMsg,
+                                        @Nonnull final Supplier <? extends IJAXBWriter <DCNGIncomingMessage>> aMarshallerSupplier)
+  {
+    super (ContentType.APPLICATION_XML.withCharset (XMLWriterSettings.DEFAULT_XML_CHARSET_OBJ), null, true);
+    ValueEnforcer.notNull (aMsg, "Msg");
+    ValueEnforcer.notNull (aMarshallerSupplier, "MarshallerSupplier");
+    m_aMsg = aMsg;
+    m_aMarshallerSupplier = aMarshallerSupplier;
+  }
+
+  @Override
+  public boolean isRepeatable ()
+  {
+    return true;
+  }
+
+  public long getContentLength ()
+  {
+    // Unknown - chunked
+    return -1;
+  }
+
+  public boolean isStreaming ()
+  {
+    // Not based on a stream that can only be consumed once
+    return false;
+  }
+
+  @Override
+  public void writeTo (@Nonnull final OutputStream aOS) throws IOException
+  {
+    ValueEnforcer.notNull (aOS, "OutputStream");
+
+    // Marshalling directly to the output stream allows the JAXB runtime to
+    // Base64 encode the payloads in small chunks
+    final OutputStream aNonClosingOS = new NonClosingOutputStream (aOS);
+    if (m_aMarshallerSupplier.get ()
+                             .write (m_aMsg, (aMarshaller, aElement) -> aMarshaller.marshal (aElement, aNonClosingOS))
+                             .isFailure ())
+      throw new IOException ("Failed to serialize the incoming message");
+    aOS.flush ();
+  }
+
+  public InputStream getContent () throws IOException
+  {
+    // Only used if someone explicitly asks for it
+    final InputStream ret = m_aMarshallerSupplier.get ().getAsInputStream (m_aMsg);
+    if (ret == null)
+      throw new IOException ("Failed to serialize the incoming message");
+    return ret;
+  }
+
+  public void close () throws IOException
+  {
+    // Nothing to release
+  }
+}
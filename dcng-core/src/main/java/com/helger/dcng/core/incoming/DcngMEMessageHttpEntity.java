@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helger.dcng.core.incoming;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import javax.annotation.Nonnull;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.NonClosingOutputStream;
+import com.helger.dcng.api.me.model.MEMessage;
+import com.helger.dcng.api.me.model.MEPayload;
+import com.helger.dcng.api.rest.DCNGIncomingMessage;
+import com.helger.dcng.api.rest.DcngRestJAXB;
+import com.helger.peppolid.IIdentifier;
+
+/**
+ * A special HTTP entity that serializes an {@link MEMessage} as
+ * {@link DCNGIncomingMessage} XML directly into the request body, using
+ * chunked transfer encoding. In contrast to {@link DcngIncomingMessageHttpEntity}
+ * the payloads are read from {@link MEPayload#openDataStream()} and Base64
+ * encoded in small chunks, so payloads that are not kept in memory are never
+ * fully loaded. All identifiers of the message are mandatory according to the
+ * XML Schema and are checked before anything is written.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+public class DcngMEMessageHttpEntity extends AbstractHttpEntity
+{
+  /** Must be a multiple of 3, so that the Base64 chunks can be concatenated */
+  private static final int BASE64_CHUNK_SIZE = 3 * 16 * 1024;
+
+  private final MEMessage m_aMsg;
+
+  /**
+   * Constructor
+   *
+   * @param aMsg
+   *        The message to be serialized. May not be <code>null</code>.
+   */
+  public DcngMEMessageHttpEntity (@Nonnull final MEMessage aMsg)
+  {
+    super (ContentType.APPLICATION_XML.withCharset (StandardCharsets.UTF_8), null, true);
+    _checkMessage (aMsg);
+    m_aMsg = aMsg;
+  }
+
+  @Override
+  public boolean isRepeatable ()
+  {
+    return true;
+  }
+
+  public long getContentLength ()
+  {
+    // Unknown - chunked
+    return -1;
+  }
+
+  public boolean isStreaming ()
+  {
+    // Not based on a stream that can only be consumed once
+    return false;
+  }
+
+  private static void _checkMessage (@Nonnull final MEMessage aMsg)
+  {
+    // Fail before the request is started and not in the middle of the body
+    ValueEnforcer.notNull (aMsg, "Msg");
+    ValueEnforcer.notNull (aMsg.getSenderID (), "Msg.SenderID");
+    ValueEnforcer.notNull (aMsg.getReceiverID (), "Msg.ReceiverID");
+    ValueEnforcer.notNull (aMsg.getDocumentTypeID (), "Msg.DocumentTypeID");
+    ValueEnforcer.notNull (aMsg.getProcessID (), "Msg.ProcessID");
+  }
+
+  private static void _writeID (@Nonnull final XMLStreamWriter aXSW,
+                                @Nonnull final String sElementName,
+                                @Nonnull final IIdentifier aID) throws XMLStreamException
+  {
+    aXSW.writeEmptyElement (DcngRestJAXB.DEFAULT_NAMESPACE_PREFIX, sElementName, DcngRestJAXB.NS_URI);
+    if (aID.getScheme () != null)
+      aXSW.writeAttribute ("scheme", aID.getScheme ());
+    aXSW.writeAttribute ("value", aID.getValue ());
+  }
+
+  private static void _writeBase64 (@Nonnull final XMLStreamWriter aXSW, @Nonnull final InputStream aIS) throws IOException,
+                                                                                                                 XMLStreamException
+  {
+    final Base64.Encoder aEncoder = Base64.getEncoder ();
+    final byte [] aBuffer = new byte [BASE64_CHUNK_SIZE];
+    while (true)
+    {
+      // Fill the buffer completely, to keep the chunk size a multiple of 3
+      int nFilled = 0;
+      int nRead;
+      while (nFilled < aBuffer.length && (nRead = aIS.read (aBuffer, nFilled, aBuffer.length - nFilled)) >= 0)
+        nFilled += nRead;
+      if (nFilled == 0)
+        break;
+
+      final byte [] aEncoded = aEncoder.encode (nFilled == aBuffer.length ? aBuffer
+                                                                          : Arrays.copyOf (aBuffer, nFilled));
+      aXSW.writeCharacters (new String (aEncoded, StandardCharsets.ISO_8859_1));
+      if (nFilled < aBuffer.length)
+        break;
+    }
+  }
+
+  /**
+   * Write the message to the provided output stream.
+   *
+   * @param aMsg
+   *        The message to write. May not be <code>null</code>.
+   * @param aOS
+   *        The output stream to write to. It is not closed. May not be
+   *        <code>null</code>.
+   * @throws IOException
+   *         In case of an error
+   * @throws NullPointerException
+   *         If one of the identifiers of the message is <code>null</code>
+   */
+  public static void writeMessage (@Nonnull final MEMessage aMsg, @Nonnull final OutputStream aOS) throws IOException
+  {
+    _checkMessage (aMsg);
+    ValueEnforcer.notNull (aOS, "OutputStream");
+
+    final String sPrefix = DcngRestJAXB.DEFAULT_NAMESPACE_PREFIX;
+    final String sNS = DcngRestJAXB.NS_URI;
+    try
+    {
+      final XMLStreamWriter aXSW = XMLOutputFactory.newInstance ()
+                                                   .createXMLStreamWriter (new NonClosingOutputStream (aOS),
+                                                                           StandardCharsets.UTF_8.name ());
+      aXSW.writeStartDocument (StandardCharsets.UTF_8.name (), "1.0");
+      aXSW.writeStartElement (sPrefix, "IncomingMessage", sNS);
+      aXSW.writeNamespace (sPrefix, sNS);
+
+      aXSW.writeStartElement (sPrefix, "Metadata", sNS);
+      _writeID (aXSW, "SenderID", aMsg.getSenderID ());
+      _writeID (aXSW, "ReceiverID", aMsg.getReceiverID ());
+      _writeID (aXSW, "DocTypeID", aMsg.getDocumentTypeID ());
+      _writeID (aXSW, "ProcessID", aMsg.getProcessID ());
+      aXSW.writeEndElement ();
+
+      for (final MEPayload aPayload : aMsg.payloads ())
+      {
+        aXSW.writeStartElement (sPrefix, "Payload", sNS);
+        aXSW.writeAttribute ("ContentID", aPayload.getContentID ());
+        aXSW.writeAttribute ("MimeType", aPayload.getMimeTypeString ());
+        try (final InputStream aIS = aPayload.openDataStream ())
+        {
+          _writeBase64 (aXSW, aIS);
+        }
+        aXSW.writeEndElement ();
+      }
+
+      aXSW.writeEndElement ();
+      aXSW.writeEndDocument ();
+      aXSW.flush ();
+      aXSW.close ();
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new IOException ("Failed to serialize the incoming message", ex);
+    }
+    aOS.flush ();
+  }
+
+  @Override
+  public void writeTo (@Nonnull final OutputStream aOS) throws IOException
+  {
+    writeMessage (m_aMsg, aOS);
+  }
+
+  public InputStream getContent () throws IOException
+  {
+    // Only used if someone explicitly asks for it
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    writeMessage (m_aMsg, aBAOS);
+    return aBAOS.getAsInputStream ();
+  }
+
+  public void close () throws IOException
+  {
+    // Nothing to release
+  }
+}
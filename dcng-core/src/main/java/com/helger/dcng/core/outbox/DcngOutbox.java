@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helger.dcng.core.outbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsConcurrentHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.exception.InitializationException;
+import com.helger.commons.functional.IThrowingConsumer;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.dcng.api.DcngConfig;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+
+import eu.de4a.kafkaclient.DE4AKafkaClient;
+
+/**
+ * A persistent outbox for messages to be forwarded to the DC/DP. Each message
+ * is durably stored in a {@link DcngOutboxJournal} before the first sending
+ * attempt. If sending fails, it is retried in the background with an
+ * exponential backoff until it succeeds. Pending messages survive a restart.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@ThreadSafe
+public final class DcngOutbox implements AutoCloseable
+{
+  public static final String OUTBOX_DIRECTORY_NAME = "outbox";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (DcngOutbox.class);
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  /** How often to check for due entries */
+  private static final long RETRY_CHECK_INTERVAL_MILLIS = 1_000;
+
+  @GuardedBy ("RW_LOCK")
+  private static DcngOutbox s_aInstance;
+
+  private final DcngOutboxJournal m_aJournal;
+  private final BiFunction <? super IHasInputStream, String, ESuccess> m_aSender;
+  private final long m_nRetryInitialMillis;
+  private final long m_nRetryMaxMillis;
+  private final ICommonsMap <String, DcngOutboxEntry> m_aPending = new CommonsConcurrentHashMap <> ();
+  private final ScheduledExecutorService m_aScheduler;
+
+  private final AtomicLong m_aStored = new AtomicLong (0);
+  private final AtomicLong m_aDelivered = new AtomicLong (0);
+  private final AtomicLong m_aFailedAttempts = new AtomicLong (0);
+
+  /**
+   * Constructor
+   *
+   * @param aJournal
+   *        The journal to use. May not be <code>null</code>. It is closed
+   *        together with this object.
+   * @param aSender
+   *        The function that does the actual sending. It takes the source of
+   *        the serialized message, that reads it from the journal, and the
+   *        destination URL. May not be <code>null</code>.
+   * @param nRetryInitialMillis
+   *        The delay in milliseconds after the first failed attempt. Must be
+   *        &gt; 0.
+   * @param nRetryMaxMillis
+   *        The maximum delay in milliseconds between two attempts. Must be
+   *        &ge; the initial delay.
+   */
+  public DcngOutbox (@Nonnull final DcngOutboxJournal aJournal,
+                     @Nonnull final BiFunction <? super IHasInputStream, String, ESuccess> aSender,
+                     @Nonnegative final long nRetryInitialMillis,
+                     @Nonnegative final long nRetryMaxMillis)
+  {
+    ValueEnforcer.notNull (aJournal, "Journal");
+    ValueEnforcer.notNull (aSender, "Sender");
+    ValueEnforcer.isGT0 (nRetryInitialMillis, "RetryInitialMillis");
+    ValueEnforcer.isTrue (nRetryMaxMillis >= nRetryInitialMillis, "RetryMaxMillis must be >= RetryInitialMillis");
+    m_aJournal = aJournal;
+    m_aSender = aSender;
+    m_nRetryInitialMillis = nRetryInitialMillis;
+    m_nRetryMaxMillis = nRetryMaxMillis;
+
+    // Everything from the last run is due immediately
+    for (final DcngOutboxEntry aEntry : aJournal.getAllRecoveredEntries ())
+      m_aPending.put (aEntry.getID (), aEntry);
+
+    m_aScheduler = Executors.newSingleThreadScheduledExecutor (new BasicThreadFactory.Builder ().namingPattern ("dcng-outbox-%d")
+                                                                                                .daemon (true)
+                                                                                                .build ());
+    m_aScheduler.scheduleWithFixedDelay (this::_retryAllDue,
+                                         RETRY_CHECK_INTERVAL_MILLIS,
+                                         RETRY_CHECK_INTERVAL_MILLIS,
+                                         TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param nAttempts
+   *        The number of failed attempts so far. Must be &gt; 0.
+   * @return The delay in milliseconds before the next attempt.
+   */
+  long getRetryDelayMillis (@Nonnegative final int nAttempts)
+  {
+    // Avoid overflows
+    final int nShift = Math.min (nAttempts - 1, 30);
+    final long nDelay = m_nRetryInitialMillis << nShift;
+    return nDelay <= 0 || nDelay > m_nRetryMaxMillis ? m_nRetryMaxMillis : nDelay;
+  }
+
+  private void _onSuccess (@Nonnull final DcngOutboxEntry aEntry)
+  {
+    try
+    {
+      m_aJournal.markDone (aEntry);
+    }
+    catch (final IOException ex)
+    {
+      // Worst case: it is delivered again after a restart
+      LOGGER.error ("Failed to mark outbox entry " + aEntry.getID () + " as done", ex);
+    }
+    m_aPending.remove (aEntry.getID ());
+    m_aDelivered.incrementAndGet ();
+  }
+
+  private void _onFailure (@Nonnull final DcngOutboxEntry aEntry)
+  {
+    m_aFailedAttempts.incrementAndGet ();
+    final int nAttempts = aEntry.incrementAttempts ();
+    final long nDelay = getRetryDelayMillis (nAttempts);
+    aEntry.setNextAttemptMillis (System.currentTimeMillis () + nDelay);
+    DE4AKafkaClient.send (EErrorLevel.WARN,
+                          () -> "Forwarding outbox entry " +
+                                aEntry.getID () +
+                                " failed (attempt " +
+                                nAttempts +
+                                ") - retrying in " +
+                                nDelay +
+                                " ms");
+  }
+
+  private void _send (@Nonnull final DcngOutboxEntry aEntry)
+  {
+    ESuccess eSuccess;
+    try
+    {
+      // Send directly from the journal
+      eSuccess = m_aSender.apply (m_aJournal.getPayloadSource (aEntry), aEntry.getDestURL ());
+    }
+    catch (final RuntimeException ex)
+    {
+      LOGGER.error ("Error forwarding outbox entry " + aEntry.getID (), ex);
+      eSuccess = ESuccess.FAILURE;
+    }
+    if (eSuccess.isSuccess ())
+      _onSuccess (aEntry);
+    else
+      _onFailure (aEntry);
+  }
+
+  private void _retryAllDue ()
+  {
+    final long nNow = System.currentTimeMillis ();
+    for (final DcngOutboxEntry aEntry : m_aPending.values ())
+      if (aEntry.claimIfDue (nNow))
+        _send (aEntry);
+  }
+
+  /**
+   * Durably store the message in the outbox and try to send it immediately.
+   * If sending fails, it is retried in the background. The message is
+   * serialized directly into the journal and sent from there, so it is never
+   * kept in memory as a whole.
+   *
+   * @param aPayloadWriter
+   *        The writer for the serialized message. May not be
+   *        <code>null</code>. It must not close the provided output stream.
+   * @param sDestURL
+   *        The destination URL. May neither be <code>null</code> nor empty.
+   * @return {@link ESuccess#SUCCESS} if the message was sent immediately,
+   *         {@link ESuccess#FAILURE} if it will be retried later.
+   * @throws IOException
+   *         If the message could not be stored in the outbox
+   * @throws RuntimeException
+   *         If the writer throws it. The message is not stored in that case.
+   */
+  @Nonnull
+  public ESuccess storeAndSend (@Nonnull final IThrowingConsumer <? super OutputStream, IOException> aPayloadWriter,
+                                @Nonnull @Nonempty final String sDestURL) throws IOException
+  {
+    final DcngOutboxEntry aEntry = m_aJournal.append (sDestURL, aPayloadWriter);
+    m_aPending.put (aEntry.getID (), aEntry);
+    m_aStored.incrementAndGet ();
+
+    _send (aEntry);
+    return m_aPending.containsKey (aEntry.getID ()) ? ESuccess.FAILURE : ESuccess.SUCCESS;
+  }
+
+  /**
+   * @return The number of entries that were not yet delivered.
+   */
+  @Nonnegative
+  public int getPendingCount ()
+  {
+    return m_aPending.size ();
+  }
+
+  /**
+   * @return The current metrics as a JSON object. Never <code>null</code>.
+   */
+  @Nonnull
+  public IJsonObject getMetricsAsJson ()
+  {
+    final IJsonObject ret = new JsonObject ();
+    ret.add ("pending", getPendingCount ());
+    ret.add ("stored", m_aStored.get ());
+    ret.add ("delivered", m_aDelivered.get ());
+    ret.add ("failed.attempts", m_aFailedAttempts.get ());
+    ret.add ("journal.segments", m_aJournal.getSegmentCount ());
+    ret.add ("journal.syncs", m_aJournal.getSyncCount ());
+    return ret;
+  }
+
+  /**
+   * Stop retrying and close the journal. Pending entries are retried after the
+   * next start.
+   */
+  public void close ()
+  {
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aScheduler);
+    StreamHelper.close (m_aJournal);
+    if (m_aPending.isNotEmpty ())
+      LOGGER.info ("Closed outbox with " + m_aPending.size () + " pending entries");
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("RetryInitialMillis", m_nRetryInitialMillis)
+                                       .append ("RetryMaxMillis", m_nRetryMaxMillis)
+                                       .append ("Pending", m_aPending.size ())
+                                       .getToString ();
+  }
+
+  /**
+   * Create the global outbox based on the configuration, if it is enabled.
+   * Calling this method if it is already initialized, has no effect.
+   *
+   * @param aSender
+   *        The function that does the actual sending. May not be
+   *        <code>null</code>.
+   * @throws InitializationException
+   *         If the outbox is enabled but cannot be created
+   */
+  public static void initGlobally (@Nonnull final BiFunction <? super IHasInputStream, String, ESuccess> aSender)
+  {
+    ValueEnforcer.notNull (aSender, "Sender");
+    if (!DcngConfig.ME.isMEMIncomingOutboxEnabled ())
+      return;
+
+    RW_LOCK.writeLocked ( () -> {
+      if (s_aInstance == null)
+      {
+        final String sDataPath = DcngConfig.WebApp.getDataPath ();
+        if (StringHelper.hasNoText (sDataPath))
+          throw new InitializationException ("The outbox requires the data path to be configured.");
+
+        final File aDir = new File (sDataPath, OUTBOX_DIRECTORY_NAME);
+        try
+        {
+          final DcngOutboxJournal aJournal = new DcngOutboxJournal (aDir,
+                                                                    DcngConfig.ME.getMEMIncomingOutboxSegmentSize ());
+          s_aInstance = new DcngOutbox (aJournal,
+                                        aSender,
+                                        TimeUnit.SECONDS.toMillis (DcngConfig.ME.getMEMIncomingOutboxRetryInitialSeconds ()),
+                                        TimeUnit.SECONDS.toMillis (DcngConfig.ME.getMEMIncomingOutboxRetryMaxSeconds ()));
+        }
+        catch (final IOException ex)
+        {
+          throw new InitializationException ("Failed to open the outbox in " + aDir.getAbsolutePath (), ex);
+        }
+        LOGGER.info ("Created outbox in " + aDir.getAbsolutePath () + ": " + s_aInstance);
+      }
+    });
+  }
+
+  /**
+   * Close the global outbox, if it was created.
+   */
+  public static void shutdownGlobally ()
+  {
+    RW_LOCK.writeLocked ( () -> {
+      if (s_aInstance != null)
+      {
+        s_aInstance.close ();
+        s_aInstance = null;
+      }
+    });
+  }
+
+  /**
+   * @return The global outbox or <code>null</code> if it is disabled or not
+   *         initialized.
+   */
+  @Nullable
+  public static DcngOutbox getInstance ()
+  {
+    return RW_LOCK.readLockedGet ( () -> s_aInstance);
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helger.dcng.core.outbox;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A single pending entry of the {@link DcngOutbox}. The payload itself is not
+ * kept in memory but is read from the journal when needed.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@ThreadSafe
+public final class DcngOutboxEntry implements IHasID <String>
+{
+  /** The next attempt time of an entry that is currently being sent */
+  static final long IN_FLIGHT = Long.MAX_VALUE;
+
+  private final String m_sID;
+  private final String m_sDestURL;
+  private final long m_nCreationMillis;
+  private final long m_nSegment;
+  private final long m_nPayloadPosition;
+  private final int m_nPayloadLength;
+  private final AtomicInteger m_aAttempts = new AtomicInteger (0);
+  private final AtomicLong m_aNextAttemptMillis;
+
+  DcngOutboxEntry (@Nonnull @Nonempty final String sID,
+                   @Nonnull @Nonempty final String sDestURL,
+                   final long nCreationMillis,
+                   final long nSegment,
+                   @Nonnegative final long nPayloadPosition,
+                   @Nonnegative final int nPayloadLength,
+                   final long nNextAttemptMillis)
+  {
+    m_sID = sID;
+    m_sDestURL = sDestURL;
+    m_nCreationMillis = nCreationMillis;
+    m_nSegment = nSegment;
+    m_nPayloadPosition = nPayloadPosition;
+    m_nPayloadLength = nPayloadLength;
+    m_aNextAttemptMillis = new AtomicLong (nNextAttemptMillis);
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  /**
+   * @return The URL the message should be forwarded to. Neither
+   *         <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getDestURL ()
+  {
+    return m_sDestURL;
+  }
+
+  /**
+   * @return The time in milliseconds since the epoch, when the entry was
+   *         added.
+   */
+  public long getCreationMillis ()
+  {
+    return m_nCreationMillis;
+  }
+
+  long getSegment ()
+  {
+    return m_nSegment;
+  }
+
+  long getPayloadPosition ()
+  {
+    return m_nPayloadPosition;
+  }
+
+  /**
+   * @return The number of bytes of the serialized message.
+   */
+  @Nonnegative
+  public int getPayloadLength ()
+  {
+    return m_nPayloadLength;
+  }
+
+  /**
+   * @return The number of failed sending attempts since the entry was added
+   *         or since the last restart.
+   */
+  @Nonnegative
+  public int getAttempts ()
+  {
+    return m_aAttempts.get ();
+  }
+
+  int incrementAttempts ()
+  {
+    return m_aAttempts.incrementAndGet ();
+  }
+
+  /**
+   * @return The time in milliseconds since the epoch, when the next sending
+   *         attempt is due.
+   */
+  public long getNextAttemptMillis ()
+  {
+    return m_aNextAttemptMillis.get ();
+  }
+
+  void setNextAttemptMillis (final long nNextAttemptMillis)
+  {
+    m_aNextAttemptMillis.set (nNextAttemptMillis);
+  }
+
+  /**
+   * Try to exclusively claim this entry for sending.
+   *
+   * @param nNowMillis
+   *        The current time in milliseconds since the epoch.
+   * @return <code>true</code> if the entry was due and is now claimed by the
+   *         caller, <code>false</code> if not.
+   */
+  boolean claimIfDue (final long nNowMillis)
+  {
+    final long nNext = m_aNextAttemptMillis.get ();
+    return nNext <= nNowMillis && m_aNextAttemptMillis.compareAndSet (nNext, IN_FLIGHT);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("ID", m_sID)
+                                       .append ("DestURL", m_sDestURL)
+                                       .append ("CreationMillis", m_nCreationMillis)
+                                       .append ("Segment", m_nSegment)
+                                       .append ("PayloadPosition", m_nPayloadPosition)
+                                       .append ("PayloadLength", m_nPayloadLength)
+                                       .append ("Attempts", m_aAttempts.get ())
+                                       .append ("NextAttemptMillis", m_aNextAttemptMillis.get ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,824 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helger.dcng.core.outbox;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.CommonsTreeMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsNavigableMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.functional.IThrowingConsumer;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.file.FileOperations;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.string.StringParser;
+
+/**
+ * An append-only journal of outbox entries, split into segment files. Each
+ * record is prefixed with its length and a CRC32 checksum, so that a partially
+ * written record at the end of a segment is detected and ignored. The payload
+ * of an entry is streamed directly into the segment and the length and the
+ * checksum are calculated while writing, so that large messages are never
+ * kept in memory. New entries are fsynced before
+ * {@link #append(String, IThrowingConsumer)} returns, but concurrent writers
+ * share a single fsync (group commit). Segments are deleted as soon as they
+ * and all older segments contain no more pending entries.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@ThreadSafe
+public final class DcngOutboxJournal implements Closeable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (DcngOutboxJournal.class);
+
+  private static final String FILENAME_PREFIX = "outbox-";
+  private static final String FILENAME_SUFFIX = ".journal";
+  private static final byte RECORD_ADD = 1;
+  private static final byte RECORD_DONE = 2;
+  /** Length and CRC of each record */
+  private static final int RECORD_HEADER_SIZE = 8;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File m_aDirectory;
+  private final long m_nMaxSegmentSize;
+
+  // Order: always m_aSyncLock before m_aWriteLock
+  private final Object m_aSyncLock = new Object ();
+  private final SimpleLock m_aWriteLock = new SimpleLock ();
+  @GuardedBy ("m_aWriteLock")
+  private FileChannel m_aChannel;
+  @GuardedBy ("m_aWriteLock")
+  private long m_nActiveSegment;
+  @GuardedBy ("m_aWriteLock")
+  private long m_nActiveSegmentSize;
+  @GuardedBy ("m_aWriteLock")
+  private long m_nWriteTicket;
+  /** Segment number to number of pending entries */
+  @GuardedBy ("m_aWriteLock")
+  private final ICommonsNavigableMap <Long, Integer> m_aPendingPerSegment = new CommonsTreeMap <> ();
+  private final AtomicLong m_aSyncedTicket = new AtomicLong (0);
+  private final AtomicLong m_aSyncCount = new AtomicLong (0);
+
+  private final ICommonsList <DcngOutboxEntry> m_aRecoveredEntries;
+
+  /**
+   * Open the journal in the provided directory. All existing segments are read
+   * and all pending entries are available via
+   * {@link #getAllRecoveredEntries()}.
+   *
+   * @param aDirectory
+   *        The directory to store the segments in. It is created if it does
+   *        not exist. May not be <code>null</code>.
+   * @param nMaxSegmentSize
+   *        The size in bytes after which a new segment is started. Must be
+   *        &gt; 0.
+   * @throws IOException
+   *         If the journal cannot be read or created
+   */
+  public DcngOutboxJournal (@Nonnull final File aDirectory, @Nonnegative final long nMaxSegmentSize) throws IOException
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.isGT0 (nMaxSegmentSize, "MaxSegmentSize");
+    m_aDirectory = aDirectory;
+    m_nMaxSegmentSize = nMaxSegmentSize;
+
+    if (FileOperations.createDirRecursiveIfNotExisting (aDirectory).isFailure ())
+      throw new IOException ("Failed to create outbox directory " + aDirectory.getAbsolutePath ());
+
+    m_aRecoveredEntries = _recover ();
+    // Always start with a fresh segment
+    m_aWriteLock.lock ();
+    try
+    {
+      final Long aLast = m_aPendingPerSegment.isEmpty () ? null : m_aPendingPerSegment.lastKey ();
+      _openSegment (aLast == null ? 1 : aLast.longValue () + 1);
+    }
+    finally
+    {
+      m_aWriteLock.unlock ();
+    }
+  }
+
+  @Nonnull
+  private File _getSegmentFile (final long nSegment)
+  {
+    return new File (m_aDirectory, FILENAME_PREFIX + nSegment + FILENAME_SUFFIX);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  private ICommonsNavigableMap <Long, File> _getAllSegmentFiles ()
+  {
+    final ICommonsNavigableMap <Long, File> ret = new CommonsTreeMap <> ();
+    final File [] aFiles = m_aDirectory.listFiles ();
+    if (aFiles != null)
+      for (final File aFile : aFiles)
+      {
+        final String sName = aFile.getName ();
+        if (aFile.isFile () && sName.startsWith (FILENAME_PREFIX) && sName.endsWith (FILENAME_SUFFIX))
+        {
+          final long nSegment = StringParser.parseLong (sName.substring (FILENAME_PREFIX.length (),
+                                                                         sName.length () - FILENAME_SUFFIX.length ()),
+                                                        -1);
+          if (nSegment > 0)
+            ret.put (Long.valueOf (nSegment), aFile);
+        }
+      }
+    return ret;
+  }
+
+  /**
+   * Calculate the CRC of a region of the provided channel, without reading it
+   * into memory as a whole.
+   */
+  private static int _getCRC (@Nonnull final FileChannel aChannel, final long nPosition, final long nLength) throws IOException
+  {
+    final CRC32 aCRC = new CRC32 ();
+    final byte [] aBuffer = new byte [(int) Math.min (BUFFER_SIZE, nLength)];
+    long nPos = nPosition;
+    long nRemaining = nLength;
+    while (nRemaining > 0)
+    {
+      final int nChunk = (int) Math.min (aBuffer.length, nRemaining);
+      _readFully (aChannel, ByteBuffer.wrap (aBuffer, 0, nChunk), nPos);
+      aCRC.update (aBuffer, 0, nChunk);
+      nPos += nChunk;
+      nRemaining -= nChunk;
+    }
+    return (int) aCRC.getValue ();
+  }
+
+  private static void _writeFully (@Nonnull final FileChannel aChannel, @Nonnull final ByteBuffer aBuffer) throws IOException
+  {
+    while (aBuffer.hasRemaining ())
+      aChannel.write (aBuffer);
+  }
+
+  /**
+   * Writes the body of a record at the current position of the channel and
+   * calculates the CRC and the length on the fly.
+   */
+  private static final class RecordOutputStream extends OutputStream
+  {
+    private final FileChannel m_aChannel;
+    private final byte [] m_aBuffer = new byte [BUFFER_SIZE];
+    private int m_nBuffered = 0;
+    private final CRC32 m_aCRC = new CRC32 ();
+    private long m_nLength = 0;
+
+    RecordOutputStream (@Nonnull final FileChannel aChannel)
+    {
+      m_aChannel = aChannel;
+    }
+
+    private void _flushBuffer () throws IOException
+    {
+      if (m_nBuffered > 0)
+      {
+        _writeFully (m_aChannel, ByteBuffer.wrap (m_aBuffer, 0, m_nBuffered));
+        m_nBuffered = 0;
+      }
+    }
+
+    @Override
+    public void write (final int b) throws IOException
+    {
+      if (m_nBuffered == m_aBuffer.length)
+        _flushBuffer ();
+      m_aBuffer[m_nBuffered++] = (byte) b;
+      m_aCRC.update (b);
+      m_nLength++;
+    }
+
+    @Override
+    public void write (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      m_aCRC.update (aBuf, nOfs, nLen);
+      m_nLength += nLen;
+      int nOffset = nOfs;
+      int nRemaining = nLen;
+      while (nRemaining > 0)
+      {
+        if (m_nBuffered == m_aBuffer.length)
+          _flushBuffer ();
+        final int nChunk = Math.min (nRemaining, m_aBuffer.length - m_nBuffered);
+        System.arraycopy (aBuf, nOffset, m_aBuffer, m_nBuffered, nChunk);
+        m_nBuffered += nChunk;
+        nOffset += nChunk;
+        nRemaining -= nChunk;
+      }
+    }
+
+    @Override
+    public void flush () throws IOException
+    {
+      _flushBuffer ();
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      // The channel belongs to the journal
+      flush ();
+    }
+
+    int getCRC ()
+    {
+      return (int) m_aCRC.getValue ();
+    }
+
+    long getLength ()
+    {
+      return m_nLength;
+    }
+  }
+
+  /**
+   * Reads a region of a segment, without changing the position of the
+   * channel.
+   */
+  private static final class SegmentInputStream extends InputStream
+  {
+    private final FileChannel m_aChannel;
+    private final boolean m_bCloseChannel;
+    private final long m_nStart;
+    private final long m_nEnd;
+    private long m_nPos;
+
+    SegmentInputStream (@Nonnull final FileChannel aChannel,
+                        final long nPosition,
+                        final long nLength,
+                        final boolean bCloseChannel)
+    {
+      m_aChannel = aChannel;
+      m_bCloseChannel = bCloseChannel;
+      m_nStart = nPosition;
+      m_nEnd = nPosition + nLength;
+      m_nPos = nPosition;
+    }
+
+    @Override
+    public int read () throws IOException
+    {
+      final byte [] aBuf = new byte [1];
+      return read (aBuf, 0, 1) < 0 ? -1 : aBuf[0] & 0xff;
+    }
+
+    @Override
+    public int read (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      if (nLen == 0)
+        return 0;
+      if (m_nPos >= m_nEnd)
+        return -1;
+      final int nChunk = (int) Math.min (nLen, m_nEnd - m_nPos);
+      final int nRead = m_aChannel.read (ByteBuffer.wrap (aBuf, nOfs, nChunk), m_nPos);
+      if (nRead < 0)
+        throw new EOFException ();
+      m_nPos += nRead;
+      return nRead;
+    }
+
+    /**
+     * @return The number of bytes read so far.
+     */
+    long getReadCount ()
+    {
+      return m_nPos - m_nStart;
+    }
+
+    @Override
+    public void close () throws IOException
+    {
+      if (m_bCloseChannel)
+        m_aChannel.close ();
+    }
+  }
+
+  private static void _readFully (@Nonnull final FileChannel aChannel,
+                                  @Nonnull final ByteBuffer aBuffer,
+                                  final long nPosition) throws IOException
+  {
+    long nPos = nPosition;
+    while (aBuffer.hasRemaining ())
+    {
+      final int nRead = aChannel.read (aBuffer, nPos);
+      if (nRead < 0)
+        throw new EOFException ();
+      nPos += nRead;
+    }
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  private ICommonsList <DcngOutboxEntry> _recover () throws IOException
+  {
+    final ICommonsOrderedMap <String, DcngOutboxEntry> aPending = new CommonsLinkedHashMap <> ();
+    final long nNow = System.currentTimeMillis ();
+    for (final Map.Entry <Long, File> aSegmentEntry : _getAllSegmentFiles ().entrySet ())
+    {
+      final long nSegment = aSegmentEntry.getKey ().longValue ();
+      try (final FileChannel aChannel = FileChannel.open (aSegmentEntry.getValue ().toPath (),
+                                                          StandardOpenOption.READ,
+                                                          StandardOpenOption.WRITE))
+      {
+        final long nSize = aChannel.size ();
+        long nPos = 0;
+        while (nPos < nSize)
+        {
+          if (nSize - nPos < RECORD_HEADER_SIZE)
+            break;
+          final ByteBuffer aHeader = ByteBuffer.allocate (RECORD_HEADER_SIZE);
+          _readFully (aChannel, aHeader, nPos);
+          final int nLength = aHeader.getInt (0);
+          final int nCRC = aHeader.getInt (4);
+          if (nLength <= 0 || nSize - nPos - RECORD_HEADER_SIZE < nLength)
+            break;
+          final long nBodyPos = nPos + RECORD_HEADER_SIZE;
+          if (_getCRC (aChannel, nBodyPos, nLength) != nCRC)
+            break;
+
+          // Only the fields in front of the payload are read
+          final SegmentInputStream aBodyIS = new SegmentInputStream (aChannel, nBodyPos, nLength, false);
+          final DataInputStream aDIS = new DataInputStream (aBodyIS);
+          final byte nType = aDIS.readByte ();
+          final String sID = aDIS.readUTF ();
+          if (nType == RECORD_ADD)
+          {
+            final String sDestURL = aDIS.readUTF ();
+            final long nCreationMillis = aDIS.readLong ();
+            // The payload is the rest of the record
+            final long nPayloadOffset = aBodyIS.getReadCount ();
+            aPending.put (sID,
+                          new DcngOutboxEntry (sID,
+                                               sDestURL,
+                                               nCreationMillis,
+                                               nSegment,
+                                               nBodyPos + nPayloadOffset,
+                                               (int) (nLength - nPayloadOffset),
+                                               nNow));
+          }
+          else
+            if (nType == RECORD_DONE)
+              aPending.remove (sID);
+          nPos += RECORD_HEADER_SIZE + nLength;
+        }
+
+        if (nPos < nSize)
+        {
+          // Partially written record at the end
+          LOGGER.warn ("Outbox segment " + nSegment + " has an incomplete record at position " + nPos + " - truncating");
+          aChannel.truncate (nPos);
+        }
+      }
+      // Make sure the segment is known, even if it is empty
+      m_aPendingPerSegment.put (Long.valueOf (nSegment), Integer.valueOf (0));
+    }
+
+    for (final DcngOutboxEntry aEntry : aPending.values ())
+      m_aPendingPerSegment.computeIfPresent (Long.valueOf (aEntry.getSegment ()),
+                                             (k, v) -> Integer.valueOf (v.intValue () + 1));
+    _deleteUnusedSegments ();
+
+    if (aPending.isNotEmpty ())
+      LOGGER.info ("Recovered " + aPending.size () + " pending outbox entries from " + m_aDirectory.getAbsolutePath ());
+    return aPending.copyOfValues ();
+  }
+
+  @GuardedBy ("m_aWriteLock")
+  private void _openSegment (final long nSegment) throws IOException
+  {
+    m_aChannel = FileChannel.open (_getSegmentFile (nSegment).toPath (),
+                                   StandardOpenOption.CREATE,
+                                   StandardOpenOption.WRITE);
+    m_nActiveSegment = nSegment;
+    m_nActiveSegmentSize = m_aChannel.size ();
+    // Not opened in append mode, because the header of each record is written
+    // after its body
+    m_aChannel.position (m_nActiveSegmentSize);
+    m_aPendingPerSegment.putIfAbsent (Long.valueOf (nSegment), Integer.valueOf (0));
+  }
+
+  /**
+   * Delete all segments from the oldest one on, as long as they contain no
+   * pending entries. Newer segments cannot be deleted before older ones,
+   * because they may contain the "done" records for entries of older
+   * segments.
+   */
+  @GuardedBy ("m_aWriteLock")
+  private void _deleteUnusedSegments ()
+  {
+    while (m_aPendingPerSegment.isNotEmpty ())
+    {
+      final Map.Entry <Long, Integer> aFirst = m_aPendingPerSegment.firstEntry ();
+      final long nSegment = aFirst.getKey ().longValue ();
+      if (aFirst.getValue ().intValue () > 0 || (m_aChannel != null && nSegment == m_nActiveSegment))
+        break;
+      m_aPendingPerSegment.remove (aFirst.getKey ());
+      if (FileOperations.deleteFileIfExisting (_getSegmentFile (nSegment)).isFailure ())
+        LOGGER.warn ("Failed to delete outbox segment " + nSegment);
+    }
+  }
+
+  private void _rollIfNecessary () throws IOException
+  {
+    synchronized (m_aSyncLock)
+    {
+      m_aWriteLock.lock ();
+      try
+      {
+        if (m_aChannel == null || m_nActiveSegmentSize < m_nMaxSegmentSize)
+          return;
+        // Make sure everything written so far is persisted
+        m_aChannel.force (false);
+        m_aSyncedTicket.accumulateAndGet (m_nWriteTicket, Math::max);
+        m_aChannel.close ();
+        _openSegment (m_nActiveSegment + 1);
+        _deleteUnusedSegments ();
+      }
+      finally
+      {
+        m_aWriteLock.unlock ();
+      }
+    }
+  }
+
+  /**
+   * Write a new record at the end of the active segment. The header is
+   * written after the body is complete - until then it is all zero, so that a
+   * record that was not completely written is ignored on recovery. If writing
+   * the body fails, the segment is truncated to its previous size.
+   *
+   * @param aPrefix
+   *        The fields in front of the payload. May not be <code>null</code>.
+   * @param aPayloadWriter
+   *        The writer for the payload. May be <code>null</code> for records
+   *        without payload.
+   * @return The position of the record in the active segment.
+   */
+  @GuardedBy ("m_aWriteLock")
+  private long _writeRecord (@Nonnull final byte [] aPrefix,
+                             @Nullable final IThrowingConsumer <? super OutputStream, IOException> aPayloadWriter) throws IOException
+  {
+    if (m_aChannel == null)
+      throw new IOException ("The outbox journal is already closed");
+
+    final long nRecordPos = m_nActiveSegmentSize;
+    try
+    {
+      _writeFully (m_aChannel, ByteBuffer.wrap (new byte [RECORD_HEADER_SIZE]));
+      final RecordOutputStream aROS = new RecordOutputStream (m_aChannel);
+      aROS.write (aPrefix);
+      if (aPayloadWriter != null)
+        aPayloadWriter.accept (aROS);
+      aROS.flush ();
+
+      final long nLength = aROS.getLength ();
+      if (nLength > Integer.MAX_VALUE)
+        throw new IOException ("The outbox record is too large (" + nLength + " bytes)");
+      final ByteBuffer aHeader = ByteBuffer.allocate (RECORD_HEADER_SIZE);
+      aHeader.putInt (0, (int) nLength).putInt (4, aROS.getCRC ());
+      long nPos = nRecordPos;
+      while (aHeader.hasRemaining ())
+        nPos += m_aChannel.write (aHeader, nPos);
+
+      m_nActiveSegmentSize += RECORD_HEADER_SIZE + nLength;
+      m_nWriteTicket++;
+      return nRecordPos;
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      // Remove the incomplete record
+      try
+      {
+        m_aChannel.truncate (nRecordPos);
+        m_aChannel.position (nRecordPos);
+      }
+      catch (final IOException ex2)
+      {
+        ex.addSuppressed (ex2);
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * Wait until all records up to the provided ticket are persisted. If another
+   * thread is already syncing, this thread waits and afterwards usually finds
+   * its record already synced.
+   */
+  private void _syncUpTo (final long nTicket) throws IOException
+  {
+    if (m_aSyncedTicket.get () >= nTicket)
+      return;
+    synchronized (m_aSyncLock)
+    {
+      if (m_aSyncedTicket.get () >= nTicket)
+        return;
+
+      final FileChannel aChannel;
+      final long nTargetTicket;
+      m_aWriteLock.lock ();
+      try
+      {
+        aChannel = m_aChannel;
+        nTargetTicket = m_nWriteTicket;
+      }
+      finally
+      {
+        m_aWriteLock.unlock ();
+      }
+      if (aChannel == null)
+        throw new IOException ("The outbox journal is already closed");
+      // Segment rolling also requires the sync lock, so the channel stays open
+      aChannel.force (false);
+      m_aSyncCount.incrementAndGet ();
+      m_aSyncedTicket.accumulateAndGet (nTargetTicket, Math::max);
+    }
+  }
+
+  /**
+   * Durably add a new entry to the journal.
+   *
+   * @param sDestURL
+   *        The destination URL. May neither be <code>null</code> nor empty.
+   * @param aPayload
+   *        The serialized message. May not be <code>null</code>.
+   * @return The created entry. It is marked as "in flight" so that it is not
+   *         picked up for a retry before the first sending attempt finished.
+   * @throws IOException
+   *         In case writing fails
+   * @see #append(String, IThrowingConsumer)
+   */
+  @Nonnull
+  public DcngOutboxEntry append (@Nonnull @Nonempty final String sDestURL, @Nonnull final byte [] aPayload) throws IOException
+  {
+    ValueEnforcer.notNull (aPayload, "Payload");
+    return append (sDestURL, aOS -> aOS.write (aPayload));
+  }
+
+  /**
+   * Durably add a new entry to the journal. The payload is written directly
+   * into the active segment. Other entries cannot be written in the meantime,
+   * so the writer should not block for long.
+   *
+   * @param sDestURL
+   *        The destination URL. May neither be <code>null</code> nor empty.
+   * @param aPayloadWriter
+   *        The writer for the serialized message. May not be
+   *        <code>null</code>. It must not close the provided output stream.
+   * @return The created entry. It is marked as "in flight" so that it is not
+   *         picked up for a retry before the first sending attempt finished.
+   * @throws IOException
+   *         In case writing fails. Nothing is added in that case.
+   * @throws RuntimeException
+   *         If the writer throws it. Nothing is added in that case.
+   */
+  @Nonnull
+  public DcngOutboxEntry append (@Nonnull @Nonempty final String sDestURL,
+                                 @Nonnull final IThrowingConsumer <? super OutputStream, IOException> aPayloadWriter) throws IOException
+  {
+    ValueEnforcer.notEmpty (sDestURL, "DestURL");
+    ValueEnforcer.notNull (aPayloadWriter, "PayloadWriter");
+
+    final String sID = UUID.randomUUID ().toString ();
+    final long nCreationMillis = System.currentTimeMillis ();
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream (256);
+    try (final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+    {
+      aDOS.writeByte (RECORD_ADD);
+      aDOS.writeUTF (sID);
+      aDOS.writeUTF (sDestURL);
+      aDOS.writeLong (nCreationMillis);
+    }
+    final byte [] aPrefix = aBAOS.getBufferOrCopy ();
+
+    _rollIfNecessary ();
+
+    final DcngOutboxEntry ret;
+    final long nTicket;
+    m_aWriteLock.lock ();
+    try
+    {
+      final long nRecordPos = _writeRecord (aPrefix, aPayloadWriter);
+      final long nPayloadPos = nRecordPos + RECORD_HEADER_SIZE + aPrefix.length;
+      nTicket = m_nWriteTicket;
+      ret = new DcngOutboxEntry (sID,
+                                 sDestURL,
+                                 nCreationMillis,
+                                 m_nActiveSegment,
+                                 nPayloadPos,
+                                 (int) (m_nActiveSegmentSize - nPayloadPos),
+                                 DcngOutboxEntry.IN_FLIGHT);
+      m_aPendingPerSegment.computeIfPresent (Long.valueOf (m_nActiveSegment),
+                                             (k, v) -> Integer.valueOf (v.intValue () + 1));
+    }
+    finally
+    {
+      m_aWriteLock.unlock ();
+    }
+
+    _syncUpTo (nTicket);
+    return ret;
+  }
+
+  /**
+   * Mark an entry as successfully delivered. This record is not explicitly
+   * synced, because in the worst case the entry is delivered again after a
+   * crash.
+   *
+   * @param aEntry
+   *        The entry to mark. May not be <code>null</code>.
+   * @throws IOException
+   *         In case writing fails
+   */
+  public void markDone (@Nonnull final DcngOutboxEntry aEntry) throws IOException
+  {
+    ValueEnforcer.notNull (aEntry, "Entry");
+
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream (64);
+    try (final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+    {
+      aDOS.writeByte (RECORD_DONE);
+      aDOS.writeUTF (aEntry.getID ());
+    }
+
+    _rollIfNecessary ();
+
+    m_aWriteLock.lock ();
+    try
+    {
+      _writeRecord (aBAOS.getBufferOrCopy (), null);
+      m_aPendingPerSegment.computeIfPresent (Long.valueOf (aEntry.getSegment ()),
+                                             (k, v) -> Integer.valueOf (Math.max (v.intValue () - 1, 0)));
+      _deleteUnusedSegments ();
+    }
+    finally
+    {
+      m_aWriteLock.unlock ();
+    }
+  }
+
+  /**
+   * Read the serialized message of an entry.
+   *
+   * @param aEntry
+   *        The entry to read. May not be <code>null</code>.
+   * @return The serialized message. Never <code>null</code>.
+   * @throws IOException
+   *         In case reading fails
+   */
+  @Nonnull
+  public byte [] readPayload (@Nonnull final DcngOutboxEntry aEntry) throws IOException
+  {
+    ValueEnforcer.notNull (aEntry, "Entry");
+
+    final byte [] ret = new byte [aEntry.getPayloadLength ()];
+    try (final FileChannel aChannel = FileChannel.open (_getSegmentFile (aEntry.getSegment ()).toPath (),
+                                                        StandardOpenOption.READ))
+    {
+      _readFully (aChannel, ByteBuffer.wrap (ret), aEntry.getPayloadPosition ());
+    }
+    return ret;
+  }
+
+  /**
+   * Get the serialized message of an entry as a source that reads it directly
+   * from the journal, without loading it into memory.
+   *
+   * @param aEntry
+   *        The entry to read. May not be <code>null</code>.
+   * @return The source of the serialized message. Never <code>null</code>.
+   *         Its input stream is <code>null</code> if the segment cannot be
+   *         opened.
+   */
+  @Nonnull
+  public IHasInputStream getPayloadSource (@Nonnull final DcngOutboxEntry aEntry)
+  {
+    ValueEnforcer.notNull (aEntry, "Entry");
+
+    final File aFile = _getSegmentFile (aEntry.getSegment ());
+    return new IHasInputStream ()
+    {
+      @Nullable
+      public InputStream getInputStream ()
+      {
+        try
+        {
+          return new SegmentInputStream (FileChannel.open (aFile.toPath (), StandardOpenOption.READ),
+                                         aEntry.getPayloadPosition (),
+                                         aEntry.getPayloadLength (),
+                                         true);
+        }
+        catch (final IOException ex)
+        {
+          LOGGER.error ("Failed to open outbox segment " + aFile.getAbsolutePath (), ex);
+          return null;
+        }
+      }
+
+      public boolean isReadMultiple ()
+      {
+        return true;
+      }
+    };
+  }
+
+  /**
+   * @return All entries that were pending when the journal was opened. Never
+   *         <code>null</code> but maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <DcngOutboxEntry> getAllRecoveredEntries ()
+  {
+    return new CommonsArrayList <> (m_aRecoveredEntries);
+  }
+
+  /**
+   * @return The number of segment files currently in use.
+   */
+  @Nonnegative
+  public int getSegmentCount ()
+  {
+    return m_aWriteLock.lockedInt (m_aPendingPerSegment::size);
+  }
+
+  /**
+   * @return The number of fsync operations executed so far.
+   */
+  @Nonnegative
+  public long getSyncCount ()
+  {
+    return m_aSyncCount.get ();
+  }
+
+  public void close () throws IOException
+  {
+    synchronized (m_aSyncLock)
+    {
+      m_aWriteLock.lock ();
+      try
+      {
+        if (m_aChannel != null)
+        {
+          m_aChannel.force (false);
+          m_aChannel.close ();
+          m_aChannel = null;
+          _deleteUnusedSegments ();
+        }
+      }
+      finally
+      {
+        m_aWriteLock.unlock ();
+      }
+    }
+  }
+}
@@ -17,11 +17,20 @@
  */
 package com.helger.dcng.core.regrep;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.UUID;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.WillClose;
+import javax.annotation.WillNotClose;
 import javax.annotation.concurrent.Immutable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,7 +40,17 @@ import org.w3c.dom.Element;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.collection.CollectionHelper;
 import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.functional.IThrowingConsumer;
+import com.helger.commons.io.ByteArrayWrapper;
 import com.helger.commons.io.IHasByteArray;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.state.ESuccess;
+import com.helger.dcng.api.DcngConfig;
+import com.helger.dcng.api.me.model.MEPayload;
+import com.helger.dcng.api.me.model.MEPayloadFileSource;
 import com.helger.regrep.ERegRepResponseStatus;
 import com.helger.regrep.RegRep4Reader;
 import com.helger.regrep.RegRep4Writer;
@@ -59,15 +78,39 @@ public final class DcngRegRepHelperIt2
 {
   public static final String SPECIFICATION_ID = "de4a-iem-v2";
 
-  private static final String QUERY_DEFINITION = "DE4AQueryIt2";
-  private static final String QUERY_SLOT_NAME = "DE4AQuery";
+  static final String QUERY_DEFINITION = "DE4AQueryIt2";
+  static final String QUERY_SLOT_NAME = "DE4AQuery";
+  static final String RESPONSE_SLOT_NAME = "DE4AResponse";
   private static final Logger LOGGER = LoggerFactory.getLogger (DcngRegRepHelperIt2.class);
 
+  private static final XMLInputFactory XIF;
+  static
+  {
+    XIF = XMLInputFactory.newFactory ();
+    // Avoid XML attacks
+    XIF.setProperty (XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XIF.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+  }
+  private static final XMLOutputFactory XOF = XMLOutputFactory.newFactory ();
+
   private DcngRegRepHelperIt2 ()
   {}
 
   @Nonnull
-  public static QueryRequest wrapInQueryRequest (@Nonnull final Element aPayload)
+  private static SlotType _createPayloadSlot (@Nonnull final String sName, @Nullable final Element aPayload)
+  {
+    if (aPayload != null)
+      return new SlotBuilder ().setName (sName).setValue (aPayload).build ();
+
+    // Empty slot - the payload is added while writing
+    final SlotType ret = new SlotType ();
+    ret.setName (sName);
+    ret.setSlotValue (new AnyValueType ());
+    return ret;
+  }
+
+  @Nonnull
+  private static QueryRequest _createQueryRequest (@Nullable final Element aPayload)
   {
     final QueryRequest ret = RegRepHelper.createEmptyQueryRequest ();
     ret.setId (UUID.randomUUID ().toString ());
@@ -80,14 +123,14 @@ public final class DcngRegRepHelperIt2
     {
       final QueryType aQuery = new QueryType ();
       aQuery.setQueryDefinition (QUERY_DEFINITION);
-      aQuery.addSlot (new SlotBuilder ().setName (QUERY_SLOT_NAME).setValue (aPayload).build ());
+      aQuery.addSlot (_createPayloadSlot (QUERY_SLOT_NAME, aPayload));
       ret.setQuery (aQuery);
     }
     return ret;
   }
 
   @Nonnull
-  public static QueryResponse wrapInQueryResponse (final String sRequestID, final Element aPayload)
+  private static QueryResponse _createQueryResponse (final String sRequestID, @Nullable final Element aPayload)
   {
     final QueryResponse ret = RegRepHelper.createEmptyQueryResponse (ERegRepResponseStatus.SUCCESS);
     ret.setRequestId (sRequestID);
@@ -100,38 +143,275 @@ public final class DcngRegRepHelperIt2
       final RegistryObjectListType aROList = new RegistryObjectListType ();
       final RegistryObjectType aRO = new RegistryObjectType ();
       aRO.setId (UUID.randomUUID ().toString ());
-      aRO.addSlot (new SlotBuilder ().setName ("DE4AResponse").setValue (aPayload).build ());
+      aRO.addSlot (_createPayloadSlot (RESPONSE_SLOT_NAME, aPayload));
       aROList.addRegistryObject (aRO);
       ret.setRegistryObjectList (aROList);
     }
     return ret;
   }
 
+  @Nonnull
+  public static QueryRequest wrapInQueryRequest (@Nonnull final Element aPayload)
+  {
+    ValueEnforcer.notNull (aPayload, "Payload");
+    return _createQueryRequest (aPayload);
+  }
+
+  @Nonnull
+  public static QueryResponse wrapInQueryResponse (final String sRequestID, @Nonnull final Element aPayload)
+  {
+    ValueEnforcer.notNull (aPayload, "Payload");
+    return _createQueryResponse (sRequestID, aPayload);
+  }
+
+  /**
+   * Wrap the provided XML into a RegRep message. Whether the output is
+   * formatted depends on {@link DcngConfig.ME#isRegRepFormattedOutput()}.
+   *
+   * @param bIsRequest
+   *        <code>true</code> to create a query request, <code>false</code> to
+   *        create a query response.
+   * @param aXMLBytes
+   *        The XML to be wrapped. May not be <code>null</code>.
+   * @return The serialized RegRep message. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the XML is not well-formed
+   */
   @Nonnull
   public static byte [] wrapInRegRep (final boolean bIsRequest, @Nonnull final byte [] aXMLBytes)
+  {
+    return wrapInRegRep (bIsRequest, null, aXMLBytes);
+  }
+
+  /**
+   * Wrap the provided XML into a RegRep message. Whether the output is
+   * formatted depends on {@link DcngConfig.ME#isRegRepFormattedOutput()}.
+   *
+   * @param bIsRequest
+   *        <code>true</code> to create a query request, <code>false</code> to
+   *        create a query response.
+   * @param sRequestID
+   *        The ID of the request that is answered. Only used if
+   *        <code>bIsRequest</code> is <code>false</code>. May be
+   *        <code>null</code>.
+   * @param aXMLBytes
+   *        The XML to be wrapped. May not be <code>null</code>.
+   * @return The serialized RegRep message. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the XML is not well-formed
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static byte [] wrapInRegRep (final boolean bIsRequest,
+                                      @Nullable final String sRequestID,
+                                      @Nonnull final byte [] aXMLBytes)
   {
     ValueEnforcer.notNull (aXMLBytes, "XMLBytes");
 
-    final Document aDoc = DOMReader.readXMLDOM (aXMLBytes,
-                                                new DOMReaderSettings ().setFeatureValues (EXMLParserFeature.AVOID_XML_ATTACKS));
-    if (aDoc == null)
-      throw new IllegalStateException ("Failed to parse payload as XML");
+    return wrapInRegRep (bIsRequest,
+                         sRequestID,
+                         new NonBlockingByteArrayInputStream (aXMLBytes),
+                         DcngConfig.ME.isRegRepFormattedOutput ());
+  }
+
+  /**
+   * Wrap the XML read from the provided source into a RegRep message. This
+   * avoids that the source needs to be available as a byte array. Whether the
+   * output is formatted depends on
+   * {@link DcngConfig.ME#isRegRepFormattedOutput()}.
+   *
+   * @param bIsRequest
+   *        <code>true</code> to create a query request, <code>false</code> to
+   *        create a query response.
+   * @param sRequestID
+   *        The ID of the request that is answered. Only used if
+   *        <code>bIsRequest</code> is <code>false</code>. May be
+   *        <code>null</code>.
+   * @param aXMLSource
+   *        The source of the XML to be wrapped. May not be <code>null</code>.
+   * @return The serialized RegRep message. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the XML is not well-formed
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static byte [] wrapInRegRep (final boolean bIsRequest,
+                                      @Nullable final String sRequestID,
+                                      @Nonnull final IHasInputStream aXMLSource)
+  {
+    ValueEnforcer.notNull (aXMLSource, "XMLSource");
+
+    return wrapInRegRep (bIsRequest,
+                         sRequestID,
+                         aXMLSource.getInputStream (),
+                         DcngConfig.ME.isRegRepFormattedOutput ());
+  }
+
+  /**
+   * Wrap the XML read from the provided input stream into a RegRep message.
+   * Unformatted output is created by copying the XML events of the payload
+   * directly into the RegRep envelope, so the payload is only checked for
+   * well-formedness and never parsed into a DOM. Formatted output requires the
+   * payload to be parsed into a DOM.
+   *
+   * @param bIsRequest
+   *        <code>true</code> to create a query request, <code>false</code> to
+   *        create a query response.
+   * @param sRequestID
+   *        The ID of the request that is answered. Only used if
+   *        <code>bIsRequest</code> is <code>false</code>. May be
+   *        <code>null</code>.
+   * @param aIS
+   *        The input stream to read the XML from. May not be
+   *        <code>null</code>. Is closed by this method.
+   * @param bFormattedOutput
+   *        <code>true</code> to create formatted (pretty-printed) output.
+   * @return The serialized RegRep message. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the XML is not well-formed
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static byte [] wrapInRegRep (final boolean bIsRequest,
+                                      @Nullable final String sRequestID,
+                                      @Nonnull @WillClose final InputStream aIS,
+                                      final boolean bFormattedOutput)
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
 
     LOGGER.info ("Wrapping object into RegRep It2 " + (bIsRequest ? "Request" : "Response"));
 
-    final byte [] aRegRepPayload;
-    if (bIsRequest)
+    if (bFormattedOutput)
+    {
+      final Document aDoc = DOMReader.readXMLDOM (aIS,
+                                                  new DOMReaderSettings ().setFeatureValues (EXMLParserFeature.AVOID_XML_ATTACKS));
+      if (aDoc == null)
+        throw new IllegalStateException ("Failed to parse payload as XML");
+
+      if (bIsRequest)
+      {
+        // Currently everything is a request
+        final QueryRequest aRRReq = wrapInQueryRequest (aDoc.getDocumentElement ());
+        return RegRep4Writer.queryRequest ().setFormattedOutput (true).getAsBytes (aRRReq);
+      }
+      final QueryResponse aRRResp = wrapInQueryResponse (sRequestID, aDoc.getDocumentElement ());
+      return RegRep4Writer.queryResponse ().setFormattedOutput (true).getAsBytes (aRRResp);
+    }
+
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    wrapInRegRep (bIsRequest, sRequestID, aIS, aBAOS);
+    return aBAOS.getBufferOrCopy ();
+  }
+
+  /**
+   * Wrap the XML read from the provided input stream into an unformatted
+   * RegRep message that is written to the provided output stream. The XML
+   * events of the payload are copied directly into the RegRep envelope, so
+   * neither the payload nor the result is ever kept in memory as a whole.
+   *
+   * @param bIsRequest
+   *        <code>true</code> to create a query request, <code>false</code> to
+   *        create a query response.
+   * @param sRequestID
+   *        The ID of the request that is answered. Only used if
+   *        <code>bIsRequest</code> is <code>false</code>. May be
+   *        <code>null</code>.
+   * @param aIS
+   *        The input stream to read the XML from. May not be
+   *        <code>null</code>. Is closed by this method.
+   * @param aOS
+   *        The output stream to write the RegRep message to. May not be
+   *        <code>null</code>. Is not closed by this method.
+   * @throws IllegalStateException
+   *         If the XML is not well-formed
+   * @since 0.2.16
+   */
+  public static void wrapInRegRep (final boolean bIsRequest,
+                                   @Nullable final String sRequestID,
+                                   @Nonnull @WillClose final InputStream aIS,
+                                   @Nonnull @WillNotClose final OutputStream aOS)
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+    ValueEnforcer.notNull (aOS, "OutputStream");
+
+    XMLStreamReader aXSR = null;
+    try
     {
-      // Currently everything is a request
-      final QueryRequest aRRReq = wrapInQueryRequest (aDoc.getDocumentElement ());
-      aRegRepPayload = RegRep4Writer.queryRequest ().setFormattedOutput (true).getAsBytes (aRRReq);
+      aXSR = XIF.createXMLStreamReader (aIS);
+      final RegRepPayloadXMLStreamWriter aXSW = new RegRepPayloadXMLStreamWriter (XOF.createXMLStreamWriter (aOS,
+                                                                                                            StandardCharsets.UTF_8.name ()),
+                                                                                  aXSR);
+      final ESuccess eSuccess;
+      if (bIsRequest)
+      {
+        // Currently everything is a request
+        eSuccess = RegRep4Writer.queryRequest ().write (_createQueryRequest (null), (m, e) -> m.marshal (e, aXSW));
+      }
+      else
+        eSuccess = RegRep4Writer.queryResponse ().write (_createQueryResponse (sRequestID, null), (m, e) -> m.marshal (e, aXSW));
+      aXSW.close ();
+
+      if (eSuccess.isFailure () || !aXSW.isPayloadWritten ())
+        throw new IllegalStateException ("Failed to parse payload as XML");
     }
-    else
+    catch (final XMLStreamException ex)
     {
-      final QueryResponse aRRResp = wrapInQueryResponse ("TODO", aDoc.getDocumentElement ());
-      aRegRepPayload = RegRep4Writer.queryResponse ().setFormattedOutput (true).getAsBytes (aRRResp);
+      throw new IllegalStateException ("Failed to parse payload as XML", ex);
+    }
+    finally
+    {
+      if (aXSR != null)
+        try
+        {
+          aXSR.close ();
+        }
+        catch (final XMLStreamException ex)
+        {
+          // Ignore
+        }
+      StreamHelper.close (aIS);
     }
-    return aRegRepPayload;
+  }
+
+  /**
+   * Wrap the XML read from the provided source into a RegRep message that is
+   * kept in memory or stored in a temporary file, depending on its size - see
+   * {@link MEPayload#createSpooledDataSource(IThrowingConsumer)}. Use this for
+   * payloads of arbitrary size. Formatted output (see
+   * {@link DcngConfig.ME#isRegRepFormattedOutput()}) requires a DOM and is
+   * therefore always created in memory.
+   *
+   * @param bIsRequest
+   *        <code>true</code> to create a query request, <code>false</code> to
+   *        create a query response.
+   * @param sRequestID
+   *        The ID of the request that is answered. Only used if
+   *        <code>bIsRequest</code> is <code>false</code>. May be
+   *        <code>null</code>.
+   * @param aXMLSource
+   *        The source of the XML to be wrapped. May not be <code>null</code>.
+   * @return The source of the serialized RegRep message. Never
+   *         <code>null</code>. If it is a {@link MEPayloadFileSource}, the
+   *         caller is responsible for deleting the temporary file.
+   * @throws IllegalStateException
+   *         If the XML is not well-formed
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static IHasInputStream wrapInRegRepSpooled (final boolean bIsRequest,
+                                                     @Nullable final String sRequestID,
+                                                     @Nonnull final IHasInputStream aXMLSource)
+  {
+    ValueEnforcer.notNull (aXMLSource, "XMLSource");
+
+    if (DcngConfig.ME.isRegRepFormattedOutput ())
+      return new ByteArrayWrapper (wrapInRegRep (bIsRequest, sRequestID, aXMLSource), false);
+
+    LOGGER.info ("Wrapping object into RegRep It2 " + (bIsRequest ? "Request" : "Response"));
+    return MEPayload.createSpooledDataSource (aOS -> wrapInRegRep (bIsRequest,
+                                                                   sRequestID,
+                                                                   aXMLSource.getInputStream (),
+                                                                   aOS));
   }
 
   @Nullable
@@ -145,6 +425,33 @@ public final class DcngRegRepHelperIt2
     return null;
   }
 
+  /**
+   * Extract the payload from a serialized RegRep query request or query
+   * response without creating the RegRep object model. The RegRep message is
+   * scanned with StAX and only the payload is copied. Use this instead of
+   * {@link #extractPayload(IHasByteArray)} if only the payload is needed.
+   *
+   * @param aIS
+   *        The input stream to read the RegRep message from. May not be
+   *        <code>null</code>. Is closed by this method.
+   * @return <code>null</code> if the RegRep message could not be read or does
+   *         not contain a payload. Details are logged.
+   * @since 0.2.16
+   */
+  @Nullable
+  public static DcngRegRepPayload extractPayloadStreaming (@Nonnull @WillClose final InputStream aIS)
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+    try
+    {
+      return RegRepPayloadExtractor.extract (aIS);
+    }
+    finally
+    {
+      StreamHelper.close (aIS);
+    }
+  }
+
   @Nullable
   public static Element extractPayload (@Nonnull final QueryRequest aQueryRequest)
   {
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.regrep;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.xml.EXMLParserFeature;
+import com.helger.xml.serialize.read.DOMReader;
+import com.helger.xml.serialize.read.DOMReaderSettings;
+
+/**
+ * The payload extracted from a RegRep message by
+ * {@link DcngRegRepHelperIt2#extractPayloadStreaming(java.io.InputStream)}.
+ * The payload is kept as a standalone serialized XML document. The DOM is only
+ * created when it is requested.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@NotThreadSafe
+public final class DcngRegRepPayload
+{
+  private final boolean m_bIsRequest;
+  private final byte [] m_aBytes;
+  // Status vars
+  private Element m_aElement;
+
+  DcngRegRepPayload (final boolean bIsRequest, @Nonnull final byte [] aBytes)
+  {
+    ValueEnforcer.notNull (aBytes, "Bytes");
+    m_bIsRequest = bIsRequest;
+    m_aBytes = aBytes;
+  }
+
+  /**
+   * @return <code>true</code> if the payload was extracted from a query
+   *         request, <code>false</code> if it was extracted from a query
+   *         response.
+   */
+  public boolean isRequest ()
+  {
+    return m_bIsRequest;
+  }
+
+  /**
+   * @return The payload serialized as a standalone XML document in UTF-8.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableObject
+  public byte [] getAsBytes ()
+  {
+    return m_aBytes;
+  }
+
+  /**
+   * @return The payload as a DOM element. The DOM is created on the first
+   *         call. May only be <code>null</code> if parsing fails.
+   */
+  @Nullable
+  public Element getAsElement ()
+  {
+    Element ret = m_aElement;
+    if (ret == null)
+    {
+      final Document aDoc = DOMReader.readXMLDOM (m_aBytes,
+                                                  new DOMReaderSettings ().setFeatureValues (EXMLParserFeature.AVOID_XML_ATTACKS));
+      if (aDoc != null)
+        m_aElement = ret = aDoc.getDocumentElement ();
+    }
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("IsRequest", m_bIsRequest)
+                                       .append ("Bytes#", m_aBytes.length)
+                                       .getToString ();
+  }
+}
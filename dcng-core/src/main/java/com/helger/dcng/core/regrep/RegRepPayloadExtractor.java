@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.regrep;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * Extract the payload from a serialized RegRep query request or query
+ * response with StAX. Only the elements on the path to the payload slot are
+ * looked at, and the payload itself is copied into a standalone XML document.
+ * Namespace declarations of the envelope that are in scope of the payload are
+ * copied onto the payload root element.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@Immutable
+final class RegRepPayloadExtractor
+{
+  private static final String NS_RIM = "urn:oasis:names:tc:ebxml-regrep:xsd:rim:4.0";
+  private static final String NS_QUERY = "urn:oasis:names:tc:ebxml-regrep:xsd:query:4.0";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (RegRepPayloadExtractor.class);
+
+  private static final XMLInputFactory XIF;
+  static
+  {
+    XIF = XMLInputFactory.newFactory ();
+    // Avoid XML attacks
+    XIF.setProperty (XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XIF.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+  }
+  private static final XMLOutputFactory XOF = XMLOutputFactory.newFactory ();
+
+  private RegRepPayloadExtractor ()
+  {}
+
+  private static boolean _is (@Nonnull final XMLStreamReader aXSR,
+                              @Nonnull final String sNamespaceURI,
+                              @Nonnull final String sLocalName)
+  {
+    return sNamespaceURI.equals (aXSR.getNamespaceURI ()) && sLocalName.equals (aXSR.getLocalName ());
+  }
+
+  @Nonnull
+  private static ICommonsOrderedMap <String, String> _getNamespaces (@Nonnull final XMLStreamReader aXSR)
+  {
+    final ICommonsOrderedMap <String, String> ret = new CommonsLinkedHashMap <> ();
+    for (int i = 0; i < aXSR.getNamespaceCount (); ++i)
+      ret.put (StringHelper.getNotNull (aXSR.getNamespacePrefix (i)),
+               StringHelper.getNotNull (aXSR.getNamespaceURI (i)));
+    return ret;
+  }
+
+  private static void _writeStartElement (@Nonnull final XMLStreamReader aXSR,
+                                          @Nonnull final XMLStreamWriter aXSW,
+                                          @Nonnull final ICommonsOrderedMap <String, String> aNamespaces) throws XMLStreamException
+  {
+    aXSW.writeStartElement (StringHelper.getNotNull (aXSR.getPrefix ()),
+                            aXSR.getLocalName (),
+                            StringHelper.getNotNull (aXSR.getNamespaceURI ()));
+    for (final Map.Entry <String, String> aEntry : aNamespaces.entrySet ())
+      if (aEntry.getKey ().isEmpty ())
+        aXSW.writeDefaultNamespace (aEntry.getValue ());
+      else
+        aXSW.writeNamespace (aEntry.getKey (), aEntry.getValue ());
+    for (int i = 0; i < aXSR.getAttributeCount (); ++i)
+    {
+      final String sURI = aXSR.getAttributeNamespace (i);
+      if (StringHelper.hasNoText (sURI))
+        aXSW.writeAttribute (aXSR.getAttributeLocalName (i), aXSR.getAttributeValue (i));
+      else
+        aXSW.writeAttribute (StringHelper.getNotNull (aXSR.getAttributePrefix (i)),
+                             sURI,
+                             aXSR.getAttributeLocalName (i),
+                             aXSR.getAttributeValue (i));
+    }
+  }
+
+  /**
+   * Copy the element the reader is positioned on including all children.
+   * Afterwards the reader is positioned on the end element.
+   */
+  @Nonnull
+  private static byte [] _copyPayload (@Nonnull final XMLStreamReader aXSR,
+                                       @Nonnull final ICommonsList <ICommonsOrderedMap <String, String>> aNSStack) throws XMLStreamException
+  {
+    // All namespaces in scope - inner declarations overwrite outer ones
+    final ICommonsOrderedMap <String, String> aInScope = new CommonsLinkedHashMap <> ();
+    for (final ICommonsOrderedMap <String, String> aNamespaces : aNSStack)
+      aInScope.putAll (aNamespaces);
+    aInScope.putAll (_getNamespaces (aXSR));
+    // No need to declare the empty default namespace on the root
+    if ("".equals (aInScope.get ("")))
+      aInScope.remove ("");
+
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    final XMLStreamWriter aXSW = XOF.createXMLStreamWriter (aBAOS, StandardCharsets.UTF_8.name ());
+    aXSW.writeStartDocument (StandardCharsets.UTF_8.name (), "1.0");
+    _writeStartElement (aXSR, aXSW, aInScope);
+
+    int nDepth = 1;
+    while (nDepth > 0)
+    {
+      switch (aXSR.next ())
+      {
+        case XMLStreamConstants.START_ELEMENT:
+          _writeStartElement (aXSR, aXSW, _getNamespaces (aXSR));
+          nDepth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          aXSW.writeEndElement ();
+          nDepth--;
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.SPACE:
+          aXSW.writeCharacters (aXSR.getTextCharacters (), aXSR.getTextStart (), aXSR.getTextLength ());
+          break;
+        case XMLStreamConstants.CDATA:
+          aXSW.writeCData (aXSR.getText ());
+          break;
+        case XMLStreamConstants.COMMENT:
+          aXSW.writeComment (aXSR.getText ());
+          break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+          aXSW.writeProcessingInstruction (aXSR.getPITarget (), aXSR.getPIData ());
+          break;
+        default:
+          throw new XMLStreamException ("Unexpected XML event in payload", aXSR.getLocation ());
+      }
+    }
+    aXSW.writeEndDocument ();
+    aXSW.close ();
+    return aBAOS.getBufferOrCopy ();
+  }
+
+  /**
+   * Extract the payload from the provided RegRep message.
+   *
+   * @param aIS
+   *        The input stream to read from. May not be <code>null</code>. It is
+   *        not closed by this method.
+   * @return <code>null</code> if the RegRep message could not be read or does
+   *         not contain a payload. Details are logged.
+   */
+  @Nullable
+  static DcngRegRepPayload extract (@Nonnull final InputStream aIS)
+  {
+    XMLStreamReader aXSR = null;
+    try
+    {
+      aXSR = XIF.createXMLStreamReader (aIS);
+      aXSR.nextTag ();
+
+      final boolean bIsRequest;
+      final String sSlotParent;
+      final String sSlotName;
+      if (_is (aXSR, NS_QUERY, "QueryRequest"))
+      {
+        bIsRequest = true;
+        sSlotParent = "Query";
+        sSlotName = DcngRegRepHelperIt2.QUERY_SLOT_NAME;
+      }
+      else
+        if (_is (aXSR, NS_QUERY, "QueryResponse"))
+        {
+          bIsRequest = false;
+          sSlotParent = "RegistryObject";
+          sSlotName = DcngRegRepHelperIt2.RESPONSE_SLOT_NAME;
+        }
+        else
+        {
+          LOGGER.error ("The provided bytes could not be interpreted to a supported RegRep object.");
+          return null;
+        }
+
+      // The namespace declarations of all open elements
+      final ICommonsList <ICommonsOrderedMap <String, String>> aNSStack = new CommonsArrayList <> ();
+      // The local names of all open elements
+      final ICommonsList <String> aElementStack = new CommonsArrayList <> ();
+      aNSStack.add (_getNamespaces (aXSR));
+      aElementStack.add (aXSR.getLocalName ());
+      // The depth of the payload slot, if found
+      int nSlotDepth = -1;
+
+      while (aElementStack.isNotEmpty ())
+      {
+        final int nEvent = aXSR.next ();
+        if (nEvent == XMLStreamConstants.START_ELEMENT)
+        {
+          final int nDepth = aElementStack.size ();
+          if (nSlotDepth < 0)
+          {
+            if (bIsRequest && _is (aXSR, NS_QUERY, "Query") && nDepth == 1)
+            {
+              final String sQueryDefinition = aXSR.getAttributeValue (null, "queryDefinition");
+              if (!DcngRegRepHelperIt2.QUERY_DEFINITION.equals (sQueryDefinition))
+              {
+                LOGGER.error ("Provided RegRep Query element uses the wrong Query definition '" +
+                              sQueryDefinition +
+                              ". Was expecting '" +
+                              DcngRegRepHelperIt2.QUERY_DEFINITION +
+                              "'.");
+                return null;
+              }
+            }
+            else
+              if (_is (aXSR, NS_RIM, "Slot") &&
+                  sSlotParent.equals (aElementStack.getLastOrNull ()) &&
+                  sSlotName.equals (aXSR.getAttributeValue (null, "name")))
+                nSlotDepth = nDepth;
+          }
+          else
+            if (nDepth == nSlotDepth + 1)
+            {
+              // The slot value
+              final String sType = aXSR.getAttributeValue (XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "type");
+              if (sType == null || !(sType.equals ("AnyValueType") || sType.endsWith (":AnyValueType")))
+              {
+                LOGGER.error ("Provided RegRep element contains a slot with name '" +
+                              sSlotName +
+                              "' that has the wrong value type.");
+                return null;
+              }
+            }
+            else
+              if (nDepth == nSlotDepth + 2)
+              {
+                // First element inside the slot value
+                final byte [] aBytes = _copyPayload (aXSR, aNSStack);
+                return new DcngRegRepPayload (bIsRequest, aBytes);
+              }
+
+          aNSStack.add (_getNamespaces (aXSR));
+          aElementStack.add (aXSR.getLocalName ());
+        }
+        else
+          if (nEvent == XMLStreamConstants.END_ELEMENT)
+          {
+            aNSStack.removeLastOrNull ();
+            aElementStack.removeLastOrNull ();
+            if (aElementStack.size () == nSlotDepth)
+            {
+              LOGGER.error ("Provided RegRep element contains a slot with name '" +
+                            sSlotName +
+                            "' that has an unsupported value content.");
+              return null;
+            }
+          }
+      }
+
+      LOGGER.error ("Provided RegRep element does not contain a slot with name '" + sSlotName + "'.");
+      return null;
+    }
+    catch (final XMLStreamException ex)
+    {
+      LOGGER.error ("Failed to read the provided RegRep message: " + ex.getMessage ());
+      return null;
+    }
+    finally
+    {
+      if (aXSR != null)
+        try
+        {
+          aXSR.close ();
+        }
+        catch (final XMLStreamException ex)
+        {
+          // Ignore
+        }
+    }
+  }
+}
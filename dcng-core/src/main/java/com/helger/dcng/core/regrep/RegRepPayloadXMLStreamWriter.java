@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.regrep;
+
+import javax.annotation.Nonnull;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * An {@link XMLStreamWriter} that JAXB uses to write a RegRep envelope. The
+ * envelope contains exactly one empty slot value of type
+ * <code>rim:AnyValueType</code>. Before this slot value is closed, all events
+ * of the payload reader are copied into it. That way the payload is never
+ * parsed into a DOM.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+final class RegRepPayloadXMLStreamWriter implements XMLStreamWriter
+{
+  private static final String ANY_VALUE_TYPE = "AnyValueType";
+
+  private final XMLStreamWriter m_aXSW;
+  private final XMLStreamReader m_aPayloadXSR;
+  private int m_nDepth = 0;
+  private int m_nAnyValueDepth = -1;
+  private boolean m_bDefaultNamespaceDeclared = false;
+  private boolean m_bPayloadWritten = false;
+
+  RegRepPayloadXMLStreamWriter (@Nonnull final XMLStreamWriter aXSW, @Nonnull final XMLStreamReader aPayloadXSR)
+  {
+    ValueEnforcer.notNull (aXSW, "XSW");
+    ValueEnforcer.notNull (aPayloadXSR, "PayloadXSR");
+    m_aXSW = aXSW;
+    m_aPayloadXSR = aPayloadXSR;
+  }
+
+  /**
+   * @return <code>true</code> if the payload was copied into the envelope.
+   */
+  boolean isPayloadWritten ()
+  {
+    return m_bPayloadWritten;
+  }
+
+  private void _checkAnyValueType (final String sNamespaceURI, final String sLocalName, final String sValue)
+  {
+    if (XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals (sNamespaceURI) &&
+        "type".equals (sLocalName) &&
+        sValue != null &&
+        (sValue.equals (ANY_VALUE_TYPE) || sValue.endsWith (":" + ANY_VALUE_TYPE)))
+      m_nAnyValueDepth = m_nDepth;
+  }
+
+  private void _writeAttributes () throws XMLStreamException
+  {
+    final XMLStreamReader aXSR = m_aPayloadXSR;
+    for (int i = 0; i < aXSR.getNamespaceCount (); ++i)
+    {
+      final String sPrefix = aXSR.getNamespacePrefix (i);
+      final String sURI = StringHelper.getNotNull (aXSR.getNamespaceURI (i));
+      if (StringHelper.hasNoText (sPrefix))
+        m_aXSW.writeDefaultNamespace (sURI);
+      else
+        m_aXSW.writeNamespace (sPrefix, sURI);
+    }
+    for (int i = 0; i < aXSR.getAttributeCount (); ++i)
+    {
+      final String sURI = aXSR.getAttributeNamespace (i);
+      if (StringHelper.hasNoText (sURI))
+        m_aXSW.writeAttribute (aXSR.getAttributeLocalName (i), aXSR.getAttributeValue (i));
+      else
+        m_aXSW.writeAttribute (StringHelper.getNotNull (aXSR.getAttributePrefix (i)),
+                               sURI,
+                               aXSR.getAttributeLocalName (i),
+                               aXSR.getAttributeValue (i));
+    }
+  }
+
+  private void _copyPayload () throws XMLStreamException
+  {
+    final XMLStreamReader aXSR = m_aPayloadXSR;
+    int nDepth = 0;
+    boolean bRootFound = false;
+    while (aXSR.hasNext ())
+    {
+      final int nEvent = aXSR.next ();
+      switch (nEvent)
+      {
+        case XMLStreamConstants.START_ELEMENT:
+        {
+          if (nDepth == 0)
+          {
+            if (bRootFound)
+              throw new XMLStreamException ("The payload contains more than one root element", aXSR.getLocation ());
+            bRootFound = true;
+          }
+          final String sURI = StringHelper.getNotNull (aXSR.getNamespaceURI ());
+          m_aXSW.writeStartElement (StringHelper.getNotNull (aXSR.getPrefix ()), aXSR.getLocalName (), sURI);
+          if (nDepth == 0 && sURI.isEmpty () && m_bDefaultNamespaceDeclared)
+          {
+            // The envelope default namespace must not be inherited
+            boolean bDeclaresDefault = false;
+            for (int i = 0; i < aXSR.getNamespaceCount (); ++i)
+              if (StringHelper.hasNoText (aXSR.getNamespacePrefix (i)))
+                bDeclaresDefault = true;
+            if (!bDeclaresDefault)
+              m_aXSW.writeDefaultNamespace ("");
+          }
+          _writeAttributes ();
+          nDepth++;
+          break;
+        }
+        case XMLStreamConstants.END_ELEMENT:
+          m_aXSW.writeEndElement ();
+          nDepth--;
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.SPACE:
+          // Whitespace outside of the root element is not copied
+          if (nDepth > 0)
+            m_aXSW.writeCharacters (aXSR.getTextCharacters (), aXSR.getTextStart (), aXSR.getTextLength ());
+          break;
+        case XMLStreamConstants.CDATA:
+          m_aXSW.writeCData (aXSR.getText ());
+          break;
+        case XMLStreamConstants.COMMENT:
+          if (nDepth > 0)
+            m_aXSW.writeComment (aXSR.getText ());
+          break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+          if (nDepth > 0)
+            m_aXSW.writeProcessingInstruction (aXSR.getPITarget (), aXSR.getPIData ());
+          break;
+        case XMLStreamConstants.DTD:
+        case XMLStreamConstants.ENTITY_REFERENCE:
+          throw new XMLStreamException ("DTDs and entity references are not allowed in the payload",
+                                        aXSR.getLocation ());
+        default:
+          // Document start and end
+          break;
+      }
+    }
+    if (!bRootFound)
+      throw new XMLStreamException ("The payload does not contain an XML element");
+    m_bPayloadWritten = true;
+  }
+
+  public void writeStartElement (final String sLocalName) throws XMLStreamException
+  {
+    m_aXSW.writeStartElement (sLocalName);
+    m_nDepth++;
+  }
+
+  public void writeStartElement (final String sNamespaceURI, final String sLocalName) throws XMLStreamException
+  {
+    m_aXSW.writeStartElement (sNamespaceURI, sLocalName);
+    m_nDepth++;
+  }
+
+  public void writeStartElement (final String sPrefix,
+                                 final String sLocalName,
+                                 final String sNamespaceURI) throws XMLStreamException
+  {
+    m_aXSW.writeStartElement (sPrefix, sLocalName, sNamespaceURI);
+    m_nDepth++;
+  }
+
+  public void writeEmptyElement (final String sNamespaceURI, final String sLocalName) throws XMLStreamException
+  {
+    m_aXSW.writeEmptyElement (sNamespaceURI, sLocalName);
+  }
+
+  public void writeEmptyElement (final String sPrefix,
+                                 final String sLocalName,
+                                 final String sNamespaceURI) throws XMLStreamException
+  {
+    m_aXSW.writeEmptyElement (sPrefix, sLocalName, sNamespaceURI);
+  }
+
+  public void writeEmptyElement (final String sLocalName) throws XMLStreamException
+  {
+    m_aXSW.writeEmptyElement (sLocalName);
+  }
+
+  public void writeEndElement () throws XMLStreamException
+  {
+    if (m_nDepth == m_nAnyValueDepth && !m_bPayloadWritten)
+      _copyPayload ();
+    m_aXSW.writeEndElement ();
+    m_nDepth--;
+  }
+
+  public void writeEndDocument () throws XMLStreamException
+  {
+    m_aXSW.writeEndDocument ();
+  }
+
+  public void close () throws XMLStreamException
+  {
+    m_aXSW.close ();
+  }
+
+  public void flush () throws XMLStreamException
+  {
+    m_aXSW.flush ();
+  }
+
+  public void writeAttribute (final String sLocalName, final String sValue) throws XMLStreamException
+  {
+    m_aXSW.writeAttribute (sLocalName, sValue);
+  }
+
+  public void writeAttribute (final String sPrefix,
+                              final String sNamespaceURI,
+                              final String sLocalName,
+                              final String sValue) throws XMLStreamException
+  {
+    _checkAnyValueType (sNamespaceURI, sLocalName, sValue);
+    m_aXSW.writeAttribute (sPrefix, sNamespaceURI, sLocalName, sValue);
+  }
+
+  public void writeAttribute (final String sNamespaceURI,
+                              final String sLocalName,
+                              final String sValue) throws XMLStreamException
+  {
+    _checkAnyValueType (sNamespaceURI, sLocalName, sValue);
+    m_aXSW.writeAttribute (sNamespaceURI, sLocalName, sValue);
+  }
+
+  public void writeNamespace (final String sPrefix, final String sNamespaceURI) throws XMLStreamException
+  {
+    if (StringHelper.hasNoText (sPrefix) || XMLConstants.XMLNS_ATTRIBUTE.equals (sPrefix))
+    {
+      if (StringHelper.hasText (sNamespaceURI))
+        m_bDefaultNamespaceDeclared = true;
+    }
+    m_aXSW.writeNamespace (sPrefix, sNamespaceURI);
+  }
+
+  public void writeDefaultNamespace (final String sNamespaceURI) throws XMLStreamException
+  {
+    if (StringHelper.hasText (sNamespaceURI))
+      m_bDefaultNamespaceDeclared = true;
+    m_aXSW.writeDefaultNamespace (sNamespaceURI);
+  }
+
+  public void writeComment (final String sData) throws XMLStreamException
+  {
+    m_aXSW.writeComment (sData);
+  }
+
+  public void writeProcessingInstruction (final String sTarget) throws XMLStreamException
+  {
+    m_aXSW.writeProcessingInstruction (sTarget);
+  }
+
+  public void writeProcessingInstruction (final String sTarget, final String sData) throws XMLStreamException
+  {
+    m_aXSW.writeProcessingInstruction (sTarget, sData);
+  }
+
+  public void writeCData (final String sData) throws XMLStreamException
+  {
+    m_aXSW.writeCData (sData);
+  }
+
+  public void writeDTD (final String sDTD) throws XMLStreamException
+  {
+    m_aXSW.writeDTD (sDTD);
+  }
+
+  public void writeEntityRef (final String sName) throws XMLStreamException
+  {
+    m_aXSW.writeEntityRef (sName);
+  }
+
+  public void writeStartDocument () throws XMLStreamException
+  {
+    m_aXSW.writeStartDocument ();
+  }
+
+  public void writeStartDocument (final String sVersion) throws XMLStreamException
+  {
+    m_aXSW.writeStartDocument (sVersion);
+  }
+
+  public void writeStartDocument (final String sEncoding, final String sVersion) throws XMLStreamException
+  {
+    m_aXSW.writeStartDocument (sEncoding, sVersion);
+  }
+
+  public void writeCharacters (final String sText) throws XMLStreamException
+  {
+    m_aXSW.writeCharacters (sText);
+  }
+
+  public void writeCharacters (final char [] aText, final int nStart, final int nLen) throws XMLStreamException
+  {
+    m_aXSW.writeCharacters (aText, nStart, nLen);
+  }
+
+  public String getPrefix (final String sURI) throws XMLStreamException
+  {
+    return m_aXSW.getPrefix (sURI);
+  }
+
+  public void setPrefix (final String sPrefix, final String sURI) throws XMLStreamException
+  {
+    m_aXSW.setPrefix (sPrefix, sURI);
+  }
+
+  public void setDefaultNamespace (final String sURI) throws XMLStreamException
+  {
+    m_aXSW.setDefaultNamespace (sURI);
+  }
+
+  public void setNamespaceContext (final NamespaceContext aContext) throws XMLStreamException
+  {
+    m_aXSW.setNamespaceContext (aContext);
+  }
+
+  public NamespaceContext getNamespaceContext ()
+  {
+    return m_aXSW.getNamespaceContext ();
+  }
+
+  public Object getProperty (final String sName)
+  {
+    return m_aXSW.getProperty (sName);
+  }
+}
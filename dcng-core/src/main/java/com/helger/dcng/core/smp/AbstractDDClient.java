@@ -18,15 +18,11 @@
 package com.helger.dcng.core.smp;
 
 import java.net.URI;
-import java.security.GeneralSecurityException;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 
 import javax.annotation.Nonnull;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.url.URLHelper;
 import com.helger.dcng.api.DcngConfig;
@@ -56,14 +52,24 @@ import com.helger.xsds.bdxr.smp1.SignedServiceMetadataType;
  */
 public abstract class AbstractDDClient
 {
-  private static final Logger LOGGER = LoggerFactory.getLogger (AbstractDDClient.class);
-
   protected AbstractDDClient ()
   {}
 
   @Nonnull
   private static BDXRClientReadOnly _getSMPClient (@Nonnull final IParticipantIdentifier aRecipientID) throws SMPDNSResolutionException
   {
+    final DcngSMPClientRegistry aRegistry = DcngSMPClientRegistry.getInstance ();
+    if (aRegistry != null)
+    {
+      // Reuse the shared client
+      if (DcngConfig.SMP.isUseDNS ())
+      {
+        ValueEnforcer.notNull (aRecipientID, "RecipientID");
+        return aRegistry.getClient (aRecipientID, DcngConfig.SMP.getSML ());
+      }
+      return aRegistry.getClient (DcngConfig.SMP.getStaticSMPUrl ());
+    }
+
     final BDXRClientReadOnly ret;
     if (DcngConfig.SMP.isUseDNS ())
     {
@@ -79,27 +85,7 @@ public abstract class AbstractDDClient
       ret = new BDXRClientReadOnly (aSMPURI);
     }
 
-    if (DcngConfig.SMP.isUseGlobalHttpSettings ())
-    {
-      if (LOGGER.isDebugEnabled ())
-        LOGGER.debug ("Copying global DCNG HTTP client settings to SMP client");
-      ret.httpClientSettings ().setAllFrom (new DcngHttpClientSettings ());
-    }
-
-    if (DcngConfig.SMP.isTLSTrustAll ())
-    {
-      try
-      {
-        ret.httpClientSettings ().setSSLContextTrustAll ();
-        ret.httpClientSettings ().setHostnameVerifierVerifyAll ();
-        LOGGER.warn ("Trusting all TLS configurations for SMP client - not recommended for production");
-      }
-      catch (final GeneralSecurityException ex)
-      {
-        throw new IllegalStateException ("Failed to set SSL Context or Hostname verifier for SMP client", ex);
-      }
-    }
-
+    ret.httpClientSettings ().setAllFrom (DcngSMPClientRegistry.createHttpClientSettingsFromConfig ());
     return ret;
   }
 
@@ -0,0 +1,467 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.smp;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.map.LRUMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.statistics.StatisticsHandlerTimer;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.dcng.api.DcngConfig;
+import com.helger.dcng.api.dd.IDDServiceMetadataProvider;
+import com.helger.dcng.core.cache.DcngSingleFlightLoader;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.security.certificate.CertificateHelper;
+import com.helger.xsds.bdxr.smp1.EndpointType;
+import com.helger.xsds.bdxr.smp1.ServiceMetadataType;
+
+/**
+ * A caching decorator for {@link IDDServiceMetadataProvider}. Found service
+ * metadata is cached up to the configured time to live, but never longer than
+ * the service or certificate of the matching endpoint is valid. "Not found"
+ * results are cached with a separate, usually shorter, time to live.
+ * Concurrent lookups of the same key that miss the cache result in a single
+ * lookup only, and entries that are close to expiry are refreshed in the
+ * background on access.<br>
+ * Install it via
+ * {@link com.helger.dcng.core.api.DcngApiConfig#setDDServiceMetadataProvider(IDDServiceMetadataProvider)}.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@ThreadSafe
+public class DDServiceMetadataProviderCaching implements IDDServiceMetadataProvider, AutoCloseable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (DDServiceMetadataProviderCaching.class);
+
+  /**
+   * The cache key
+   *
+   * @author Philip Helger
+   */
+  @Immutable
+  private static final class Key
+  {
+    private final String m_sParticipantID;
+    private final String m_sDocTypeID;
+    private final String m_sProcessID;
+    private final String m_sTransportProfile;
+
+    Key (@Nonnull final IParticipantIdentifier aParticipantID,
+         @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+         @Nonnull final IProcessIdentifier aProcessID,
+         @Nonnull final String sTransportProfile)
+    {
+      m_sParticipantID = aParticipantID.getURIEncoded ();
+      m_sDocTypeID = aDocTypeID.getURIEncoded ();
+      m_sProcessID = aProcessID.getURIEncoded ();
+      m_sTransportProfile = sTransportProfile;
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (o == null || !getClass ().equals (o.getClass ()))
+        return false;
+      final Key rhs = (Key) o;
+      return m_sParticipantID.equals (rhs.m_sParticipantID) &&
+             m_sDocTypeID.equals (rhs.m_sDocTypeID) &&
+             m_sProcessID.equals (rhs.m_sProcessID) &&
+             m_sTransportProfile.equals (rhs.m_sTransportProfile);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return new HashCodeGenerator (this).append (m_sParticipantID)
+                                         .append (m_sDocTypeID)
+                                         .append (m_sProcessID)
+                                         .append (m_sTransportProfile)
+                                         .getHashCode ();
+    }
+
+    @Override
+    public String toString ()
+    {
+      return m_sParticipantID + "/" + m_sDocTypeID + "/" + m_sProcessID + "/" + m_sTransportProfile;
+    }
+  }
+
+  /**
+   * A single cache entry. A <code>null</code> service metadata means "not
+   * found".
+   *
+   * @author Philip Helger
+   */
+  @Immutable
+  private static final class Entry
+  {
+    private final ServiceMetadataType m_aSM;
+    private final long m_nRefreshAt;
+    private final long m_nExpiresAt;
+
+    Entry (@Nullable final ServiceMetadataType aSM, final long nRefreshAt, final long nExpiresAt)
+    {
+      m_aSM = aSM;
+      m_nRefreshAt = nRefreshAt;
+      m_nExpiresAt = nExpiresAt;
+    }
+
+    boolean isExpired (final long nNow)
+    {
+      return nNow >= m_nExpiresAt;
+    }
+
+    boolean isRefreshDue (final long nNow)
+    {
+      return nNow >= m_nRefreshAt;
+    }
+  }
+
+  private final IDDServiceMetadataProvider m_aDelegate;
+  private final int m_nMaxEntries;
+  private final Duration m_aTTL;
+  private final Duration m_aNegativeTTL;
+  private final int m_nRefreshAheadPercent;
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final LRUMap <Key, Entry> m_aCache;
+  private final DcngSingleFlightLoader <Key, Entry> m_aLoader;
+
+  private final AtomicLong m_aHits = new AtomicLong (0);
+  private final AtomicLong m_aNegativeHits = new AtomicLong (0);
+  private final AtomicLong m_aMisses = new AtomicLong (0);
+  private final AtomicLong m_aRefreshes = new AtomicLong (0);
+  private final AtomicLong m_aErrors = new AtomicLong (0);
+  private final StatisticsHandlerTimer m_aLookupTimer = new StatisticsHandlerTimer ();
+
+  /**
+   * Constructor
+   *
+   * @param aDelegate
+   *        The provider that performs the real lookups. May not be
+   *        <code>null</code>.
+   * @param nMaxEntries
+   *        The maximum number of cache entries. Must be &gt; 0.
+   * @param aTTL
+   *        The maximum time to live of found service metadata. May not be
+   *        <code>null</code>.
+   * @param aNegativeTTL
+   *        The time to live of "not found" results. Use {@link Duration#ZERO}
+   *        to disable negative caching. May not be <code>null</code>.
+   * @param nRefreshAheadPercent
+   *        The percentage of the time to live after which an entry is
+   *        refreshed in the background on access. Must be between 1 and 100.
+   *        100 disables refresh-ahead.
+   */
+  public DDServiceMetadataProviderCaching (@Nonnull final IDDServiceMetadataProvider aDelegate,
+                                           @Nonnegative final int nMaxEntries,
+                                           @Nonnull final Duration aTTL,
+                                           @Nonnull final Duration aNegativeTTL,
+                                           @Nonnegative final int nRefreshAheadPercent)
+  {
+    ValueEnforcer.notNull (aDelegate, "Delegate");
+    ValueEnforcer.isGT0 (nMaxEntries, "MaxEntries");
+    ValueEnforcer.notNull (aTTL, "TTL");
+    ValueEnforcer.isFalse (aTTL.isNegative (), "TTL may not be negative");
+    ValueEnforcer.notNull (aNegativeTTL, "NegativeTTL");
+    ValueEnforcer.isFalse (aNegativeTTL.isNegative (), "NegativeTTL may not be negative");
+    ValueEnforcer.isBetweenInclusive (nRefreshAheadPercent, "RefreshAheadPercent", 1, 100);
+    m_aDelegate = aDelegate;
+    m_nMaxEntries = nMaxEntries;
+    m_aTTL = aTTL;
+    m_aNegativeTTL = aNegativeTTL;
+    m_nRefreshAheadPercent = nRefreshAheadPercent;
+    m_aCache = new LRUMap <> (nMaxEntries);
+    m_aLoader = new DcngSingleFlightLoader <> ("smp", nMaxEntries);
+  }
+
+  @Nonnull
+  public final IDDServiceMetadataProvider getDelegate ()
+  {
+    return m_aDelegate;
+  }
+
+  @Nonnegative
+  public final int getMaxEntries ()
+  {
+    return m_nMaxEntries;
+  }
+
+  @Nonnull
+  public final Duration getTTL ()
+  {
+    return m_aTTL;
+  }
+
+  @Nonnull
+  public final Duration getNegativeTTL ()
+  {
+    return m_aNegativeTTL;
+  }
+
+  @Nonnegative
+  public final int getRefreshAheadPercent ()
+  {
+    return m_nRefreshAheadPercent;
+  }
+
+  /**
+   * @return The number of cache entries. Expired entries are contained until
+   *         they are accessed again or evicted.
+   */
+  @Nonnegative
+  public int getCacheSize ()
+  {
+    return m_aLock.lockedInt (m_aCache::size);
+  }
+
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aHits.get ();
+  }
+
+  @Nonnegative
+  public long getNegativeHitCount ()
+  {
+    return m_aNegativeHits.get ();
+  }
+
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aMisses.get ();
+  }
+
+  @Nonnegative
+  public long getCoalescedCount ()
+  {
+    return m_aLoader.getCoalescedCount ();
+  }
+
+  @Nonnegative
+  public long getRefreshCount ()
+  {
+    return m_aRefreshes.get ();
+  }
+
+  @Nonnegative
+  public long getErrorCount ()
+  {
+    return m_aErrors.get ();
+  }
+
+  /**
+   * Remove all entries from the cache.
+   */
+  public void clearCache ()
+  {
+    m_aLock.locked (m_aCache::clear);
+    LOGGER.info ("Cleared the SMP service metadata cache");
+  }
+
+  @Nullable
+  private static X509Certificate _getCertificate (@Nonnull final EndpointType aEndpoint)
+  {
+    final byte [] aCert = aEndpoint.getCertificate ();
+    return aCert == null ? null : CertificateHelper.convertByteArrayToCertficateOrNull (aCert);
+  }
+
+  @Nonnull
+  private Entry _createEntry (@Nullable final ServiceMetadataType aSM,
+                              @Nonnull final IProcessIdentifier aProcessID,
+                              @Nonnull final String sTransportProfile)
+  {
+    final long nNow = System.currentTimeMillis ();
+    if (aSM == null)
+    {
+      final long nTTL = m_aNegativeTTL.toMillis ();
+      return new Entry (null, nNow + nTTL, nNow + nTTL);
+    }
+
+    long nExpiresAt = nNow + m_aTTL.toMillis ();
+    final EndpointType aEndpoint = IDDServiceMetadataProvider.getEndpoint (aSM, aProcessID, sTransportProfile);
+    if (aEndpoint != null)
+    {
+      // Don't cache longer than the endpoint is valid
+      if (aEndpoint.getServiceExpirationDate () != null)
+        nExpiresAt = Math.min (nExpiresAt, aEndpoint.getServiceExpirationDate ().toInstant ().toEpochMilli ());
+      final X509Certificate aCert = _getCertificate (aEndpoint);
+      if (aCert != null)
+        nExpiresAt = Math.min (nExpiresAt, aCert.getNotAfter ().getTime ());
+    }
+    final long nRefreshAt = nNow + (Math.max (nExpiresAt - nNow, 0) * m_nRefreshAheadPercent / 100);
+    return new Entry (aSM, nRefreshAt, nExpiresAt);
+  }
+
+  @Nonnull
+  private Entry _lookup (@Nonnull final Key aKey,
+                         @Nonnull final IParticipantIdentifier aParticipantID,
+                         @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                         @Nonnull final IProcessIdentifier aProcessID,
+                         @Nonnull final String sTransportProfile)
+  {
+    final long nStart = System.nanoTime ();
+    final ServiceMetadataType aSM;
+    try
+    {
+      aSM = m_aDelegate.getServiceMetadata (aParticipantID, aDocTypeID, aProcessID, sTransportProfile);
+    }
+    catch (final RuntimeException ex)
+    {
+      // Errors are never cached
+      m_aErrors.incrementAndGet ();
+      throw ex;
+    }
+    finally
+    {
+      m_aLookupTimer.addTime (TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - nStart));
+    }
+
+    final Entry aEntry = _createEntry (aSM, aProcessID, sTransportProfile);
+    if (aEntry.isExpired (System.currentTimeMillis ()))
+    {
+      // E.g. negative caching is disabled
+      m_aLock.locked ( () -> m_aCache.remove (aKey));
+    }
+    else
+      m_aLock.locked ( () -> m_aCache.put (aKey, aEntry));
+    return aEntry;
+  }
+
+  @Nullable
+  public ServiceMetadataType getServiceMetadata (@Nonnull final IParticipantIdentifier aParticipantID,
+                                                 @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                                                 @Nonnull final IProcessIdentifier aProcessID,
+                                                 @Nonnull final String sTransportProfile)
+  {
+    ValueEnforcer.notNull (aParticipantID, "ParticipantID");
+    ValueEnforcer.notNull (aDocTypeID, "DocTypeID");
+    ValueEnforcer.notNull (aProcessID, "ProcessID");
+    ValueEnforcer.notNull (sTransportProfile, "TransportProfile");
+
+    final Key aKey = new Key (aParticipantID, aDocTypeID, aProcessID, sTransportProfile);
+    final long nNow = System.currentTimeMillis ();
+    final Entry aCached = m_aLock.lockedGet ( () -> m_aCache.get (aKey));
+    if (aCached != null && !aCached.isExpired (nNow))
+    {
+      if (aCached.m_aSM == null)
+        m_aNegativeHits.incrementAndGet ();
+      else
+        m_aHits.incrementAndGet ();
+      if (aCached.isRefreshDue (nNow))
+        m_aLoader.refreshInBackground (aKey, () -> {
+          final Entry ret = _lookup (aKey, aParticipantID, aDocTypeID, aProcessID, sTransportProfile);
+          m_aRefreshes.incrementAndGet ();
+          return ret;
+        });
+      return aCached.m_aSM;
+    }
+
+    // Not cached - make sure only one thread performs the lookup
+    return m_aLoader.load (aKey, () -> {
+      m_aMisses.incrementAndGet ();
+      return _lookup (aKey, aParticipantID, aDocTypeID, aProcessID, sTransportProfile);
+    }).m_aSM;
+  }
+
+  /**
+   * Stop the background refresh.
+   */
+  public void close ()
+  {
+    m_aLoader.close ();
+  }
+
+  /**
+   * @return The current metrics as a JSON object. Never <code>null</code>.
+   */
+  @Nonnull
+  public IJsonObject getMetricsAsJson ()
+  {
+    final IJsonObject ret = new JsonObject ();
+    ret.add ("size", getCacheSize ());
+    ret.add ("maxentries", m_nMaxEntries);
+    ret.add ("hits", getHitCount ());
+    ret.add ("hits.negative", getNegativeHitCount ());
+    ret.add ("misses", getMissCount ());
+    ret.add ("coalesced", getCoalescedCount ());
+    ret.add ("refreshes", getRefreshCount ());
+    ret.add ("errors", getErrorCount ());
+    if (m_aLookupTimer.getInvocationCount () > 0)
+    {
+      ret.add ("lookup.avg.ms", m_aLookupTimer.getAverage ());
+      ret.add ("lookup.max.ms", m_aLookupTimer.getMax ());
+    }
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Delegate", m_aDelegate)
+                                       .append ("MaxEntries", m_nMaxEntries)
+                                       .append ("TTL", m_aTTL)
+                                       .append ("NegativeTTL", m_aNegativeTTL)
+                                       .append ("RefreshAheadPercent", m_nRefreshAheadPercent)
+                                       .getToString ();
+  }
+
+  /**
+   * Factory method to create a new caching provider based on the
+   * configuration.
+   *
+   * @param aDelegate
+   *        The provider that performs the real lookups. May not be
+   *        <code>null</code>.
+   * @return The caching provider. Never <code>null</code>.
+   */
+  @Nonnull
+  public static DDServiceMetadataProviderCaching createFromConfig (@Nonnull final IDDServiceMetadataProvider aDelegate)
+  {
+    return new DDServiceMetadataProviderCaching (aDelegate,
+                                                 DcngConfig.SMP.getCacheMaxEntries (),
+                                                 Duration.ofSeconds (DcngConfig.SMP.getCacheTTLSeconds ()),
+                                                 Duration.ofSeconds (DcngConfig.SMP.getCacheNegativeTTLSeconds ()),
+                                                 DcngConfig.SMP.getCacheRefreshAheadPercent ());
+  }
+}
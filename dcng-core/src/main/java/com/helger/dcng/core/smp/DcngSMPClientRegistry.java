@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.smp;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.hc.client5.http.classic.methods.HttpUriRequest;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.map.LRUMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.dcng.api.DcngConfig;
+import com.helger.dcng.core.http.DcngHttpClientSettings;
+import com.helger.dcng.core.http.DcngPooledHttpClientFactory;
+import com.helger.httpclient.HttpClientManager;
+import com.helger.httpclient.HttpClientSettings;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+import com.helger.peppol.sml.ISMLInfo;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.smpclient.bdxr1.BDXRClientReadOnly;
+import com.helger.smpclient.httpclient.SMPHttpClientSettings;
+import com.helger.smpclient.url.BDXLURLProvider;
+import com.helger.smpclient.url.ISMPURLProvider;
+import com.helger.smpclient.url.SMPDNSResolutionException;
+
+/**
+ * A registry for SMP clients. One client is kept per SMP base URI and all
+ * clients share one HTTP connection pool. Additionally the SMP URI of each
+ * participant is cached for a configurable time, so that the BDXL DNS lookup
+ * is not performed for every request. The number of cached participants is
+ * limited and the least recently used ones are evicted first.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@ThreadSafe
+public class DcngSMPClientRegistry implements AutoCloseable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (DcngSMPClientRegistry.class);
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+
+  @GuardedBy ("RW_LOCK")
+  private static DcngSMPClientRegistry s_aInstance;
+
+  /**
+   * A cached DNS resolution result.
+   *
+   * @author Philip Helger
+   */
+  @Immutable
+  private static final class DNSEntry
+  {
+    private final URI m_aSMPURI;
+    private final long m_nExpiresAt;
+
+    DNSEntry (@Nonnull final URI aSMPURI, final long nExpiresAt)
+    {
+      m_aSMPURI = aSMPURI;
+      m_nExpiresAt = nExpiresAt;
+    }
+  }
+
+  /**
+   * A special SMP client that uses the shared HTTP client instead of creating
+   * a new one for every request.
+   *
+   * @author Philip Helger
+   */
+  private static final class PooledBDXRClient extends BDXRClientReadOnly
+  {
+    private final HttpClientManager m_aHCM;
+
+    PooledBDXRClient (@Nonnull final URI aSMPURI, @Nonnull final HttpClientManager aHCM)
+    {
+      super (aSMPURI);
+      m_aHCM = aHCM;
+    }
+
+    @Override
+    public <T> T executeRequest (@Nonnull final HttpUriRequest aRequest,
+                                 @Nonnull final HttpClientResponseHandler <T> aResponseHandler) throws IOException
+    {
+      return m_aHCM.execute (aRequest, createHttpContext (), aResponseHandler);
+    }
+  }
+
+  private final ISMPURLProvider m_aURLProvider;
+  private final DcngPooledHttpClientFactory m_aHttpClientFactory;
+  private final HttpClientManager m_aHCM;
+  private final Duration m_aDNSCacheTTL;
+  private final int m_nDNSCacheMaxEntries;
+  private final SimpleLock m_aDNSCacheLock = new SimpleLock ();
+  @GuardedBy ("m_aDNSCacheLock")
+  private final LRUMap <String, DNSEntry> m_aDNSCache;
+  private final ConcurrentHashMap <URI, BDXRClientReadOnly> m_aClients = new ConcurrentHashMap <> ();
+
+  private final AtomicLong m_aDNSHits = new AtomicLong (0);
+  private final AtomicLong m_aDNSMisses = new AtomicLong (0);
+
+  /**
+   * Constructor
+   *
+   * @param aURLProvider
+   *        The URL provider used to resolve the SMP URI of a participant. May
+   *        not be <code>null</code>.
+   * @param aHttpClientSettings
+   *        The HTTP client settings to be used for all SMP clients. May not be
+   *        <code>null</code>.
+   * @param nMaxPerRoute
+   *        Maximum number of connections per SMP. Must be &gt; 0.
+   * @param nMaxTotal
+   *        Maximum number of connections in total. Must be &gt; 0.
+   * @param aDNSCacheTTL
+   *        The duration for which the resolved SMP URI of a participant is
+   *        cached. Use {@link Duration#ZERO} to disable caching. May not be
+   *        <code>null</code>.
+   * @param nDNSCacheMaxEntries
+   *        The maximum number of participants for which the SMP URI is
+   *        cached. Must be &gt; 0.
+   */
+  public DcngSMPClientRegistry (@Nonnull final ISMPURLProvider aURLProvider,
+                                @Nonnull final HttpClientSettings aHttpClientSettings,
+                                @Nonnegative final int nMaxPerRoute,
+                                @Nonnegative final int nMaxTotal,
+                                @Nonnull final Duration aDNSCacheTTL,
+                                @Nonnegative final int nDNSCacheMaxEntries)
+  {
+    ValueEnforcer.notNull (aURLProvider, "URLProvider");
+    ValueEnforcer.notNull (aDNSCacheTTL, "DNSCacheTTL");
+    ValueEnforcer.isFalse (aDNSCacheTTL.isNegative (), "DNSCacheTTL may not be negative");
+    ValueEnforcer.isGT0 (nDNSCacheMaxEntries, "DNSCacheMaxEntries");
+    m_aURLProvider = aURLProvider;
+    m_aHttpClientFactory = new DcngPooledHttpClientFactory (aHttpClientSettings,
+                                                            nMaxPerRoute,
+                                                            nMaxTotal,
+                                                            TimeValue.ofSeconds (60),
+                                                            TimeValue.ofSeconds (30));
+    m_aHCM = new HttpClientManager (m_aHttpClientFactory);
+    m_aDNSCacheTTL = aDNSCacheTTL;
+    m_nDNSCacheMaxEntries = nDNSCacheMaxEntries;
+    m_aDNSCache = new LRUMap <> (nDNSCacheMaxEntries);
+  }
+
+  @Nonnull
+  public final Duration getDNSCacheTTL ()
+  {
+    return m_aDNSCacheTTL;
+  }
+
+  @Nonnegative
+  public final int getDNSCacheMaxEntries ()
+  {
+    return m_nDNSCacheMaxEntries;
+  }
+
+  /**
+   * @return The number of cached DNS resolution results. Expired entries are
+   *         contained until they are accessed again or evicted.
+   */
+  @Nonnegative
+  public int getDNSCacheSize ()
+  {
+    return m_aDNSCacheLock.lockedInt (m_aDNSCache::size);
+  }
+
+  @Nonnegative
+  public int getClientCount ()
+  {
+    return m_aClients.size ();
+  }
+
+  @Nonnegative
+  public long getDNSHitCount ()
+  {
+    return m_aDNSHits.get ();
+  }
+
+  @Nonnegative
+  public long getDNSMissCount ()
+  {
+    return m_aDNSMisses.get ();
+  }
+
+  /**
+   * Remove all cached DNS resolution results.
+   */
+  public void clearDNSCache ()
+  {
+    m_aDNSCacheLock.locked (m_aDNSCache::clear);
+  }
+
+  /**
+   * Resolve the SMP URI of the provided participant, using the cache if
+   * possible.
+   *
+   * @param aParticipantID
+   *        The participant to resolve. May not be <code>null</code>.
+   * @param aSML
+   *        The SML to use. May not be <code>null</code>.
+   * @return The SMP URI. Never <code>null</code>.
+   * @throws SMPDNSResolutionException
+   *         If DNS resolution fails
+   */
+  @Nonnull
+  public URI getSMPURI (@Nonnull final IParticipantIdentifier aParticipantID,
+                        @Nonnull final ISMLInfo aSML) throws SMPDNSResolutionException
+  {
+    ValueEnforcer.notNull (aParticipantID, "ParticipantID");
+    ValueEnforcer.notNull (aSML, "SML");
+
+    final String sKey = aParticipantID.getURIEncoded () + "@" + aSML.getDNSZone ();
+    final long nNow = System.currentTimeMillis ();
+    final DNSEntry aCached = m_aDNSCacheLock.lockedGet ( () -> m_aDNSCache.get (sKey));
+    if (aCached != null && nNow < aCached.m_nExpiresAt)
+    {
+      m_aDNSHits.incrementAndGet ();
+      return aCached.m_aSMPURI;
+    }
+
+    m_aDNSMisses.incrementAndGet ();
+    final URI ret = m_aURLProvider.getSMPURIOfParticipant (aParticipantID, aSML);
+    if (!m_aDNSCacheTTL.isZero ())
+    {
+      final DNSEntry aEntry = new DNSEntry (ret, nNow + m_aDNSCacheTTL.toMillis ());
+      m_aDNSCacheLock.locked ( () -> m_aDNSCache.put (sKey, aEntry));
+    }
+    return ret;
+  }
+
+  /**
+   * Get the shared SMP client for the provided SMP URI.
+   *
+   * @param aSMPURI
+   *        The SMP base URI. May not be <code>null</code>.
+   * @return The SMP client. Never <code>null</code>. Must not be modified.
+   */
+  @Nonnull
+  public BDXRClientReadOnly getClient (@Nonnull final URI aSMPURI)
+  {
+    ValueEnforcer.notNull (aSMPURI, "SMPURI");
+    return m_aClients.computeIfAbsent (aSMPURI, x -> {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Creating new shared SMP client for '" + x + "'");
+      return new PooledBDXRClient (x, m_aHCM);
+    });
+  }
+
+  /**
+   * Get the shared SMP client for the provided participant using BDXL DNS
+   * resolution.
+   *
+   * @param aParticipantID
+   *        The participant to resolve. May not be <code>null</code>.
+   * @param aSML
+   *        The SML to use. May not be <code>null</code>.
+   * @return The SMP client. Never <code>null</code>. Must not be modified.
+   * @throws SMPDNSResolutionException
+   *         If DNS resolution fails
+   */
+  @Nonnull
+  public BDXRClientReadOnly getClient (@Nonnull final IParticipantIdentifier aParticipantID,
+                                       @Nonnull final ISMLInfo aSML) throws SMPDNSResolutionException
+  {
+    return getClient (getSMPURI (aParticipantID, aSML));
+  }
+
+  public void close ()
+  {
+    m_aClients.clear ();
+    clearDNSCache ();
+    StreamHelper.close (m_aHCM);
+  }
+
+  /**
+   * @return The current metrics as a JSON object. Never <code>null</code>.
+   */
+  @Nonnull
+  public IJsonObject getMetricsAsJson ()
+  {
+    final IJsonObject ret = new JsonObject ();
+    ret.add ("clients", getClientCount ());
+    ret.add ("dns.cache.size", getDNSCacheSize ());
+    ret.add ("dns.hits", getDNSHitCount ());
+    ret.add ("dns.misses", getDNSMissCount ());
+    final PoolStats aStats = m_aHttpClientFactory.getTotalPoolStats ();
+    if (aStats != null)
+    {
+      ret.add ("pool.leased", aStats.getLeased ());
+      ret.add ("pool.pending", aStats.getPending ());
+      ret.add ("pool.available", aStats.getAvailable ());
+    }
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("URLProvider", m_aURLProvider)
+                                       .append ("HttpClientFactory", m_aHttpClientFactory)
+                                       .append ("DNSCacheTTL", m_aDNSCacheTTL)
+                                       .append ("DNSCacheMaxEntries", m_nDNSCacheMaxEntries)
+                                       .getToString ();
+  }
+
+  /**
+   * @return The HTTP client settings for SMP clients based on the
+   *         configuration. Never <code>null</code>.
+   */
+  @Nonnull
+  public static HttpClientSettings createHttpClientSettingsFromConfig ()
+  {
+    final HttpClientSettings ret = new SMPHttpClientSettings ();
+    if (DcngConfig.SMP.isUseGlobalHttpSettings ())
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Copying global DCNG HTTP client settings to SMP client");
+      ret.setAllFrom (new DcngHttpClientSettings ());
+    }
+
+    if (DcngConfig.SMP.isTLSTrustAll ())
+    {
+      try
+      {
+        ret.setSSLContextTrustAll ();
+        ret.setHostnameVerifierVerifyAll ();
+        LOGGER.warn ("Trusting all TLS configurations for SMP client - not recommended for production");
+      }
+      catch (final GeneralSecurityException ex)
+      {
+        throw new IllegalStateException ("Failed to set SSL Context or Hostname verifier for SMP client", ex);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Create the global registry based on the configuration. Calling this
+   * method if it is already initialized, has no effect.
+   */
+  public static void initGlobally ()
+  {
+    RW_LOCK.writeLocked ( () -> {
+      if (s_aInstance == null)
+      {
+        // Use a separate URL provider, as the DNS cache of the default one
+        // never expires
+        final BDXLURLProvider aURLProvider = new BDXLURLProvider ();
+        aURLProvider.setUseDNSCache (false);
+        s_aInstance = new DcngSMPClientRegistry (aURLProvider,
+                                                 createHttpClientSettingsFromConfig (),
+                                                 DcngConfig.SMP.getHttpMaxPerRoute (),
+                                                 DcngConfig.SMP.getHttpMaxTotal (),
+                                                 Duration.ofSeconds (DcngConfig.SMP.getDNSCacheTTLSeconds ()),
+                                                 DcngConfig.SMP.getDNSCacheMaxEntries ());
+        LOGGER.info ("Created shared SMP client registry: " + s_aInstance);
+      }
+    });
+  }
+
+  /**
+   * Close the global registry, if it was created.
+   */
+  public static void shutdownGlobally ()
+  {
+    RW_LOCK.writeLocked ( () -> {
+      if (s_aInstance != null)
+      {
+        s_aInstance.close ();
+        s_aInstance = null;
+        LOGGER.info ("Closed shared SMP client registry");
+      }
+    });
+  }
+
+  /**
+   * @return The global registry or <code>null</code> if
+   *         {@link #initGlobally()} was not called.
+   */
+  @Nullable
+  public static DcngSMPClientRegistry getInstance ()
+  {
+    return RW_LOCK.readLockedGet ( () -> s_aInstance);
+  }
+}
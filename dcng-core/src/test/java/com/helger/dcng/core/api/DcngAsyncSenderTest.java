@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import com.helger.dcng.api.me.outgoing.EMEOutgoingExecutorMode;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+
+/**
+ * Test class for class {@link DcngAsyncSender}.
+ *
+ * @author Philip Helger
+ */
+public final class DcngAsyncSenderTest
+{
+  @Test
+  public void testSubmit ()
+  {
+    // The send executor is not initialized, so the task runs synchronously
+    final DcngAsyncSendStatus aStatus = DcngAsyncSender.submit ( () -> new JsonObject ().add (DcngAsyncSender.JSON_TAG_SUCCESS,
+                                                                                              true),
+                                                                 null);
+    assertNotNull (aStatus);
+    assertSame (aStatus, DcngAsyncSender.getStatus (aStatus.getTrackingID ()));
+    assertEquals (EDcngAsyncSendState.SUCCESS, aStatus.getState ());
+    assertNotNull (aStatus.getFinishedDT ());
+
+    final IJsonObject aJson = aStatus.getAsJson ();
+    assertEquals (aStatus.getTrackingID (), aJson.getAsString (DcngAsyncSendStatus.JSON_TAG_TRACKING_ID));
+    assertEquals ("success", aJson.getAsString (DcngAsyncSendStatus.JSON_TAG_STATE));
+    assertNotNull (aJson.getAsObject (DcngAsyncSendStatus.JSON_TAG_RESULT));
+  }
+
+  @Test
+  public void testSubmitFailure ()
+  {
+    final DcngAsyncSendStatus aStatus = DcngAsyncSender.submit ( () -> {
+      throw new IllegalStateException ("oops");
+    }, null);
+    assertEquals (EDcngAsyncSendState.FAILURE, aStatus.getState ());
+    assertTrue (aStatus.getState ().isFinished ());
+    assertFalse (aStatus.getResult ().getAsBoolean (DcngAsyncSender.JSON_TAG_SUCCESS, true));
+  }
+
+  @Test
+  public void testSubmitRejected () throws Exception
+  {
+    DcngSendExecutor.initGlobally (EMEOutgoingExecutorMode.PLATFORM, 1, 1, 1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    try
+    {
+      final Supplier <IJsonObject> aBlocking = () -> {
+        try
+        {
+          aRelease.await ();
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+        }
+        return new JsonObject ().add (DcngAsyncSender.JSON_TAG_SUCCESS, true);
+      };
+      // One running and one queued
+      final DcngAsyncSendStatus aRunning = DcngAsyncSender.submit (aBlocking, null);
+      final DcngAsyncSendStatus aQueued = DcngAsyncSender.submit (aBlocking, null);
+
+      final int nStatusCount = DcngAsyncSender.getStatusCount ();
+      final long nRejected = DcngSendExecutor.getRejectedCount ();
+      try
+      {
+        DcngAsyncSender.submit (aBlocking, null);
+        fail ();
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // expected
+      }
+      assertEquals (nStatusCount, DcngAsyncSender.getStatusCount ());
+      assertEquals (nRejected + 1, DcngSendExecutor.getRejectedCount ());
+
+      aRelease.countDown ();
+      DcngSendExecutor.shutdownGlobally ();
+      assertEquals (EDcngAsyncSendState.SUCCESS, aRunning.getState ());
+      assertEquals (EDcngAsyncSendState.SUCCESS, aQueued.getState ());
+    }
+    finally
+    {
+      aRelease.countDown ();
+      DcngSendExecutor.shutdownGlobally ();
+    }
+  }
+
+  @Test
+  public void testGetStatusUnknown ()
+  {
+    assertNull (DcngAsyncSender.getStatus (null));
+    assertNull (DcngAsyncSender.getStatus (""));
+    assertNull (DcngAsyncSender.getStatus ("does-not-exist"));
+  }
+}
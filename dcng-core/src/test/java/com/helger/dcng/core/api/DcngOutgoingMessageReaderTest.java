@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.dcng.api.rest.DcngRestJAXB;
+import com.helger.dcng.api.rest.DcngStreamedOutgoingMessage;
+import com.helger.dcng.api.rest.EDcngRestValidationMode;
+
+/**
+ * Test class for class {@link DcngOutgoingMessageReader}.
+ *
+ * @author Philip Helger
+ */
+public final class DcngOutgoingMessageReaderTest
+{
+  private static final String VALID = "<OutgoingMessage xmlns='" +
+                                      DcngRestJAXB.NS_URI +
+                                      "'><Metadata>" +
+                                      "<SenderID scheme='iso6523-actorid-upis' value='9999:sender' />" +
+                                      "<ReceiverID scheme='iso6523-actorid-upis' value='9999:receiver' />" +
+                                      "<DocTypeID scheme='urn:de4a-eu:CanonicalEvidenceType' value='test' />" +
+                                      "<ProcessID scheme='urn:de4a-eu:MessageType' value='request' />" +
+                                      "<TransportProtocol>bdxr-transport-ebms3-as4-v1p0</TransportProtocol>" +
+                                      "</Metadata><Payload MimeType='application/xml'>PGEvPg==</Payload></OutgoingMessage>";
+  // Metadata is missing
+  private static final String INVALID = "<OutgoingMessage xmlns='" +
+                                        DcngRestJAXB.NS_URI +
+                                        "'><Payload MimeType='application/xml'>PGEvPg==</Payload></OutgoingMessage>";
+
+  @Nonnull
+  private static NonBlockingByteArrayInputStream _is (@Nonnull final String s)
+  {
+    return new NonBlockingByteArrayInputStream (s.getBytes (StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testModes ()
+  {
+    for (final EDcngRestValidationMode eMode : EDcngRestValidationMode.values ())
+      assertNotNull (eMode.getID (), DcngOutgoingMessageReader.read (_is (VALID), eMode));
+
+    final long nRejected = DcngOutgoingMessageReader.getRejectedCount ();
+    final long nIgnored = DcngOutgoingMessageReader.getIgnoredCount ();
+    assertNull (DcngOutgoingMessageReader.read (_is (INVALID), EDcngRestValidationMode.FULL));
+    assertNull (DcngOutgoingMessageReader.read (_is (INVALID), EDcngRestValidationMode.STRUCTURAL));
+    assertNotNull (DcngOutgoingMessageReader.read (_is (INVALID), EDcngRestValidationMode.OFF));
+    assertEquals (nRejected + 2, DcngOutgoingMessageReader.getRejectedCount ());
+    assertEquals (nIgnored + 1, DcngOutgoingMessageReader.getIgnoredCount ());
+
+    // Not well-formed
+    assertNull (DcngOutgoingMessageReader.read (_is ("<OutgoingMessage"), EDcngRestValidationMode.OFF));
+    assertEquals (nRejected + 3, DcngOutgoingMessageReader.getRejectedCount ());
+  }
+
+  @Test
+  public void testStreaming ()
+  {
+    final DcngStreamedOutgoingMessage aMsg = DcngOutgoingMessageReader.readStreaming (_is (VALID),
+                                                                                      EDcngRestValidationMode.STRUCTURAL);
+    assertNotNull (aMsg);
+    try
+    {
+      assertEquals ("9999:sender", aMsg.getMetadata ().getSenderID ().getValue ());
+      assertEquals (1, aMsg.getPayloadCount ());
+      assertEquals ("application/xml", aMsg.getPayloadAtIndex (0).getMimeTypeString ());
+      assertArrayEquals ("<a/>".getBytes (StandardCharsets.UTF_8), aMsg.getPayloadAtIndex (0).getData ().bytes ());
+    }
+    finally
+    {
+      aMsg.deleteTemporaryData ();
+    }
+
+    assertNull (DcngOutgoingMessageReader.readStreaming (_is (INVALID), EDcngRestValidationMode.FULL));
+    assertNull (DcngOutgoingMessageReader.readStreaming (_is (INVALID), EDcngRestValidationMode.STRUCTURAL));
+    assertNotNull (DcngOutgoingMessageReader.readStreaming (_is (INVALID), EDcngRestValidationMode.OFF));
+
+    // Invalid Base64 content
+    assertNull (DcngOutgoingMessageReader.readStreaming (_is (VALID.replace ("PGEvPg==", "PGEv<x/>Pg==")),
+                                                         EDcngRestValidationMode.OFF));
+    // Not well-formed
+    assertNull (DcngOutgoingMessageReader.readStreaming (_is ("<OutgoingMessage"), EDcngRestValidationMode.OFF));
+  }
+
+  @Test
+  public void testStreamingFull ()
+  {
+    final DcngStreamedOutgoingMessage aMsg = DcngOutgoingMessageReader.readStreaming (_is (VALID),
+                                                                                      EDcngRestValidationMode.FULL);
+    assertNotNull (aMsg);
+    try
+    {
+      assertEquals (1, aMsg.getPayloadCount ());
+      assertArrayEquals ("<a/>".getBytes (StandardCharsets.UTF_8), aMsg.getPayloadAtIndex (0).getData ().bytes ());
+    }
+    finally
+    {
+      aMsg.deleteTemporaryData ();
+    }
+
+    // Only the XML Schema knows the allowed attributes
+    final String sUnknownAttr = VALID.replace ("<Payload ", "<Payload Foo='bar' ");
+    assertNull (DcngOutgoingMessageReader.readStreaming (_is (sUnknownAttr), EDcngRestValidationMode.FULL));
+    final DcngStreamedOutgoingMessage aMsg2 = DcngOutgoingMessageReader.readStreaming (_is (sUnknownAttr),
+                                                                                       EDcngRestValidationMode.STRUCTURAL);
+    assertNotNull (aMsg2);
+    aMsg2.deleteTemporaryData ();
+  }
+}
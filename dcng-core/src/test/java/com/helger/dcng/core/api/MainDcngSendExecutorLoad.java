@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.mime.CMimeType;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.timing.StopWatch;
+import com.helger.dcng.api.DcngConfig;
+import com.helger.dcng.api.me.model.MEMessage;
+import com.helger.dcng.api.me.model.MEPayload;
+import com.helger.dcng.api.me.outgoing.EMEOutgoingExecutorMode;
+import com.helger.dcng.core.incoming.DcngDPHttpClient;
+import com.helger.dcng.core.incoming.DcngDPTriggerViaHttp;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Load test for the {@link DcngSendExecutor}: 1000 messages are forwarded
+ * concurrently with
+ * {@link DcngDPTriggerViaHttp#forwardMessageAsync(MEMessage, String)}, so the
+ * real forwarding code including the serialization and the pooled HTTP client
+ * is used. The receiver is a local HTTP server that answers each request
+ * after a delay, simulating a slow DC/DP. This is run with platform threads
+ * and with virtual threads (if supported by the JVM). The peak thread count
+ * and the throughput are logged.
+ *
+ * @author Philip Helger
+ */
+public final class MainDcngSendExecutorLoad
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainDcngSendExecutorLoad.class);
+  private static final int TASKS = 1_000;
+  private static final long RESPONSE_DELAY_MS = 200;
+
+  @Nonnull
+  private static MEMessage _createMessage ()
+  {
+    return MEMessage.builder ()
+                    .senderID (DcngConfig.getIdentifierFactory ()
+                                         .createParticipantIdentifier ("iso6523-actorid-upis", "9999:sender"))
+                    .receiverID (DcngConfig.getIdentifierFactory ()
+                                           .createParticipantIdentifier ("iso6523-actorid-upis", "9999:receiver"))
+                    .docTypeID (DcngConfig.getIdentifierFactory ()
+                                          .createDocumentTypeIdentifier ("urn:de4a-eu:CanonicalEvidenceType",
+                                                                         "doctype"))
+                    .processID (DcngConfig.getIdentifierFactory ()
+                                          .createProcessIdentifier ("urn:de4a-eu:MessageType", "request"))
+                    .addPayload (MEPayload.builder ()
+                                          .mimeType (CMimeType.APPLICATION_XML)
+                                          .randomContentID ()
+                                          .data ("<Evidence>Load test</Evidence>", StandardCharsets.UTF_8))
+                    .build ();
+  }
+
+  private static void _respondDelayed (@Nonnull final ScheduledExecutorService aScheduler,
+                                       @Nonnull final HttpExchange aExchange) throws IOException
+  {
+    try (final InputStream aIS = aExchange.getRequestBody ())
+    {
+      StreamHelper.getAllBytes (aIS);
+    }
+    // Don't block the server thread while waiting
+    aScheduler.schedule ( () -> {
+      try (final OutputStream aOS = aExchange.getResponseBody ())
+      {
+        final byte [] aResponse = "OK".getBytes (StandardCharsets.UTF_8);
+        aExchange.sendResponseHeaders (200, aResponse.length);
+        aOS.write (aResponse);
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.error ("Failed to send response", ex);
+      }
+      finally
+      {
+        aExchange.close ();
+      }
+    }, RESPONSE_DELAY_MS, TimeUnit.MILLISECONDS);
+  }
+
+  private static void _run (@Nonnull final String sDestURL,
+                            @Nonnull final EMEOutgoingExecutorMode eMode,
+                            final int nThreads,
+                            final int nMaxConcurrency)
+  {
+    final ThreadMXBean aThreadMX = ManagementFactory.getThreadMXBean ();
+    DcngSendExecutor.initGlobally (eMode, nThreads, TASKS, nMaxConcurrency);
+    try
+    {
+      final MEMessage aMessage = _createMessage ();
+      aThreadMX.resetPeakThreadCount ();
+      final StopWatch aSW = StopWatch.createdStarted ();
+      final ICommonsList <CompletableFuture <ESuccess>> aFutures = new CommonsArrayList <> (TASKS);
+      for (int i = 0; i < TASKS; ++i)
+        aFutures.add (DcngDPTriggerViaHttp.forwardMessageAsync (aMessage, sDestURL));
+      CompletableFuture.allOf (aFutures.toArray (new CompletableFuture [0])).join ();
+      aSW.stop ();
+
+      final long nFailures = aFutures.getCount (x -> x.join ().isFailure ());
+      LOGGER.info ((DcngSendExecutor.isVirtualThreads () ? "Virtual threads (max concurrency " + nMaxConcurrency + ")"
+                                                         : "Platform threads (" + nThreads + ")") +
+                   ": " +
+                   TASKS +
+                   " forwards (" +
+                   nFailures +
+                   " failed) in " +
+                   aSW.getMillis () +
+                   " ms = " +
+                   (TASKS * 1000L / Math.max (1, aSW.getMillis ())) +
+                   " forwards/s; peak thread count " +
+                   aThreadMX.getPeakThreadCount ());
+    }
+    finally
+    {
+      DcngSendExecutor.shutdownGlobally ();
+    }
+  }
+
+  public static void main (final String [] args) throws IOException
+  {
+    // The connection pool should not be the limiting factor
+    System.setProperty ("de4a.me.incoming.http.max-per-route", Integer.toString (TASKS));
+    System.setProperty ("de4a.me.incoming.http.max-total", Integer.toString (TASKS));
+
+    final ScheduledExecutorService aScheduler = Executors.newSingleThreadScheduledExecutor ();
+    final HttpServer aServer = HttpServer.create (new InetSocketAddress ("localhost", 0), TASKS);
+    aServer.createContext ("/", x -> _respondDelayed (aScheduler, x));
+    aServer.start ();
+    DcngDPHttpClient.initGlobally ();
+    try
+    {
+      final String sDestURL = "http://localhost:" + aServer.getAddress ().getPort () + "/";
+      _run (sDestURL, EMEOutgoingExecutorMode.PLATFORM, 8, 1);
+      _run (sDestURL, EMEOutgoingExecutorMode.PLATFORM, 200, 1);
+      _run (sDestURL, EMEOutgoingExecutorMode.VIRTUAL, 8, 256);
+      _run (sDestURL, EMEOutgoingExecutorMode.VIRTUAL, 8, TASKS);
+    }
+    finally
+    {
+      DcngDPHttpClient.shutdownGlobally ();
+      aServer.stop (0);
+      aScheduler.shutdownNow ();
+    }
+  }
+}
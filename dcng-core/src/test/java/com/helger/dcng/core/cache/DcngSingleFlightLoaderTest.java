@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link DcngSingleFlightLoader}.
+ *
+ * @author Philip Helger
+ */
+public final class DcngSingleFlightLoaderTest
+{
+  @Test
+  public void testWaitersGetOriginalException () throws Exception
+  {
+    final IllegalStateException aError = new IllegalStateException ("failed");
+    final AtomicInteger aCalls = new AtomicInteger (0);
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final ExecutorService aES = Executors.newFixedThreadPool (2);
+    try (final DcngSingleFlightLoader <String, String> aLoader = new DcngSingleFlightLoader <> ("test", 10))
+    {
+      final Callable <RuntimeException> aLoad = () -> {
+        try
+        {
+          aLoader.load ("key", () -> {
+            aCalls.incrementAndGet ();
+            aStarted.countDown ();
+            try
+            {
+              aRelease.await ();
+            }
+            catch (final InterruptedException ex)
+            {
+              Thread.currentThread ().interrupt ();
+            }
+            throw aError;
+          });
+          return null;
+        }
+        catch (final RuntimeException ex)
+        {
+          return ex;
+        }
+      };
+      final Future <RuntimeException> aFirst = aES.submit (aLoad);
+      aStarted.await ();
+      final Future <RuntimeException> aSecond = aES.submit (aLoad);
+      // Give the second load time to queue up
+      Thread.sleep (200);
+      aRelease.countDown ();
+
+      // Both callers see the original exception and not a CompletionException
+      assertSame (aError, aFirst.get (10, TimeUnit.SECONDS));
+      assertSame (aError, aSecond.get (10, TimeUnit.SECONDS));
+      assertEquals (1, aCalls.get ());
+      assertEquals (1, aLoader.getCoalescedCount ());
+    }
+    finally
+    {
+      aES.shutdownNow ();
+    }
+  }
+
+  @Test
+  public void testLoadAfterError ()
+  {
+    try (final DcngSingleFlightLoader <String, String> aLoader = new DcngSingleFlightLoader <> ("test", 10))
+    {
+      try
+      {
+        aLoader.load ("key", () -> {
+          throw new IllegalStateException ("failed");
+        });
+      }
+      catch (final IllegalStateException ex)
+      {
+        // expected
+      }
+      // Errors are not remembered
+      assertEquals ("value", aLoader.load ("key", () -> "value"));
+      assertEquals (0, aLoader.getCoalescedCount ());
+    }
+  }
+
+  @Test
+  public void testRefreshErrorCompletesWaiters () throws Exception
+  {
+    final AssertionError aError = new AssertionError ("failed");
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final ExecutorService aES = Executors.newSingleThreadExecutor ();
+    try (final DcngSingleFlightLoader <String, String> aLoader = new DcngSingleFlightLoader <> ("test", 10))
+    {
+      aLoader.refreshInBackground ("key", () -> {
+        aStarted.countDown ();
+        try
+        {
+          aRelease.await ();
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+        }
+        throw aError;
+      });
+      aStarted.await ();
+      final Future <Throwable> aWaiter = aES.submit ( () -> {
+        try
+        {
+          aLoader.load ("key", () -> "value");
+          return null;
+        }
+        catch (final Throwable t)
+        {
+          return t;
+        }
+      });
+      // Give the load time to queue up
+      Thread.sleep (200);
+      aRelease.countDown ();
+
+      // The waiter sees the error and does not block forever
+      assertSame (aError, aWaiter.get (10, TimeUnit.SECONDS));
+      assertEquals (1, aLoader.getCoalescedCount ());
+    }
+    finally
+    {
+      aES.shutdownNow ();
+    }
+  }
+
+  @Test
+  public void testCloseDropsPendingRefreshes () throws Exception
+  {
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final AtomicInteger aCalls = new AtomicInteger (0);
+    final DcngSingleFlightLoader <String, String> aLoader = new DcngSingleFlightLoader <> ("test", 10);
+    aLoader.refreshInBackground ("running", () -> {
+      aStarted.countDown ();
+      try
+      {
+        Thread.sleep (10_000);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+      return "running";
+    });
+    aStarted.await ();
+    for (int i = 0; i < 5; ++i)
+      aLoader.refreshInBackground ("key" + i, () -> {
+        aCalls.incrementAndGet ();
+        return "value";
+      });
+    aLoader.close ();
+
+    // Dropped refreshes are not performed and don't block new loads
+    assertEquals (0, aCalls.get ());
+    assertEquals ("other", aLoader.load ("key0", () -> "other"));
+  }
+}
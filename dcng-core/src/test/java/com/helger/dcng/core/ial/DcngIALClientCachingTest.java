@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.ial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsLinkedHashSet;
+import com.helger.commons.error.SingleError;
+import com.helger.commons.error.list.ErrorList;
+import com.helger.dcng.api.ial.IIALClient;
+
+import eu.de4a.ial.api.jaxb.ResponseLookupRoutingInformationType;
+
+/**
+ * Test class for class {@link DcngIALClientCaching}.
+ *
+ * @author Philip Helger
+ */
+public final class DcngIALClientCachingTest
+{
+  private static final String COT1 = "urn:de4a-eu:CanonicalEvidenceType::BirthCertificate";
+  private static final String COT2 = "urn:de4a-eu:CanonicalEvidenceType::MarriageCertificate";
+
+  @Test
+  public void testHitsAndKey ()
+  {
+    final AtomicInteger aCalls = new AtomicInteger (0);
+    final IIALClient aDelegate = (aCOTs, sATU, aErrorList) -> {
+      aCalls.incrementAndGet ();
+      if ("fail".equals (sATU))
+      {
+        aErrorList.add (SingleError.builderError ().errorText ("failed").build ());
+        return null;
+      }
+      return new ResponseLookupRoutingInformationType ();
+    };
+    try (final DcngIALClientCaching aCache = new DcngIALClientCaching (aDelegate, 10, Duration.ofHours (1), Duration.ZERO))
+    {
+      final ErrorList aErrorList = new ErrorList ();
+      final ResponseLookupRoutingInformationType aR1 = aCache.queryIAL (new CommonsLinkedHashSet <> (COT1, COT2),
+                                                                         "AT",
+                                                                         aErrorList);
+      assertNotNull (aR1);
+      // Same set in a different order
+      final ResponseLookupRoutingInformationType aR2 = aCache.queryIAL (new CommonsLinkedHashSet <> (COT2, COT1),
+                                                                         "AT",
+                                                                         aErrorList);
+      assertNotNull (aR2);
+      // Every caller gets its own copy
+      assertNotSame (aR1, aR2);
+      assertNotNull (aCache.queryIAL (new CommonsLinkedHashSet <> (COT1), null, aErrorList));
+      assertNotNull (aCache.queryIAL (new CommonsLinkedHashSet <> (COT1), null, aErrorList));
+      assertTrue (aErrorList.isEmpty ());
+      assertEquals (2, aCalls.get ());
+      assertEquals (2, aCache.getHitCount ());
+      assertEquals (2, aCache.getMissCount ());
+
+      // Failures are not cached
+      for (int i = 0; i < 2; ++i)
+      {
+        final ErrorList aErrorList2 = new ErrorList ();
+        assertNull (aCache.queryIAL (new CommonsLinkedHashSet <> (COT1), "fail", aErrorList2));
+        assertEquals (1, aErrorList2.size ());
+      }
+      assertEquals (4, aCalls.get ());
+      assertEquals (2, aCache.getErrorCount ());
+
+      assertEquals (2, aCache.clearCache ());
+      assertNotNull (aCache.queryIAL (new CommonsLinkedHashSet <> (COT1), null, aErrorList));
+      assertEquals (5, aCalls.get ());
+    }
+  }
+
+  @Test
+  public void testStaleWhileRevalidate () throws Exception
+  {
+    final AtomicInteger aCalls = new AtomicInteger (0);
+    final IIALClient aDelegate = (aCOTs, sATU, aErrorList) -> {
+      aCalls.incrementAndGet ();
+      return new ResponseLookupRoutingInformationType ();
+    };
+    // Everything is immediately stale
+    try (final DcngIALClientCaching aCache = new DcngIALClientCaching (aDelegate, 10, Duration.ZERO, Duration.ofHours (1)))
+    {
+      final ErrorList aErrorList = new ErrorList ();
+      assertNotNull (aCache.queryIAL (new CommonsLinkedHashSet <> (COT1), "AT", aErrorList));
+      assertNotNull (aCache.queryIAL (new CommonsLinkedHashSet <> (COT1), "AT", aErrorList));
+      assertEquals (1, aCache.getMissCount ());
+      assertEquals (1, aCache.getStaleHitCount ());
+
+      // Wait for the background refresh
+      aCache.close ();
+      assertEquals (2, aCalls.get ());
+      assertNotNull (aCache.getMetricsAsJson ());
+    }
+  }
+}
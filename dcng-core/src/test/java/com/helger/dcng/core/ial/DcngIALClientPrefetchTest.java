@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.ial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsLinkedHashSet;
+import com.helger.commons.error.list.ErrorList;
+import com.helger.dcng.api.ial.IIALClient;
+
+import eu.de4a.ial.api.jaxb.ProvisionItemType;
+import eu.de4a.ial.api.jaxb.ResponseItemType;
+import eu.de4a.ial.api.jaxb.ResponseLookupRoutingInformationType;
+import eu.de4a.ial.api.jaxb.ResponsePerCountryType;
+
+/**
+ * Test class for class {@link DcngIALClientPrefetch}.
+ *
+ * @author Philip Helger
+ */
+public final class DcngIALClientPrefetchTest
+{
+  private static final String COT1 = "urn:de4a-eu:CanonicalEvidenceType::BirthCertificate";
+  private static final String COT2 = "urn:de4a-eu:CanonicalEvidenceType::MarriageCertificate";
+
+  @Nonnull
+  private static ResponseItemType _createItem (final String sCOT)
+  {
+    final ResponseItemType aItem = new ResponseItemType ();
+    aItem.setCanonicalObjectTypeId (sCOT);
+    final ResponsePerCountryType aPerCountry = new ResponsePerCountryType ();
+    aPerCountry.setCountryCode ("AT");
+    for (final String sATU : new String [] { "AT-1", "AT-2" })
+    {
+      final ProvisionItemType aProvision = new ProvisionItemType ();
+      aProvision.setAtuCode (sATU);
+      aProvision.setDataOwnerId ("iso6523-actorid-upis::9999:" + sATU);
+      aPerCountry.addProvision (aProvision);
+    }
+    aItem.addResponsePerCountry (aPerCountry);
+    return aItem;
+  }
+
+  @Test
+  public void testLocalAndFallback ()
+  {
+    final AtomicInteger aCalls = new AtomicInteger (0);
+    final IIALClient aDelegate = (aCOTs, sATU, aErrorList) -> {
+      aCalls.incrementAndGet ();
+      final ResponseLookupRoutingInformationType ret = new ResponseLookupRoutingInformationType ();
+      for (final String sCOT : aCOTs)
+        ret.addResponseItem (_createItem (sCOT));
+      return ret;
+    };
+    try (final DcngIALClientPrefetch aPrefetch = new DcngIALClientPrefetch (aDelegate,
+                                                                           new CommonsLinkedHashSet <> (COT1),
+                                                                           Duration.ofHours (1),
+                                                                           null))
+    {
+      assertFalse (aPrefetch.hasData ());
+      // No data yet - ask the delegate
+      assertNotNull (aPrefetch.queryIAL (new CommonsLinkedHashSet <> (COT1), null, new ErrorList ()));
+      assertEquals (1, aCalls.get ());
+
+      assertTrue (aPrefetch.refresh ().isSuccess ());
+      assertTrue (aPrefetch.hasData ());
+      assertEquals (2, aCalls.get ());
+
+      // Answered locally
+      ResponseLookupRoutingInformationType aResponse = aPrefetch.queryIAL (new CommonsLinkedHashSet <> (COT1),
+                                                                             null,
+                                                                             new ErrorList ());
+      assertEquals (2, aResponse.getResponseItem ().get (0).getResponsePerCountry ().get (0).getProvision ().size ());
+      aResponse = aPrefetch.queryIAL (new CommonsLinkedHashSet <> (COT1), "AT-2", new ErrorList ());
+      assertEquals (1, aResponse.getResponseItem ().size ());
+      final ProvisionItemType aProvision = aResponse.getResponseItem ()
+                                                    .get (0)
+                                                    .getResponsePerCountry ()
+                                                    .get (0)
+                                                    .getProvision ()
+                                                    .get (0);
+      assertEquals ("AT-2", aProvision.getAtuCode ());
+      assertEquals (2, aCalls.get ());
+      assertEquals (2, aPrefetch.getLocalHitCount ());
+
+      // Unknown ATU code and not prefetched COT
+      assertNotNull (aPrefetch.queryIAL (new CommonsLinkedHashSet <> (COT1), "AT-3", new ErrorList ()));
+      assertNotNull (aPrefetch.queryIAL (new CommonsLinkedHashSet <> (COT1, COT2), null, new ErrorList ()));
+      assertEquals (4, aCalls.get ());
+      assertEquals (3, aPrefetch.getFallbackCount ());
+    }
+  }
+
+  @Test
+  public void testFailedRefreshKeepsData ()
+  {
+    final AtomicInteger aCalls = new AtomicInteger (0);
+    final IIALClient aDelegate = (aCOTs, sATU, aErrorList) -> {
+      if (aCalls.incrementAndGet () > 1)
+        return null;
+      final ResponseLookupRoutingInformationType ret = new ResponseLookupRoutingInformationType ();
+      ret.addResponseItem (_createItem (COT1));
+      return ret;
+    };
+    try (final DcngIALClientPrefetch aPrefetch = new DcngIALClientPrefetch (aDelegate,
+                                                                           new CommonsLinkedHashSet <> (COT1),
+                                                                           Duration.ofHours (1),
+                                                                           null))
+    {
+      assertTrue (aPrefetch.refresh ().isSuccess ());
+      assertTrue (aPrefetch.refresh ().isFailure ());
+      assertTrue (aPrefetch.hasData ());
+      assertNotNull (aPrefetch.queryIAL (new CommonsLinkedHashSet <> (COT1), "AT-1", new ErrorList ()));
+      assertEquals (2, aCalls.get ());
+    }
+  }
+
+  @Test
+  public void testExpiredDataFallsBack () throws Exception
+  {
+    final AtomicInteger aCalls = new AtomicInteger (0);
+    final IIALClient aDelegate = (aCOTs, sATU, aErrorList) -> {
+      aCalls.incrementAndGet ();
+      final ResponseLookupRoutingInformationType ret = new ResponseLookupRoutingInformationType ();
+      ret.addResponseItem (_createItem (COT1));
+      return ret;
+    };
+    try (final DcngIALClientPrefetch aPrefetch = new DcngIALClientPrefetch (aDelegate,
+                                                                           new CommonsLinkedHashSet <> (COT1),
+                                                                           Duration.ofHours (1),
+                                                                           Duration.ofMillis (50),
+                                                                           null))
+    {
+      assertTrue (aPrefetch.refresh ().isSuccess ());
+      assertFalse (aPrefetch.isDataExpired ());
+      assertNotNull (aPrefetch.queryIAL (new CommonsLinkedHashSet <> (COT1), null, new ErrorList ()));
+      assertEquals (1, aCalls.get ());
+      assertEquals (1, aPrefetch.getLocalHitCount ());
+
+      Thread.sleep (100);
+      assertTrue (aPrefetch.isDataExpired ());
+      assertNotNull (aPrefetch.queryIAL (new CommonsLinkedHashSet <> (COT1), null, new ErrorList ()));
+      assertEquals (2, aCalls.get ());
+      assertEquals (1, aPrefetch.getExpiredFallbackCount ());
+      assertTrue (aPrefetch.getMetricsAsJson ().getAsBoolean ("data.expired"));
+
+      // A successful refresh makes the data usable again
+      assertTrue (aPrefetch.refresh ().isSuccess ());
+      assertFalse (aPrefetch.isDataExpired ());
+      assertNotNull (aPrefetch.queryIAL (new CommonsLinkedHashSet <> (COT1), null, new ErrorList ()));
+      assertEquals (3, aCalls.get ());
+      assertEquals (2, aPrefetch.getLocalHitCount ());
+    }
+  }
+}
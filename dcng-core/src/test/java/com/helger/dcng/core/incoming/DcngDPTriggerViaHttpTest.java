@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.incoming;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import javax.annotation.Nonnull;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.mime.CMimeType;
+import com.helger.dcng.api.DcngConfig;
+import com.helger.dcng.api.me.model.MEMessage;
+import com.helger.dcng.api.me.model.MEPayload;
+import com.helger.dcng.core.api.DcngSendExecutor;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test class for class {@link DcngDPTriggerViaHttp}.
+ *
+ * @author Philip Helger
+ */
+public final class DcngDPTriggerViaHttpTest
+{
+  private static HttpServer s_aServer;
+  private static String s_sDestURL;
+
+  /**
+   * Simulates e.g. a compressed attachment that cannot be decompressed
+   */
+  private static final class MockReadException extends IllegalStateException
+  {
+    MockReadException ()
+    {
+      super ("Failed to decompress");
+    }
+  }
+
+  private static void _respond (@Nonnull final HttpExchange aExchange) throws IOException
+  {
+    try (final InputStream aIS = aExchange.getRequestBody ())
+    {
+      StreamHelper.getAllBytes (aIS);
+    }
+    final byte [] aResponse = "OK".getBytes ();
+    aExchange.sendResponseHeaders (200, aResponse.length);
+    try (final OutputStream aOS = aExchange.getResponseBody ())
+    {
+      aOS.write (aResponse);
+    }
+  }
+
+  @BeforeClass
+  public static void beforeClass () throws IOException
+  {
+    s_aServer = HttpServer.create (new InetSocketAddress ("localhost", 0), 0);
+    s_aServer.createContext ("/", DcngDPTriggerViaHttpTest::_respond);
+    s_aServer.start ();
+    s_sDestURL = "http://localhost:" + s_aServer.getAddress ().getPort () + "/";
+  }
+
+  @AfterClass
+  public static void afterClass ()
+  {
+    s_aServer.stop (0);
+  }
+
+  @Nonnull
+  private static MEMessage _createMsg (@Nonnull final IHasInputStream aData)
+  {
+    return MEMessage.builder ()
+                    .senderID (DcngConfig.getIdentifierFactory ()
+                                         .createParticipantIdentifier ("iso6523-actorid-upis", "9999:sender"))
+                    .receiverID (DcngConfig.getIdentifierFactory ()
+                                           .createParticipantIdentifier ("iso6523-actorid-upis", "9999:receiver"))
+                    .docTypeID (DcngConfig.getIdentifierFactory ()
+                                          .createDocumentTypeIdentifier ("urn:de4a-eu:CanonicalEvidenceType",
+                                                                         "doctype"))
+                    .processID (DcngConfig.getIdentifierFactory ()
+                                          .createProcessIdentifier ("urn:de4a-eu:MessageType", "process"))
+                    .addPayload (MEPayload.builder ()
+                                          .mimeType (CMimeType.APPLICATION_XML)
+                                          .randomContentID ()
+                                          .data (aData))
+                    .build ();
+  }
+
+  @Nonnull
+  private static IHasInputStream _createFailingSource (@Nonnull final MockReadException aError)
+  {
+    return new IHasInputStream ()
+    {
+      @Nonnull
+      public InputStream getInputStream ()
+      {
+        return new InputStream ()
+        {
+          @Override
+          public int read ()
+          {
+            throw aError;
+          }
+        };
+      }
+
+      public boolean isReadMultiple ()
+      {
+        return true;
+      }
+    };
+  }
+
+  @Test
+  public void testForwardStreaming ()
+  {
+    final MEMessage aMsg = _createMsg (new IHasInputStream ()
+    {
+      @Nonnull
+      public InputStream getInputStream ()
+      {
+        return new NonBlockingByteArrayInputStream ("<root />".getBytes ());
+      }
+
+      public boolean isReadMultiple ()
+      {
+        return true;
+      }
+    });
+    assertTrue (DcngDPTriggerViaHttp.forwardMessageWithExecutor (aMsg, s_sDestURL).isSuccess ());
+  }
+
+  @Test
+  public void testPayloadReadErrorIsPropagated ()
+  {
+    final MockReadException aError = new MockReadException ();
+    final MEMessage aMsg = _createMsg (_createFailingSource (aError));
+    try
+    {
+      DcngDPTriggerViaHttp.forwardMessage (aMsg, s_sDestURL);
+      fail ();
+    }
+    catch (final MockReadException ex)
+    {
+      assertSame (aError, ex);
+    }
+  }
+
+  @Test
+  public void testPayloadReadErrorIsPropagatedWithExecutor ()
+  {
+    DcngSendExecutor.initGlobally ();
+    try
+    {
+      final MockReadException aError = new MockReadException ();
+      final MEMessage aMsg = _createMsg (_createFailingSource (aError));
+      try
+      {
+        DcngDPTriggerViaHttp.forwardMessageWithExecutor (aMsg, s_sDestURL);
+        fail ();
+      }
+      catch (final MockReadException ex)
+      {
+        // Not wrapped into a CompletionException
+        assertSame (aError, ex);
+      }
+    }
+    finally
+    {
+      DcngSendExecutor.shutdownGlobally ();
+    }
+  }
+}
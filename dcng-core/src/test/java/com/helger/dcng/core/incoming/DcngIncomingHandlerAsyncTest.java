@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helger.dcng.core.incoming;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.mime.CMimeType;
+import com.helger.dcng.api.me.incoming.EMEIncomingQueueFullMode;
+import com.helger.dcng.api.me.incoming.MEIncomingQueueFullException;
+import com.helger.dcng.api.me.model.MEMessage;
+import com.helger.dcng.api.me.model.MEPayload;
+import com.helger.dcng.core.api.DcngSendExecutor;
+
+/**
+ * Test class for class {@link DcngIncomingHandlerAsync}.
+ *
+ * @author Philip Helger
+ */
+public final class DcngIncomingHandlerAsyncTest
+{
+  @Nonnull
+  private static MEMessage _createMsg ()
+  {
+    return MEMessage.builder ()
+                    .addPayload (MEPayload.builder ()
+                                          .mimeType (CMimeType.APPLICATION_XML)
+                                          .randomContentID ()
+                                          .data ("<root />".getBytes ()))
+                    .build ();
+  }
+
+  @Test
+  public void testAllHandled () throws Exception
+  {
+    final AtomicInteger aCount = new AtomicInteger (0);
+    try (final DcngIncomingHandlerAsync aHandler = new DcngIncomingHandlerAsync (x -> aCount.incrementAndGet (),
+                                                                                 2,
+                                                                                 10,
+                                                                                 EMEIncomingQueueFullMode.BLOCK))
+    {
+      for (int i = 0; i < 100; ++i)
+        aHandler.handleIncomingRequest (_createMsg ());
+      aHandler.close ();
+      assertEquals (100, aCount.get ());
+      assertEquals (100, aHandler.getQueuedCount ());
+      assertEquals (100, aHandler.getHandledSuccessCount ());
+      assertEquals (0, aHandler.getRejectedCount ());
+    }
+  }
+
+  @Test
+  public void testRejectWhenFull () throws Exception
+  {
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    try (final DcngIncomingHandlerAsync aHandler = new DcngIncomingHandlerAsync (x -> {
+      aStarted.countDown ();
+      try
+      {
+        aRelease.await ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+    }, 1, 1, EMEIncomingQueueFullMode.REJECT))
+    {
+      // Occupies the only worker
+      aHandler.handleIncomingRequest (_createMsg ());
+      assertTrue (aStarted.await (5, TimeUnit.SECONDS));
+      // Occupies the only queue slot
+      aHandler.handleIncomingRequest (_createMsg ());
+      try
+      {
+        aHandler.handleIncomingRequest (_createMsg ());
+        fail ();
+      }
+      catch (final MEIncomingQueueFullException ex)
+      {
+        // expected
+      }
+      assertEquals (1, aHandler.getRejectedCount ());
+      aRelease.countDown ();
+      aHandler.close ();
+      assertEquals (2, aHandler.getHandledSuccessCount ());
+    }
+  }
+
+  @Test
+  public void testDelegateRunsAsSendTask () throws Exception
+  {
+    // Forwarding must not be handed over to the send executor again
+    final AtomicInteger aInTask = new AtomicInteger (0);
+    try (final DcngIncomingHandlerAsync aHandler = new DcngIncomingHandlerAsync (x -> {
+      if (DcngSendExecutor.isInTask ())
+        aInTask.incrementAndGet ();
+    }, 2, 10, EMEIncomingQueueFullMode.BLOCK))
+    {
+      for (int i = 0; i < 10; ++i)
+        aHandler.handleIncomingRequest (_createMsg ());
+      aHandler.close ();
+      assertEquals (10, aInTask.get ());
+    }
+    assertFalse (DcngSendExecutor.isInTask ());
+  }
+}
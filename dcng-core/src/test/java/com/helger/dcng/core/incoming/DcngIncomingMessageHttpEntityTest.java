@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helger.dcng.core.incoming;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.dcng.api.rest.DCNGIncomingMessage;
+import com.helger.dcng.api.rest.DCNGIncomingMetadata;
+import com.helger.dcng.api.rest.DCNGPayload;
+import com.helger.dcng.api.rest.DcngRestJAXB;
+
+/**
+ * Test class for class {@link DcngIncomingMessageHttpEntity}.
+ *
+ * @author Philip Helger
+ */
+public final class DcngIncomingMessageHttpEntityTest
+{
+  @Test
+  public void testSameAsBytes () throws Exception
+  {
+    final DCNGIncomingMessage aMsg = new DCNGIncomingMessage ();
+    final DCNGIncomingMetadata aMetadata = new DCNGIncomingMetadata ();
+    aMetadata.setSenderID (DcngRestJAXB.createDCNGID ("iso6523-actorid-upis", "9999:sender"));
+    aMetadata.setReceiverID (DcngRestJAXB.createDCNGID ("iso6523-actorid-upis", "9999:receiver"));
+    aMetadata.setDocTypeID (DcngRestJAXB.createDCNGID ("urn:de4a-eu:CanonicalEvidenceType", "doctype"));
+    aMetadata.setProcessID (DcngRestJAXB.createDCNGID ("urn:de4a-eu:MessageType", "process"));
+    aMsg.setMetadata (aMetadata);
+    final byte [] aData = new byte [100_000];
+    for (int i = 0; i < aData.length; ++i)
+      aData[i] = (byte) i;
+    final DCNGPayload aPayload = new DCNGPayload ();
+    aPayload.setValue (aData);
+    aPayload.setContentID ("payload@de4a");
+    aPayload.setMimeType ("application/octet-stream");
+    aMsg.addPayload (aPayload);
+
+    final byte [] aExpected = DcngRestJAXB.incomingMessage ().getAsBytes (aMsg);
+    assertNotNull (aExpected);
+
+    try (final DcngIncomingMessageHttpEntity aEntity = new DcngIncomingMessageHttpEntity (aMsg))
+    {
+      assertTrue (aEntity.isChunked ());
+      assertTrue (aEntity.isRepeatable ());
+      assertEquals (-1, aEntity.getContentLength ());
+
+      // Write twice
+      for (int i = 0; i < 2; ++i)
+        try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+        {
+          aEntity.writeTo (aBAOS);
+          final DCNGIncomingMessage aRead = DcngRestJAXB.incomingMessage ().read (aBAOS.getAsInputStream ());
+          assertNotNull (aRead);
+          assertArrayEquals (aData, aRead.getPayloadAtIndex (0).getValue ());
+        }
+
+      assertArrayEquals (aExpected, StreamHelper.getAllBytes (aEntity.getContent ()));
+    }
+  }
+}
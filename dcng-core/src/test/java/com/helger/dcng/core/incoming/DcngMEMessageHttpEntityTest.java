@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helger.dcng.core.incoming;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.mime.CMimeType;
+import com.helger.dcng.api.DcngConfig;
+import com.helger.dcng.api.me.model.MEMessage;
+import com.helger.dcng.api.me.model.MEPayload;
+import com.helger.dcng.api.rest.DCNGIncomingMessage;
+import com.helger.dcng.api.rest.DcngRestJAXB;
+import com.helger.xml.schema.XMLSchemaCache;
+
+/**
+ * Test class for class {@link DcngMEMessageHttpEntity}.
+ *
+ * @author Philip Helger
+ */
+public final class DcngMEMessageHttpEntityTest
+{
+  @Test
+  public void testStreamedPayload () throws Exception
+  {
+    // Not a multiple of 3 and larger than one chunk
+    final byte [] aData = new byte [100_001];
+    for (int i = 0; i < aData.length; ++i)
+      aData[i] = (byte) (i * 7);
+
+    final MEMessage aMsg = MEMessage.builder ()
+                                    .senderID (DcngConfig.getIdentifierFactory ()
+                                                         .createParticipantIdentifier ("iso6523-actorid-upis",
+                                                                                       "9999:sender"))
+                                    .receiverID (DcngConfig.getIdentifierFactory ()
+                                                           .createParticipantIdentifier ("iso6523-actorid-upis",
+                                                                                         "9999:receiver"))
+                                    .docTypeID (DcngConfig.getIdentifierFactory ()
+                                                          .createDocumentTypeIdentifier ("urn:de4a-eu:CanonicalEvidenceType",
+                                                                                         "doctype"))
+                                    .processID (DcngConfig.getIdentifierFactory ()
+                                                          .createProcessIdentifier ("urn:de4a-eu:MessageType", "process"))
+                                    .addPayload (MEPayload.builder ()
+                                                          .mimeType (CMimeType.APPLICATION_OCTET_STREAM)
+                                                          .contentID ("payload@de4a")
+                                                          .data (new IHasInputStream ()
+                                                          {
+                                                            @Nonnull
+                                                            public InputStream getInputStream ()
+                                                            {
+                                                              return new NonBlockingByteArrayInputStream (aData);
+                                                            }
+
+                                                            public boolean isReadMultiple ()
+                                                            {
+                                                              return true;
+                                                            }
+                                                          }))
+                                    .build ();
+    assertFalse (aMsg.areAllPayloadsInMemory ());
+
+    try (final DcngMEMessageHttpEntity aEntity = new DcngMEMessageHttpEntity (aMsg);
+         final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      aEntity.writeTo (aBAOS);
+
+      // Must be valid according to the XSD - throws an exception otherwise
+      XMLSchemaCache.getInstance ()
+                    .getSchema (DcngRestJAXB.XSD_RES)
+                    .newValidator ()
+                    .validate (new StreamSource (aBAOS.getAsInputStream ()));
+
+      final DCNGIncomingMessage aRead = DcngRestJAXB.incomingMessage ().read (aBAOS.getAsInputStream ());
+      assertNotNull (aRead);
+      assertEquals ("9999:sender", aRead.getMetadata ().getSenderID ().getValue ());
+      assertEquals ("urn:de4a-eu:MessageType", aRead.getMetadata ().getProcessID ().getScheme ());
+      assertEquals (1, aRead.getPayloadCount ());
+      assertEquals ("payload@de4a", aRead.getPayloadAtIndex (0).getContentID ());
+      assertEquals (CMimeType.APPLICATION_OCTET_STREAM.getAsString (), aRead.getPayloadAtIndex (0).getMimeType ());
+      assertArrayEquals (aData, aRead.getPayloadAtIndex (0).getValue ());
+    }
+  }
+
+  @Test (expected = NullPointerException.class)
+  public void testMissingIdentifier () throws Exception
+  {
+    // The XSD requires all identifiers
+    final MEMessage aMsg = MEMessage.builder ()
+                                    .receiverID (DcngConfig.getIdentifierFactory ()
+                                                           .createParticipantIdentifier ("iso6523-actorid-upis",
+                                                                                         "9999:receiver"))
+                                    .addPayload (MEPayload.builder ()
+                                                          .mimeType (CMimeType.APPLICATION_OCTET_STREAM)
+                                                          .contentID ("payload@de4a")
+                                                          .data (new byte [] { 1, 2, 3 }))
+                                    .build ();
+    DcngMEMessageHttpEntity.writeMessage (aMsg, new NonBlockingByteArrayOutputStream ());
+  }
+}
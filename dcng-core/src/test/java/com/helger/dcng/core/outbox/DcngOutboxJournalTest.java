@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.helger.dcng.core.outbox;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.file.FileOperations;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Test class for class {@link DcngOutboxJournal}.
+ *
+ * @author Philip Helger
+ */
+public final class DcngOutboxJournalTest
+{
+  private static final File DIR = new File ("target/test-outbox");
+
+  @Before
+  @After
+  public void cleanup ()
+  {
+    FileOperations.deleteDirRecursiveIfExisting (DIR);
+  }
+
+  @Test
+  public void testRecover () throws Exception
+  {
+    final byte [] aPayload1 = "<msg1 />".getBytes (StandardCharsets.UTF_8);
+    final byte [] aPayload2 = "<msg2 />".getBytes (StandardCharsets.UTF_8);
+    final byte [] aPayload3 = "<msg3 />".getBytes (StandardCharsets.UTF_8);
+    String sID2;
+    try (final DcngOutboxJournal aJournal = new DcngOutboxJournal (DIR, 1024))
+    {
+      assertTrue (aJournal.getAllRecoveredEntries ().isEmpty ());
+      final DcngOutboxEntry e1 = aJournal.append ("http://localhost/1", aPayload1);
+      final DcngOutboxEntry e2 = aJournal.append ("http://localhost/2", aPayload2);
+      aJournal.append ("http://localhost/3", aPayload3);
+      assertArrayEquals (aPayload2, aJournal.readPayload (e2));
+      aJournal.markDone (e1);
+      sID2 = e2.getID ();
+    }
+
+    try (final DcngOutboxJournal aJournal = new DcngOutboxJournal (DIR, 1024))
+    {
+      final ICommonsList <DcngOutboxEntry> aEntries = aJournal.getAllRecoveredEntries ();
+      assertEquals (2, aEntries.size ());
+      assertEquals (sID2, aEntries.get (0).getID ());
+      assertEquals ("http://localhost/2", aEntries.get (0).getDestURL ());
+      assertArrayEquals (aPayload2, aJournal.readPayload (aEntries.get (0)));
+      assertArrayEquals (aPayload3, aJournal.readPayload (aEntries.get (1)));
+      for (final DcngOutboxEntry e : aEntries)
+        aJournal.markDone (e);
+    }
+
+    try (final DcngOutboxJournal aJournal = new DcngOutboxJournal (DIR, 1024))
+    {
+      assertTrue (aJournal.getAllRecoveredEntries ().isEmpty ());
+      // Only the active segment is left
+      assertEquals (1, aJournal.getSegmentCount ());
+    }
+  }
+
+  @Test
+  public void testSegmentRollingAndTornWrite () throws Exception
+  {
+    final byte [] aPayload = new byte [300];
+    try (final DcngOutboxJournal aJournal = new DcngOutboxJournal (DIR, 1024))
+    {
+      for (int i = 0; i < 10; ++i)
+      {
+        final DcngOutboxEntry e = aJournal.append ("http://localhost/x", aPayload);
+        if (i < 8)
+          aJournal.markDone (e);
+      }
+      // Old segments without pending entries were removed
+      assertTrue (aJournal.getSegmentCount () <= 2);
+    }
+
+    // Simulate a crash in the middle of a write
+    final File [] aFiles = DIR.listFiles ();
+    assertTrue (aFiles != null && aFiles.length > 0);
+    File aLast = aFiles[0];
+    for (final File f : aFiles)
+      if (f.getName ().compareTo (aLast.getName ()) > 0)
+        aLast = f;
+    try (final FileOutputStream aFOS = new FileOutputStream (aLast, true))
+    {
+      aFOS.write (new byte [] { 0, 0, 1, 0, 1, 2 });
+    }
+
+    try (final DcngOutboxJournal aJournal = new DcngOutboxJournal (DIR, 1024))
+    {
+      assertEquals (2, aJournal.getAllRecoveredEntries ().size ());
+    }
+  }
+
+  @Test
+  public void testStreamedPayload () throws Exception
+  {
+    // Larger than the internal buffer
+    final byte [] aPayload = new byte [200 * 1024];
+    for (int i = 0; i < aPayload.length; ++i)
+      aPayload[i] = (byte) i;
+    try (final DcngOutboxJournal aJournal = new DcngOutboxJournal (DIR, 1024 * 1024))
+    {
+      final DcngOutboxEntry e = aJournal.append ("http://localhost/x", aOS -> {
+        // Write in small pieces
+        for (int i = 0; i < aPayload.length; i += 1000)
+          aOS.write (aPayload, i, Math.min (1000, aPayload.length - i));
+      });
+      assertEquals (aPayload.length, e.getPayloadLength ());
+      try (final InputStream aIS = aJournal.getPayloadSource (e).getInputStream ())
+      {
+        assertArrayEquals (aPayload, StreamHelper.getAllBytes (aIS));
+      }
+    }
+
+    try (final DcngOutboxJournal aJournal = new DcngOutboxJournal (DIR, 1024 * 1024))
+    {
+      final ICommonsList <DcngOutboxEntry> aEntries = aJournal.getAllRecoveredEntries ();
+      assertEquals (1, aEntries.size ());
+      assertArrayEquals (aPayload, aJournal.readPayload (aEntries.get (0)));
+    }
+  }
+
+  @Test
+  public void testFailingWriter () throws Exception
+  {
+    final byte [] aPayload = "<msg />".getBytes (StandardCharsets.UTF_8);
+    try (final DcngOutboxJournal aJournal = new DcngOutboxJournal (DIR, 1024 * 1024))
+    {
+      try
+      {
+        aJournal.append ("http://localhost/x", aOS -> {
+          aOS.write (new byte [100 * 1024]);
+          throw new IllegalStateException ("Failed to read payload");
+        });
+        fail ();
+      }
+      catch (final IllegalStateException ex)
+      {
+        // expected
+      }
+      // The incomplete record was removed
+      final DcngOutboxEntry e = aJournal.append ("http://localhost/y", aPayload);
+      assertArrayEquals (aPayload, aJournal.readPayload (e));
+    }
+
+    try (final DcngOutboxJournal aJournal = new DcngOutboxJournal (DIR, 1024 * 1024))
+    {
+      final ICommonsList <DcngOutboxEntry> aEntries = aJournal.getAllRecoveredEntries ();
+      assertEquals (1, aEntries.size ());
+      assertEquals ("http://localhost/y", aEntries.get (0).getDestURL ());
+    }
+  }
+}
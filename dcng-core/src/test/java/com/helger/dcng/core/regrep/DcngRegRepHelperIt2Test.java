@@ -17,13 +17,25 @@
  */
 package com.helger.dcng.core.regrep;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
 
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Element;
 
+import com.helger.commons.io.ByteArrayWrapper;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.dcng.api.me.model.MEPayloadFileSource;
 import com.helger.regrep.RegRep4Reader;
 import com.helger.regrep.RegRep4Writer;
 import com.helger.regrep.query.QueryRequest;
@@ -74,4 +86,100 @@ public final class DcngRegRepHelperIt2Test
     final QueryResponse q2 = RegRep4Reader.queryResponse ().read (b);
     assertNotNull (q2);
   }
+
+  @Test
+  public void testWrapInRegRep ()
+  {
+    final byte [] aPayload = ("<?xml version='1.0'?>\n<!-- comment -->\n" +
+                              "<p:De4aRequest xmlns:p='urn:test' xmlns:x='urn:other' x:a='1'>" +
+                              "<p:Child>Text &amp; more</p:Child><NoNS b='2'><![CDATA[<raw>]]></NoNS>" +
+                              "</p:De4aRequest>").getBytes (StandardCharsets.UTF_8);
+    // Formatted via DOM
+    byte [] b = DcngRegRepHelperIt2.wrapInRegRep (true, null, new NonBlockingByteArrayInputStream (aPayload), true);
+    assertNotNull (b);
+    assertNotNull (DcngRegRepHelperIt2.extractPayload (new ByteArrayWrapper (b, false)));
+
+    // Streaming
+    b = DcngRegRepHelperIt2.wrapInRegRep (true, null, new NonBlockingByteArrayInputStream (aPayload), false);
+    assertNotNull (b);
+    final Element e = DcngRegRepHelperIt2.extractPayload (new ByteArrayWrapper (b, false));
+    assertNotNull (e);
+    assertEquals ("urn:test", e.getNamespaceURI ());
+    assertEquals ("De4aRequest", e.getLocalName ());
+    assertEquals ("1", e.getAttributeNS ("urn:other", "a"));
+    assertEquals ("Text & more", e.getFirstChild ().getTextContent ());
+    final Element eNoNS = (Element) e.getLastChild ();
+    assertEquals (null, eNoNS.getNamespaceURI ());
+    assertEquals ("2", eNoNS.getAttribute ("b"));
+    assertEquals ("<raw>", eNoNS.getTextContent ());
+
+    // Not well-formed
+    try
+    {
+      DcngRegRepHelperIt2.wrapInRegRep (true,
+                                        null,
+                                        new NonBlockingByteArrayInputStream ("<a><b></a>".getBytes (StandardCharsets.UTF_8)),
+                                        false);
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+  }
+
+  @Test
+  public void testWrapInRegRepSpooled ()
+  {
+    final byte [] aPayload = "<p:De4aRequest xmlns:p='urn:test'><p:Child>Text</p:Child></p:De4aRequest>".getBytes (StandardCharsets.UTF_8);
+    final IHasInputStream aSource = DcngRegRepHelperIt2.wrapInRegRepSpooled (true,
+                                                                             null,
+                                                                             new ByteArrayWrapper (aPayload, false));
+    assertNotNull (aSource);
+    try
+    {
+      final Element e = DcngRegRepHelperIt2.extractPayload (new ByteArrayWrapper (StreamHelper.getAllBytes (aSource.getInputStream ()),
+                                                                                  false));
+      assertNotNull (e);
+      assertEquals ("urn:test", e.getNamespaceURI ());
+      assertEquals ("De4aRequest", e.getLocalName ());
+    }
+    finally
+    {
+      if (aSource instanceof MEPayloadFileSource)
+        ((MEPayloadFileSource) aSource).deleteTemporaryFile ();
+    }
+  }
+
+  @Test
+  public void testExtractPayloadStreaming ()
+  {
+    final byte [] aPayload = ("<p:De4aEvidence xmlns:p='urn:test' xmlns:x='urn:other' x:a='1'>" +
+                              "<p:Child>Text</p:Child><NoNS /></p:De4aEvidence>").getBytes (StandardCharsets.UTF_8);
+    for (final boolean bIsRequest : new boolean [] { true, false })
+      for (final boolean bFormatted : new boolean [] { true, false })
+      {
+        final byte [] b = DcngRegRepHelperIt2.wrapInRegRep (bIsRequest,
+                                                            bIsRequest ? null : "req-1",
+                                                            new NonBlockingByteArrayInputStream (aPayload),
+                                                            bFormatted);
+        final DcngRegRepPayload aExtracted = DcngRegRepHelperIt2.extractPayloadStreaming (new NonBlockingByteArrayInputStream (b));
+        assertNotNull (aExtracted);
+        assertEquals (bIsRequest, aExtracted.isRequest ());
+        if (!bIsRequest)
+          assertTrue (new String (b, StandardCharsets.UTF_8).contains ("requestId=\"req-1\""));
+        assertTrue (aExtracted.getAsBytes ().length > 0);
+
+        final Element e = aExtracted.getAsElement ();
+        assertNotNull (e);
+        assertEquals ("urn:test", e.getNamespaceURI ());
+        assertEquals ("De4aEvidence", e.getLocalName ());
+        assertEquals ("1", e.getAttributeNS ("urn:other", "a"));
+        assertNotNull (e.getElementsByTagNameNS ("urn:test", "Child").item (0));
+        assertFalse (e.getElementsByTagName ("NoNS").getLength () == 0);
+      }
+
+    // Not RegRep
+    assertNull (DcngRegRepHelperIt2.extractPayloadStreaming (new NonBlockingByteArrayInputStream (aPayload)));
+  }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.smp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.helger.dcng.api.dd.IDDServiceMetadataProvider;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.peppolid.simple.doctype.SimpleDocumentTypeIdentifier;
+import com.helger.peppolid.simple.participant.SimpleParticipantIdentifier;
+import com.helger.peppolid.simple.process.SimpleProcessIdentifier;
+import com.helger.xsds.bdxr.smp1.ServiceMetadataType;
+
+/**
+ * Test class for class {@link DDServiceMetadataProviderCaching}.
+ *
+ * @author Philip Helger
+ */
+public final class DDServiceMetadataProviderCachingTest
+{
+  private static final IParticipantIdentifier PI_FOUND = new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9999:found");
+  private static final IParticipantIdentifier PI_NOT_FOUND = new SimpleParticipantIdentifier ("iso6523-actorid-upis",
+                                                                                              "9999:notfound");
+  private static final IDocumentTypeIdentifier DT = new SimpleDocumentTypeIdentifier ("urn:de4a-eu:CanonicalEvidenceType", "test");
+  private static final IProcessIdentifier PROC = new SimpleProcessIdentifier ("urn:de4a-eu:MessageType", "request");
+  private static final String TP = "bdxr-transport-ebms3-as4-v1p0";
+
+  @Test
+  public void testHitsAndNegativeCaching ()
+  {
+    final ServiceMetadataType aSM = new ServiceMetadataType ();
+    final AtomicInteger aCalls = new AtomicInteger (0);
+    final IDDServiceMetadataProvider aDelegate = (p, d, pr, t) -> {
+      aCalls.incrementAndGet ();
+      return p.equals (PI_FOUND) ? aSM : null;
+    };
+    try (final DDServiceMetadataProviderCaching aCache = new DDServiceMetadataProviderCaching (aDelegate,
+                                                                                             10,
+                                                                                             Duration.ofHours (1),
+                                                                                             Duration.ofHours (1),
+                                                                                             100))
+    {
+      for (int i = 0; i < 5; ++i)
+      {
+        assertSame (aSM, aCache.getServiceMetadata (PI_FOUND, DT, PROC, TP));
+        assertNull (aCache.getServiceMetadata (PI_NOT_FOUND, DT, PROC, TP));
+      }
+      assertEquals (2, aCalls.get ());
+      assertEquals (2, aCache.getMissCount ());
+      assertEquals (4, aCache.getHitCount ());
+      assertEquals (4, aCache.getNegativeHitCount ());
+
+      aCache.clearCache ();
+      assertSame (aSM, aCache.getServiceMetadata (PI_FOUND, DT, PROC, TP));
+      assertEquals (3, aCalls.get ());
+    }
+  }
+
+  @Test
+  public void testNoNegativeCaching ()
+  {
+    final AtomicInteger aCalls = new AtomicInteger (0);
+    final IDDServiceMetadataProvider aDelegate = (p, d, pr, t) -> {
+      aCalls.incrementAndGet ();
+      return null;
+    };
+    try (final DDServiceMetadataProviderCaching aCache = new DDServiceMetadataProviderCaching (aDelegate,
+                                                                                             10,
+                                                                                             Duration.ofHours (1),
+                                                                                             Duration.ZERO,
+                                                                                             100))
+    {
+      assertNull (aCache.getServiceMetadata (PI_NOT_FOUND, DT, PROC, TP));
+      assertNull (aCache.getServiceMetadata (PI_NOT_FOUND, DT, PROC, TP));
+      assertEquals (2, aCalls.get ());
+      assertEquals (0, aCache.getCacheSize ());
+    }
+  }
+
+  @Test
+  public void testSingleFlight () throws Exception
+  {
+    final ServiceMetadataType aSM = new ServiceMetadataType ();
+    final AtomicInteger aCalls = new AtomicInteger (0);
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final IDDServiceMetadataProvider aDelegate = (p, d, pr, t) -> {
+      aCalls.incrementAndGet ();
+      aStarted.countDown ();
+      try
+      {
+        aRelease.await ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+      return aSM;
+    };
+    final int nThreads = 8;
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+    try (final DDServiceMetadataProviderCaching aCache = new DDServiceMetadataProviderCaching (aDelegate,
+                                                                                             10,
+                                                                                             Duration.ofHours (1),
+                                                                                             Duration.ofHours (1),
+                                                                                             100))
+    {
+      final AtomicInteger aFound = new AtomicInteger (0);
+      final CountDownLatch aDone = new CountDownLatch (nThreads);
+      for (int i = 0; i < nThreads; ++i)
+        aES.submit ( () -> {
+          if (aCache.getServiceMetadata (PI_FOUND, DT, PROC, TP) != null)
+            aFound.incrementAndGet ();
+          aDone.countDown ();
+        });
+      aStarted.await ();
+      // Give the other threads time to queue up
+      Thread.sleep (200);
+      aRelease.countDown ();
+      aDone.await (10, TimeUnit.SECONDS);
+
+      assertEquals (nThreads, aFound.get ());
+      assertEquals (1, aCalls.get ());
+      assertNotNull (aCache.getMetricsAsJson ());
+    }
+    finally
+    {
+      aES.shutdownNow ();
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.core.smp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.helger.httpclient.HttpClientSettings;
+import com.helger.peppol.sml.ESML;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.simple.participant.SimpleParticipantIdentifier;
+import com.helger.smpclient.url.ISMPURLProvider;
+
+/**
+ * Test class for class {@link DcngSMPClientRegistry}.
+ *
+ * @author Philip Helger
+ */
+public final class DcngSMPClientRegistryTest
+{
+  @Test
+  public void testReuse () throws Exception
+  {
+    final AtomicInteger aResolutions = new AtomicInteger (0);
+    final ISMPURLProvider aURLProvider = (aParticipantID, sSMLZoneName) -> {
+      aResolutions.incrementAndGet ();
+      return URI.create ("http://" + aParticipantID.getValue ().replace (':', '-') + ".smp.example.org");
+    };
+    final IParticipantIdentifier aPI1 = new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9999:one");
+    final IParticipantIdentifier aPI2 = new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9999:two");
+
+    try (final DcngSMPClientRegistry aRegistry = new DcngSMPClientRegistry (aURLProvider,
+                                                                           new HttpClientSettings (),
+                                                                           2,
+                                                                           10,
+                                                                           Duration.ofMinutes (5),
+                                                                           100))
+    {
+      assertSame (aRegistry.getClient (aPI1, ESML.DIGIT_TEST), aRegistry.getClient (aPI1, ESML.DIGIT_TEST));
+      assertNotSame (aRegistry.getClient (aPI1, ESML.DIGIT_TEST), aRegistry.getClient (aPI2, ESML.DIGIT_TEST));
+      assertEquals (2, aResolutions.get ());
+      assertEquals (2, aRegistry.getClientCount ());
+      assertEquals (2, aRegistry.getDNSMissCount ());
+      assertEquals (2, aRegistry.getDNSHitCount ());
+
+      aRegistry.clearDNSCache ();
+      aRegistry.getClient (aPI1, ESML.DIGIT_TEST);
+      assertEquals (3, aResolutions.get ());
+      assertEquals (2, aRegistry.getClientCount ());
+    }
+  }
+
+  @Test
+  public void testDNSCacheIsBounded () throws Exception
+  {
+    final AtomicInteger aResolutions = new AtomicInteger (0);
+    final ISMPURLProvider aURLProvider = (aParticipantID, sSMLZoneName) -> {
+      aResolutions.incrementAndGet ();
+      return URI.create ("http://smp.example.org");
+    };
+
+    try (final DcngSMPClientRegistry aRegistry = new DcngSMPClientRegistry (aURLProvider,
+                                                                           new HttpClientSettings (),
+                                                                           2,
+                                                                           10,
+                                                                           Duration.ofMinutes (5),
+                                                                           3))
+    {
+      for (int i = 0; i < 10; ++i)
+        aRegistry.getSMPURI (new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9999:" + i), ESML.DIGIT_TEST);
+      assertEquals (10, aResolutions.get ());
+      assertEquals (3, aRegistry.getDNSCacheSize ());
+
+      // The most recent one is still cached
+      aRegistry.getSMPURI (new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9999:9"), ESML.DIGIT_TEST);
+      assertEquals (10, aResolutions.get ());
+
+      // The oldest one was evicted
+      aRegistry.getSMPURI (new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9999:0"), ESML.DIGIT_TEST);
+      assertEquals (11, aResolutions.get ());
+      assertEquals (3, aRegistry.getDNSCacheSize ());
+    }
+  }
+}
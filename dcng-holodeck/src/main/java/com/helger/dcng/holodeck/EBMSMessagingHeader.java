@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.holodeck;
+
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The relevant parts of an ebMS 3 <code>Messaging</code> SOAP header. It is
+ * created by walking the DOM of the SOAP header once, instead of evaluating
+ * one XPath expression per field. Only the first <code>UserMessage</code> or
+ * <code>SignalMessage</code> is considered. If a property name occurs more than
+ * once, the first occurrence is used.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@Immutable
+public final class EBMSMessagingHeader
+{
+  /**
+   * A single ebMS <code>Property</code> element.
+   */
+  @Immutable
+  public static final class Property
+  {
+    private final String m_sName;
+    private final String m_sType;
+    private final String m_sValue;
+
+    Property (@Nonnull final String sName, @Nullable final String sType, @Nonnull final String sValue)
+    {
+      m_sName = sName;
+      m_sType = sType;
+      m_sValue = sValue;
+    }
+
+    @Nonnull
+    public String getName ()
+    {
+      return m_sName;
+    }
+
+    /**
+     * @return The value of the <code>type</code> attribute or
+     *         <code>null</code> if it is not present.
+     */
+    @Nullable
+    public String getType ()
+    {
+      return m_sType;
+    }
+
+    @Nonnull
+    public String getValue ()
+    {
+      return m_sValue;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (null).append ("Name", m_sName)
+                                         .appendIfNotNull ("Type", m_sType)
+                                         .append ("Value", m_sValue)
+                                         .getToString ();
+    }
+  }
+
+  /**
+   * A single ebMS <code>PartInfo</code> element.
+   */
+  @Immutable
+  public static final class PartInfo
+  {
+    private final String m_sContentID;
+    private final ICommonsOrderedMap <String, Property> m_aProperties;
+
+    PartInfo (@Nonnull final String sContentID, @Nonnull final ICommonsOrderedMap <String, Property> aProperties)
+    {
+      m_sContentID = sContentID;
+      m_aProperties = aProperties;
+    }
+
+    /**
+     * @return The content ID from the <code>href</code> attribute without the
+     *         <code>cid:</code> prefix.
+     */
+    @Nonnull
+    public String getContentID ()
+    {
+      return m_sContentID;
+    }
+
+    @Nullable
+    public String getPropertyValue (@Nullable final String sName)
+    {
+      final Property aProperty = m_aProperties.get (sName);
+      return aProperty == null ? null : aProperty.getValue ();
+    }
+
+    @Nonnull
+    public String getMandatoryPropertyValue (@Nonnull final String sName)
+    {
+      return _getMandatoryValue (m_aProperties, sName, "part property");
+    }
+
+    @Nonnull
+    @ReturnsMutableCopy
+    public ICommonsOrderedMap <String, Property> getAllProperties ()
+    {
+      return m_aProperties.getClone ();
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (null).append ("ContentID", m_sContentID)
+                                         .append ("Properties", m_aProperties)
+                                         .getToString ();
+    }
+  }
+
+  private String m_sMessageID;
+  private String m_sRefToMessageID;
+  private String m_sService;
+  private String m_sServiceType;
+  private String m_sAction;
+  private String m_sConversationID;
+  private final ICommonsOrderedMap <String, Property> m_aMessageProperties = new CommonsLinkedHashMap <> ();
+  private final ICommonsOrderedMap <String, PartInfo> m_aPartInfos = new CommonsLinkedHashMap <> ();
+
+  private EBMSMessagingHeader ()
+  {}
+
+  @Nonnull
+  private static String _getMandatoryValue (@Nonnull final ICommonsOrderedMap <String, Property> aProperties,
+                                            @Nonnull final String sName,
+                                            @Nonnull final String sWhat)
+  {
+    final Property aProperty = aProperties.get (sName);
+    if (aProperty == null)
+      throw new IllegalArgumentException ("No ebMS " + sWhat + " '" + sName + "' found");
+    return aProperty.getValue ();
+  }
+
+  /**
+   * @return The ID of the message from <code>MessageInfo/MessageId</code>. May
+   *         be <code>null</code>.
+   */
+  @Nullable
+  public String getMessageID ()
+  {
+    return m_sMessageID;
+  }
+
+  /**
+   * @return The ID of the referenced message from
+   *         <code>MessageInfo/RefToMessageId</code>. May be <code>null</code>.
+   */
+  @Nullable
+  public String getRefToMessageID ()
+  {
+    return m_sRefToMessageID;
+  }
+
+  /**
+   * @return The value of <code>CollaborationInfo/Service</code>. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public String getService ()
+  {
+    return m_sService;
+  }
+
+  /**
+   * @return The type of <code>CollaborationInfo/Service</code>. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public String getServiceType ()
+  {
+    return m_sServiceType;
+  }
+
+  /**
+   * @return The value of <code>CollaborationInfo/Action</code>. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public String getAction ()
+  {
+    return m_sAction;
+  }
+
+  /**
+   * @return The value of <code>CollaborationInfo/ConversationId</code>. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public String getConversationID ()
+  {
+    return m_sConversationID;
+  }
+
+  /**
+   * Get the message property with the provided name.
+   *
+   * @param sName
+   *        The property name. May be <code>null</code>.
+   * @return <code>null</code> if no such property is present.
+   */
+  @Nullable
+  public Property getMessageProperty (@Nullable final String sName)
+  {
+    return m_aMessageProperties.get (sName);
+  }
+
+  @Nullable
+  public String getMessagePropertyValue (@Nullable final String sName)
+  {
+    final Property aProperty = m_aMessageProperties.get (sName);
+    return aProperty == null ? null : aProperty.getValue ();
+  }
+
+  /**
+   * Get the value of a message property that must be present.
+   *
+   * @param sName
+   *        The property name. May not be <code>null</code>.
+   * @return The property value. Never <code>null</code>.
+   * @throws IllegalArgumentException
+   *         If no such property is present
+   */
+  @Nonnull
+  public String getMandatoryMessagePropertyValue (@Nonnull final String sName)
+  {
+    return _getMandatoryValue (m_aMessageProperties, sName, "message property");
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedMap <String, Property> getAllMessageProperties ()
+  {
+    return m_aMessageProperties.getClone ();
+  }
+
+  /**
+   * Get the part info with the provided content ID.
+   *
+   * @param sContentID
+   *        The content ID without the <code>cid:</code> prefix. May be
+   *        <code>null</code>.
+   * @return <code>null</code> if no such part info is present.
+   */
+  @Nullable
+  public PartInfo getPartInfo (@Nullable final String sContentID)
+  {
+    return m_aPartInfos.get (sContentID);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedMap <String, PartInfo> getAllPartInfos ()
+  {
+    return m_aPartInfos.getClone ();
+  }
+
+  private static void _forEachChildElement (@Nonnull final Node aParent,
+                                            @Nonnull final String sLocalName,
+                                            @Nonnull final Consumer <Element> aConsumer)
+  {
+    for (Node aChild = aParent.getFirstChild (); aChild != null; aChild = aChild.getNextSibling ())
+      if (aChild.getNodeType () == Node.ELEMENT_NODE &&
+          EBMSUtils.NS_EBMS.equals (aChild.getNamespaceURI ()) &&
+          sLocalName.equals (aChild.getLocalName ()))
+        aConsumer.accept ((Element) aChild);
+  }
+
+  @Nullable
+  private static String _getAttribute (@Nonnull final Element aElement, @Nonnull final String sName)
+  {
+    return aElement.hasAttribute (sName) ? aElement.getAttribute (sName) : null;
+  }
+
+  private static void _readProperties (@Nonnull final Element aParent,
+                                       @Nonnull final ICommonsOrderedMap <String, Property> aTarget)
+  {
+    _forEachChildElement (aParent, "Property", eProperty -> {
+      final String sName = eProperty.getAttribute ("name");
+      aTarget.putIfAbsent (sName, new Property (sName, _getAttribute (eProperty, "type"), eProperty.getTextContent ()));
+    });
+  }
+
+  private void _readMessageInfo (@Nonnull final Element eMessageInfo)
+  {
+    _forEachChildElement (eMessageInfo, "MessageId", e -> {
+      if (m_sMessageID == null)
+        m_sMessageID = e.getTextContent ();
+    });
+    _forEachChildElement (eMessageInfo, "RefToMessageId", e -> {
+      if (m_sRefToMessageID == null)
+        m_sRefToMessageID = e.getTextContent ();
+    });
+  }
+
+  private void _readUserMessage (@Nonnull final Element eUserMessage)
+  {
+    for (Node aChild = eUserMessage.getFirstChild (); aChild != null; aChild = aChild.getNextSibling ())
+    {
+      if (aChild.getNodeType () != Node.ELEMENT_NODE || !EBMSUtils.NS_EBMS.equals (aChild.getNamespaceURI ()))
+        continue;
+
+      final Element eChild = (Element) aChild;
+      switch (eChild.getLocalName ())
+      {
+        case "MessageInfo":
+          _readMessageInfo (eChild);
+          break;
+        case "CollaborationInfo":
+          _forEachChildElement (eChild, "Service", e -> {
+            m_sService = e.getTextContent ();
+            m_sServiceType = _getAttribute (e, "type");
+          });
+          _forEachChildElement (eChild, "Action", e -> m_sAction = e.getTextContent ());
+          _forEachChildElement (eChild, "ConversationId", e -> m_sConversationID = e.getTextContent ());
+          break;
+        case "MessageProperties":
+          _readProperties (eChild, m_aMessageProperties);
+          break;
+        case "PayloadInfo":
+          _forEachChildElement (eChild, "PartInfo", ePartInfo -> {
+            final String sHref = ePartInfo.getAttribute ("href");
+            if (sHref.startsWith ("cid:"))
+            {
+              final ICommonsOrderedMap <String, Property> aProperties = new CommonsLinkedHashMap <> ();
+              _forEachChildElement (ePartInfo, "PartProperties", e -> _readProperties (e, aProperties));
+              final String sContentID = sHref.substring (4);
+              m_aPartInfos.putIfAbsent (sContentID, new PartInfo (sContentID, aProperties));
+            }
+          });
+          break;
+        default:
+          // Not needed
+          break;
+      }
+    }
+  }
+
+  /**
+   * Read the ebMS <code>Messaging</code> element from the provided SOAP header.
+   *
+   * @param aSOAPHeader
+   *        The SOAP header element. May not be <code>null</code>.
+   * @return The parsed header. Never <code>null</code>. If the SOAP header
+   *         does not contain a <code>Messaging</code> element, all fields are
+   *         empty.
+   */
+  @Nonnull
+  public static EBMSMessagingHeader parse (@Nonnull final Node aSOAPHeader)
+  {
+    ValueEnforcer.notNull (aSOAPHeader, "SOAPHeader");
+
+    final EBMSMessagingHeader ret = new EBMSMessagingHeader ();
+    for (Node aChild = aSOAPHeader.getFirstChild (); aChild != null; aChild = aChild.getNextSibling ())
+      if (aChild.getNodeType () == Node.ELEMENT_NODE &&
+          EBMSUtils.NS_EBMS.equals (aChild.getNamespaceURI ()) &&
+          "Messaging".equals (aChild.getLocalName ()))
+      {
+        for (Node aMsg = aChild.getFirstChild (); aMsg != null; aMsg = aMsg.getNextSibling ())
+          if (aMsg.getNodeType () == Node.ELEMENT_NODE && EBMSUtils.NS_EBMS.equals (aMsg.getNamespaceURI ()))
+          {
+            if ("UserMessage".equals (aMsg.getLocalName ()))
+            {
+              ret._readUserMessage ((Element) aMsg);
+              return ret;
+            }
+            if ("SignalMessage".equals (aMsg.getLocalName ()))
+            {
+              _forEachChildElement (aMsg, "MessageInfo", ret::_readMessageInfo);
+              return ret;
+            }
+          }
+      }
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("MessageID", m_sMessageID)
+                                       .append ("RefToMessageID", m_sRefToMessageID)
+                                       .append ("Service", m_sService)
+                                       .append ("ServiceType", m_sServiceType)
+                                       .append ("Action", m_sAction)
+                                       .append ("ConversationID", m_sConversationID)
+                                       .append ("MessageProperties", m_aMessageProperties)
+                                       .append ("PartInfos", m_aPartInfos)
+                                       .getToString ();
+  }
+}
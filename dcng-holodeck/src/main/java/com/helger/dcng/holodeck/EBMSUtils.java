@@ -32,9 +32,12 @@ import javax.naming.ldap.LdapName;
 import javax.naming.ldap.Rdn;
 import javax.xml.XMLConstants;
 import javax.xml.bind.DatatypeConverter;
+import javax.xml.namespace.QName;
 import javax.xml.soap.AttachmentPart;
+import javax.xml.soap.SOAPElement;
 import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPHeader;
+import javax.xml.soap.SOAPHeaderElement;
 import javax.xml.soap.SOAPMessage;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
@@ -44,11 +47,11 @@ import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.charset.CharsetHelper;
 import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.io.ByteArrayWrapper;
 import com.helger.commons.io.resource.ClassPathResource;
 import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.mime.CMimeType;
@@ -73,10 +76,8 @@ import com.helger.peppolid.factory.IIdentifierFactory;
 import com.helger.xml.microdom.IMicroDocument;
 import com.helger.xml.microdom.IMicroElement;
 import com.helger.xml.microdom.MicroDocument;
-import com.helger.xml.microdom.MicroElement;
 import com.helger.xml.microdom.serialize.MicroWriter;
 import com.helger.xml.namespace.MapBasedNamespaceContext;
-import com.helger.xml.serialize.read.DOMReader;
 import com.helger.xml.serialize.write.XMLWriterSettings;
 import com.helger.xml.transform.TransformSourceFactory;
 
@@ -206,122 +207,120 @@ public final class EBMSUtils
     return UUID.randomUUID ().toString () + "@" + ext;
   }
 
-  @Nullable
-  private static IMicroElement _property (@Nonnull final String sName, @Nullable final String sValue)
+  @Nonnull
+  private static SOAPElement _appendElement (@Nonnull final SOAPElement aParent, @Nonnull final String sLocalName) throws SOAPException
   {
-    if (sValue == null)
-    {
-      return null;
-    }
+    return aParent.addChildElement (new QName (NS_EBMS, sLocalName, "eb"));
+  }
 
-    final IMicroElement ret = new MicroElement (NS_EBMS, "Property");
-    ret.setAttribute ("name", sName).appendText (sValue);
-    return ret;
+  private static void _appendProperty (@Nonnull final SOAPElement aParent,
+                                       @Nonnull final String sName,
+                                       @Nullable final String sValue) throws SOAPException
+  {
+    if (sValue != null)
+      _appendElement (aParent, "Property").addAttribute (new QName ("name"), sName).addTextNode (sValue);
   }
 
-  /*
-   * The conversion procedure goes here
+  /**
+   * Write the ebMS <code>Messaging</code> header for the outbound message
+   * directly into the SAAJ SOAP header.
    */
-  public static SOAPMessage convert2MEOutboundAS4Message (final SubmissionMessageProperties metadata,
-                                                          final MEMessage meMessage) throws MEOutgoingException
+  private static void _appendMessagingHeader (@Nonnull final SOAPHeader aSOAPHeader,
+                                              @Nonnull final SubmissionMessageProperties metadata,
+                                              @Nonnull final MEMessage meMessage) throws SOAPException
   {
-    if (LOGGER.isDebugEnabled ())
+    final SOAPHeaderElement eMessaging = aSOAPHeader.addHeaderElement (new QName (NS_EBMS, "Messaging", "eb"));
+    eMessaging.setMustUnderstand (true);
+    final SOAPElement eUserMessage = _appendElement (eMessaging, "UserMessage");
+
     {
-      LOGGER.debug ("Convert submission data to SOAP Message");
+      final SOAPElement eMessageInfo = _appendElement (eUserMessage, "MessageInfo");
+      _appendElement (eMessageInfo, "Timestamp").addTextNode (DateTimeUtils.getCurrentTimestamp ());
+      final String ebmsMessageId = genereateEbmsMessageId (MEMConstants.MEM_AS4_SUFFIX);
+      _appendElement (eMessageInfo, "MessageId").addTextNode (ebmsMessageId);
     }
-
-    try
     {
-      final IMicroDocument aDoc = new MicroDocument ();
-      final IMicroElement eMessaging = aDoc.appendElement (NS_EBMS, "Messaging");
-      eMessaging.setAttribute (NS_SOAPENV, "mustUnderstand", "true");
-      final IMicroElement eUserMessage = eMessaging.appendElement (NS_EBMS, "UserMessage");
-
+      final SOAPElement ePartyInfo = _appendElement (eUserMessage, "PartyInfo");
       {
-        final IMicroElement eMessageInfo = eUserMessage.appendElement (NS_EBMS, "MessageInfo");
-        eMessageInfo.appendElement (NS_EBMS, "Timestamp").appendText (DateTimeUtils.getCurrentTimestamp ());
-        final String ebmsMessageId = genereateEbmsMessageId (MEMConstants.MEM_AS4_SUFFIX);
-        eMessageInfo.appendElement (NS_EBMS, "MessageId").appendText (ebmsMessageId);
+        final SOAPElement eFrom = _appendElement (ePartyInfo, "From");
+        // .addAttribute("type",
+        // "urn:oasis:names:tc:ebcore:partyid-type:unregistered")
+        _appendElement (eFrom, "PartyId").addTextNode (MEMHolodeckConfig.getMEMAS4TcPartyid ());
+        _appendElement (eFrom, "Role").addTextNode (MEMConstants.MEM_PARTY_ROLE);
       }
       {
-        final IMicroElement ePartyInfo = eUserMessage.appendElement (NS_EBMS, "PartyInfo");
-        {
-          final IMicroElement eFrom = ePartyInfo.appendElement (NS_EBMS, "From");
-          final IMicroElement partyId = eFrom.appendElement (NS_EBMS, "PartyId");
-          partyId
-                 // .setAttribute("type",
-                 // "urn:oasis:names:tc:ebcore:partyid-type:unregistered")
-                 .appendText (MEMHolodeckConfig.getMEMAS4TcPartyid ());
-          eFrom.appendElement (NS_EBMS, "Role").appendText (MEMConstants.MEM_PARTY_ROLE);
-        }
-        {
-          final IMicroElement eTo = ePartyInfo.appendElement (NS_EBMS, "To");
-          eTo.appendElement (NS_EBMS, "PartyId")
-             // .setAttribute("type",
-             // "urn:oasis:names:tc:ebcore:partyid-type:unregistered")
-             .appendText (MEMHolodeckConfig.getMEMAS4GwPartyID ());
-          eTo.appendElement (NS_EBMS, "Role").appendText (MEMConstants.GW_PARTY_ROLE);
-        }
+        final SOAPElement eTo = _appendElement (ePartyInfo, "To");
+        // .addAttribute("type",
+        // "urn:oasis:names:tc:ebcore:partyid-type:unregistered")
+        _appendElement (eTo, "PartyId").addTextNode (MEMHolodeckConfig.getMEMAS4GwPartyID ());
+        _appendElement (eTo, "Role").addTextNode (MEMConstants.GW_PARTY_ROLE);
       }
+    }
 
-      {
-        final IMicroElement eCollaborationInfo = eUserMessage.appendElement (NS_EBMS, "CollaborationInfo");
-        eCollaborationInfo.appendElement (NS_EBMS, "Service").appendText (MEMConstants.SERVICE);
-        eCollaborationInfo.appendElement (NS_EBMS, "Action").appendText (MEMConstants.ACTION_SUBMIT);
-        eCollaborationInfo.appendElement (NS_EBMS, "ConversationId").appendText (metadata.conversationId);
-      }
+    {
+      final SOAPElement eCollaborationInfo = _appendElement (eUserMessage, "CollaborationInfo");
+      _appendElement (eCollaborationInfo, "Service").addTextNode (MEMConstants.SERVICE);
+      _appendElement (eCollaborationInfo, "Action").addTextNode (MEMConstants.ACTION_SUBMIT);
+      _appendElement (eCollaborationInfo, "ConversationId").addTextNode (StringHelper.getNotNull (metadata.conversationId));
+    }
 
-      {
-        final IMicroElement eMessageProperties = eUserMessage.appendElement (NS_EBMS, "MessageProperties");
-        eMessageProperties.appendChild (_property ("ToPartyId", metadata.toPartyId));
-        eMessageProperties.appendChild (_property ("ToPartyIdType", metadata.toPartyIdType));
-        eMessageProperties.appendChild (_property ("ToPartyRole", metadata.toPartyRole));
-        // NOTE: ToPartyCertificate is the DER+BASE64 encoded X509 certificate.
-        // First decode as byte array, then parse it using
-        // CertificateFactory.getInstance("X509", "BC")
-        // recommended provider: BouncyCastleProvider
-        eMessageProperties.appendChild (_property ("ToPartyCertificate", metadata.toPartyCertificate));
-        eMessageProperties.appendChild (_property ("TargetURL", metadata.targetURL));
-        eMessageProperties.appendChild (_property ("Service", metadata.service));
-        eMessageProperties.appendChild (_property ("ServiceType", metadata.serviceType));
-        eMessageProperties.appendChild (_property ("Action", metadata.action));
-
-        eMessageProperties.appendChild (_property ("MessageId", metadata.messageId));
-        eMessageProperties.appendChild (_property ("RefToMessageId", metadata.refToMessageId));
-        eMessageProperties.appendChild (_property ("ConversationId", metadata.conversationId));
-
-        // split in type and value is not desired
-        eMessageProperties.appendChild (_property ("originalSender",
-                                                   metadata.senderId != null ? metadata.senderId.getURIEncoded () : null));
-        eMessageProperties.appendChild (_property ("finalRecipient",
-                                                   metadata.receiverId != null ? metadata.receiverId.getURIEncoded () : null));
-      }
+    {
+      final SOAPElement eMessageProperties = _appendElement (eUserMessage, "MessageProperties");
+      _appendProperty (eMessageProperties, "ToPartyId", metadata.toPartyId);
+      _appendProperty (eMessageProperties, "ToPartyIdType", metadata.toPartyIdType);
+      _appendProperty (eMessageProperties, "ToPartyRole", metadata.toPartyRole);
+      // NOTE: ToPartyCertificate is the DER+BASE64 encoded X509 certificate.
+      // First decode as byte array, then parse it using
+      // CertificateFactory.getInstance("X509", "BC")
+      // recommended provider: BouncyCastleProvider
+      _appendProperty (eMessageProperties, "ToPartyCertificate", metadata.toPartyCertificate);
+      _appendProperty (eMessageProperties, "TargetURL", metadata.targetURL);
+      _appendProperty (eMessageProperties, "Service", metadata.service);
+      _appendProperty (eMessageProperties, "ServiceType", metadata.serviceType);
+      _appendProperty (eMessageProperties, "Action", metadata.action);
+
+      _appendProperty (eMessageProperties, "MessageId", metadata.messageId);
+      _appendProperty (eMessageProperties, "RefToMessageId", metadata.refToMessageId);
+      _appendProperty (eMessageProperties, "ConversationId", metadata.conversationId);
 
+      // split in type and value is not desired
+      _appendProperty (eMessageProperties,
+                       "originalSender",
+                       metadata.senderId != null ? metadata.senderId.getURIEncoded () : null);
+      _appendProperty (eMessageProperties,
+                       "finalRecipient",
+                       metadata.receiverId != null ? metadata.receiverId.getURIEncoded () : null);
+    }
+
+    {
+      final SOAPElement ePayloadInfo = _appendElement (eUserMessage, "PayloadInfo");
+      for (final MEPayload aPayload : meMessage.payloads ())
       {
-        final IMicroElement ePayloadInfo = eUserMessage.appendElement (NS_EBMS, "PayloadInfo");
-        for (final MEPayload aPayload : meMessage.payloads ())
-        {
-          final IMicroElement ePartInfo = ePayloadInfo.appendElement (NS_EBMS, "PartInfo");
-          ePartInfo.setAttribute ("href", "cid:" + aPayload.getContentID ());
+        final SOAPElement ePartInfo = _appendElement (ePayloadInfo, "PartInfo");
+        ePartInfo.addAttribute (new QName ("href"), "cid:" + aPayload.getContentID ());
 
-          final IMicroElement ePartProperties = ePartInfo.appendElement (NS_EBMS, "PartProperties");
-          ePartProperties.appendChild (_property ("MimeType", aPayload.getMimeTypeString ()));
-        }
+        final SOAPElement ePartProperties = _appendElement (ePartInfo, "PartProperties");
+        _appendProperty (ePartProperties, "MimeType", aPayload.getMimeTypeString ());
       }
+    }
+  }
 
-      final MapBasedNamespaceContext aNSCtx = new MapBasedNamespaceContext ();
-      aNSCtx.addMapping ("env", NS_SOAPENV);
-      aNSCtx.addMapping ("eb", NS_EBMS);
-
-      // Convert to org.w3c.dom ....
-      final Element element = DOMReader.readXMLDOM (MicroWriter.getNodeAsBytes (aDoc,
-                                                                                new XMLWriterSettings ().setNamespaceContext (aNSCtx)))
-                                       .getDocumentElement ();
+  /*
+   * The conversion procedure goes here
+   */
+  public static SOAPMessage convert2MEOutboundAS4Message (final SubmissionMessageProperties metadata,
+                                                          final MEMessage meMessage) throws MEOutgoingException
+  {
+    if (LOGGER.isDebugEnabled ())
+    {
+      LOGGER.debug ("Convert submission data to SOAP Message");
+    }
 
-      // create a soap message based on this XML
+    try
+    {
+      // create a soap message and write the ebMS header directly into it
       final SOAPMessage message = SoapUtil.createEmptyMessage ();
-      final Node importNode = message.getSOAPHeader ().getOwnerDocument ().importNode (element, true);
-      message.getSOAPHeader ().appendChild (importNode);
+      _appendMessagingHeader (message.getSOAPHeader (), metadata, meMessage);
 
       for (final MEPayload payload : meMessage.payloads ())
       {
@@ -329,10 +328,16 @@ public final class EBMSUtils
         attachmentPart.setContentId ('<' + payload.getContentID () + '>');
         try
         {
-          attachmentPart.setRawContentBytes (payload.getData ().bytes (),
-                                             payload.getData ().getOffset (),
-                                             payload.getData ().size (),
-                                             payload.getMimeTypeString ());
+          if (payload.isDataInMemory ())
+          {
+            final ByteArrayWrapper aData = payload.getData ();
+            attachmentPart.setRawContentBytes (aData.bytes (), aData.getOffset (), aData.size (), payload.getMimeTypeString ());
+          }
+          else
+          {
+            // Don't read large payloads into memory first
+            attachmentPart.setRawContent (payload.openDataStream (), payload.getMimeTypeString ());
+          }
         }
         catch (final SOAPException e)
         {
@@ -367,22 +372,32 @@ public final class EBMSUtils
   {
     ValueEnforcer.notNull (message, "SOAPMessage");
 
+    return soap2MEMessage (message, parseMessagingHeader (message));
+  }
+
+  /**
+   * Process the inbound SOAPMessage and convert it to the MEMEssage
+   *
+   * @param message
+   *        the soap message to be converted to a MEMessage. Cannot be null
+   * @param header
+   *        the already parsed ebMS header of the message. Cannot be null
+   * @return the MEMessage object created from the supplied SOAPMessage
+   * @throws MEIncomingException
+   *         in case of error
+   * @since 0.2.16
+   */
+  public static MEMessage soap2MEMessage (@Nonnull final SOAPMessage message,
+                                          @Nonnull final EBMSMessagingHeader header) throws MEIncomingException
+  {
+    ValueEnforcer.notNull (message, "SOAPMessage");
+    ValueEnforcer.notNull (header, "Header");
+
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Convert message to submission data");
 
     final MEMessage.Builder meMessage = MEMessage.builder ();
 
-    // load the message properties
-    final SOAPHeader soapHeader;
-    try
-    {
-      soapHeader = message.getSOAPHeader ();
-    }
-    catch (final SOAPException e)
-    {
-      throw new MEIncomingException ("Failed to get SOAP Header", e);
-    }
-
     if (message.countAttachments () > 0)
     {
       // Read all attachments
@@ -392,18 +407,11 @@ public final class EBMSUtils
         final AttachmentPart att = (AttachmentPart) it.next ();
         // remove surplus characters
         final String href = RegExHelper.stringReplacePattern ("<|>", att.getContentId (), "");
-        final Node partInfo;
-        try
-        {
-          // throws exception if part info does not exist
-          partInfo = SoapXPathUtil.safeFindSingleNode (soapHeader, "//:PayloadInfo/:PartInfo[@href='cid:" + href + "']");
-        }
-        catch (final IllegalArgumentException ex)
-        {
+        final EBMSMessagingHeader.PartInfo partInfo = header.getPartInfo (href);
+        if (partInfo == null)
           throw new MEIncomingException ("ContentId: " + href + " was not found in PartInfo");
-        }
 
-        String sMimeType = SoapXPathUtil.getSingleNodeTextContent (partInfo, ".//:PartProperties/:Property[@name='MimeType']");
+        String sMimeType = partInfo.getMandatoryPropertyValue ("MimeType");
         if (sMimeType.startsWith ("cid:"))
         {
           sMimeType = sMimeType.substring (4);
@@ -432,10 +440,10 @@ public final class EBMSUtils
 
         try
         {
-          final Node charSetNode = SoapXPathUtil.findSingleNode (partInfo, ".//:PartProperties/:Property[@name='CharacterSet']/text()");
-          if (charSetNode != null)
+          final String sCharSet = partInfo.getPropertyValue ("CharacterSet");
+          if (sCharSet != null)
           {
-            final Charset aCharset = CharsetHelper.getCharsetFromNameOrNull (charSetNode.getNodeValue ());
+            final Charset aCharset = CharsetHelper.getCharsetFromNameOrNull (sCharSet);
             if (aCharset != null)
             {
               // Add charset to MIME type
@@ -469,44 +477,24 @@ public final class EBMSUtils
       }
     }
 
-    final Node messagePropsNode = SoapXPathUtil.safeFindSingleNode (soapHeader, "//:MessageProperties");
+    final EBMSMessagingHeader.Property aSender = header.getMessageProperty ("originalSender");
+    if (aSender == null)
+      throw new IllegalArgumentException ("No ebMS message property 'originalSender' found");
+    final String sSenderIdType = aSender.getType ();
+    final String sSenderId = aSender.getValue ();
 
-    String sSenderIdType;
-    try
-    {
-      sSenderIdType = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode, ".//:Property[@name='originalSender']/@type");
-    }
-    catch (final IllegalArgumentException ex)
-    {
-      sSenderIdType = null;
-    }
-    final String sSenderId = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode, ".//:Property[@name='originalSender']/text()");
-
-    String sReceiverIdType;
-    try
-    {
-      sReceiverIdType = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode, ".//:Property[@name='finalRecipient']/@type");
-    }
-    catch (final IllegalArgumentException ex)
-    {
-      sReceiverIdType = null;
-    }
-    final String sReceiverId = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode, ".//:Property[@name='finalRecipient']/text()");
+    final EBMSMessagingHeader.Property aReceiver = header.getMessageProperty ("finalRecipient");
+    if (aReceiver == null)
+      throw new IllegalArgumentException ("No ebMS message property 'finalRecipient' found");
+    final String sReceiverIdType = aReceiver.getType ();
+    final String sReceiverId = aReceiver.getValue ();
 
     // Document can never have a type attribute
-    final String sDoctypeId = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode, ".//:Property[@name='Action']/text()");
+    final String sDoctypeId = header.getMandatoryMessagePropertyValue ("Action");
 
     // For RC2 backwards compatibility
-    String sProcidType;
-    try
-    {
-      sProcidType = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode, ".//:Property[@name='ServiceType']/text()");
-    }
-    catch (final IllegalArgumentException ex)
-    {
-      sProcidType = null;
-    }
-    final String sProcid = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode, ".//:Property[@name='Service']/text()");
+    final String sProcidType = header.getMessagePropertyValue ("ServiceType");
+    final String sProcid = header.getMandatoryMessagePropertyValue ("Service");
 
     final IIdentifierFactory aIF = DcngConfig.getIdentifierFactory ();
     final IParticipantIdentifier sender = sSenderIdType != null ? aIF.createParticipantIdentifier (sSenderIdType, sSenderId)
@@ -532,124 +520,87 @@ public final class EBMSUtils
   {
     ValueEnforcer.notNull (sNotification, "Notification");
 
-    final RelayResult notification = new RelayResult ();
-
-    try
-    {
-      final Node messagePropsNode = SoapXPathUtil.safeFindSingleNode (sNotification.getSOAPHeader (), "//:MessageProperties");
-
-      final String messageId = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode, ".//:Property[@name='MessageId']/text()");
-      notification.setMessageID (messageId);
-
-      final String refToMessageId = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode,
-                                                                            ".//:Property[@name='RefToMessageId']/text()");
-      notification.setRefToMessageID (refToMessageId);
-
-      final String sSignalType = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode, ".//:Property[@name='Result']");
-      if (!"ERROR".equalsIgnoreCase (sSignalType))
-      {
-        notification.setResult (EResultType.RECEIPT);
-      }
-      else
-      {
-        notification.setResult (EResultType.ERROR);
-
-        try
-        {
-          final String errorCode = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode, ".//:Property[@name='ErrorCode']");
-          notification.setErrorCode (errorCode);
-        }
-        catch (final IllegalArgumentException e)
-        {
-          throw new IllegalStateException ("ErrorCode is mandatory for relay result errors.");
-        }
-
-        try
-        {
-          final String severity = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode, ".//:Property[@name='severity']");
-          notification.setSeverity (severity);
-        }
-        catch (final IllegalArgumentException e)
-        {
-          // TODO so what?
-        }
+    return soap2RelayResult (parseMessagingHeader (sNotification));
+  }
 
-        try
-        {
-          final String shortDesc = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode, ".//:Property[@name='ShortDescription']");
-          notification.setShortDescription (shortDesc);
-        }
-        catch (final IllegalArgumentException ignored)
-        {
-          // TODO so what?
-        }
+  /**
+   * Convert the already parsed ebMS header of a RelayResult message.
+   *
+   * @param header
+   *        The parsed header. May not be <code>null</code>.
+   * @return The RelayResult. Never <code>null</code>.
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static RelayResult soap2RelayResult (@Nonnull final EBMSMessagingHeader header)
+  {
+    ValueEnforcer.notNull (header, "Header");
 
-        try
-        {
-          final String desc = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode, ".//:Property[@name='Description']");
-          notification.setDescription (desc);
-        }
-        catch (final IllegalArgumentException ignored)
-        {
-          // TODO so what?
-        }
-      }
+    final RelayResult notification = new RelayResult ();
+    notification.setMessageID (header.getMandatoryMessagePropertyValue ("MessageId"));
+    notification.setRefToMessageID (header.getMandatoryMessagePropertyValue ("RefToMessageId"));
 
-      return notification;
-    }
-    catch (final RuntimeException ex)
+    final String sSignalType = header.getMandatoryMessagePropertyValue ("Result");
+    if (!"ERROR".equalsIgnoreCase (sSignalType))
     {
-      throw ex;
+      notification.setResult (EResultType.RECEIPT);
     }
-    catch (final SOAPException ex)
+    else
     {
-      throw new MEIncomingException ("SOAP error", ex);
+      notification.setResult (EResultType.ERROR);
+
+      final String errorCode = header.getMessagePropertyValue ("ErrorCode");
+      if (errorCode == null)
+        throw new IllegalStateException ("ErrorCode is mandatory for relay result errors.");
+      notification.setErrorCode (errorCode);
+
+      // All optional
+      notification.setSeverity (header.getMessagePropertyValue ("severity"));
+      notification.setShortDescription (header.getMessagePropertyValue ("ShortDescription"));
+      notification.setDescription (header.getMessagePropertyValue ("Description"));
     }
+    return notification;
   }
 
   public static SubmissionResult soap2SubmissionResult (final SOAPMessage sSubmissionResult) throws MEIncomingException
   {
     ValueEnforcer.notNull (sSubmissionResult, "SubmissionResult");
 
-    final SubmissionResult submissionResult = new SubmissionResult ();
-
-    try
-    {
-      final Node messagePropsNode = SoapXPathUtil.safeFindSingleNode (sSubmissionResult.getSOAPHeader (), "//:MessageProperties");
-
-      final String refToMessageID = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode,
-                                                                            ".//:Property[@name='RefToMessageId']/text()");
-      submissionResult.setRefToMessageID (refToMessageID);
-
-      final String sSignalType = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode, ".//:Property[@name='Result']");
-      if ("ERROR".equalsIgnoreCase (sSignalType))
-      {
-        submissionResult.setResult (EResultType.ERROR);
-
-        // description must be there when there is an error
-        final String description = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode, ".//:Property[@name='Description']");
-        submissionResult.setDescription (description);
+    return soap2SubmissionResult (parseMessagingHeader (sSubmissionResult));
+  }
 
-      }
-      else
-      {
-        submissionResult.setResult (EResultType.RECEIPT);
+  /**
+   * Convert the already parsed ebMS header of a SubmissionResult message.
+   *
+   * @param header
+   *        The parsed header. May not be <code>null</code>.
+   * @return The SubmissionResult. Never <code>null</code>.
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static SubmissionResult soap2SubmissionResult (@Nonnull final EBMSMessagingHeader header)
+  {
+    ValueEnforcer.notNull (header, "Header");
 
-        // message id is conditional, it must be there only in case of receipt
-        final String messageID = SoapXPathUtil.getSingleNodeTextContent (messagePropsNode, ".//:Property[@name='MessageId']/text()");
-        submissionResult.setMessageID (messageID);
-      }
+    final SubmissionResult submissionResult = new SubmissionResult ();
+    submissionResult.setRefToMessageID (header.getMandatoryMessagePropertyValue ("RefToMessageId"));
 
-      return submissionResult;
-    }
-    catch (final RuntimeException ex)
+    final String sSignalType = header.getMandatoryMessagePropertyValue ("Result");
+    if ("ERROR".equalsIgnoreCase (sSignalType))
     {
-      throw ex;
+      submissionResult.setResult (EResultType.ERROR);
+
+      // description must be there when there is an error
+      submissionResult.setDescription (header.getMandatoryMessagePropertyValue ("Description"));
     }
-    catch (final Exception ex)
+    else
     {
-      throw new MEIncomingException ("SOAP error", ex);
+      submissionResult.setResult (EResultType.RECEIPT);
+
+      // message id is conditional, it must be there only in case of receipt
+      submissionResult.setMessageID (header.getMandatoryMessagePropertyValue ("MessageId"));
     }
+    return submissionResult;
   }
 
   @Nonnull
@@ -781,23 +732,43 @@ public final class EBMSUtils
   }
 
   /**
-   * Find the //:MessageInfo/eb:MessageId.text and return it.
+   * Parse the ebMS <code>Messaging</code> header of the provided SOAP message.
    *
    * @param soapMessage
-   *        SOAP message to extract data from
-   * @return The message ID
+   *        SOAP message to extract data from. May not be <code>null</code>.
+   * @return The parsed header. Never <code>null</code>.
    * @throws MEIncomingException
-   *         if the message header does not contain an ebms message id
+   *         if the SOAP header cannot be accessed
+   * @since 0.2.16
    */
-  public static String getMessageId (final SOAPMessage soapMessage) throws MEIncomingException
+  @Nonnull
+  public static EBMSMessagingHeader parseMessagingHeader (@Nonnull final SOAPMessage soapMessage) throws MEIncomingException
   {
+    ValueEnforcer.notNull (soapMessage, "SOAPMessage");
     try
     {
-      return SoapXPathUtil.getSingleNodeTextContent (soapMessage.getSOAPHeader (), "//:MessageInfo/:MessageId");
+      return EBMSMessagingHeader.parse (soapMessage.getSOAPHeader ());
     }
     catch (final SOAPException e)
     {
-      throw new MEIncomingException ("Failed to find MessageId", e);
+      throw new MEIncomingException ("Failed to get SOAP Header", e);
     }
   }
+
+  /**
+   * Find the //:MessageInfo/eb:MessageId.text and return it.
+   *
+   * @param soapMessage
+   *        SOAP message to extract data from
+   * @return The message ID
+   * @throws MEIncomingException
+   *         if the message header does not contain an ebms message id
+   */
+  public static String getMessageId (final SOAPMessage soapMessage) throws MEIncomingException
+  {
+    final String ret = parseMessagingHeader (soapMessage).getMessageID ();
+    if (ret == null)
+      throw new MEIncomingException ("Failed to find MessageId");
+    return ret;
+  }
 }
@@ -19,7 +19,15 @@ package com.helger.dcng.holodeck;
 
 import java.util.ArrayList;
 import java.util.List;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.NotThreadSafe;
 import javax.xml.soap.SOAPException;
@@ -30,6 +38,8 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.UsedViaReflection;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
 import com.helger.commons.error.level.EErrorLevel;
 import com.helger.commons.url.URLHelper;
 import com.helger.dcng.api.error.EDcngErrorCode;
@@ -44,6 +54,7 @@ import com.helger.dcng.holodeck.notifications.InternalRelayResultHandler;
 import com.helger.dcng.holodeck.notifications.InternalSubmissionResultHandler;
 import com.helger.dcng.holodeck.notifications.RelayResult;
 import com.helger.dcng.holodeck.notifications.SubmissionResult;
+import com.helger.scope.IScope;
 import com.helger.scope.singleton.AbstractGlobalSingleton;
 
 import eu.de4a.kafkaclient.DE4AKafkaClient;
@@ -57,12 +68,21 @@ import eu.de4a.kafkaclient.DE4AKafkaClient;
 public class MEMDelegate extends AbstractGlobalSingleton
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (MEMDelegate.class);
+  /**
+   * The number of threads that evaluate received notifications of
+   * {@link #sendMessageAsync(IMERoutingInformation, MEMessage)}.
+   */
+  private static final int NOTIFICATION_THREADS = 4;
+
   private final List <IMessageHandler> messageHandlers = new ArrayList <> ();
   private final List <IRelayResultHandler> relayResultHandlers = new ArrayList <> ();
   private final List <ISubmissionResultHandler> submissionResultHandlers = new ArrayList <> ();
 
   private final InternalRelayResultHandler internalRelayResultHandler;
   private final InternalSubmissionResultHandler internalSRHandler;
+  // The notification futures are completed on the servlet thread or on the
+  // timing wheel ticker thread - neither may be blocked by the evaluation
+  private final ExecutorService notificationExecutor;
 
   @Deprecated
   @UsedViaReflection
@@ -77,6 +97,15 @@ public class MEMDelegate extends AbstractGlobalSingleton
 
     relayResultHandlers.add (internalRelayResultHandler);
     submissionResultHandlers.add (internalSRHandler);
+
+    notificationExecutor = new ThreadPoolExecutor (NOTIFICATION_THREADS,
+                                                   NOTIFICATION_THREADS,
+                                                   0L,
+                                                   TimeUnit.MILLISECONDS,
+                                                   new LinkedBlockingQueue <> (),
+                                                   new BasicThreadFactory.Builder ().namingPattern ("dcng-mem-notification-%d")
+                                                                                    .daemon (true)
+                                                                                    .build ());
   }
 
   @Nonnull
@@ -85,8 +114,50 @@ public class MEMDelegate extends AbstractGlobalSingleton
     return getGlobalSingleton (MEMDelegate.class);
   }
 
+  @Override
+  protected void onDestroy (@Nonnull final IScope aScopeInDestruction) throws Exception
+  {
+    internalRelayResultHandler.close ();
+    internalSRHandler.close ();
+    // Evaluate the notifications failed by closing the handlers
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (notificationExecutor);
+  }
+
+  /**
+   * @return The number of SubmissionResult correlations that are currently
+   *         pending.
+   * @since 0.2.16
+   */
+  @Nonnegative
+  public int getPendingSubmissionResultCount ()
+  {
+    return internalSRHandler.getPendingCorrelationCount ();
+  }
+
+  /**
+   * @return The number of RelayResult correlations that are currently
+   *         pending.
+   * @since 0.2.16
+   */
+  @Nonnegative
+  public int getPendingRelayResultCount ()
+  {
+    return internalRelayResultHandler.getPendingCorrelationCount ();
+  }
+
+  @Nonnull
+  private static <T> CompletableFuture <T> _failed (@Nonnull final MEOutgoingException ex)
+  {
+    final CompletableFuture <T> ret = new CompletableFuture <> ();
+    ret.completeExceptionally (ex);
+    return ret;
+  }
+
   /**
-   * The V1 message sending interface for the message exchange module
+   * The V1 message sending interface for the message exchange module. This
+   * blocks until the RelayResult was received - see
+   * {@link #sendMessageAsync(IMERoutingInformation, MEMessage)} for the non
+   * blocking version.
    *
    * @param gatewayRoutingMetadata
    *        The container for the endpoint information and docid/procid
@@ -96,6 +167,47 @@ public class MEMDelegate extends AbstractGlobalSingleton
    *         in case of error
    */
   public void sendMessage (final IMERoutingInformation gatewayRoutingMetadata, final MEMessage meMessage) throws MEOutgoingException
+  {
+    final CompletionStage <RelayResult> aRelayResult = sendMessageAsync (gatewayRoutingMetadata, meMessage);
+    try
+    {
+      aRelayResult.toCompletableFuture ().get ();
+    }
+    catch (final InterruptedException e)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new MEOutgoingException ("Wait for the RelayResult was interrupted.", e);
+    }
+    catch (final ExecutionException e)
+    {
+      if (e.getCause () instanceof MEOutgoingException)
+        throw (MEOutgoingException) e.getCause ();
+      throw new MEOutgoingException ("Failed to obtain the RelayResult", e.getCause ());
+    }
+  }
+
+  /**
+   * Send a message to the gateway and return without waiting for the
+   * SubmissionResult and the RelayResult. The returned stage is completed when
+   * the RelayResult is received, so no thread is blocked while waiting for the
+   * notifications. The received notifications are evaluated on an internal
+   * executor and not on the thread that delivered them.
+   *
+   * @param gatewayRoutingMetadata
+   *        The container for the endpoint information and docid/procid
+   * @param meMessage
+   *        the payloads and their metadata to be sent to the gateway.
+   * @return The stage that is completed with the positive RelayResult or
+   *         completed exceptionally with an {@link MEOutgoingException} if an
+   *         error notification was received or a notification timed out. Never
+   *         <code>null</code>.
+   * @throws MEOutgoingException
+   *         in case the message could not be sent to the gateway
+   * @since 0.2.16
+   */
+  @Nonnull
+  public CompletionStage <RelayResult> sendMessageAsync (final IMERoutingInformation gatewayRoutingMetadata,
+                                                         final MEMessage meMessage) throws MEOutgoingException
   {
     if (LOGGER.isDebugEnabled ())
     {
@@ -143,60 +255,67 @@ public class MEMDelegate extends AbstractGlobalSingleton
     // now that we have sent the object, first wait for the submission result
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Wait for SubmissionResult for " + messageID);
-    final SubmissionResult submissionResult = (SubmissionResult) internalSRHandler.obtainNotification (messageID, timeout);
+    // Evaluate the notifications on the own executor, so that logging and the
+    // Kafka send don't block the thread that completed the notification
+    return internalSRHandler.obtainNotificationAsync (messageID, timeout).thenComposeAsync (n -> {
+      final SubmissionResult submissionResult = (SubmissionResult) n;
 
-    LOGGER.info ("SubmissionResult " + submissionResult.getResult ());
-    if (submissionResult.getResult () != EResultType.RECEIPT)
-    {
-      if (LOGGER.isErrorEnabled ())
+      LOGGER.info ("SubmissionResult " + submissionResult.getResult ());
+      if (submissionResult.getResult () != EResultType.RECEIPT)
       {
-        LOGGER.error ("SubmitMessageId: " + submissionResult.getErrorCode ());
-        LOGGER.error ("C2-C3 MessageId: " + submissionResult.getRefToMessageID ());
-        LOGGER.error ("ErrorCode: " + submissionResult.getErrorCode ());
-        LOGGER.error ("Description: " + submissionResult.getDescription ());
+        if (LOGGER.isErrorEnabled ())
+        {
+          LOGGER.error ("SubmitMessageId: " + submissionResult.getErrorCode ());
+          LOGGER.error ("C2-C3 MessageId: " + submissionResult.getRefToMessageID ());
+          LOGGER.error ("ErrorCode: " + submissionResult.getErrorCode ());
+          LOGGER.error ("Description: " + submissionResult.getDescription ());
+        }
+
+        final String errorMesage = "Error from AS4 transmission: EToopErrorCode.ME_002 -- " +
+                                   "EBMS ERROR CODE: [" +
+                                   submissionResult.getErrorCode () +
+                                   "]\n";
+
+        DE4AKafkaClient.send (EErrorLevel.ERROR, () -> errorMesage);
+        return _failed (new MEOutgoingException (EDcngErrorCode.ME_002, errorMesage));
       }
 
-      final String errorMesage = "Error from AS4 transmission: EToopErrorCode.ME_002 -- " +
-                                 "EBMS ERROR CODE: [" +
-                                 submissionResult.getErrorCode () +
-                                 "]\n";
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Wait for RelayResult for " + messageID);
+      return internalRelayResultHandler.obtainNotificationAsync (submissionResult.getMessageID (), timeout);
+    }, notificationExecutor).thenComposeAsync (n -> {
+      final RelayResult relayResult = (RelayResult) n;
 
-      DE4AKafkaClient.send (EErrorLevel.ERROR, () -> errorMesage);
-      throw new MEOutgoingException (EDcngErrorCode.ME_002, errorMesage);
-    }
-
-    if (LOGGER.isDebugEnabled ())
-      LOGGER.debug ("Wait for RelayResult for " + messageID);
-    final RelayResult relayResult = (RelayResult) internalRelayResultHandler.obtainNotification (submissionResult.getMessageID (), timeout);
-
-    if (LOGGER.isInfoEnabled ())
-      LOGGER.info ("RelayResult " + relayResult.getResult ());
+      if (LOGGER.isInfoEnabled ())
+        LOGGER.info ("RelayResult " + relayResult.getResult ());
 
-    if (relayResult.getResult () != EResultType.RECEIPT)
-    {
-      if (LOGGER.isErrorEnabled ())
+      if (relayResult.getResult () != EResultType.RECEIPT)
       {
-        LOGGER.error ("SubmitMessageId: " + relayResult.getErrorCode ());
-        LOGGER.error ("C2-C3 MessageId: " + relayResult.getRefToMessageID ());
-        LOGGER.error ("ErrorCode: " + relayResult.getErrorCode ());
-        LOGGER.error ("Severity: " + relayResult.getSeverity ());
-        LOGGER.error ("ShortDescription: " + relayResult.getShortDescription ());
-        LOGGER.error ("Description: " + relayResult.getDescription ());
+        if (LOGGER.isErrorEnabled ())
+        {
+          LOGGER.error ("SubmitMessageId: " + relayResult.getErrorCode ());
+          LOGGER.error ("C2-C3 MessageId: " + relayResult.getRefToMessageID ());
+          LOGGER.error ("ErrorCode: " + relayResult.getErrorCode ());
+          LOGGER.error ("Severity: " + relayResult.getSeverity ());
+          LOGGER.error ("ShortDescription: " + relayResult.getShortDescription ());
+          LOGGER.error ("Description: " + relayResult.getDescription ());
+        }
+
+        final String errorMesage = "Error from AS4 transmission: " +
+                                   "EBMS ERROR CODE: " +
+                                   relayResult.getErrorCode () +
+                                   "\nSeverity: " +
+                                   relayResult.getSeverity () +
+                                   "\nShort Description: " +
+                                   relayResult.getShortDescription ();
+
+        DE4AKafkaClient.send (EErrorLevel.ERROR, () -> errorMesage);
+        if ("EBMS:0301".equals (relayResult.getErrorCode ()))
+          return _failed (new MEOutgoingException (EDcngErrorCode.ME_003, errorMesage));
+        return _failed (new MEOutgoingException (EDcngErrorCode.ME_004, errorMesage));
       }
-
-      final String errorMesage = "Error from AS4 transmission: " +
-                                 "EBMS ERROR CODE: " +
-                                 relayResult.getErrorCode () +
-                                 "\nSeverity: " +
-                                 relayResult.getSeverity () +
-                                 "\nShort Description: " +
-                                 relayResult.getShortDescription ();
-
-      DE4AKafkaClient.send (EErrorLevel.ERROR, () -> errorMesage);
-      if ("EBMS:0301".equals (relayResult.getErrorCode ()))
-        throw new MEOutgoingException (EDcngErrorCode.ME_003, errorMesage);
-      throw new MEOutgoingException (EDcngErrorCode.ME_004, errorMesage);
-    }
+      return CompletableFuture.completedFuture (relayResult);
+    }, notificationExecutor);
   }
 
   /**
@@ -290,15 +409,32 @@ public class MEMDelegate extends AbstractGlobalSingleton
    *         in case of error
    */
   public void dispatchInboundMessage (@Nonnull final SOAPMessage message) throws MEIncomingException
+  {
+    dispatchInboundMessage (message, EBMSUtils.parseMessagingHeader (message));
+  }
+
+  /**
+   * Dispatch the received inbound message form the AS4 gateway to the handlers
+   *
+   * @param message
+   *        message to be dispatched
+   * @param header
+   *        the already parsed ebMS header of the message
+   * @throws MEIncomingException
+   *         in case of error
+   * @since 0.2.16
+   */
+  public void dispatchInboundMessage (@Nonnull final SOAPMessage message,
+                                      @Nonnull final EBMSMessagingHeader header) throws MEIncomingException
   {
     if (LOGGER.isInfoEnabled ())
       LOGGER.info ("Received a Deliver message\n" + //
                    "   Inbound  AS4  Message ID: " +
-                   EBMSUtils.getMessageId (message));
+                   header.getMessageID ());
     try
     {
       // Do it only once
-      final MEMessage aMEMessage = EBMSUtils.soap2MEMessage (message);
+      final MEMessage aMEMessage = EBMSUtils.soap2MEMessage (message, header);
       for (final IMessageHandler messageHandler : messageHandlers)
       {
         messageHandler.handleMessage (aMEMessage);
@@ -319,11 +455,27 @@ public class MEMDelegate extends AbstractGlobalSingleton
    *         in case of error
    */
   public void dispatchRelayResult (final SOAPMessage notification) throws MEIncomingException
+  {
+    dispatchRelayResult (notification, EBMSUtils.parseMessagingHeader (notification));
+  }
+
+  /**
+   * Dispatch the received RelayResult to the registered listeners
+   *
+   * @param notification
+   *        Relay result
+   * @param header
+   *        the already parsed ebMS header of the notification
+   * @throws MEIncomingException
+   *         in case of error
+   * @since 0.2.16
+   */
+  public void dispatchRelayResult (final SOAPMessage notification, @Nonnull final EBMSMessagingHeader header) throws MEIncomingException
   {
     try
     {
       // Do it only once
-      final RelayResult relayResult = EBMSUtils.soap2RelayResult (notification);
+      final RelayResult relayResult = EBMSUtils.soap2RelayResult (header);
 
       if (LOGGER.isInfoEnabled ())
         LOGGER.info ("RelayResult for \n" + //
@@ -353,11 +505,28 @@ public class MEMDelegate extends AbstractGlobalSingleton
    *         in case of error
    */
   public void dispatchSubmissionResult (final SOAPMessage submissionResult) throws MEIncomingException
+  {
+    dispatchSubmissionResult (submissionResult, EBMSUtils.parseMessagingHeader (submissionResult));
+  }
+
+  /**
+   * Dispatch the received SubmissioNResult to the registered listeners
+   *
+   * @param submissionResult
+   *        Submission result SOAP message
+   * @param header
+   *        the already parsed ebMS header of the submission result
+   * @throws MEIncomingException
+   *         in case of error
+   * @since 0.2.16
+   */
+  public void dispatchSubmissionResult (final SOAPMessage submissionResult,
+                                        @Nonnull final EBMSMessagingHeader header) throws MEIncomingException
   {
     try
     {
       // Do it only once
-      final SubmissionResult sSubmissionResult = EBMSUtils.soap2SubmissionResult (submissionResult);
+      final SubmissionResult sSubmissionResult = EBMSUtils.soap2SubmissionResult (header);
 
       if (LOGGER.isInfoEnabled ())
         LOGGER.info ("SubmissionResult for \n" + //
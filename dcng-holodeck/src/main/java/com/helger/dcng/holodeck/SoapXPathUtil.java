@@ -25,21 +25,57 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
 import com.helger.xml.namespace.MapBasedNamespaceContext;
 import com.helger.xml.xpath.XPathHelper;
 
 /**
+ * Evaluate XPath expressions on SOAP messages. The default namespace of all
+ * expressions is the ebMS namespace. Compiled expressions are cached per
+ * thread, because neither {@link XPath} nor {@link XPathExpression} are thread
+ * safe.
+ *
  * @author myildiz at 15.02.2018.
  */
 @Immutable
 public final class SoapXPathUtil
 {
+  /**
+   * The maximum number of cached expressions per thread. All callers use
+   * constant expressions, so this is only a safety net.
+   */
+  private static final int MAX_CACHED_EXPRESSIONS = 256;
+
+  private static final class XPathCache
+  {
+    private final XPath m_aXPath = createXPath ();
+    private final ICommonsMap <String, XPathExpression> m_aExpressions = new CommonsHashMap <> ();
+
+    @Nonnull
+    XPathExpression getCompiled (@Nonnull final String sXPath) throws XPathExpressionException
+    {
+      XPathExpression ret = m_aExpressions.get (sXPath);
+      if (ret == null)
+      {
+        if (m_aExpressions.size () >= MAX_CACHED_EXPRESSIONS)
+          m_aExpressions.clear ();
+        ret = m_aXPath.compile (sXPath);
+        m_aExpressions.put (sXPath, ret);
+      }
+      return ret;
+    }
+  }
+
+  private static final ThreadLocal <XPathCache> CACHE = ThreadLocal.withInitial (XPathCache::new);
+
   private SoapXPathUtil ()
   {}
 
@@ -55,6 +91,12 @@ public final class SoapXPathUtil
     return ret;
   }
 
+  @Nonnull
+  private static XPathExpression _getCompiled (@Nonnull final String xpath) throws XPathExpressionException
+  {
+    return CACHE.get ().getCompiled (xpath);
+  }
+
   /**
    * Tries to find a single not wrt the provided XPATH and returns null if not
    * found
@@ -70,7 +112,7 @@ public final class SoapXPathUtil
   {
     try
     {
-      return (Node) createXPath ().evaluate (xpath, node, XPathConstants.NODE);
+      return (Node) _getCompiled (xpath).evaluate (node, XPathConstants.NODE);
     }
     catch (final XPathExpressionException e)
     {
@@ -121,7 +163,7 @@ public final class SoapXPathUtil
   {
     try
     {
-      final NodeList o = (NodeList) createXPath ().evaluate (xpath, node, XPathConstants.NODESET);
+      final NodeList o = (NodeList) _getCompiled (xpath).evaluate (node, XPathConstants.NODESET);
       if (o == null)
         throw new IllegalArgumentException ("No match for [" + xpath + "]");
 
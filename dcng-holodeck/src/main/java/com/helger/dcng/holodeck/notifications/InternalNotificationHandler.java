@@ -17,173 +17,292 @@
  */
 package com.helger.dcng.holodeck.notifications;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
 
 import com.helger.commons.CGlobal;
 import com.helger.commons.ValueEnforcer;
-import com.helger.commons.wrapper.Wrapper;
 import com.helger.dcng.api.me.outgoing.MEOutgoingException;
 
 /**
+ * Correlates received notifications with the threads waiting for them, based
+ * on the ID of the submitted message. Each pending correlation is a
+ * {@link CompletableFuture} in a {@link ConcurrentHashMap}, so no global lock
+ * is needed. Correlations are removed as soon as the waiter got the
+ * notification or timed out. Notifications that arrive before anyone waits for
+ * them are kept for {@link #EXPIRATION_MS} milliseconds. Timeouts are
+ * cancelled as soon as they are no longer needed, so that they don't keep the
+ * notifications alive.
+ *
  * @author yerlibilgin
  */
-public class InternalNotificationHandler
+public class InternalNotificationHandler implements AutoCloseable
 {
+  /** How long unclaimed notifications are kept */
+  public static final long EXPIRATION_MS = 5 * CGlobal.MILLISECONDS_PER_MINUTE;
 
   private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger (InternalNotificationHandler.class);
 
-  private final Map <String, Wrapper <Notification>> messageQueue = new HashMap <> ();
+  /**
+   * A single correlation.
+   */
+  private static final class Carrier extends CompletableFuture <Notification>
+  {
+    // The expiry of an unclaimed notification
+    private volatile NotificationTimingWheel.Timeout expiry;
+
+    void cancelExpiry ()
+    {
+      final NotificationTimingWheel.Timeout t = expiry;
+      if (t != null)
+        t.cancel ();
+    }
+  }
+
+  private final Map <String, Carrier> pendingNotifications = new ConcurrentHashMap <> ();
   private final String targetTypeName;
+  private final NotificationTimingWheel expiryWheel;
+  private final AtomicLong timedOutCount = new AtomicLong (0);
+  private final AtomicLong expiredCount = new AtomicLong (0);
 
   public InternalNotificationHandler (final Class <? extends Notification> targetType)
   {
     this.targetTypeName = targetType.getSimpleName ();
 
-    // create a timer to periodically purge the expired notification and
-    // submission
-    // result messages
-
-    final Timer timer = new Timer (targetTypeName + "-purgatory-timer");
-
-    final long delay = 5 * CGlobal.MILLISECONDS_PER_MINUTE; // 5 minutes
-    final long period = 5 * CGlobal.MILLISECONDS_PER_MINUTE; // 5 minutes
-
-    timer.scheduleAtFixedRate (new TimerTask ()
-    {
-      @Override
-      public void run ()
-      {
-        purgeExpiredNotifications ();
-      }
-    }, delay, period);
+    // 100ms ticks with 512 buckets - one round is ~51 seconds
+    this.expiryWheel = new NotificationTimingWheel (targetTypeName, 100, 512);
   }
 
   protected void handleNotification (final Notification notification)
   {
-    Wrapper <Notification> carrier;
-
     LOG.info ("Received a notification " + notification.getMessageID () + "\n\t" + notification.getRefToMessageID ());
-    // check the message quee and see if the new object is already there
-    synchronized (messageQueue)
+
+    final String submitMessageID = notification.getRefToMessageID ();
+    final Carrier newCarrier = new Carrier ();
+    final Carrier existingCarrier = pendingNotifications.putIfAbsent (submitMessageID, newCarrier);
+    if (existingCarrier != null)
+    {
+      // Someone is already waiting - this also removes the correlation
+      existingCarrier.complete (notification);
+    }
+    else
     {
-      final String submitMessageID = notification.getRefToMessageID ();
-      if (messageQueue.containsKey (submitMessageID))
+      // Nobody is waiting yet - keep it for a while
+      newCarrier.complete (notification);
+      try
       {
-        carrier = messageQueue.get (submitMessageID);
+        newCarrier.expiry = expiryWheel.schedule ( () -> {
+          if (pendingNotifications.remove (submitMessageID, newCarrier))
+          {
+            expiredCount.incrementAndGet ();
+            if (LOG.isDebugEnabled ())
+              LOG.debug ("Removed unclaimed " + targetTypeName + " for " + submitMessageID);
+          }
+        }, EXPIRATION_MS);
       }
-      else
+      catch (final IllegalStateException ex)
       {
-        carrier = new Wrapper <> ();
-        messageQueue.put (submitMessageID, carrier);
+        // Closed - don't keep it forever
+        pendingNotifications.remove (submitMessageID, newCarrier);
+        LOG.warn ("Ignoring " + targetTypeName + " for " + submitMessageID + " - the handler is already closed");
+        return;
       }
-    }
 
-    // now that we have a carrier, notify anyone who waits for it
-    synchronized (carrier)
-    {
-      carrier.set (notification);
-      carrier.notifyAll ();
+      // Claimed in the meantime
+      if (pendingNotifications.get (submitMessageID) != newCarrier)
+        newCarrier.cancelExpiry ();
     }
   }
 
+  private void _failClosed (@Nonnull final CompletableFuture <Notification> carrier)
+  {
+    carrier.completeExceptionally (new MEOutgoingException ("The " + targetTypeName + " handler is already closed"));
+  }
+
+  private void _timeout (@Nonnull final CompletableFuture <Notification> carrier, final String submitMessageID)
+  {
+    if (carrier.completeExceptionally (new MEOutgoingException ("Couldn't obtain a " +
+                                                                targetTypeName +
+                                                                " with a messageID " +
+                                                                submitMessageID)))
+      timedOutCount.incrementAndGet ();
+  }
+
   /**
-   * Wait for a {@link Notification} for a message with the given
-   * <code>submitMessageID</code> and for a maximum timeout of
-   * <code>timeout</code>. Return the obtained notification
+   * Get a {@link Notification} for a message with the given
+   * <code>submitMessageID</code> without blocking.
    *
    * @param submitMessageID
    *        the id of the submit message
    * @param timeout
-   *        maximum amount to wait for the object. 0 means forever
-   * @return the obtained {@link Notification}
-   * @throws MEOutgoingException
-   *         If waiting fails
+   *        maximum amount of milliseconds to wait for the object. 0 means
+   *        forever
+   * @return the future that is completed with the notification, or completed
+   *         exceptionally with an {@link MEOutgoingException} after the
+   *         timeout. Never <code>null</code>.
+   * @since 0.2.16
    */
-  public Notification obtainNotification (final String submitMessageID, final long timeout) throws MEOutgoingException
+  @Nonnull
+  public CompletableFuture <Notification> obtainNotificationAsync (final String submitMessageID, final long timeout)
   {
     ValueEnforcer.isGE0 (timeout, "timeout");
     ValueEnforcer.notNull (submitMessageID, "MessageId");
 
-    Wrapper <Notification> carrier = null;
-
     if (LOG.isDebugEnabled ())
       LOG.debug ("Wait for a " + targetTypeName + " with a messageID: " + submitMessageID);
 
-    synchronized (messageQueue)
+    final Carrier newCarrier = new Carrier ();
+    final Carrier existingCarrier = pendingNotifications.putIfAbsent (submitMessageID, newCarrier);
+    final Carrier carrier = existingCarrier != null ? existingCarrier : newCarrier;
+
+    // Remove the correlation as soon as it is done - immediately, if the
+    // notification was already received
+    carrier.whenComplete ( (n, ex) -> {
+      pendingNotifications.remove (submitMessageID, carrier);
+      carrier.cancelExpiry ();
+    });
+
+    if (timeout > 0 && !carrier.isDone ())
     {
-      if (messageQueue.containsKey (submitMessageID))
+      final NotificationTimingWheel.Timeout timeoutHandle;
+      try
       {
-        if (LOG.isDebugEnabled ())
-          LOG.debug ("we already have a " + targetTypeName + " message for " + submitMessageID);
-        carrier = messageQueue.remove (submitMessageID);
+        timeoutHandle = expiryWheel.schedule ( () -> _timeout (carrier, submitMessageID), timeout);
       }
-      else
+      catch (final IllegalStateException ex)
       {
-        // we don't have a carrier yet. Create one
-        if (LOG.isDebugEnabled ())
-          LOG.debug ("We don't have a " + targetTypeName + " waiter for " + submitMessageID + ". Create a waiter for it");
-
-        carrier = new Wrapper <> ();
-        messageQueue.put (submitMessageID, carrier);
+        // Closed - the timeout would never happen
+        _failClosed (carrier);
+        return carrier;
       }
+      carrier.whenComplete ( (n, ex) -> timeoutHandle.cancel ());
     }
+    else
+      if (expiryWheel.isClosed ())
+      {
+        // Nobody would ever complete it
+        _failClosed (carrier);
+      }
+
+    return carrier;
+  }
 
-    // we have a nunnull carrier here
-    if (carrier.get () == null)
+  /**
+   * Wait for a {@link Notification} for a message with the given
+   * <code>submitMessageID</code> and for a maximum timeout of
+   * <code>timeout</code>. Return the obtained notification
+   *
+   * @param submitMessageID
+   *        the id of the submit message
+   * @param timeout
+   *        maximum amount to wait for the object. 0 means forever
+   * @return the obtained {@link Notification}
+   * @throws MEOutgoingException
+   *         If waiting fails
+   */
+  public Notification obtainNotification (final String submitMessageID, final long timeout) throws MEOutgoingException
+  {
+    final CompletableFuture <Notification> carrier = obtainNotificationAsync (submitMessageID, timeout);
+    try
     {
-      // we haven't received the actual object yet. So wait for it
-      synchronized (carrier)
+      if (timeout > 0)
       {
+        // The timeout is handled by the expiry wheel - this is just a safety
+        // net in case the wheel no longer runs
         try
         {
-          carrier.wait (timeout);
+          return carrier.get (timeout + expiryWheel.getTickMS (), TimeUnit.MILLISECONDS);
         }
-        catch (final InterruptedException e)
+        catch (final TimeoutException e)
         {
-          if (LOG.isWarnEnabled ())
-            LOG.warn ("Wait for message " + submitMessageID + " was interrupted.");
-          Thread.currentThread ().interrupt ();
-          throw new MEOutgoingException ("Wait for message " + submitMessageID + " was interrupted.", e);
+          _timeout (carrier, submitMessageID);
+          // Either completed by the timeout or by a notification arriving just
+          // now
+          return carrier.get ();
         }
       }
+      return carrier.get ();
     }
-
-    if (carrier.get () == null)
+    catch (final InterruptedException e)
     {
-      throw new MEOutgoingException ("Couldn't obtain a " + targetTypeName + " with a messageID " + submitMessageID);
+      if (LOG.isWarnEnabled ())
+        LOG.warn ("Wait for message " + submitMessageID + " was interrupted.");
+      Thread.currentThread ().interrupt ();
+      throw new MEOutgoingException ("Wait for message " + submitMessageID + " was interrupted.", e);
     }
+    catch (final ExecutionException e)
+    {
+      if (e.getCause () instanceof MEOutgoingException)
+        throw (MEOutgoingException) e.getCause ();
+      throw new MEOutgoingException ("Couldn't obtain a " + targetTypeName + " with a messageID " + submitMessageID,
+                                     e.getCause ());
+    }
+    finally
+    {
+      // Don't leave the correlation behind, if waiting was interrupted
+      if (!carrier.isDone ())
+        pendingNotifications.remove (submitMessageID, carrier);
+    }
+  }
+
+  /**
+   * @return The number of correlations that are currently pending. This
+   *         includes waiters without a notification as well as notifications
+   *         without a waiter.
+   * @since 0.2.16
+   */
+  @Nonnegative
+  public int getPendingCorrelationCount ()
+  {
+    return pendingNotifications.size ();
+  }
 
-    return carrier.get ();
+  /**
+   * @return The number of waiters that timed out so far.
+   * @since 0.2.16
+   */
+  @Nonnegative
+  public long getTimedOutCount ()
+  {
+    return timedOutCount.get ();
   }
 
   /**
-   * Check the notification and subm.result queue and purge the expired messages
+   * @return The number of notifications that were removed so far, because
+   *         nobody waited for them.
+   * @since 0.2.16
    */
-  private void purgeExpiredNotifications ()
+  @Nonnegative
+  public long getExpiredCount ()
   {
-    final long currentTime = System.currentTimeMillis ();
-    synchronized (messageQueue)
-    {
-      final List <String> trash = new ArrayList <> ();
+    return expiredCount.get ();
+  }
 
-      for (final Map.Entry <String, Wrapper <Notification>> entry : messageQueue.entrySet ())
-      {
-        final String messageID = entry.getKey ();
-        final Wrapper <Notification> carrier = entry.getValue ();
-        if (carrier != null && carrier.get () != null && carrier.get ().isExpired (currentTime))
-        {
-          trash.add (messageID);
-        }
-      }
-      for (final String messageID : trash)
-      {
-        messageQueue.remove (messageID);
-      }
-    }
+  /**
+   * @return The number of scheduled timeouts and expiries that were neither
+   *         run nor cancelled yet.
+   * @since 0.2.16
+   */
+  @Nonnegative
+  public int getScheduledTimeoutCount ()
+  {
+    return expiryWheel.getScheduledCount ();
+  }
+
+  @Override
+  public void close ()
+  {
+    expiryWheel.close ();
+    // Nobody would ever time out the remaining waiters
+    for (final Carrier carrier : pendingNotifications.values ())
+      _failClosed (carrier);
   }
 }
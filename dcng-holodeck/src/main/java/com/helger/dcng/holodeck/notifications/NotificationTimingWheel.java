@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.holodeck.notifications;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+
+/**
+ * A simple hashed timing wheel to run actions after a delay. Scheduling is
+ * lock-free and costs O(1). A single daemon thread advances the wheel once per
+ * tick and only looks at the bucket of the current tick, instead of scanning
+ * all scheduled actions. Actions are never run before their delay, but may be
+ * run up to one tick later. Scheduled actions can be cancelled via the returned
+ * {@link Timeout}, which releases the action immediately.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@ThreadSafe
+final class NotificationTimingWheel implements AutoCloseable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (NotificationTimingWheel.class);
+
+  /**
+   * A scheduled action.
+   *
+   * @author Philip Helger
+   */
+  final class Timeout
+  {
+    private final long m_nDeadlineTick;
+    // null if the action was run or cancelled
+    private final AtomicReference <Runnable> m_aAction;
+
+    private Timeout (final long nDeadlineTick, @Nonnull final Runnable aAction)
+    {
+      m_nDeadlineTick = nDeadlineTick;
+      m_aAction = new AtomicReference <> (aAction);
+    }
+
+    @Nullable
+    private Runnable _take ()
+    {
+      final Runnable ret = m_aAction.getAndSet (null);
+      if (ret != null)
+        m_aScheduledCount.decrementAndGet ();
+      return ret;
+    }
+
+    /**
+     * Cancel the action, if it was not yet run. The action is no longer
+     * referenced afterwards.
+     *
+     * @return <code>true</code> if the action was cancelled,
+     *         <code>false</code> if it was already run or cancelled.
+     */
+    boolean cancel ()
+    {
+      return _take () != null;
+    }
+  }
+
+  private final long m_nTickMS;
+  private final long m_nStartNanos = System.nanoTime ();
+  // New entries are handed over to the ticker thread
+  private final Queue <Timeout> m_aNewEntries = new ConcurrentLinkedQueue <> ();
+  // Only accessed by the ticker thread
+  private final ICommonsList <ICommonsList <Timeout>> m_aBuckets;
+  private long m_nNextTick = 0;
+  private final AtomicInteger m_aScheduledCount = new AtomicInteger (0);
+  private final ScheduledExecutorService m_aTicker;
+  private volatile boolean m_bClosed = false;
+
+  NotificationTimingWheel (@Nonnull final String sName,
+                           @Nonnegative final long nTickMS,
+                           @Nonnegative final int nBucketCount)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.isGT0 (nTickMS, "TickMS");
+    ValueEnforcer.isGT0 (nBucketCount, "BucketCount");
+    m_nTickMS = nTickMS;
+    m_aBuckets = new CommonsArrayList <> (nBucketCount);
+    for (int i = 0; i < nBucketCount; ++i)
+      m_aBuckets.add (new CommonsArrayList <> ());
+    m_aTicker = new ScheduledThreadPoolExecutor (1,
+                                                 new BasicThreadFactory.Builder ().namingPattern (sName + "-expiry-%d")
+                                                                                  .daemon (true)
+                                                                                  .build ());
+    m_aTicker.scheduleAtFixedRate (this::_onTick, nTickMS, nTickMS, TimeUnit.MILLISECONDS);
+  }
+
+  private long _getElapsedMS ()
+  {
+    return TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - m_nStartNanos);
+  }
+
+  private void _onTick ()
+  {
+    final long nCurrentTick = _getElapsedMS () / m_nTickMS;
+    final int nBucketCount = m_aBuckets.size ();
+
+    // Move the new entries into their buckets. Entries that are already due
+    // go into the next bucket to be processed. Cancelled entries are dropped.
+    Timeout aNew;
+    while ((aNew = m_aNewEntries.poll ()) != null)
+      if (aNew.m_aAction.get () != null)
+        m_aBuckets.get ((int) (Math.max (aNew.m_nDeadlineTick, m_nNextTick) % nBucketCount)).add (aNew);
+
+    // Process all buckets up to the current tick
+    while (m_nNextTick <= nCurrentTick)
+    {
+      final long nTick = m_nNextTick;
+      m_aBuckets.get ((int) (nTick % nBucketCount)).removeIf (x -> {
+        // Cancelled entries are removed, entries of later rounds stay in the
+        // bucket
+        if (x.m_aAction.get () == null)
+          return true;
+        if (x.m_nDeadlineTick > nTick)
+          return false;
+        final Runnable aAction = x._take ();
+        if (aAction == null)
+        {
+          // Cancelled in the meantime
+          return true;
+        }
+        try
+        {
+          aAction.run ();
+        }
+        catch (final RuntimeException ex)
+        {
+          // Keep the ticker thread alive
+          LOGGER.error ("Error running expiry action", ex);
+        }
+        return true;
+      });
+      m_nNextTick++;
+    }
+  }
+
+  /**
+   * Run the provided action after the provided delay.
+   *
+   * @param aAction
+   *        The action to run. May not be <code>null</code>.
+   * @param nDelayMS
+   *        The delay in milliseconds. Must be &ge; 0.
+   * @return The handle to cancel the action. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the wheel is already closed, as the action would never run
+   */
+  @Nonnull
+  Timeout schedule (@Nonnull final Runnable aAction, @Nonnegative final long nDelayMS)
+  {
+    ValueEnforcer.notNull (aAction, "Action");
+    ValueEnforcer.isGE0 (nDelayMS, "DelayMS");
+    if (m_bClosed)
+      throw new IllegalStateException ("The timing wheel is already closed");
+
+    // Round up, so that the action is never run too early
+    final long nDeadlineTick = (_getElapsedMS () + nDelayMS + m_nTickMS - 1) / m_nTickMS;
+    final Timeout ret = new Timeout (nDeadlineTick, aAction);
+    m_aScheduledCount.incrementAndGet ();
+    m_aNewEntries.add (ret);
+    return ret;
+  }
+
+  /**
+   * @return The duration of a tick in milliseconds. Actions may run up to one
+   *         tick later than requested.
+   */
+  @Nonnegative
+  long getTickMS ()
+  {
+    return m_nTickMS;
+  }
+
+  /**
+   * @return <code>true</code> if the wheel was closed and no longer runs
+   *         actions.
+   */
+  boolean isClosed ()
+  {
+    return m_bClosed;
+  }
+
+  /**
+   * @return The number of actions that were scheduled but neither run nor
+   *         cancelled yet.
+   */
+  @Nonnegative
+  int getScheduledCount ()
+  {
+    return m_aScheduledCount.get ();
+  }
+
+  @Override
+  public void close ()
+  {
+    // Pending actions are dropped
+    m_bClosed = true;
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aTicker);
+  }
+}
@@ -35,12 +35,12 @@ import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.mime.CMimeType;
 import com.helger.dcng.api.me.incoming.MEIncomingException;
+import com.helger.dcng.holodeck.EBMSMessagingHeader;
 import com.helger.dcng.holodeck.EBMSUtils;
 import com.helger.dcng.holodeck.MEMConstants;
 import com.helger.dcng.holodeck.MEMDelegate;
 import com.helger.dcng.holodeck.MEMDumper;
 import com.helger.dcng.holodeck.SoapUtil;
-import com.helger.dcng.holodeck.SoapXPathUtil;
 
 /**
  * @author myildiz at 15.02.2018.
@@ -87,21 +87,25 @@ public class AS4InterfaceServlet extends HttpServlet
       }
 
       // get the action from the soap message
-      final String action = SoapXPathUtil.getSingleNodeTextContent (receivedMessage.getSOAPHeader (), "//:CollaborationInfo/:Action");
+      // parse the header only once
+      final EBMSMessagingHeader header = EBMSUtils.parseMessagingHeader (receivedMessage);
+      final String action = header.getAction ();
+      if (action == null)
+        throw new IllegalArgumentException ("No ebMS CollaborationInfo/Action found");
 
       switch (action)
       {
         case MEMConstants.ACTION_DELIVER:
-          processDelivery (receivedMessage);
+          processDelivery (receivedMessage, header);
           break;
 
         case MEMConstants.ACTION_RELAY:
-          processRelayResult (receivedMessage);
+          processRelayResult (receivedMessage, header);
           break;
 
         // does not exist in the standard CIT interface.
         case MEMConstants.ACTION_SUBMISSION_RESULT:
-          processSubmissionResult (receivedMessage);
+          processSubmissionResult (receivedMessage, header);
           break;
 
         default:
@@ -187,6 +191,11 @@ public class AS4InterfaceServlet extends HttpServlet
   }
 
   protected void processSubmissionResult (final SOAPMessage submissionResult) throws MEIncomingException
+  {
+    processSubmissionResult (submissionResult, EBMSUtils.parseMessagingHeader (submissionResult));
+  }
+
+  protected void processSubmissionResult (final SOAPMessage submissionResult, final EBMSMessagingHeader header) throws MEIncomingException
   {
     if (LOGGER.isDebugEnabled ())
     {
@@ -195,10 +204,15 @@ public class AS4InterfaceServlet extends HttpServlet
       LOGGER.debug ("\n" + SoapUtil.describe (submissionResult));
     }
 
-    MEMDelegate.getInstance ().dispatchSubmissionResult (submissionResult);
+    MEMDelegate.getInstance ().dispatchSubmissionResult (submissionResult, header);
   }
 
   protected void processRelayResult (final SOAPMessage notification) throws MEIncomingException
+  {
+    processRelayResult (notification, EBMSUtils.parseMessagingHeader (notification));
+  }
+
+  protected void processRelayResult (final SOAPMessage notification, final EBMSMessagingHeader header) throws MEIncomingException
   {
     if (LOGGER.isDebugEnabled ())
     {
@@ -207,10 +221,15 @@ public class AS4InterfaceServlet extends HttpServlet
       LOGGER.debug ("\n" + SoapUtil.describe (notification));
     }
 
-    MEMDelegate.getInstance ().dispatchRelayResult (notification);
+    MEMDelegate.getInstance ().dispatchRelayResult (notification, header);
   }
 
   protected void processDelivery (final SOAPMessage receivedMessage) throws MEIncomingException
+  {
+    processDelivery (receivedMessage, EBMSUtils.parseMessagingHeader (receivedMessage));
+  }
+
+  protected void processDelivery (final SOAPMessage receivedMessage, final EBMSMessagingHeader header) throws MEIncomingException
   {
     if (LOGGER.isDebugEnabled ())
     {
@@ -219,7 +238,7 @@ public class AS4InterfaceServlet extends HttpServlet
       LOGGER.debug ("\n" + SoapUtil.describe (receivedMessage));
     }
 
-    MEMDelegate.getInstance ().dispatchInboundMessage (receivedMessage);
+    MEMDelegate.getInstance ().dispatchInboundMessage (receivedMessage, header);
   }
 
   protected MimeHeaders readMimeHeaders (final HttpServletRequest req)
@@ -17,6 +17,8 @@
  */
 package com.helger.dcng.holodeck.spi;
 
+import java.util.concurrent.CompletionStage;
+
 import javax.annotation.Nonnull;
 import javax.servlet.ServletContext;
 
@@ -31,6 +33,7 @@ import com.helger.dcng.api.me.outgoing.IMERoutingInformation;
 import com.helger.dcng.api.me.outgoing.MEOutgoingException;
 import com.helger.dcng.holodeck.MEMDelegate;
 import com.helger.dcng.holodeck.MEMDumper;
+import com.helger.dcng.holodeck.notifications.RelayResult;
 
 import eu.de4a.kafkaclient.DE4AKafkaClient;
 
@@ -87,6 +90,29 @@ public class HolodeckMessageExchangeSPI implements IMessageExchangeSPI
     MEMDelegate.getInstance ().sendMessage (aRoutingInfo, aMessage);
   }
 
+  /**
+   * Send the message without waiting for the notifications of the gateway.
+   * {@link #sendOutgoing(IMERoutingInformation, MEMessage)} is the blocking
+   * facade on top of this.
+   *
+   * @param aRoutingInfo
+   *        Routing information. May not be <code>null</code>.
+   * @param aMessage
+   *        The message to be sent. May not be <code>null</code>.
+   * @return The stage that is completed with the RelayResult. Never
+   *         <code>null</code>.
+   * @throws MEOutgoingException
+   *         In case the message could not be sent to the gateway
+   * @since 0.2.16
+   */
+  @Nonnull
+  public CompletionStage <RelayResult> sendOutgoingAsync (@Nonnull final IMERoutingInformation aRoutingInfo,
+                                                          @Nonnull final MEMessage aMessage) throws MEOutgoingException
+  {
+    MEMDumper.dumpOutgoingMessage (aRoutingInfo, aMessage);
+    return MEMDelegate.getInstance ().sendMessageAsync (aRoutingInfo, aMessage);
+  }
+
   public void shutdown (@Nonnull final ServletContext aServletContext)
   {
     // empty
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.holodeck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.dcng.holodeck.notifications.RelayResult;
+import com.helger.dcng.holodeck.notifications.SubmissionResult;
+import com.helger.xml.XMLHelper;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Test class for class {@link EBMSMessagingHeader}.
+ *
+ * @author Philip Helger
+ */
+public final class EBMSMessagingHeaderTest
+{
+  @Nonnull
+  private static EBMSMessagingHeader _parse (final String sResult, final String sErrorCode)
+  {
+    String sXML = StreamHelper.getAllBytesAsString (new ClassPathResource ("relay-sr-template.txt"), StandardCharsets.UTF_8);
+    sXML = StringHelper.replaceAll (sXML, "${timestamp}", "2023-01-01T00:00:00Z");
+    sXML = StringHelper.replaceAll (sXML, "${messageId}", "ebms-id");
+    sXML = StringHelper.replaceAll (sXML, "${action}", MEMConstants.ACTION_RELAY);
+    sXML = StringHelper.replaceAll (sXML, "${propMessageId}", "msg-id");
+    sXML = StringHelper.replaceAll (sXML, "${propRefToMessageId}", "ref-id");
+    sXML = StringHelper.replaceAll (sXML, "${result}", sResult);
+    sXML = StringHelper.replaceAll (sXML, "${errorCode}", sErrorCode);
+    sXML = StringHelper.replaceAll (sXML, "${description}", "desc");
+
+    final Document aDoc = DOMReader.readXMLDOM (sXML);
+    assertNotNull (aDoc);
+    final Element eHeader = XMLHelper.getFirstChildElementOfName (aDoc.getDocumentElement (),
+                                                                EBMSUtils.NS_SOAPENV,
+                                                                "Header");
+    assertNotNull (eHeader);
+    return EBMSMessagingHeader.parse (eHeader);
+  }
+
+  @Test
+  public void testParse ()
+  {
+    final EBMSMessagingHeader aHeader = _parse ("RECEIPT", "");
+    assertEquals ("ebms-id", aHeader.getMessageID ());
+    assertNull (aHeader.getRefToMessageID ());
+    assertEquals ("http://www.toop.eu/edelivery/bit", aHeader.getService ());
+    assertNull (aHeader.getServiceType ());
+    assertEquals (MEMConstants.ACTION_RELAY, aHeader.getAction ());
+    assertEquals ("1", aHeader.getConversationID ());
+    assertEquals (5, aHeader.getAllMessageProperties ().size ());
+    assertEquals ("msg-id", aHeader.getMessagePropertyValue ("MessageId"));
+    assertEquals ("ref-id", aHeader.getMandatoryMessagePropertyValue ("RefToMessageId"));
+    assertNull (aHeader.getMessageProperty ("MessageId").getType ());
+    assertNull (aHeader.getMessagePropertyValue ("DoesNotExist"));
+    assertEquals (0, aHeader.getAllPartInfos ().size ());
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testMissingMandatoryProperty ()
+  {
+    _parse ("RECEIPT", "").getMandatoryMessagePropertyValue ("DoesNotExist");
+  }
+
+  @Test
+  public void testRelayResult ()
+  {
+    RelayResult aRR = EBMSUtils.soap2RelayResult (_parse ("RECEIPT", ""));
+    assertEquals ("msg-id", aRR.getMessageID ());
+    assertEquals ("ref-id", aRR.getRefToMessageID ());
+    assertSame (EResultType.RECEIPT, aRR.getResult ());
+
+    aRR = EBMSUtils.soap2RelayResult (_parse ("ERROR", "EBMS:0301"));
+    assertSame (EResultType.ERROR, aRR.getResult ());
+    assertEquals ("EBMS:0301", aRR.getErrorCode ());
+    assertEquals ("desc", aRR.getDescription ());
+    assertNull (aRR.getSeverity ());
+  }
+
+  @Test
+  public void testSubmissionResult ()
+  {
+    SubmissionResult aSR = EBMSUtils.soap2SubmissionResult (_parse ("RECEIPT", ""));
+    assertEquals ("msg-id", aSR.getMessageID ());
+    assertEquals ("ref-id", aSR.getRefToMessageID ());
+    assertSame (EResultType.RECEIPT, aSR.getResult ());
+
+    aSR = EBMSUtils.soap2SubmissionResult (_parse ("ERROR", ""));
+    assertSame (EResultType.ERROR, aSR.getResult ());
+    assertEquals ("desc", aSR.getDescription ());
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.holodeck;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.soap.SOAPHeader;
+import javax.xml.soap.SOAPMessage;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.mime.CMimeType;
+import com.helger.commons.timing.StopWatch;
+import com.helger.config.fallback.ConfigWithFallback;
+import com.helger.config.source.res.ConfigurationSourceProperties;
+import com.helger.dcng.api.DcngConfig;
+import com.helger.dcng.api.me.model.MEMessage;
+import com.helger.dcng.holodeck.test.SampleDataProvider;
+import com.helger.xml.namespace.MapBasedNamespaceContext;
+import com.helger.xml.xpath.XPathHelper;
+
+/**
+ * Compare the per-message cost of looking up the PartInfo elements of a SOAP
+ * message with multiple attachments with a new {@link XPath} and one query per
+ * attachment and with the cached expressions of {@link SoapXPathUtil} and a
+ * single pass. Additionally the time of parsing the complete ebMS header with
+ * {@link EBMSMessagingHeader} and the total time of
+ * {@link EBMSUtils#soap2MEMessage(SOAPMessage)} are measured.
+ *
+ * @author Philip Helger
+ */
+public final class MainSoapXPathUtilPerformance
+{
+  static
+  {
+    DcngConfig.setConfig (new ConfigWithFallback (new ConfigurationSourceProperties (new ClassPathResource ("toop-connector.elonia.unitTest.properties"),
+                                                                                     StandardCharsets.UTF_8)));
+  }
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainSoapXPathUtilPerformance.class);
+  private static final int ATTACHMENTS = 10;
+  private static final int WARMUP = 2_000;
+  private static final int RUNS = 20_000;
+
+  private interface IAction
+  {
+    void run () throws Exception;
+  }
+
+  private static void _run (final String sName, final IAction aAction) throws Exception
+  {
+    for (int i = 0; i < WARMUP; ++i)
+      aAction.run ();
+
+    final StopWatch aSW = StopWatch.createdStarted ();
+    for (int i = 0; i < RUNS; ++i)
+      aAction.run ();
+    aSW.stop ();
+    LOGGER.info (sName + ": " + (aSW.getNanos () / RUNS / 1000) + " microseconds per message");
+  }
+
+  private static Node _evaluateUncached (final Node aNode, final String sXPath) throws XPathExpressionException
+  {
+    // The way it was done before
+    final XPath aXPath = XPathHelper.createNewXPath ();
+    final MapBasedNamespaceContext aNamespaceCtx = new MapBasedNamespaceContext ();
+    aNamespaceCtx.addDefaultNamespaceURI (EBMSUtils.NS_EBMS);
+    aXPath.setNamespaceContext (aNamespaceCtx);
+    return (Node) aXPath.evaluate (sXPath, aNode, XPathConstants.NODE);
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    final MEMessage.Builder aBuilder = MEMessage.builder ();
+    for (int i = 0; i < ATTACHMENTS; ++i)
+    {
+      final int nIndex = i;
+      aBuilder.payload (x -> x.mimeType (CMimeType.APPLICATION_XML)
+                              .contentID ("payload" + nIndex + "@dp")
+                              .data ("<sample>payload " + nIndex + "</sample>", StandardCharsets.ISO_8859_1));
+    }
+    final MEMessage aMEMessage = aBuilder.build ();
+    final SubmissionMessageProperties aSubmissionData = EBMSUtils.inferSubmissionData (SampleDataProvider.createGatewayRoutingMetadata (EActingSide.DC,
+                                                                                                                                      "http://localhost:10001/backend"));
+    final SOAPMessage aSOAPMessage = EBMSUtils.convert2MEOutboundAS4Message (aSubmissionData, aMEMessage);
+    final SOAPHeader aSOAPHeader = aSOAPMessage.getSOAPHeader ();
+
+    _run ("New XPath and query per attachment", () -> {
+      for (int i = 0; i < ATTACHMENTS; ++i)
+      {
+        final Node aPartInfo = _evaluateUncached (aSOAPHeader, "//:PayloadInfo/:PartInfo[@href='cid:payload" + i + "@dp']");
+        _evaluateUncached (aPartInfo, ".//:PartProperties/:Property[@name='MimeType']");
+      }
+    });
+    _run ("Cached XPath and single pass", () -> {
+      final ICommonsMap <String, Node> aPartInfos = new CommonsHashMap <> ();
+      for (final Node aPartInfo : SoapXPathUtil.listNodes (aSOAPHeader, "//:PayloadInfo/:PartInfo"))
+        aPartInfos.put (((Element) aPartInfo).getAttribute ("href").substring (4), aPartInfo);
+      for (int i = 0; i < ATTACHMENTS; ++i)
+        SoapXPathUtil.findSingleNode (aPartInfos.get ("payload" + i + "@dp"), ".//:PartProperties/:Property[@name='MimeType']");
+    });
+    _run ("EBMSMessagingHeader.parse", () -> EBMSMessagingHeader.parse (aSOAPHeader));
+    _run ("soap2MEMessage", () -> EBMSUtils.soap2MEMessage (aSOAPMessage));
+  }
+}
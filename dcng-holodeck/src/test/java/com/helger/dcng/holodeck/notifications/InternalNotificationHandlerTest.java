@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.holodeck.notifications;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import com.helger.dcng.api.me.outgoing.MEOutgoingException;
+
+/**
+ * Test class for class {@link InternalNotificationHandler}.
+ *
+ * @author Philip Helger
+ */
+public final class InternalNotificationHandlerTest
+{
+  private static RelayResult _create (final String sRefToMessageID)
+  {
+    final RelayResult ret = new RelayResult ();
+    ret.setMessageID ("msg-" + sRefToMessageID);
+    ret.setRefToMessageID (sRefToMessageID);
+    return ret;
+  }
+
+  @Test
+  public void testNotificationAfterWait () throws Exception
+  {
+    try (final InternalNotificationHandler aHandler = new InternalRelayResultHandler ())
+    {
+      final CompletableFuture <Notification> aFuture = aHandler.obtainNotificationAsync ("id1", 10_000);
+      assertFalse (aFuture.isDone ());
+      assertEquals (1, aHandler.getPendingCorrelationCount ());
+
+      final RelayResult aRR = _create ("id1");
+      aHandler.handleNotification (aRR);
+      assertSame (aRR, aFuture.get ());
+      assertEquals (0, aHandler.getPendingCorrelationCount ());
+      // The timeout is no longer needed
+      assertEquals (0, aHandler.getScheduledTimeoutCount ());
+    }
+  }
+
+  @Test
+  public void testNotificationBeforeWait () throws Exception
+  {
+    try (final InternalNotificationHandler aHandler = new InternalRelayResultHandler ())
+    {
+      final RelayResult aRR = _create ("id2");
+      aHandler.handleNotification (aRR);
+      assertEquals (1, aHandler.getPendingCorrelationCount ());
+      assertEquals (1, aHandler.getScheduledTimeoutCount ());
+
+      assertSame (aRR, aHandler.obtainNotification ("id2", 10_000));
+      assertEquals (0, aHandler.getPendingCorrelationCount ());
+      // The expiry is no longer needed
+      assertEquals (0, aHandler.getScheduledTimeoutCount ());
+    }
+  }
+
+  @Test
+  public void testTimeout () throws Exception
+  {
+    try (final InternalNotificationHandler aHandler = new InternalRelayResultHandler ())
+    {
+      try
+      {
+        aHandler.obtainNotification ("id3", 200);
+        fail ();
+      }
+      catch (final MEOutgoingException ex)
+      {
+        // expected
+      }
+      assertEquals (0, aHandler.getPendingCorrelationCount ());
+      assertEquals (1, aHandler.getTimedOutCount ());
+
+      // A late notification is kept until it expires
+      aHandler.handleNotification (_create ("id3"));
+      assertEquals (1, aHandler.getPendingCorrelationCount ());
+      assertTrue (aHandler.obtainNotificationAsync ("id3", 0).isDone ());
+      assertEquals (0, aHandler.getPendingCorrelationCount ());
+    }
+  }
+
+  @Test
+  public void testInterruptedWait () throws Exception
+  {
+    try (final InternalNotificationHandler aHandler = new InternalRelayResultHandler ())
+    {
+      Thread.currentThread ().interrupt ();
+      try
+      {
+        // Wait forever
+        aHandler.obtainNotification ("id4", 0);
+        fail ();
+      }
+      catch (final MEOutgoingException ex)
+      {
+        // expected
+        assertTrue (Thread.interrupted ());
+      }
+      assertEquals (0, aHandler.getPendingCorrelationCount ());
+    }
+  }
+
+  @Test
+  public void testClose () throws Exception
+  {
+    final InternalNotificationHandler aHandler = new InternalRelayResultHandler ();
+    final CompletableFuture <Notification> aFuture = aHandler.obtainNotificationAsync ("id5", 0);
+    aHandler.close ();
+    // Pending waiters don't wait forever
+    assertTrue (aFuture.isCompletedExceptionally ());
+
+    // New waiters fail fast, with and without timeout
+    for (final long nTimeout : new long [] { 0, 10_000 })
+      try
+      {
+        aHandler.obtainNotification ("id6", nTimeout);
+        fail ();
+      }
+      catch (final MEOutgoingException ex)
+      {
+        // expected
+      }
+    assertEquals (0, aHandler.getPendingCorrelationCount ());
+  }
+}
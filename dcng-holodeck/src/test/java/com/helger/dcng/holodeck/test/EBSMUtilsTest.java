@@ -17,6 +17,7 @@
  */
 package com.helger.dcng.holodeck.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 import java.io.IOException;
@@ -33,7 +34,9 @@ import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.mime.CMimeType;
 import com.helger.dcng.api.me.MEException;
 import com.helger.dcng.api.me.model.MEMessage;
+import com.helger.dcng.holodeck.EBMSMessagingHeader;
 import com.helger.dcng.holodeck.EBMSUtils;
+import com.helger.dcng.holodeck.MEMConstants;
 import com.helger.dcng.holodeck.SubmissionMessageProperties;
 
 public final class EBSMUtilsTest {
@@ -51,6 +54,14 @@ public final class EBSMUtilsTest {
                                    .build();
     final SOAPMessage sm = EBMSUtils.convert2MEOutboundAS4Message(sd, msg);
     assertNotNull(sm);
+
+    // The ebMS header must be readable again
+    final EBMSMessagingHeader aHeader = EBMSUtils.parseMessagingHeader(sm);
+    assertNotNull(aHeader.getMessageID());
+    assertEquals(MEMConstants.ACTION_SUBMIT, aHeader.getAction());
+    assertEquals("EBSMUtilsTestConv", aHeader.getConversationID());
+    assertEquals("EBSMUtilsTestConv", aHeader.getMessagePropertyValue("ConversationId"));
+    assertEquals(CMimeType.APPLICATION_XML.getAsString(), aHeader.getPartInfo("blafoo").getPropertyValue("MimeType"));
     try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream()) {
       sm.writeTo(aBAOS);
       LOG.info(aBAOS.getAsString(StandardCharsets.UTF_8));
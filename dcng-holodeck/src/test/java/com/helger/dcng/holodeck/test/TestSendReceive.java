@@ -40,9 +40,11 @@ import com.helger.dcng.api.me.model.MEMessage;
 import com.helger.dcng.api.me.outgoing.IMERoutingInformation;
 import com.helger.dcng.api.me.outgoing.MEOutgoingException;
 import com.helger.dcng.holodeck.EActingSide;
+import com.helger.dcng.holodeck.EResultType;
 import com.helger.dcng.holodeck.MEMDelegate;
 import com.helger.dcng.holodeck.MEMHolodeckConfig;
 import com.helger.dcng.holodeck.notifications.IMessageHandler;
+import com.helger.dcng.holodeck.notifications.RelayResult;
 import com.helger.scope.mock.ScopeAwareTestSetup;
 
 /**
@@ -116,6 +118,18 @@ public class TestSendReceive
     MEMDelegate.getInstance ().sendMessage (gatewayRoutingMetadata, sampleMessage);
   }
 
+  @Test
+  public void testSendReceiveAsync () throws Exception
+  {
+    DummyEBMSUtils.setFailOnRelayResult (false, null);
+    DummyEBMSUtils.setFailOnSubmissionResult (false);
+    final RelayResult aRelayResult = MEMDelegate.getInstance ()
+                                                .sendMessageAsync (gatewayRoutingMetadata, sampleMessage)
+                                                .toCompletableFuture ()
+                                                .get ();
+    assertSame (EResultType.RECEIPT, aRelayResult.getResult ());
+  }
+
   @Test
   public void testME002 ()
   {
@@ -251,15 +251,23 @@ public class Phase4MessageExchangeSPI implements IMessageExchangeSPI
     int nPayloadIndex = 0;
     for (final MEPayload aPayload : aMessage.payloads ())
     {
+      final Phase4OutgoingAttachment.Builder aOABuilder = Phase4OutgoingAttachment.builder ();
+      final File aDataFile = aPayload.getDataFile ();
+      if (aDataFile != null)
+      {
+        // Large payload - let phase4 read the file directly
+        aOABuilder.data (aDataFile);
+      }
+      else
+        aOABuilder.data (aPayload.getData ());
+
       // Compress only text
-      final Phase4OutgoingAttachment aOA = Phase4OutgoingAttachment.builder ()
-                                                                   .data (aPayload.getData ())
-                                                                   .contentID (aPayload.getContentID ())
-                                                                   .mimeType (aPayload.getMimeType ())
-                                                                   .compression (aPayload.getMimeType ()
-                                                                                         .getContentType () == EMimeContentType.TEXT ? EAS4CompressionMode.GZIP
-                                                                                                                                     : null)
-                                                                   .build ();
+      final Phase4OutgoingAttachment aOA = aOABuilder.contentID (aPayload.getContentID ())
+                                                     .mimeType (aPayload.getMimeType ())
+                                                     .compression (aPayload.getMimeType ()
+                                                                           .getContentType () == EMimeContentType.TEXT ? EAS4CompressionMode.GZIP
+                                                                                                                       : null)
+                                                     .build ();
       if (nPayloadIndex == 0)
         aBuilder.payload (aOA);
       else
@@ -32,10 +32,12 @@ import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.error.level.EErrorLevel;
 import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.mime.MimeTypeParser;
 import com.helger.dcng.api.DcngConfig;
 import com.helger.dcng.api.me.incoming.IMEIncomingHandler;
+import com.helger.dcng.api.me.incoming.MEIncomingQueueFullException;
 import com.helger.dcng.api.me.model.MEMessage;
 import com.helger.dcng.api.me.model.MEPayload;
 import com.helger.dcng.phase4.Phase4Config;
@@ -160,10 +162,28 @@ public class AS4MessageProcessorSPI implements IAS4ServletMessageProcessorSPI
                                                                                                                 .getService ()
                                                                                                                 .getValue ()));
         for (final WSS4JAttachment aItem : aIncomingAttachments)
+        {
+          // Don't copy the data - phase4 already buffered it (maybe in a
+          // temporary file) and it can be read multiple times. Compressed
+          // attachments are decompressed while the payload is read, so
+          // decompression errors are raised by the consumer of the data.
           aMessageBuilder.addPayload (MEPayload.builder ()
                                                .mimeType (MimeTypeParser.safeParseMimeType (aItem.getMimeType ()))
                                                .contentID (aItem.getId ())
-                                               .data (StreamHelper.getAllBytes (aItem.getSourceStream ())));
+                                               .data (new IHasInputStream ()
+                                               {
+                                                 @Nonnull
+                                                 public InputStream getInputStream ()
+                                                 {
+                                                   return aItem.getSourceStream ();
+                                                 }
+
+                                                 public boolean isReadMultiple ()
+                                                 {
+                                                   return true;
+                                                 }
+                                               }));
+        }
 
         s_aIncomingHandler.handleIncomingRequest (aMessageBuilder.build ());
       }
@@ -175,6 +195,14 @@ public class AS4MessageProcessorSPI implements IAS4ServletMessageProcessorSPI
                                                                                       sErrorMsg));
         DE4AKafkaClient.send (EErrorLevel.ERROR, () -> "Error handling incoming AS4 message: " + sErrorMsg);
       }
+      catch (final MEIncomingQueueFullException ex)
+      {
+        // Back-pressure - let the sender know, that it needs to retry
+        aProcessingErrors.add (EEbmsError.EBMS_OTHER.getAsEbms3Error (aState.getLocale (),
+                                                                      aState.getMessageID (),
+                                                                      ex.getMessage ()));
+        DE4AKafkaClient.send (EErrorLevel.ERROR, () -> "Error handling incoming AS4 message: " + ex.getMessage ());
+      }
       catch (final Exception ex)
       {
         DE4AKafkaClient.send (EErrorLevel.ERROR, () -> "Error handling incoming AS4 message", ex);
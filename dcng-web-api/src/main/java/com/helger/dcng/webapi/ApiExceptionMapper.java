@@ -17,6 +17,8 @@
  */
 package com.helger.dcng.webapi;
 
+import java.util.concurrent.RejectedExecutionException;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletResponse;
@@ -90,6 +92,15 @@ public class ApiExceptionMapper extends AbstractAPIExceptionMapper
                                                          : getResponseEntityWithoutStackTrace (aThrowable));
       return EHandled.HANDLED;
     }
+    if (aThrowable instanceof RejectedExecutionException)
+    {
+      // HTTP 503 - the sending executor is overloaded
+      LOGGER.warn ("Rejected request, because the Connector is busy: " + aThrowable.getMessage ());
+      _setSimpleTextResponse (aUnifiedResponse,
+                              HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                              getResponseEntityWithoutStackTrace (aThrowable));
+      return EHandled.HANDLED;
+    }
     if (aThrowable instanceof RuntimeException)
     {
       // HTTP 500
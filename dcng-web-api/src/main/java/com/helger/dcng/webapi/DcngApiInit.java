@@ -20,8 +20,11 @@ package com.helger.dcng.webapi;
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
 
+import com.helger.dcng.webapi.as4.ApiGetSendStatusIt2;
 import com.helger.dcng.webapi.as4.ApiPostLookupAndSendIt2;
+import com.helger.dcng.webapi.as4.ApiPostLookupAndSendMultiIt2;
 import com.helger.dcng.webapi.as4.ApiPostSendIt2;
+import com.helger.dcng.webapi.ial.ApiPostIALCacheFlush;
 import com.helger.dcng.webapi.smp.ApiGetSmpDocTypes;
 import com.helger.dcng.webapi.smp.ApiGetSmpEndpoints;
 import com.helger.photon.api.APIDescriptor;
@@ -49,5 +52,14 @@ public final class DcngApiInit
     // AS4 stuff
     aAPIRegistry.registerAPI (new APIDescriptor (APIPath.post ("/it2/send"), ApiPostSendIt2.class));
     aAPIRegistry.registerAPI (new APIDescriptor (APIPath.post ("/it2/lookup/send"), new ApiPostLookupAndSendIt2 ()));
+    aAPIRegistry.registerAPI (new APIDescriptor (APIPath.post ("/it2/lookup/send/multi"),
+                                                 new ApiPostLookupAndSendMultiIt2 ()));
+    aAPIRegistry.registerAPI (new APIDescriptor (APIPath.post ("/it2/send/async"), new ApiPostSendIt2 (true)));
+    aAPIRegistry.registerAPI (new APIDescriptor (APIPath.post ("/it2/lookup/send/async"),
+                                                 new ApiPostLookupAndSendIt2 (true)));
+    aAPIRegistry.registerAPI (new APIDescriptor (APIPath.get ("/it2/status/{id}"), ApiGetSendStatusIt2.class));
+
+    // Administration
+    aAPIRegistry.registerAPI (new APIDescriptor (APIPath.post ("/admin/ial/cache/flush"), ApiPostIALCacheFlush.class));
   }
 }
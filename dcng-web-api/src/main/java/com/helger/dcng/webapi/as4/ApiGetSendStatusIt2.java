@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.webapi.as4;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hc.client5.http.HttpResponseException;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.http.CHttp;
+import com.helger.dcng.core.api.DcngAsyncSendStatus;
+import com.helger.dcng.core.api.DcngAsyncSender;
+import com.helger.dcng.webapi.helper.AbstractDcngApiInvoker;
+import com.helger.json.IJsonObject;
+import com.helger.photon.api.IAPIDescriptor;
+import com.helger.web.scope.IRequestWebScopeWithoutResponse;
+
+/**
+ * Query the status of an asynchronous sending, identified by the tracking ID
+ * returned by the asynchronous sending APIs.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+public class ApiGetSendStatusIt2 extends AbstractDcngApiInvoker
+{
+  @Override
+  protected boolean isCacheResult (@Nonnull final IRequestWebScopeWithoutResponse aRequestScope)
+  {
+    // The status changes over time
+    return false;
+  }
+
+  @Override
+  public IJsonObject invokeAPI (@Nonnull final IAPIDescriptor aAPIDescriptor,
+                                @Nonnull @Nonempty final String sPath,
+                                @Nonnull final Map <String, String> aPathVariables,
+                                @Nonnull final IRequestWebScopeWithoutResponse aRequestScope) throws IOException
+  {
+    final String sTrackingID = aPathVariables.get ("id");
+    final DcngAsyncSendStatus aStatus = DcngAsyncSender.getStatus (sTrackingID);
+    if (aStatus == null)
+      throw new HttpResponseException (CHttp.HTTP_NOT_FOUND, "Unknown tracking ID '" + sTrackingID + "'");
+
+    final IJsonObject aJson = aStatus.getAsJson ();
+    aJson.add (JSON_TAG_SUCCESS, true);
+    return aJson;
+  }
+}
@@ -19,6 +19,7 @@ package com.helger.dcng.webapi.as4;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
 
@@ -33,8 +34,8 @@ import com.helger.dcng.api.me.outgoing.MERoutingInformation;
 import com.helger.dcng.api.me.outgoing.MERoutingInformationInput;
 import com.helger.dcng.api.rest.DCNGOutgoingMessage;
 import com.helger.dcng.api.rest.DCNGPayload;
-import com.helger.dcng.api.rest.DcngRestJAXB;
 import com.helger.dcng.core.api.DcngApiHelper;
+import com.helger.dcng.core.api.DcngOutgoingMessageReader;
 import com.helger.dcng.core.regrep.DcngRegRepHelperIt2;
 import com.helger.dcng.webapi.ApiParamException;
 import com.helger.dcng.webapi.helper.AbstractDcngApiInvoker;
@@ -59,8 +60,23 @@ import eu.de4a.kafkaclient.DE4AKafkaClient;
  */
 public class ApiPostLookupAndSendIt2 extends AbstractDcngApiInvoker
 {
+  private final boolean m_bAsync;
+
   public ApiPostLookupAndSendIt2 ()
-  {}
+  {
+    this (false);
+  }
+
+  /**
+   * @param bAsync
+   *        <code>true</code> to lookup and send in the background and return a
+   *        tracking ID at once, <code>false</code> to wait for the result.
+   * @since 0.2.16
+   */
+  public ApiPostLookupAndSendIt2 (final boolean bAsync)
+  {
+    m_bAsync = bAsync;
+  }
 
   @Nonnull
   public static LookupAndSendingResult perform (@Nonnull final IParticipantIdentifier aSenderID,
@@ -69,6 +85,56 @@ public class ApiPostLookupAndSendIt2 extends AbstractDcngApiInvoker
                                                 @Nonnull final IProcessIdentifier aProcessID,
                                                 @Nonnull final String sTransportProfile,
                                                 @Nonnull final DCNGPayload aPayload)
+  {
+    // Wrap in RegRep only after a successful lookup
+    return _perform (aSenderID,
+                     aReceiverID,
+                     aDocumentTypeID,
+                     aProcessID,
+                     sTransportProfile,
+                     () -> DcngRegRepHelperIt2.wrapInRegRep (true, aPayload.getValue ()));
+  }
+
+  /**
+   * Perform the SMP lookup and send the already wrapped RegRep payload. This
+   * allows to send the same RegRep payload to multiple receivers. The passed
+   * byte array is not modified.
+   *
+   * @param aSenderID
+   *        Sender ID. May not be <code>null</code>.
+   * @param aReceiverID
+   *        Receiver ID. May not be <code>null</code>.
+   * @param aDocumentTypeID
+   *        Document type ID. May not be <code>null</code>.
+   * @param aProcessID
+   *        Process ID. May not be <code>null</code>.
+   * @param sTransportProfile
+   *        Transport profile. May not be <code>null</code>.
+   * @param aRegRepPayload
+   *        The RegRep payload as created by
+   *        {@link DcngRegRepHelperIt2#wrapInRegRep(boolean, byte[])}. May not
+   *        be <code>null</code>.
+   * @return The result. Never <code>null</code>.
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static LookupAndSendingResult performWrapped (@Nonnull final IParticipantIdentifier aSenderID,
+                                                       @Nonnull final IParticipantIdentifier aReceiverID,
+                                                       @Nonnull final IDocumentTypeIdentifier aDocumentTypeID,
+                                                       @Nonnull final IProcessIdentifier aProcessID,
+                                                       @Nonnull final String sTransportProfile,
+                                                       @Nonnull final byte [] aRegRepPayload)
+  {
+    return _perform (aSenderID, aReceiverID, aDocumentTypeID, aProcessID, sTransportProfile, () -> aRegRepPayload);
+  }
+
+  @Nonnull
+  private static LookupAndSendingResult _perform (@Nonnull final IParticipantIdentifier aSenderID,
+                                                  @Nonnull final IParticipantIdentifier aReceiverID,
+                                                  @Nonnull final IDocumentTypeIdentifier aDocumentTypeID,
+                                                  @Nonnull final IProcessIdentifier aProcessID,
+                                                  @Nonnull final String sTransportProfile,
+                                                  @Nonnull final Supplier <byte []> aRegRepPayloadSupplier)
   {
     // Start response
     final LookupAndSendingResult ret = new LookupAndSendingResult (aSenderID, aReceiverID, aDocumentTypeID, aProcessID, sTransportProfile);
@@ -123,7 +189,7 @@ public class ApiPostLookupAndSendIt2 extends AbstractDcngApiInvoker
       if (aRoutingInfo != null)
       {
         // Wrap in RegRep
-        final byte [] aRegRepPayload = DcngRegRepHelperIt2.wrapInRegRep (true, aPayload.getValue ());
+        final byte [] aRegRepPayload = aRegRepPayloadSupplier.get ();
 
         // Add payload
         final MEMessage.Builder aMessage = MEMessage.builder ();
@@ -133,7 +199,7 @@ public class ApiPostLookupAndSendIt2 extends AbstractDcngApiInvoker
                                       .data (aRegRepPayload));
 
         // Trigger main sending with the chosen AS4 implementation
-        DcngApiHelper.sendAS4Message (aRoutingInfo, aMessage.build ());
+        DcngApiHelper.sendAS4MessageWithExecutor (aRoutingInfo, aMessage.build ());
         ret.setSendingSuccess (true);
 
         // Remember sending stuff
@@ -155,11 +221,13 @@ public class ApiPostLookupAndSendIt2 extends AbstractDcngApiInvoker
                                 @Nonnull final IRequestWebScopeWithoutResponse aRequestScope) throws IOException
   {
     // Read the payload as XML
-    final DCNGOutgoingMessage aOutgoingMsg = DcngRestJAXB.outgoingMessage ().read (aRequestScope.getRequest ().getInputStream ());
+    final DCNGOutgoingMessage aOutgoingMsg = DcngOutgoingMessageReader.read (aRequestScope.getRequest ().getInputStream ());
     if (aOutgoingMsg == null)
       throw new ApiParamException ("Failed to interpret the message body as an 'OutgoingMessage'");
     if (aOutgoingMsg.getPayloadCount () != 1)
       throw new ApiParamException ("Exactly one 'OutgoingMessage/Payload' element is required");
+    if (aOutgoingMsg.getMetadata () == null)
+      throw new ApiParamException ("The 'OutgoingMessage/Metadata' element MUST be present");
 
     // These fields MUST not be present here - they are filled while we go
     if (StringHelper.hasText (aOutgoingMsg.getMetadata ().getEndpointURL ()))
@@ -171,11 +239,12 @@ public class ApiPostLookupAndSendIt2 extends AbstractDcngApiInvoker
     final MERoutingInformationInput aRoutingInfoBase = MERoutingInformationInput.createBaseForSending (aOutgoingMsg.getMetadata ());
 
     // Start response
-    return perform (aRoutingInfoBase.getSenderID (),
-                    aRoutingInfoBase.getReceiverID (),
-                    aRoutingInfoBase.getDocumentTypeID (),
-                    aRoutingInfoBase.getProcessID (),
-                    aRoutingInfoBase.getTransportProtocol (),
-                    aOutgoingMsg.getPayloadAtIndex (0)).getAsJson ();
+    final Supplier <IJsonObject> aSender = () -> perform (aRoutingInfoBase.getSenderID (),
+                                                          aRoutingInfoBase.getReceiverID (),
+                                                          aRoutingInfoBase.getDocumentTypeID (),
+                                                          aRoutingInfoBase.getProcessID (),
+                                                          aRoutingInfoBase.getTransportProtocol (),
+                                                          aOutgoingMsg.getPayloadAtIndex (0)).getAsJson ();
+    return m_bAsync ? CommonApiInvoker.invokeAsync (aRequestScope, aSender) : aSender.get ();
   }
 }
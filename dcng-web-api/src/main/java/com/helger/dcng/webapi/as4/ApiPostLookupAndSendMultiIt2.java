@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.webapi.as4;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.ArrayHelper;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedSet;
+import com.helger.commons.error.level.EErrorLevel;
+import com.helger.commons.string.StringHelper;
+import com.helger.dcng.api.DcngConfig;
+import com.helger.dcng.api.me.outgoing.MERoutingInformationInput;
+import com.helger.dcng.api.rest.DCNGOutgoingMessage;
+import com.helger.dcng.core.api.DcngOutgoingMessageReader;
+import com.helger.dcng.core.api.DcngSendExecutor;
+import com.helger.dcng.core.regrep.DcngRegRepHelperIt2;
+import com.helger.dcng.webapi.ApiParamException;
+import com.helger.dcng.webapi.helper.AbstractDcngApiInvoker;
+import com.helger.dcng.webapi.helper.CommonApiInvoker;
+import com.helger.json.IJsonArray;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonArray;
+import com.helger.json.JsonObject;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.photon.api.IAPIDescriptor;
+import com.helger.web.scope.IRequestWebScopeWithoutResponse;
+
+import eu.de4a.kafkaclient.DE4AKafkaClient;
+
+/**
+ * Perform validation, lookup and sending via API for multiple receivers. The
+ * receiver from the metadata and all receivers from the request parameter
+ * {@value #PARAM_RECEIVER_ID} get the same message. The payload is wrapped in
+ * RegRep only once and the SMP lookups and AS4 sending are performed in
+ * parallel using the {@link DcngSendExecutor}.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+public class ApiPostLookupAndSendMultiIt2 extends AbstractDcngApiInvoker
+{
+  /** The request parameter with additional URI-encoded receiver IDs */
+  public static final String PARAM_RECEIVER_ID = "receiverid";
+  public static final String JSON_TAG_RESULTS = "results";
+
+  public ApiPostLookupAndSendMultiIt2 ()
+  {}
+
+  @Override
+  public IJsonObject invokeAPI (@Nonnull final IAPIDescriptor aAPIDescriptor,
+                                @Nonnull @Nonempty final String sPath,
+                                @Nonnull final Map <String, String> aPathVariables,
+                                @Nonnull final IRequestWebScopeWithoutResponse aRequestScope) throws IOException
+  {
+    // Read the payload as XML
+    final DCNGOutgoingMessage aOutgoingMsg = DcngOutgoingMessageReader.read (aRequestScope.getRequest ().getInputStream ());
+    if (aOutgoingMsg == null)
+      throw new ApiParamException ("Failed to interpret the message body as an 'OutgoingMessage'");
+    if (aOutgoingMsg.getPayloadCount () != 1)
+      throw new ApiParamException ("Exactly one 'OutgoingMessage/Payload' element is required");
+    if (aOutgoingMsg.getMetadata () == null)
+      throw new ApiParamException ("The 'OutgoingMessage/Metadata' element MUST be present");
+
+    // These fields MUST not be present here - they are filled while we go
+    if (StringHelper.hasText (aOutgoingMsg.getMetadata ().getEndpointURL ()))
+      throw new ApiParamException ("The 'OutgoingMessage/Metadata/EndpointURL' element MUST NOT be present");
+    if (ArrayHelper.isNotEmpty (aOutgoingMsg.getMetadata ().getReceiverCertificate ()))
+      throw new ApiParamException ("The 'OutgoingMessage/Metadata/ReceiverCertificate' element MUST NOT be present");
+
+    // Convert metadata
+    final MERoutingInformationInput aRoutingInfoBase = MERoutingInformationInput.createBaseForSending (aOutgoingMsg.getMetadata ());
+
+    // Collect all receivers - duplicates are ignored
+    final ICommonsOrderedSet <IParticipantIdentifier> aReceiverIDs = new CommonsLinkedHashSet <> ();
+    aReceiverIDs.add (aRoutingInfoBase.getReceiverID ());
+    final String [] aReceiverIDParams = aRequestScope.getRequest ().getParameterValues (PARAM_RECEIVER_ID);
+    if (aReceiverIDParams != null)
+      for (final String sReceiverID : aReceiverIDParams)
+      {
+        final IParticipantIdentifier aReceiverID = DcngConfig.getIdentifierFactory ()
+                                                             .parseParticipantIdentifier (sReceiverID);
+        if (aReceiverID == null)
+          throw new ApiParamException ("Invalid receiver ID '" + sReceiverID + "' provided.");
+        aReceiverIDs.add (aReceiverID);
+      }
+
+    // Wrap in RegRep only once
+    final byte [] aRegRepPayload;
+    try
+    {
+      aRegRepPayload = DcngRegRepHelperIt2.wrapInRegRep (true, aOutgoingMsg.getPayloadAtIndex (0).getValue ());
+    }
+    catch (final IllegalStateException ex)
+    {
+      throw new ApiParamException ("Failed to wrap the 'OutgoingMessage/Payload' in RegRep: " + ex.getMessage ());
+    }
+
+    DE4AKafkaClient.send (EErrorLevel.INFO,
+                          () -> "[API] Sending message of '" +
+                                aRoutingInfoBase.getSenderID ().getURIEncoded () +
+                                "' to " +
+                                aReceiverIDs.size () +
+                                " receivers");
+
+    // Lookup and send in parallel
+    final ICommonsList <CompletableFuture <LookupAndSendingResult>> aFutures = new CommonsArrayList <> ();
+    for (final IParticipantIdentifier aReceiverID : aReceiverIDs)
+    {
+      CompletableFuture <LookupAndSendingResult> aFuture = DcngSendExecutor.submit ( () -> ApiPostLookupAndSendIt2.performWrapped (aRoutingInfoBase.getSenderID (),
+                                                                                                                                 aReceiverID,
+                                                                                                                                 aRoutingInfoBase.getDocumentTypeID (),
+                                                                                                                                 aRoutingInfoBase.getProcessID (),
+                                                                                                                                 aRoutingInfoBase.getTransportProtocol (),
+                                                                                                                                 aRegRepPayload));
+      if (DcngSendExecutor.isRejected (aFuture))
+      {
+        // Nothing was sent yet - let the client retry everything (HTTP 503)
+        if (aFutures.isEmpty ())
+          throw new RejectedExecutionException ("Too many pending sending tasks - try again later");
+
+        // Some receivers are already served - only this one failed
+        final LookupAndSendingResult aRejected = new LookupAndSendingResult (aRoutingInfoBase.getSenderID (),
+                                                                             aReceiverID,
+                                                                             aRoutingInfoBase.getDocumentTypeID (),
+                                                                             aRoutingInfoBase.getProcessID (),
+                                                                             aRoutingInfoBase.getTransportProtocol ());
+        aRejected.setOverallSuccess (false);
+        aRejected.setException (new RejectedExecutionException ("Too many pending sending tasks - try again later"));
+        aFuture = CompletableFuture.completedFuture (aRejected);
+      }
+      aFutures.add (aFuture);
+    }
+
+    // Start response
+    final IJsonObject aJson = new JsonObject ();
+    CommonApiInvoker.invoke (aJson, () -> {
+      // Wait for all results - in the order of the receivers
+      boolean bOverallSuccess = true;
+      final IJsonArray aResults = new JsonArray ();
+      for (final CompletableFuture <LookupAndSendingResult> aFuture : aFutures)
+      {
+        final LookupAndSendingResult aResult = aFuture.join ();
+        if (!aResult.isOverallSuccess ())
+          bOverallSuccess = false;
+        aResults.add (aResult.getAsJson ());
+      }
+      aJson.add (JSON_TAG_SUCCESS, bOverallSuccess);
+      aJson.addJson (JSON_TAG_RESULTS, aResults);
+    });
+
+    return aJson;
+  }
+}
@@ -20,6 +20,7 @@ package com.helger.dcng.webapi.as4;
 import java.io.IOException;
 import java.security.cert.CertificateException;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
 
@@ -31,10 +32,9 @@ import com.helger.dcng.api.me.model.MEMessage;
 import com.helger.dcng.api.me.model.MEPayload;
 import com.helger.dcng.api.me.outgoing.IMERoutingInformation;
 import com.helger.dcng.api.me.outgoing.MERoutingInformation;
-import com.helger.dcng.api.rest.DCNGOutgoingMessage;
-import com.helger.dcng.api.rest.DCNGPayload;
-import com.helger.dcng.api.rest.DcngRestJAXB;
+import com.helger.dcng.api.rest.DcngStreamedOutgoingMessage;
 import com.helger.dcng.core.api.DcngApiHelper;
+import com.helger.dcng.core.api.DcngOutgoingMessageReader;
 import com.helger.dcng.core.regrep.DcngRegRepHelperIt2;
 import com.helger.dcng.webapi.ApiParamException;
 import com.helger.dcng.webapi.helper.AbstractDcngApiInvoker;
@@ -53,64 +53,119 @@ import eu.de4a.kafkaclient.DE4AKafkaClient;
  */
 public class ApiPostSendIt2 extends AbstractDcngApiInvoker
 {
+  private final boolean m_bAsync;
+
+  public ApiPostSendIt2 ()
+  {
+    this (false);
+  }
+
+  /**
+   * @param bAsync
+   *        <code>true</code> to send in the background and return a tracking
+   *        ID at once, <code>false</code> to wait for the sending result.
+   * @since 0.2.16
+   */
+  public ApiPostSendIt2 (final boolean bAsync)
+  {
+    m_bAsync = bAsync;
+  }
+
   @Override
   public IJsonObject invokeAPI (@Nonnull final IAPIDescriptor aAPIDescriptor,
                                 @Nonnull @Nonempty final String sPath,
                                 @Nonnull final Map <String, String> aPathVariables,
                                 @Nonnull final IRequestWebScopeWithoutResponse aRequestScope) throws IOException
   {
-    // Read the payload as XML
-    final DCNGOutgoingMessage aOutgoingMsg = DcngRestJAXB.outgoingMessage ().read (aRequestScope.getRequest ().getInputStream ());
+    // Read the payload as XML - large payloads are stored in temporary files
+    final DcngStreamedOutgoingMessage aOutgoingMsg = DcngOutgoingMessageReader.readStreaming (aRequestScope.getRequest ()
+                                                                                                           .getInputStream ());
     if (aOutgoingMsg == null)
       throw new ApiParamException ("Failed to interpret the message body as an 'OutgoingMessage'");
-    if (aOutgoingMsg.getPayloadCount () != 1)
-      throw new ApiParamException ("Exactly one 'OutgoingMessage/Payload' element is required");
-
-    // These fields are optional in the XSD but required here
-    if (StringHelper.hasNoText (aOutgoingMsg.getMetadata ().getEndpointURL ()))
-      throw new ApiParamException ("The 'OutgoingMessage/Metadata/EndpointURL' element MUST be present and not empty");
-    if (ArrayHelper.isEmpty (aOutgoingMsg.getMetadata ().getReceiverCertificate ()))
-      throw new ApiParamException ("The 'OutgoingMessage/Metadata/ReceiverCertificate' element MUST be present and not empty");
-
-    // Convert metadata
-    final IMERoutingInformation aRoutingInfo;
     try
     {
-      aRoutingInfo = MERoutingInformation.createForSending (aOutgoingMsg.getMetadata ());
-    }
-    catch (final CertificateException ex)
-    {
-      throw new ApiParamException ("Invalid routing information provided: " + ex.getMessage ());
-    }
+      if (aOutgoingMsg.getPayloadCount () != 1)
+        throw new ApiParamException ("Exactly one 'OutgoingMessage/Payload' element is required");
+      if (aOutgoingMsg.getMetadata () == null)
+        throw new ApiParamException ("The 'OutgoingMessage/Metadata' element MUST be present");
+
+      // These fields are optional in the XSD but required here
+      if (StringHelper.hasNoText (aOutgoingMsg.getMetadata ().getEndpointURL ()))
+        throw new ApiParamException ("The 'OutgoingMessage/Metadata/EndpointURL' element MUST be present and not empty");
+      if (ArrayHelper.isEmpty (aOutgoingMsg.getMetadata ().getReceiverCertificate ()))
+        throw new ApiParamException ("The 'OutgoingMessage/Metadata/ReceiverCertificate' element MUST be present and not empty");
 
-    // Add payloads
-    final MEMessage.Builder aMessage = MEMessage.builder ();
-    final DCNGPayload aPayload = aOutgoingMsg.getPayloadAtIndex (0);
-    final byte [] aRegRepPayload = DcngRegRepHelperIt2.wrapInRegRep (true, aPayload.getValue ());
+      // Convert metadata
+      final IMERoutingInformation aRoutingInfo;
+      try
+      {
+        aRoutingInfo = MERoutingInformation.createForSending (aOutgoingMsg.getMetadata ());
+      }
+      catch (final CertificateException ex)
+      {
+        throw new ApiParamException ("Invalid routing information provided: " + ex.getMessage ());
+      }
 
-    // RegRep should be first
-    aMessage.addPayload (MEPayload.builder ()
-                                  .mimeType (CRegRep4.MIME_TYPE_EBRS_XML)
-                                  .contentID (MEPayload.createRandomContentID ())
-                                  .data (aRegRepPayload));
-    DE4AKafkaClient.send (EErrorLevel.INFO, "Successfully added RegRep dummy");
+      // Add payloads - a large RegRep message is stored in a temporary file
+      final MEMessage.Builder aMessage = MEMessage.builder ();
+      final MEPayload aPayload = aOutgoingMsg.getPayloadAtIndex (0);
+      final MEPayload aRegRepPayload = MEPayload.builder ()
+                                                .mimeType (CRegRep4.MIME_TYPE_EBRS_XML)
+                                                .contentID (MEPayload.createRandomContentID ())
+                                                .data (DcngRegRepHelperIt2.wrapInRegRepSpooled (true, null, aPayload.getDataSource ()))
+                                                .build ();
 
-    // Start response
-    final LookupAndSendingResult ret = new LookupAndSendingResult (aRoutingInfo.getSenderID (),
-                                                                   aRoutingInfo.getReceiverID (),
-                                                                   aRoutingInfo.getDocumentTypeID (),
-                                                                   aRoutingInfo.getProcessID (),
-                                                                   aRoutingInfo.getTransportProtocol ());
-    ret.setLookupSuccess (true);
-    ret.setLookupEndpointURL (aRoutingInfo.getEndpointURL ());
+      // RegRep should be first
+      aMessage.addPayload (aRegRepPayload);
+      DE4AKafkaClient.send (EErrorLevel.INFO, "Successfully added RegRep dummy");
 
-    CommonApiInvoker.invoke (ret, () -> {
-      // Main sending - throws Exception on error
-      DcngApiHelper.sendAS4Message (aRoutingInfo, aMessage.build ());
-      ret.setSendingSuccess (true);
-      ret.setOverallSuccess (true);
-    });
+      // Start response
+      final LookupAndSendingResult ret = new LookupAndSendingResult (aRoutingInfo.getSenderID (),
+                                                                     aRoutingInfo.getReceiverID (),
+                                                                     aRoutingInfo.getDocumentTypeID (),
+                                                                     aRoutingInfo.getProcessID (),
+                                                                     aRoutingInfo.getTransportProtocol ());
+      ret.setLookupSuccess (true);
+      ret.setLookupEndpointURL (aRoutingInfo.getEndpointURL ());
 
-    return ret.getAsJson ();
+      final Supplier <IJsonObject> aSender = () -> {
+        try
+        {
+          CommonApiInvoker.invoke (ret, () -> {
+            // Main sending - throws Exception on error
+            DcngApiHelper.sendAS4MessageWithExecutor (aRoutingInfo, aMessage.build ());
+            ret.setSendingSuccess (true);
+            ret.setOverallSuccess (true);
+          });
+        }
+        finally
+        {
+          // The RegRep message is no longer needed
+          aRegRepPayload.deleteTemporaryData ();
+        }
+        return ret.getAsJson ();
+      };
+
+      // The RegRep payload is independent of the received payloads, so the
+      // temporary files can be deleted even if sending happens in the
+      // background
+      if (!m_bAsync)
+        return aSender.get ();
+      try
+      {
+        return CommonApiInvoker.invokeAsync (aRequestScope, aSender);
+      }
+      catch (final RuntimeException ex)
+      {
+        // Sending was not scheduled
+        aRegRepPayload.deleteTemporaryData ();
+        throw ex;
+      }
+    }
+    finally
+    {
+      // Don't keep temporary files of received payloads
+      aOutgoingMsg.deleteTemporaryData ();
+    }
   }
 }
@@ -19,20 +19,34 @@ package com.helger.dcng.webapi.helper;
 
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
 
 import com.helger.commons.callback.IThrowingRunnable;
 import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.string.StringHelper;
 import com.helger.commons.timing.StopWatch;
+import com.helger.commons.url.EURLProtocol;
+import com.helger.commons.url.IURLProtocol;
+import com.helger.commons.url.URLProtocolRegistry;
+import com.helger.dcng.core.api.DcngAsyncSendStatus;
+import com.helger.dcng.core.api.DcngAsyncSender;
+import com.helger.dcng.webapi.ApiParamException;
 import com.helger.dcng.webapi.as4.LookupAndSendingResult;
 import com.helger.json.IJsonObject;
 import com.helger.phive.json.PhiveJsonHelper;
+import com.helger.web.scope.IRequestWebScopeWithoutResponse;
 
 @Immutable
 public final class CommonApiInvoker
 {
+  /** The request parameter with the optional callback URL for async calls */
+  public static final String PARAM_CALLBACK = "callback";
+  public static final String JSON_TAG_STATUS_PATH = "statusPath";
+
   private CommonApiInvoker ()
   {}
 
@@ -44,6 +58,11 @@ public final class CommonApiInvoker
     {
       r.run ();
     }
+    catch (final RejectedExecutionException ex)
+    {
+      // The Connector is busy - reported as HTTP 503
+      throw ex;
+    }
     catch (final Exception ex)
     {
       aResult.setOverallSuccess (false);
@@ -63,6 +82,11 @@ public final class CommonApiInvoker
     {
       r.run ();
     }
+    catch (final RejectedExecutionException ex)
+    {
+      // The Connector is busy - reported as HTTP 503
+      throw ex;
+    }
     catch (final Exception ex)
     {
       aJson.add (AbstractDcngApiInvoker.JSON_TAG_SUCCESS, false);
@@ -73,4 +97,37 @@ public final class CommonApiInvoker
     aJson.add (LookupAndSendingResult.JSON_TAG_INVOCATION_DATE_TIME, DateTimeFormatter.ISO_ZONED_DATE_TIME.format (aInvocationDT));
     aJson.add (LookupAndSendingResult.JSON_TAG_INVOCATION_DURATION_MILLIS, aSW.getMillis ());
   }
+
+  /**
+   * Run the provided sending task asynchronously and return the tracking
+   * information at once. An optional callback URL is taken from the request
+   * parameter {@value #PARAM_CALLBACK}.
+   *
+   * @param aRequestScope
+   *        The current request. May not be <code>null</code>.
+   * @param aTask
+   *        The sending task to run. May not be <code>null</code>.
+   * @return The JSON with the tracking ID. Never <code>null</code>.
+   * @throws ApiParamException
+   *         If the callback URL is invalid
+   * @since 0.2.16
+   */
+  @Nonnull
+  public static IJsonObject invokeAsync (@Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
+                                         @Nonnull final Supplier <IJsonObject> aTask)
+  {
+    final String sCallbackURL = aRequestScope.getRequest ().getParameter (PARAM_CALLBACK);
+    if (StringHelper.hasText (sCallbackURL))
+    {
+      final IURLProtocol aProtocol = URLProtocolRegistry.getInstance ().getProtocol (sCallbackURL);
+      if (aProtocol != EURLProtocol.HTTP && aProtocol != EURLProtocol.HTTPS)
+        throw new ApiParamException ("The callback URL '" + sCallbackURL + "' must use http or https.");
+    }
+
+    final DcngAsyncSendStatus aStatus = DcngAsyncSender.submit (aTask, sCallbackURL);
+    final IJsonObject ret = aStatus.getAsJson ();
+    ret.add (AbstractDcngApiInvoker.JSON_TAG_SUCCESS, true);
+    ret.add (JSON_TAG_STATUS_PATH, "/it2/status/" + aStatus.getTrackingID ());
+    return ret;
+  }
 }
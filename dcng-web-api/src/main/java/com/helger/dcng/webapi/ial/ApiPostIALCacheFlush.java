@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.webapi.ial;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.error.level.EErrorLevel;
+import com.helger.dcng.api.ial.IIALClient;
+import com.helger.dcng.core.api.DcngApiConfig;
+import com.helger.dcng.core.ial.DcngIALClientCaching;
+import com.helger.dcng.webapi.helper.AbstractDcngApiInvoker;
+import com.helger.dcng.webapi.helper.CommonApiInvoker;
+import com.helger.json.IJsonObject;
+import com.helger.json.JsonObject;
+import com.helger.photon.api.IAPIDescriptor;
+import com.helger.web.scope.IRequestWebScopeWithoutResponse;
+
+import eu.de4a.kafkaclient.DE4AKafkaClient;
+
+/**
+ * Remove all entries from the IAL cache. If IAL caching is disabled, nothing
+ * happens.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+public class ApiPostIALCacheFlush extends AbstractDcngApiInvoker
+{
+  @Override
+  public IJsonObject invokeAPI (@Nonnull final IAPIDescriptor aAPIDescriptor,
+                                @Nonnull @Nonempty final String sPath,
+                                @Nonnull final Map <String, String> aPathVariables,
+                                @Nonnull final IRequestWebScopeWithoutResponse aRequestScope)
+  {
+    DE4AKafkaClient.send (EErrorLevel.INFO, "[API] Flushing the IAL cache");
+
+    final IJsonObject aJson = new JsonObject ();
+    CommonApiInvoker.invoke (aJson, () -> {
+      final IIALClient aIALClient = DcngApiConfig.getIALClient ();
+      if (aIALClient instanceof DcngIALClientCaching)
+      {
+        final int nRemoved = ((DcngIALClientCaching) aIALClient).clearCache ();
+        aJson.add ("flushed", true);
+        aJson.add ("removed", nRemoved);
+      }
+      else
+        aJson.add ("flushed", false);
+      aJson.add (JSON_TAG_SUCCESS, true);
+    });
+    return aJson;
+  }
+}
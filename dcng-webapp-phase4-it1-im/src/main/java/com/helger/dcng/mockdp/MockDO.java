@@ -18,24 +18,34 @@
 package com.helger.dcng.mockdp;
 
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsConcurrentHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
 import com.helger.commons.concurrent.ExecutorServiceHelper;
-import com.helger.commons.concurrent.ThreadHelper;
 import com.helger.commons.datetime.PDTFactory;
 import com.helger.commons.error.level.EErrorLevel;
 import com.helger.commons.io.ByteArrayWrapper;
 import com.helger.commons.mime.CMimeType;
 import com.helger.commons.state.ESuccess;
+import com.helger.commons.string.StringParser;
 import com.helger.dcng.api.DcngConfig;
 import com.helger.dcng.api.DcngIdentifierFactory;
 import com.helger.dcng.api.me.EMEProtocol;
@@ -43,9 +53,11 @@ import com.helger.dcng.api.me.incoming.IMEIncomingHandler;
 import com.helger.dcng.api.me.incoming.MEIncomingException;
 import com.helger.dcng.api.me.model.MEMessage;
 import com.helger.dcng.api.rest.DCNGPayload;
+import com.helger.dcng.core.api.DcngSendExecutor;
 import com.helger.dcng.webapi.as4.ApiPostLookupAndSendIt2;
 import com.helger.dcng.webapi.as4.LookupAndSendingResult;
 import com.helger.json.serialize.JsonWriterSettings;
+import com.helger.xml.XMLHelper;
 import com.helger.xml.serialize.read.DOMReader;
 import com.helger.xml.serialize.write.EXMLSerializeIndent;
 import com.helger.xml.serialize.write.XMLWriter;
@@ -64,57 +76,146 @@ import eu.de4a.iem.xml.de4a.EDE4ACanonicalEvidenceType;
 import eu.de4a.kafkaclient.DE4AKafkaClient;
 
 /**
- * This is a mock handler for an incoming message.
+ * This is a mock handler for an incoming message. Responses are sent back
+ * after a configurable latency, scheduled with a single shared scheduler, so
+ * that no thread is blocked while waiting. A configurable share of the
+ * requests can be answered with an error, so that the mock can be used as the
+ * counterpart in load tests. Optionally each distinct response is created
+ * only once and reused as a template.
  *
  * @author Philip Helger
  */
-public final class MockDO implements IMEIncomingHandler
+public final class MockDO implements IMEIncomingHandler, AutoCloseable
 {
   /** An in-memory constant to fake the availability of the DO */
   public static final AtomicBoolean DO_ACTIVE = new AtomicBoolean (true);
 
+  /** Default response latency, to ensure the sync response is received first */
+  public static final long DEFAULT_RESPONSE_LATENCY_MS = 1000;
+  public static final double DEFAULT_RESPONSE_ERROR_RATE = 0;
+  public static final boolean DEFAULT_RESPONSE_CACHE = false;
+
+  private static final String NS_DE4A = "http://www.de4a.eu/2020/commons/type";
+  private static final String NS_DE4AID = "http://www.de4a.eu/2020/commons/identity/type";
+  /** Avoid unlimited growth if many different subjects are requested */
+  private static final int MAX_RESPONSE_TEMPLATES = 10_000;
+
   private static final Logger LOGGER = LoggerFactory.getLogger (MockDO.class);
 
-  private static void _waitAndRunAsync (@Nonnull final MEMessage aMessage, @Nonnull final byte [] aBytes)
+  private final long m_nResponseLatencyMS;
+  private final double m_dResponseErrorRate;
+  private final boolean m_bResponseCache;
+  private final ICommonsMap <String, MockDOResponseTemplate> m_aResponseTemplates = new CommonsConcurrentHashMap <> ();
+  private final ScheduledThreadPoolExecutor m_aScheduler;
+
+  /**
+   * Constructor using the configuration.
+   */
+  public MockDO ()
   {
-    final ExecutorService aES = Executors.newFixedThreadPool (1);
-    aES.submit ( () -> {
-      // Ensure sync response is received first
-      ThreadHelper.sleep (1000);
-
-      // Start new transmission
-      final DCNGPayload aPayload = new DCNGPayload ();
-      aPayload.setValue (aBytes);
-      aPayload.setMimeType (CMimeType.APPLICATION_XML.getAsString ());
-      aPayload.setContentID ("ResponseTransferEvidence");
-
-      // Swap sender and receiver
-      // Different response type
-      final LookupAndSendingResult aResult = ApiPostLookupAndSendIt2.perform (aMessage.getReceiverID (),
-                                                                              aMessage.getSenderID (),
-                                                                              aMessage.getDocumentTypeID (),
-                                                                              DcngConfig.getIdentifierFactory ()
-                                                                                        .createProcessIdentifier (DcngIdentifierFactory.PROCESS_SCHEME,
-                                                                                                                  "response"),
-                                                                              EMEProtocol.AS4.getTransportProfileID (),
-                                                                              aPayload);
-      LOGGER.info ("Sending result:\n" +
-                   aResult.getAsJson ().getAsJsonString (JsonWriterSettings.DEFAULT_SETTINGS_FORMATTED));
-    });
-    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+    this (DcngConfig.getConfig ().getAsLong ("de4a.mockdo.response.latency-ms", DEFAULT_RESPONSE_LATENCY_MS),
+          StringParser.parseDouble (DcngConfig.getConfig ().getAsString ("de4a.mockdo.response.error-rate"),
+                                    DEFAULT_RESPONSE_ERROR_RATE),
+          DcngConfig.getConfig ().getAsBoolean ("de4a.mockdo.response.cache", DEFAULT_RESPONSE_CACHE));
   }
 
-  @SuppressWarnings ("unused")
-  @Nonnull
-  private static ESuccess _handleDBARequest (@Nonnull final MEMessage aMessage, @Nonnull final Document aDoc)
+  /**
+   * Constructor
+   *
+   * @param nResponseLatencyMS
+   *        The milliseconds to wait before sending the response. Must be
+   *        &ge; 0.
+   * @param dResponseErrorRate
+   *        The share of requests that are answered with an error. Must be
+   *        between 0 and 1.
+   * @param bResponseCache
+   *        <code>true</code> to create each distinct response only once and
+   *        only replace the request ID and the timestamp afterwards.
+   */
+  public MockDO (@Nonnegative final long nResponseLatencyMS,
+                 final double dResponseErrorRate,
+                 final boolean bResponseCache)
   {
-    LOGGER.info ("Handling as DBA request");
+    ValueEnforcer.isGE0 (nResponseLatencyMS, "ResponseLatencyMS");
+    ValueEnforcer.isBetweenInclusive (dResponseErrorRate, "ResponseErrorRate", 0d, 1d);
+    m_nResponseLatencyMS = nResponseLatencyMS;
+    m_dResponseErrorRate = dResponseErrorRate;
+    m_bResponseCache = bResponseCache;
+    // Only schedules - the sending itself happens in the send executor
+    m_aScheduler = new ScheduledThreadPoolExecutor (1,
+                                                    new BasicThreadFactory.Builder ().namingPattern ("dcng-mockdo-%d")
+                                                                                     .daemon (true)
+                                                                                     .build ());
+    // Pending responses are dropped on shutdown
+    m_aScheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy (false);
+    LOGGER.info ("Mock DO responds after " +
+                 nResponseLatencyMS +
+                 " ms with an error rate of " +
+                 dResponseErrorRate +
+                 (bResponseCache ? " using cached responses" : ""));
+  }
+
+  private void _sendResponseDelayed (@Nonnull final MEMessage aMessage, @Nonnull final byte [] aBytes)
+  {
+    // Ensure sync response is received first
+    m_aScheduler.schedule ( () -> {
+      final CompletableFuture <Object> aFuture = DcngSendExecutor.submit ( () -> {
+        // Start new transmission
+        final DCNGPayload aPayload = new DCNGPayload ();
+        aPayload.setValue (aBytes);
+        aPayload.setMimeType (CMimeType.APPLICATION_XML.getAsString ());
+        aPayload.setContentID ("ResponseTransferEvidence");
+
+        // Swap sender and receiver
+        // Different response type
+        final LookupAndSendingResult aResult = ApiPostLookupAndSendIt2.perform (aMessage.getReceiverID (),
+                                                                                aMessage.getSenderID (),
+                                                                                aMessage.getDocumentTypeID (),
+                                                                                DcngConfig.getIdentifierFactory ()
+                                                                                          .createProcessIdentifier (DcngIdentifierFactory.PROCESS_SCHEME,
+                                                                                                                    "response"),
+                                                                                EMEProtocol.AS4.getTransportProfileID (),
+                                                                                aPayload);
+        LOGGER.info ("Sending result:\n" +
+                     aResult.getAsJson ().getAsJsonString (JsonWriterSettings.DEFAULT_SETTINGS_FORMATTED));
+        return null;
+      });
+      if (DcngSendExecutor.isRejected (aFuture))
+      {
+        // No retry - the mock response is lost
+        DE4AKafkaClient.send (EErrorLevel.ERROR,
+                              () -> "Mock DO response to '" +
+                                    aMessage.getSenderID ().getURIEncoded () +
+                                    "' was rejected by the send executor");
+      }
+      else
+      {
+        aFuture.whenComplete ( (r, ex) -> {
+          if (ex != null)
+            DE4AKafkaClient.send (EErrorLevel.ERROR,
+                                  () -> "Failed to send Mock DO response to '" +
+                                        aMessage.getSenderID ().getURIEncoded () +
+                                        "'",
+                                  ex instanceof CompletionException ? ex.getCause () : ex);
+        });
+      }
+    }, m_nResponseLatencyMS, TimeUnit.MILLISECONDS);
+  }
+
+  private boolean _isSimulatedError ()
+  {
+    return m_dResponseErrorRate > 0 && ThreadLocalRandom.current ().nextDouble () < m_dResponseErrorRate;
+  }
 
+  @SuppressWarnings ("unused")
+  @Nullable
+  private static byte [] _createDBAResponse (@Nonnull final Document aDoc, final boolean bDOError)
+  {
     final RequestTransferEvidenceUSIIMDRType aRequest = DE4AMarshaller.drImRequestMarshaller ().read (aDoc);
     if (aRequest == null)
     {
       DE4AKafkaClient.send (EErrorLevel.ERROR, "Passed request ist not a valid IM request");
-      return ESuccess.FAILURE;
+      return null;
     }
 
     final String sExampleRequest = "<RequestTransferEvidence xmlns=\"http://www.de4a.eu/2020/data/requestor/pattern/intermediate\"\r\n" +
@@ -150,7 +251,7 @@ public final class MockDO implements IMEIncomingHandler
     if (aCompany == null)
     {
       DE4AKafkaClient.send (EErrorLevel.ERROR, "No DRS company found");
-      return ESuccess.FAILURE;
+      return null;
     }
 
     if (!"urn:de4a-eu:CanonicalEvidenceType::CompanyRegistration".equals (aRequest.getCanonicalEvidenceTypeId ()))
@@ -159,7 +260,7 @@ public final class MockDO implements IMEIncomingHandler
                             "The CanonicalEvidenceType '" +
                                                aRequest.getCanonicalEvidenceTypeId () +
                                                "' is not supported");
-      return ESuccess.FAILURE;
+      return null;
     }
 
     final String sExampleResponse = "<ResponseTransferEvidence xmlns=\"http://www.de4a.eu/2020/data/requestor/pattern/intermediate\"\r\n" +
@@ -224,7 +325,7 @@ public final class MockDO implements IMEIncomingHandler
 
     final ResponseTransferEvidenceType aResponse = DE4AResponseDocumentHelper.createResponseTransferEvidence (aRequest);
 
-    if (!DO_ACTIVE.get ())
+    if (bDOError)
     {
       // TODO error message
       DE4AKafkaClient.send (EErrorLevel.ERROR, "We cannot reach our DO - oooooohhhhh :(");
@@ -297,15 +398,88 @@ public final class MockDO implements IMEIncomingHandler
     final DE4AMarshaller <ResponseTransferEvidenceType> aMarshaller = DE4AMarshaller.drImResponseMarshaller (EDE4ACanonicalEvidenceType.T42_COMPANY_INFO_V06);
     LOGGER.info ("Message to be send back:\n" + aMarshaller.setFormattedOutput (true).getAsString (aResponse));
 
-    _waitAndRunAsync (aMessage, aMarshaller.getAsBytes (aResponse));
+    return aMarshaller.getAsBytes (aResponse);
+  }
+
+  @Nullable
+  private static String _getChildText (@Nullable final Element aParent,
+                                       @Nonnull final String sNamespaceURI,
+                                       @Nonnull final String sLocalName)
+  {
+    final Element aChild = XMLHelper.getFirstChildElementOfName (aParent, sNamespaceURI, sLocalName);
+    return aChild == null ? null : aChild.getTextContent ();
+  }
+
+  /**
+   * Get the response from a cached template. The cache key is built from the
+   * request DOM, and the full response is only created and serialized on a
+   * cache miss.
+   */
+  @Nullable
+  private byte [] _getCachedDBAResponse (@Nonnull final Document aDoc, final boolean bDOError)
+  {
+    final Element aRoot = aDoc.getDocumentElement ();
+    final String sRequestID = _getChildText (aRoot, NS_DE4A, "RequestId");
+    final String sCanonicalEvidenceTypeID = _getChildText (aRoot, NS_DE4A, "CanonicalEvidenceTypeId");
+    final String sDataEvaluator = _getChildText (XMLHelper.getFirstChildElementOfName (aRoot, NS_DE4A, "DataEvaluator"),
+                                                 NS_DE4A,
+                                                 "AgentUrn");
+    final String sDataOwner = _getChildText (XMLHelper.getFirstChildElementOfName (aRoot, NS_DE4A, "DataOwner"),
+                                             NS_DE4A,
+                                             "AgentUrn");
+    final Element aSubject = XMLHelper.getFirstChildElementOfName (aRoot, NS_DE4A, "DataRequestSubject");
+    final String sLegalPersonID = _getChildText (XMLHelper.getFirstChildElementOfName (aSubject,
+                                                                                       NS_DE4A,
+                                                                                       "DataSubjectCompany"),
+                                                 NS_DE4AID,
+                                                 "LegalPersonIdentifier");
+    if (sRequestID == null ||
+        sCanonicalEvidenceTypeID == null ||
+        sDataEvaluator == null ||
+        sDataOwner == null ||
+        sLegalPersonID == null)
+    {
+      // Let the full handling create the error messages
+      return _createDBAResponse (aDoc, bDOError);
+    }
 
+    final String sKey = MockDOResponseTemplate.getCacheKey (aRoot, bDOError);
+    final MockDOResponseTemplate aTemplate = m_aResponseTemplates.get (sKey);
+    if (aTemplate != null)
+      return aTemplate.getPatched (sRequestID,
+                                   DateTimeFormatter.ISO_OFFSET_DATE_TIME.format (PDTFactory.getCurrentZonedDateTimeUTC ()));
+
+    // Cache miss - the new response already contains the right values
+    final byte [] ret = _createDBAResponse (aDoc, bDOError);
+    if (ret != null && m_aResponseTemplates.size () < MAX_RESPONSE_TEMPLATES)
+    {
+      final MockDOResponseTemplate aNewTemplate = MockDOResponseTemplate.create (ret);
+      if (aNewTemplate != null)
+        m_aResponseTemplates.putIfAbsent (sKey, aNewTemplate);
+    }
+    return ret;
+  }
+
+  @Nonnull
+  private ESuccess _handleDBARequest (@Nonnull final MEMessage aMessage, @Nonnull final Document aDoc)
+  {
+    LOGGER.info ("Handling as DBA request");
+
+    // A simulated error looks like an unreachable DO
+    final boolean bDOError = !DO_ACTIVE.get () || _isSimulatedError ();
+    final byte [] aResponseBytes = m_bResponseCache ? _getCachedDBAResponse (aDoc, bDOError)
+                                                    : _createDBAResponse (aDoc, bDOError);
+    if (aResponseBytes == null)
+      return ESuccess.FAILURE;
+
+    _sendResponseDelayed (aMessage, aResponseBytes);
     return ESuccess.SUCCESS;
   }
 
-  private static void _handleXML (@Nonnull final MEMessage aMessage,
-                                  @Nullable final String sNamespaceURL,
-                                  @Nullable final String sLocalName,
-                                  @Nonnull final Document aDoc)
+  private void _handleXML (@Nonnull final MEMessage aMessage,
+                           @Nullable final String sNamespaceURL,
+                           @Nullable final String sLocalName,
+                           @Nonnull final Document aDoc)
   {
     boolean bHandled = false;
 
@@ -334,7 +508,7 @@ public final class MockDO implements IMEIncomingHandler
     }
   }
 
-  static void handleIncomingRequest (@Nonnull final MEMessage aMessage, @Nonnull final ByteArrayWrapper aBytes)
+  void handleIncomingRequest (@Nonnull final MEMessage aMessage, @Nonnull final ByteArrayWrapper aBytes)
   {
     LOGGER.info ("Now trying to read the message as XML");
     final Document aDoc = DOMReader.readXMLDOM (aBytes.bytes (), aBytes.getOffset (), aBytes.size ());
@@ -373,4 +547,9 @@ public final class MockDO implements IMEIncomingHandler
       handleIncomingRequest (aMessage, p);
     }
   }
+
+  public void close ()
+  {
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aScheduler);
+  }
 }
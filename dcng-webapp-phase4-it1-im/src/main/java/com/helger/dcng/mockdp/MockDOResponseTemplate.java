@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.mockdp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.StringHelper;
+import com.helger.xml.XMLHelper;
+
+/**
+ * A serialized response, in which only the request ID and the timestamp are
+ * replaced for each request. All other values of the request are part of the
+ * cache key, see {@link #getCacheKey(Element, boolean)}.
+ *
+ * @author Philip Helger
+ * @since 0.2.16
+ */
+@Immutable
+final class MockDOResponseTemplate
+{
+  private static final String NS_DE4A = "http://www.de4a.eu/2020/commons/type";
+  // The first element with that local name - the content is replaced
+  private static final Pattern REQUEST_ID = Pattern.compile ("(<(?:[\\w.-]+:)?RequestId>)[^<]*(</)");
+  private static final Pattern TIMESTAMP = Pattern.compile ("(<(?:[\\w.-]+:)?TimeStamp>)[^<]*(</)");
+
+  private final String m_sBeforeRequestID;
+  private final String m_sBeforeTimestamp;
+  private final String m_sAfterTimestamp;
+
+  private MockDOResponseTemplate (@Nonnull final String sBeforeRequestID,
+                                  @Nonnull final String sBeforeTimestamp,
+                                  @Nonnull final String sAfterTimestamp)
+  {
+    m_sBeforeRequestID = sBeforeRequestID;
+    m_sBeforeTimestamp = sBeforeTimestamp;
+    m_sAfterTimestamp = sAfterTimestamp;
+  }
+
+  @Nonnull
+  private static String _getMasked (@Nonnull final String s)
+  {
+    return StringHelper.replaceMultiple (s, new char [] { '&', '<', '>' }, new char [] [] { "&amp;".toCharArray (),
+                                                                                            "&lt;".toCharArray (),
+                                                                                            "&gt;".toCharArray () });
+  }
+
+  /**
+   * Create the response for a new request.
+   *
+   * @param sRequestID
+   *        The request ID to use. May not be <code>null</code>.
+   * @param sTimestamp
+   *        The timestamp in XML Schema dateTime format. May not be
+   *        <code>null</code>.
+   * @return The serialized response in UTF-8. Never <code>null</code>.
+   */
+  @Nonnull
+  byte [] getPatched (@Nonnull final String sRequestID, @Nonnull final String sTimestamp)
+  {
+    ValueEnforcer.notNull (sRequestID, "RequestID");
+    ValueEnforcer.notNull (sTimestamp, "Timestamp");
+
+    final StringBuilder aSB = new StringBuilder (m_sBeforeRequestID.length () +
+                                                 m_sBeforeTimestamp.length () +
+                                                 m_sAfterTimestamp.length () +
+                                                 64);
+    aSB.append (m_sBeforeRequestID)
+       .append (_getMasked (sRequestID))
+       .append (m_sBeforeTimestamp)
+       .append (_getMasked (sTimestamp))
+       .append (m_sAfterTimestamp);
+    return aSB.toString ().getBytes (StandardCharsets.UTF_8);
+  }
+
+  private static void _appendKey (@Nonnull final StringBuilder aSB, @Nonnull final Element aElement)
+  {
+    // Length prefixes make the key unambiguous
+    final String sName = aElement.getLocalName ();
+    aSB.append ('<').append (sName.length ()).append (':').append (sName);
+    final NamedNodeMap aAttrs = aElement.getAttributes ();
+    for (int i = 0; i < aAttrs.getLength (); ++i)
+    {
+      final String sAttr = aAttrs.item (i).getNodeName () + '=' + aAttrs.item (i).getNodeValue ();
+      aSB.append ('@').append (sAttr.length ()).append (':').append (sAttr);
+    }
+    boolean bHasChildElement = false;
+    for (final Element aChild : XMLHelper.getChildElementIterator (aElement))
+    {
+      bHasChildElement = true;
+      _appendKey (aSB, aChild);
+    }
+    if (!bHasChildElement)
+    {
+      final String sText = aElement.getTextContent ();
+      aSB.append ('=').append (sText.length ()).append (':').append (sText);
+    }
+    aSB.append ('>');
+  }
+
+  /**
+   * Get the key of the template for a request. Values of the request are
+   * copied into the response, so all of them are part of the key, except the
+   * request ID and the timestamp, that are replaced per request.
+   *
+   * @param aRequestRoot
+   *        The root element of the request. May not be <code>null</code>.
+   * @param bDOError
+   *        <code>true</code> if an error response is created.
+   * @return The cache key. Never <code>null</code>.
+   */
+  @Nonnull
+  static String getCacheKey (@Nonnull final Element aRequestRoot, final boolean bDOError)
+  {
+    ValueEnforcer.notNull (aRequestRoot, "RequestRoot");
+
+    final StringBuilder aSB = new StringBuilder (1024).append (bDOError);
+    for (final Element aChild : XMLHelper.getChildElementIterator (aRequestRoot))
+      if (!NS_DE4A.equals (aChild.getNamespaceURI ()) ||
+          (!"RequestId".equals (aChild.getLocalName ()) && !"TimeStamp".equals (aChild.getLocalName ())))
+        _appendKey (aSB, aChild);
+    return aSB.toString ();
+  }
+
+  /**
+   * Create a template from a serialized response.
+   *
+   * @param aResponse
+   *        The UTF-8 serialized response. May not be <code>null</code>.
+   * @return <code>null</code> if the response contains no request ID followed
+   *         by a timestamp.
+   */
+  @Nullable
+  static MockDOResponseTemplate create (@Nonnull final byte [] aResponse)
+  {
+    ValueEnforcer.notNull (aResponse, "Response");
+
+    final String sResponse = new String (aResponse, StandardCharsets.UTF_8);
+    final Matcher aRequestID = REQUEST_ID.matcher (sResponse);
+    if (!aRequestID.find ())
+      return null;
+    final Matcher aTimestamp = TIMESTAMP.matcher (sResponse);
+    if (!aTimestamp.find (aRequestID.end ()))
+      return null;
+
+    return new MockDOResponseTemplate (sResponse.substring (0, aRequestID.end (1)),
+                                       sResponse.substring (aRequestID.start (2), aTimestamp.end (1)),
+                                       sResponse.substring (aTimestamp.start (2)));
+  }
+}
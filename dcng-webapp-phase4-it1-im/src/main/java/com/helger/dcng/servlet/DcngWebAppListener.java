@@ -37,6 +37,8 @@ import com.helger.photon.security.login.LoggedInUserManager;
  */
 public class DcngWebAppListener extends WebAppListener
 {
+  private MockDO m_aMockDO;
+
   public DcngWebAppListener ()
   {
     setHandleStatisticsOnEnd (false);
@@ -72,7 +74,8 @@ public class DcngWebAppListener extends WebAppListener
   protected void afterContextInitialized (final ServletContext aSC)
   {
     // Use default handler
-    DcngInit.initGlobally (aSC, new MockDO ());
+    m_aMockDO = new MockDO ();
+    DcngInit.initGlobally (aSC, m_aMockDO);
 
     // Don't write audit logs
     AuditHelper.setAuditor (new DoNothingAuditor (LoggedInUserManager.getInstance ()));
@@ -87,6 +90,12 @@ public class DcngWebAppListener extends WebAppListener
   @Override
   protected void beforeContextDestroyed (final ServletContext aSC)
   {
+    // Stop the pending mock responses first
+    if (m_aMockDO != null)
+    {
+      m_aMockDO.close ();
+      m_aMockDO = null;
+    }
     DcngInit.shutdownGlobally (aSC);
   }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2023, Partners of the EU funded DE4A project consortium
+ *   (https://www.de4a.eu/consortium), under Grant Agreement No.870635
+ * Author: Austrian Federal Computing Center (BRZ)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.dcng.mockdp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Test class for class {@link MockDOResponseTemplate}.
+ *
+ * @author Philip Helger
+ */
+public final class MockDOResponseTemplateTest
+{
+  private static final String RESPONSE = "<ResponseTransferEvidence xmlns:de4a='urn:de4a'>" +
+                                         "<de4a:RequestId>old-id</de4a:RequestId>" +
+                                         "<de4a:SpecificationId>SpecificationId</de4a:SpecificationId>" +
+                                         "<de4a:TimeStamp>2021-09-06T17:02:12.129Z</de4a:TimeStamp>" +
+                                         "<de4a:ProcedureId>ProcedureId</de4a:ProcedureId>" +
+                                         "</ResponseTransferEvidence>";
+
+  @Test
+  public void testPatch ()
+  {
+    final MockDOResponseTemplate aTemplate = MockDOResponseTemplate.create (RESPONSE.getBytes (StandardCharsets.UTF_8));
+    assertNotNull (aTemplate);
+
+    final String sPatched = new String (aTemplate.getPatched ("new<id>", "2023-01-02T03:04:05Z"), StandardCharsets.UTF_8);
+    assertEquals ("<ResponseTransferEvidence xmlns:de4a='urn:de4a'>" +
+                  "<de4a:RequestId>new&lt;id&gt;</de4a:RequestId>" +
+                  "<de4a:SpecificationId>SpecificationId</de4a:SpecificationId>" +
+                  "<de4a:TimeStamp>2023-01-02T03:04:05Z</de4a:TimeStamp>" +
+                  "<de4a:ProcedureId>ProcedureId</de4a:ProcedureId>" +
+                  "</ResponseTransferEvidence>",
+                  sPatched);
+  }
+
+  @Test
+  public void testNoTemplate ()
+  {
+    assertNull (MockDOResponseTemplate.create ("<a/>".getBytes (StandardCharsets.UTF_8)));
+    // Timestamp before request ID
+    assertNull (MockDOResponseTemplate.create ("<a><TimeStamp>x</TimeStamp><RequestId>y</RequestId></a>".getBytes (StandardCharsets.UTF_8)));
+  }
+
+  @Nonnull
+  private static Element _request (final String sRequestID,
+                                   final String sTimestamp,
+                                   final String sSpecificationID,
+                                   final String sLegalName)
+  {
+    return DOMReader.readXMLDOM ("<RequestTransferEvidence xmlns:de4a='http://www.de4a.eu/2020/commons/type'" +
+                                 " xmlns:de4aid='http://www.de4a.eu/2020/commons/identity/type'>" +
+                                 "<de4a:RequestId>" +
+                                 sRequestID +
+                                 "</de4a:RequestId>" +
+                                 "<de4a:SpecificationId>" +
+                                 sSpecificationID +
+                                 "</de4a:SpecificationId>" +
+                                 "<de4a:TimeStamp>" +
+                                 sTimestamp +
+                                 "</de4a:TimeStamp>" +
+                                 "<de4a:ProcedureId>ProcedureId</de4a:ProcedureId>" +
+                                 "<de4a:DataRequestSubject><de4a:DataSubjectCompany>" +
+                                 "<de4aid:LegalPersonIdentifier>AT/NL/???</de4aid:LegalPersonIdentifier>" +
+                                 "<de4aid:LegalName>" +
+                                 sLegalName +
+                                 "</de4aid:LegalName>" +
+                                 "</de4a:DataSubjectCompany></de4a:DataRequestSubject>" +
+                                 "</RequestTransferEvidence>")
+                    .getDocumentElement ();
+  }
+
+  @Test
+  public void testCacheKey ()
+  {
+    final String sKey = MockDOResponseTemplate.getCacheKey (_request ("id1", "2021-01-01T00:00:00Z", "Spec", "Name"),
+                                                            false);
+    // Request ID and timestamp are replaced per request
+    assertEquals (sKey,
+                  MockDOResponseTemplate.getCacheKey (_request ("id2", "2022-01-01T00:00:00Z", "Spec", "Name"), false));
+
+    // All other values are copied into the response
+    assertNotEquals (sKey,
+                     MockDOResponseTemplate.getCacheKey (_request ("id1", "2021-01-01T00:00:00Z", "Spec2", "Name"),
+                                                         false));
+    assertNotEquals (sKey,
+                     MockDOResponseTemplate.getCacheKey (_request ("id1", "2021-01-01T00:00:00Z", "Spec", "Name2"),
+                                                         false));
+    assertNotEquals (sKey,
+                     MockDOResponseTemplate.getCacheKey (_request ("id1", "2021-01-01T00:00:00Z", "Spec", "Name"),
+                                                         true));
+  }
+}